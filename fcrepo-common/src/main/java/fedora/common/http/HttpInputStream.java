@@ -161,6 +161,15 @@ public class HttpInputStream
         return m_in.markSupported();
     }
 
+    /**
+     * Abort the request, closing the underlying http connection without
+     * reading the rest of the response, and close the InputStream.
+     */
+    public void abort() throws IOException {
+        m_method.abort();
+        close();
+    }
+
     /**
      * Release the underlying http connection and close the InputStream.
      */
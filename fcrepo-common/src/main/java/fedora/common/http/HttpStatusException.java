@@ -0,0 +1,30 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also 
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.common.http;
+
+import java.io.IOException;
+
+/**
+ * Signals that an HTTP request completed with an unexpected status code.
+ */
+public class HttpStatusException
+        extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int m_statusCode;
+
+    public HttpStatusException(int statusCode, String message) {
+        super(message);
+        m_statusCode = statusCode;
+    }
+
+    /**
+     * Get the http status code.
+     */
+    public int getStatusCode() {
+        return m_statusCode;
+    }
+}
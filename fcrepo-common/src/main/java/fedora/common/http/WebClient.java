@@ -11,7 +11,11 @@ import java.io.InputStreamReader;
 
 import java.net.URL;
 
+import java.util.Map;
+
+import org.apache.commons.httpclient.HostConfiguration;
 import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnectionManager;
 import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
@@ -78,6 +82,55 @@ public class WebClient {
         m_cManager.getParams().setSoTimeout(SOCKET_TIMEOUT_SECONDS * 1000);
     }
     
+    /**
+     * Sets the maximum number of connections per host, for hosts without a
+     * limit of their own.
+     */
+    public void setMaxConnectionsPerHost(int max) {
+        MAX_CONNECTIONS_PER_HOST = max;
+        m_cManager.getParams().setDefaultMaxConnectionsPerHost(max);
+    }
+
+    /**
+     * Sets the maximum number of connections to the host of the given URL,
+     * which must include the protocol, e.g. http://example.org:8080/.
+     * Connections are kept alive and reused between requests, up to this
+     * number.
+     */
+    public void setMaxConnectionsPerHost(String url, int max)
+            throws IOException {
+        URL u = new URL(url);
+        HostConfiguration host = new HostConfiguration();
+        host.setHost(u.getHost(), u.getPort(), u.getProtocol());
+        m_cManager.getParams().setMaxConnectionsPerHost(host, max);
+    }
+
+    /**
+     * Sets the maximum total number of connections.
+     */
+    public void setMaxTotalConnections(int max) {
+        MAX_TOTAL_CONNECTIONS = max;
+        m_cManager.getParams().setMaxTotalConnections(max);
+    }
+
+    /**
+     * Sets the connection and socket timeouts, in seconds.
+     */
+    public void setTimeouts(int connectionTimeoutSeconds,
+                            int socketTimeoutSeconds) {
+        TIMEOUT_SECONDS = connectionTimeoutSeconds;
+        SOCKET_TIMEOUT_SECONDS = socketTimeoutSeconds;
+        m_cManager.getParams().setConnectionTimeout(connectionTimeoutSeconds * 1000);
+        m_cManager.getParams().setSoTimeout(socketTimeoutSeconds * 1000);
+    }
+
+    /**
+     * Gets the connection manager shared by all clients of this WebClient.
+     */
+    public HttpConnectionManager getConnectionManager() {
+        return m_cManager;
+    }
+
     public HttpClient getHttpClient(String hostOrUrl) throws IOException {
         return getHttpClient(hostOrUrl, null);
     }
@@ -157,12 +210,27 @@ public class WebClient {
                                boolean failIfNotOK,
                                UsernamePasswordCredentials creds)
             throws IOException {
+        return get(url, failIfNotOK, creds, null);
+    }
+
+    /**
+     * Get an HTTP resource as above, sending the given request headers. If
+     * the headers make the request conditional (If-None-Match or
+     * If-Modified-Since), a 304 (Not Modified) response is considered OK.
+     * 
+     * @param requestHeaders
+     *        headers to send with the request, or null
+     * @throws HttpStatusException
+     *         if failIfNotOK is true and the request was unsuccessful
+     */
+    public HttpInputStream get(String url,
+                               boolean failIfNotOK,
+                               UsernamePasswordCredentials creds,
+                               Map<String, String> requestHeaders)
+            throws IOException {
 
         HttpClient client;
-        GetMethod getMethod = new GetMethod(url);
-        if (USER_AGENT != null) {
-            getMethod.setRequestHeader("User-Agent", USER_AGENT);
-        }
+        GetMethod getMethod = newGetMethod(url, requestHeaders);
         if (creds != null && creds.getUserName() != null
                 && creds.getUserName().length() > 0) {
             client = getHttpClient(url, creds);
@@ -173,8 +241,12 @@ public class WebClient {
 
         HttpInputStream in = new HttpInputStream(client, getMethod, url);
         int status = in.getStatusCode();
+        boolean conditional =
+                requestHeaders != null
+                        && (requestHeaders.containsKey("If-None-Match") || requestHeaders
+                                .containsKey("If-Modified-Since"));
         if (failIfNotOK) {
-            if (status != 200) {
+            if (status != 200 && !(status == 304 && conditional)) {
                 //if (followRedirects && in.getStatusCode() == 302){
                 if (FOLLOW_REDIRECTS && 300 <= status && status <= 399) {
                     int count = 1;
@@ -185,30 +257,34 @@ public class WebClient {
                         }
                         url = in.getResponseHeader("location").getValue();
                         in.close();
-                        getMethod = new GetMethod(url);
-                        if (USER_AGENT != null) {
-                            getMethod
-                                    .setRequestHeader("User-Agent", USER_AGENT);
-                        }
+                        getMethod = newGetMethod(url, requestHeaders);
                         in = new HttpInputStream(client, getMethod, url);
                         status = in.getStatusCode();
                         count++;
                     }
-                    if (300 <= status && status <= 399) {
+                    if (300 <= status && status <= 399
+                            && !(status == 304 && conditional)) {
                         in.close();
-                        throw new IOException("Too many redirects");
-                    } else if (status != 200) {
+                        throw new HttpStatusException(status,
+                                                      "Too many redirects");
+                    } else if (status != 200 && !(status == 304 && conditional)) {
                         in.close();
-                        throw new IOException("Request failed ["
-                                + in.getStatusCode() + " " + in.getStatusText()
-                                + "]");
+                        throw new HttpStatusException(status,
+                                                      "Request failed ["
+                                                              + in.getStatusCode()
+                                                              + " "
+                                                              + in.getStatusText()
+                                                              + "]");
                     }
                     // redirect was successful!
                 } else {
                     try {
-                        throw new IOException("Request failed ["
-                                + in.getStatusCode() + " " + in.getStatusText()
-                                + "]");
+                        throw new HttpStatusException(status,
+                                                      "Request failed ["
+                                                              + in.getStatusCode()
+                                                              + " "
+                                                              + in.getStatusText()
+                                                              + "]");
                     } finally {
                         try {
                             in.close();
@@ -223,6 +299,20 @@ public class WebClient {
         return in;
     }
 
+    private GetMethod newGetMethod(String url,
+                                   Map<String, String> requestHeaders) {
+        GetMethod getMethod = new GetMethod(url);
+        if (USER_AGENT != null) {
+            getMethod.setRequestHeader("User-Agent", USER_AGENT);
+        }
+        if (requestHeaders != null) {
+            for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+                getMethod.setRequestHeader(header.getKey(), header.getValue());
+            }
+        }
+        return getMethod;
+    }
+
     public String getResponseAsString(String url, boolean failIfNotOK)
             throws IOException {
         return getResponseAsString(url, failIfNotOK, null);
@@ -4,6 +4,7 @@
  */
 package fedora.test.api;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
@@ -15,20 +16,26 @@ import java.net.URLEncoder;
 
 import java.text.SimpleDateFormat;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
 import org.apache.commons.httpclient.methods.DeleteMethod;
 import org.apache.commons.httpclient.methods.EntityEnclosingMethod;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.PutMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
 import org.apache.commons.httpclient.methods.StringRequestEntity;
 import org.apache.commons.httpclient.methods.multipart.FilePart;
 import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
@@ -49,6 +56,7 @@ import fedora.server.types.gen.MIMETypedStream;
 import fedora.test.DemoObjectTestSetup;
 import fedora.test.FedoraServerTestCase;
 
+import static org.apache.commons.httpclient.HttpStatus.SC_BAD_REQUEST;
 import static org.apache.commons.httpclient.HttpStatus.SC_CREATED;
 import static org.apache.commons.httpclient.HttpStatus.SC_INTERNAL_SERVER_ERROR;
 import static org.apache.commons.httpclient.HttpStatus.SC_NOT_FOUND;
@@ -569,6 +577,27 @@ public class TestRESTAPI
         return pid;
     }
 
+    public void testBatchProfiles() throws Exception {
+        url = String.format("/objects/batch/profiles?pid=%s&pid=%s",
+                            pid.toString(),
+                            "demo:nonexistent");
+        assertEquals(SC_UNAUTHORIZED, get(false).getStatusCode());
+        HttpResponse response = get(true);
+        assertEquals(SC_OK, response.getStatusCode());
+
+        // objects are reported in the order requested
+        String objects = response.getResponseBodyString();
+        int found = objects.indexOf("<object pid=\"" + pid.toString() + "\">");
+        int notFound = objects.indexOf("<object pid=\"demo:nonexistent\">");
+        assertTrue(found >= 0 && notFound > found);
+        assertTrue(objects.indexOf("<objectProfile", found) < notFound);
+        assertTrue(objects.indexOf("<objectDatastreams", found) < notFound);
+        assertTrue(objects.indexOf("<error status=\"404\">", notFound) > 0);
+
+        url = "/objects/batch/profiles";
+        assertEquals(SC_BAD_REQUEST, get(true).getStatusCode());
+    }
+
     // API-M
     public void testIngest() throws Exception {
         // Create new empty object
@@ -636,6 +665,42 @@ public class TestRESTAPI
         assertEquals(SC_NO_CONTENT, delete(true).getStatusCode());
     }
 
+    public void testBatchIngest() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(bytes);
+        zip.putNextEntry(new ZipEntry("min1.xml"));
+        zip.write(DEMO_MIN.getBytes("UTF-8"));
+        zip.putNextEntry(new ZipEntry("min2.xml"));
+        zip.write(DEMO_MIN.getBytes("UTF-8"));
+        zip.putNextEntry(new ZipEntry("bad.xml"));
+        zip.write("<notFoxml/>".getBytes("UTF-8"));
+        zip.close();
+        RequestEntity archive =
+                new ByteArrayRequestEntity(bytes.toByteArray(),
+                                           "application/zip");
+
+        url = "/objects/batch/ingest?newPid=true&threads=2";
+        assertEquals(SC_UNAUTHORIZED, post(archive, false).getStatusCode());
+        HttpResponse response = post(archive, true);
+        assertEquals(SC_OK, response.getStatusCode());
+
+        // each object is reported on its own
+        String report = response.getResponseBodyString();
+        List<String> pids = new ArrayList<String>();
+        Matcher m = Pattern.compile("pid=\"([^\"]+)\"").matcher(report);
+        while (m.find()) {
+            pids.add(m.group(1));
+        }
+        assertEquals(2, pids.size());
+        assertTrue(report.contains("entry=\"bad.xml\"><error>"));
+
+        for (String ingested : pids) {
+            url = String.format("/objects/%s", ingested);
+            assertEquals(SC_OK, get(true).getStatusCode());
+            assertEquals(SC_NO_CONTENT, delete(true).getStatusCode());
+        }
+    }
+
     public void testModifyObject() throws Exception {
         url = String.format("/objects/%s?label=%s", pid.toString(), "foo");
         assertEquals(SC_UNAUTHORIZED, put("", false).getStatusCode());
@@ -1076,6 +1141,11 @@ public class TestRESTAPI
         return putOrPost("POST", requestContent, authenticate);
     }
 
+    protected HttpResponse post(RequestEntity requestContent,
+                                boolean authenticate) throws Exception {
+        return putOrPost("POST", requestContent, authenticate);
+    }
+
     protected HttpResponse put(File requestContent, boolean authenticate)
             throws Exception {
         return putOrPost("PUT", requestContent, authenticate);
@@ -1152,8 +1222,10 @@ public class TestRESTAPI
                             .setRequestEntity(new MultipartRequestEntity(parts,
                                                                          httpMethod
                                                                                  .getParams()));
+                } else if (requestContent instanceof RequestEntity) {
+                    httpMethod.setRequestEntity((RequestEntity) requestContent);
                 } else {
-                    throw new IllegalArgumentException("requestContent must be a String or File");
+                    throw new IllegalArgumentException("requestContent must be a String, File or RequestEntity");
                 }
             }
             getClient(authenticate).executeMethod(httpMethod);
@@ -62,6 +62,15 @@ import com.sun.xacml.attr.BagAttribute;
 import com.sun.xacml.cond.EvaluationResult;
 
 /**
+ * A PolicyDataManager that keeps its policies as files in a directory.
+ * <p>
+ * All policies are held in memory, together with a {@link PolicyIndex} over
+ * the attributes named in the indexMap section of config-pdm-file.xml, so
+ * {@link #getPolicies(EvaluationCtx)} only returns the policies whose targets
+ * may apply to the request. The directory is checked for added, modified and
+ * removed files at most once per reload interval (see the reload element of
+ * the configuration), and only those files are re-read and re-indexed.
+ * 
  * @author nishen@melcoe.mq.edu.au
  */
 public class FilePolicyDataManager
@@ -83,29 +92,41 @@ public class FilePolicyDataManager
 
     private SimpleDateFormat timestampFormat = null;
 
-    private Map<String, byte[]> policies = null;
+    private final Map<String, byte[]> policies =
+            new ConcurrentHashMap<String, byte[]>();
 
-    private final Map<String, String> policyFiles = null;
+    private final Map<String, String> policyFiles =
+            new ConcurrentHashMap<String, String>();
+
+    // the state of each policy file when it was last read, by filename
+    private final Map<String, PolicyFile> fileStates =
+            new HashMap<String, PolicyFile>();
 
     private Map<String, Map<String, String>> indexMap = null;
 
-    private long lastUpdate;
+    private PolicyIndex policyIndex = null;
+
+    private long reloadInterval = 5000;
+
+    private volatile long lastCheck;
+
+    private volatile long lastUpdate;
 
     /**
-     * The default constructor for DbXmlPolicyDataManager. This constructor
-     * reads the configuration file, 'config-dbxml.xml' and initialises/creates
-     * the database as required based on that configuration. Any required
-     * indexes are automatically created.
+     * The default constructor for FilePolicyDataManager. This constructor
+     * reads the configuration file, 'config-pdm-file.xml', loads the policies
+     * from the configured directory and indexes them.
      * 
      * @throws PolicyDataManagerException
      */
     public FilePolicyDataManager()
             throws PolicyDataManagerException {
-        initConfig();
-        loadPolicies(DB_HOME);
-
         dbFactory = DocumentBuilderFactory.newInstance();
         dbFactory.setNamespaceAware(true);
+
+        initConfig();
+        policyIndex = new PolicyIndex(indexMap);
+        loadPolicies(DB_HOME);
     }
 
     /*
@@ -133,12 +154,13 @@ public class FilePolicyDataManager
                 out.write(bytes, 0, count);
                 count = fis.read(bytes);
             }
+            fis.close();
         } catch (IOException e) {
             throw new PolicyDataManagerException("Error reading file: "
                     + f.getName(), e);
         }
 
-        return addPolicy(name, out.toString());
+        return addPolicy(out.toString(), name);
     }
 
     /*
@@ -156,30 +178,36 @@ public class FilePolicyDataManager
      */
     public String addPolicy(String document, String name)
             throws PolicyDataManagerException {
-        InputStream dis = new ByteArrayInputStream(document.getBytes());
+        byte[] doc = document.getBytes();
         try {
             if (log.isDebugEnabled()) {
                 log.debug("validating document: " + name);
             }
-            Validator validator = validatorSchema.newValidator();
-            validator.validate(new StreamSource(dis));
+            validate(doc);
         } catch (Exception e) {
             throw new PolicyDataManagerException("Could not validate policy: "
                     + name, e);
         }
 
-        Map<String, String> dm = getDocumentMetadata(document.getBytes());
+        Map<String, String> dm = getDocumentMetadata(doc);
         String docName = dm.get("PolicyId");
 
-        String filename = DB_HOME + "/" + docName + ".xml";
-        filename = filename.replaceAll("[\\\\\\/\\*\\?\\:\\\"\\<\\>\\|]", "-");
+        String filename =
+                docName.replaceAll("[\\\\\\/\\*\\?\\:\\\"\\<\\>\\|]", "-")
+                        + ".xml";
+        File file = new File(DB_HOME, filename);
 
-        try {
-            DataFileUtils.saveDocument(filename, document.getBytes());
-            policies.put(docName, document.getBytes());
-        } catch (Exception e) {
-            throw new PolicyDataManagerException("Unable to save file: "
-                    + filename + " " + e.getMessage());
+        synchronized (this) {
+            try {
+                DataFileUtils.saveDocument(file.getAbsolutePath(), doc);
+            } catch (Exception e) {
+                throw new PolicyDataManagerException("Unable to save file: "
+                        + file.getAbsolutePath() + " " + e.getMessage());
+            }
+            policyIndex.add(docName, doc);
+            policies.put(docName, doc);
+            policyFiles.put(docName, filename);
+            fileStates.put(filename, new PolicyFile(docName, file));
         }
 
         setLastUpdate(System.currentTimeMillis());
@@ -200,16 +228,27 @@ public class FilePolicyDataManager
 
         File db_home = new File(DB_HOME);
 
-        String filename = policyFiles.get(name);
-        File policy = new File(db_home.getAbsolutePath() + "/" + filename);
-        String filenameTo = filename + "-" + timestampFormat.format(new Date());
-        File policyTo = new File(db_rcyl.getAbsolutePath() + "/" + filenameTo);
-        if (!policy.renameTo(policyTo)) {
-            return false;
+        synchronized (this) {
+            String filename = policyFiles.get(name);
+            if (filename == null) {
+                return false;
+            }
+            File policy = new File(db_home.getAbsolutePath() + "/" + filename);
+            String filenameTo =
+                    filename + "-" + timestampFormat.format(new Date());
+            File policyTo =
+                    new File(db_rcyl.getAbsolutePath() + "/" + filenameTo);
+            if (!policy.renameTo(policyTo)) {
+                return false;
+            }
+
+            policies.remove(name);
+            policyFiles.remove(name);
+            fileStates.remove(filename);
+            policyIndex.remove(name);
         }
 
-        policies.remove(name);
-        policyFiles.remove(name);
+        setLastUpdate(System.currentTimeMillis());
 
         return true;
     }
@@ -233,6 +272,7 @@ public class FilePolicyDataManager
      * @see melcoe.xacml.pdp.data.PolicyDataManager#getPolicy(java.lang.String)
      */
     public byte[] getPolicy(String name) throws PolicyDataManagerException {
+        reloadIfDue();
         return policies.get(name);
     }
 
@@ -243,64 +283,27 @@ public class FilePolicyDataManager
      */
     public Map<String, byte[]> getPolicies(EvaluationCtx eval)
             throws PolicyDataManagerException {
+        reloadIfDue();
+
+        Map<String, Set<AttributeBean>> attributeMap;
+        try {
+            attributeMap = getAttributeMap(eval);
+        } catch (URISyntaxException use) {
+            throw new PolicyDataManagerException("Error building query.", use);
+        }
+
         Map<String, byte[]> documents = new HashMap<String, byte[]>();
+        for (String policyId : policyIndex.getCandidates(attributeMap)) {
+            byte[] policy = policies.get(policyId);
+            if (policy != null) {
+                documents.put(policyId, policy);
+            }
+        }
 
-        /*
-         * try { // Get the query (query gets prepared if necesary) a =
-         * System.nanoTime(); Map<String, Set<AttributeBean>> attributeMap =
-         * getAttributeMap(eval); XmlQueryContext context =
-         * manager.createQueryContext();
-         * context.setDefaultCollection(CONTAINER); context.setNamespace("p",
-         * XACML20_POLICY_NS); context.setNamespace("m", METADATA_POLICY_NS); //
-         * Set all the bind variables in the query context String[] types = new
-         * String[] { "Subject", "Resource", "Action", "Environment" }; int
-         * resourceComponentCount = 0; for (int x = 0; x < types.length; x++) {
-         * String t = types[x]; int count = 0; for (AttributeBean bean :
-         * attributeMap.get(t.toLowerCase() + "Attributes")) { if
-         * (bean.getId().equals(XACML_RESOURCE_ID)) {
-         * context.setVariableValue("XacmlResourceId", new
-         * XmlValue(bean.getId())); // removed type to reduce query parsing
-         * time. // context.setVariableValue("XacmlResourceType", new
-         * XmlValue(bean.getType())); for (String value : bean.getValues()) {
-         * String[] components = makeComponents(value); if (components != null)
-         * { int resourceComponents = components.length; for (int c = 0; c <
-         * resourceComponents; c++, resourceComponentCount++) { XmlValue
-         * component = new XmlValue(components[c]);
-         * context.setVariableValue("XacmlResourceIdValue" +
-         * resourceComponentCount, component); if (log.isDebugEnabled())
-         * log.debug("XacmlResourceIdValue" + resourceComponentCount + ": " +
-         * components[c]); } } else {
-         * context.setVariableValue("XacmlResourceIdValue" +
-         * resourceComponentCount, new XmlValue(value));
-         * resourceComponentCount++; if (log.isDebugEnabled())
-         * log.debug("XacmlResourceIdValue" + resourceComponentCount + ": " +
-         * value); } } } else { context.setVariableValue(t + "Id" + count, new
-         * XmlValue(bean.getId())); // removed type to reduce query parsing time
-         * // context.setVariableValue(t + "Type" + count, new
-         * XmlValue(bean.getType())); if (log.isDebugEnabled()) log.debug(t +
-         * "Id" + count + " = '" + bean.getId() + "'"); int valueCount = 0; for
-         * (String value : bean.getValues()) { context.setVariableValue(t + "Id"
-         * + count + "-Value" + valueCount, new XmlValue(value)); if
-         * (log.isDebugEnabled()) log.debug(t + "Id" + count + "-Value" +
-         * valueCount + " = '" + value + "'"); valueCount++; } count++; } } }
-         * XmlQueryExpression qe = getQuery(attributeMap, context,
-         * resourceComponentCount); b = System.nanoTime(); total += (b - a); if
-         * (log.isDebugEnabled()) log.debug("Query prep. time: " + (b - a) +
-         * "ns"); // execute the query a = System.nanoTime(); XmlResults results
-         * = qe.execute(context); b = System.nanoTime(); total += (b - a); if
-         * (log.isDebugEnabled()) log.debug("Query exec. time: " + (b - a) +
-         * "ns"); // process results while (results.hasNext()) { XmlValue value
-         * = results.next(); if (log.isDebugEnabled())
-         * log.debug("Retrieved Document: " + value.asDocument().getName());
-         * documents.put(value.asDocument().getName(),
-         * value.asDocument().getContent()); } results.delete(); if
-         * (log.isDebugEnabled()) log.debug("Total exec. time: " + total +
-         * "ns"); } catch (XmlException xe) { throw new
-         * PolicyDataManagerException
-         * ("Error getting policies from PolicyDataManager.", xe); } catch
-         * (URISyntaxException use) { throw new
-         * PolicyDataManagerException("Error building query.", use); }
-         */
+        if (log.isDebugEnabled()) {
+            log.debug("Candidate policies: " + documents.size() + " of "
+                    + policies.size());
+        }
 
         return documents;
     }
@@ -310,6 +313,7 @@ public class FilePolicyDataManager
      * @see melcoe.xacml.pdp.data.PolicyDataManager#listPolicies()
      */
     public List<String> listPolicies() throws PolicyDataManagerException {
+        reloadIfDue();
         return new ArrayList<String>(policies.keySet());
     }
 
@@ -325,46 +329,15 @@ public class FilePolicyDataManager
             throw new PolicyDataManagerException("attribute array cannot be null or zero length");
         }
 
+        reloadIfDue();
+
         Map<String, byte[]> documents = new TreeMap<String, byte[]>();
-        /*
-         * try { a = System.nanoTime(); XmlQueryContext context =
-         * manager.createQueryContext();
-         * context.setDefaultCollection(CONTAINER); context.setNamespace("p",
-         * XACML20_POLICY_NS); context.setNamespace("m", METADATA_POLICY_NS);
-         * for (int x = 0; attributes.length < 0; x++) {
-         * context.setVariableValue("id" + x, new
-         * XmlValue(attributes[x].getId())); // context.setVariableValue("type"
-         * + x, new // XmlValue(attributes[x].getType()));
-         * //context.setVariableValue("value" + x, new
-         * XmlValue(attributes[x].getValue())); } if
-         * (searchQueries[attributes.length] == null) { StringBuilder sb = new
-         * StringBuilder(); sb.append("for $doc in "); sb.append("collection('"
-         * + CONTAINER + "') ");
-         * sb.append("let $value := $doc//p:AttributeValue ");
-         * sb.append("let $id := $value/..//@AttributeId ");
-         * sb.append("where 1 = 1 "); for (int x = 0; x < attributes.length;
-         * x++) { sb.append("and $value = $value" + x + " ");
-         * sb.append("and $id = $id" + x + " "); } sb.append("return $doc");
-         * searchQueries[attributes.length] = manager.prepare(sb.toString(),
-         * context); } b = System.nanoTime(); total += (b - a); if
-         * (log.isDebugEnabled()) log.debug("Query prep. time: " + (b - a) +
-         * "ns"); a = System.nanoTime(); XmlResults results =
-         * searchQueries[attributes.length].execute(context); b =
-         * System.nanoTime(); total += (b - a); if (log.isDebugEnabled())
-         * log.debug("Search exec. time: " + (b - a) + "ns"); a =
-         * System.nanoTime(); while (results.hasNext()) { XmlValue value =
-         * results.next(); if (log.isDebugEnabled())
-         * log.debug("Found search result: " + value.asDocument().getName());
-         * documents.put(value.asDocument().getName(),
-         * value.asDocument().getContent()); } results.delete(); b =
-         * System.nanoTime(); total += (b - a); if (log.isDebugEnabled())
-         * log.debug("Result proc. time: " + (b - a) + "ns");
-         * log.info("Total time: " + total + "ns"); } catch (XmlException xe) {
-         * log.error("Exception during findPolicies: " + xe.getMessage(), xe);
-         * throw new
-         * PolicyDataManagerException("Exception during findPolicies: " +
-         * xe.getMessage(), xe); }
-         */
+        for (String policyId : policyIndex.findPolicies(attributes)) {
+            byte[] policy = policies.get(policyId);
+            if (policy != null) {
+                documents.put(policyId, policy);
+            }
+        }
 
         return documents;
     }
@@ -385,8 +358,6 @@ public class FilePolicyDataManager
         this.lastUpdate = lastUpdate;
     }
 
-    // TODO: maybe use this to create the indexes...?
-
     /**
      * Obtains the metadata for the given document.
      * 
@@ -593,35 +564,6 @@ public class FilePolicyDataManager
         return attributeMap;
     }
 
-    private String[] makeComponents(String resourceId) {
-        if (resourceId == null || resourceId.equals("")
-                || !resourceId.startsWith("/")) {
-            return null;
-        }
-
-        List<String> components = new ArrayList<String>();
-
-        String[] parts = resourceId.split("\\/");
-
-        for (int x = 1; x < parts.length; x++) {
-            StringBuilder sb = new StringBuilder();
-            for (int y = 0; y < x; y++) {
-                sb.append("/");
-                sb.append(parts[y + 1]);
-            }
-
-            components.add(sb.toString());
-
-            if (x != parts.length - 1) {
-                components.add(sb.toString() + "/.*");
-            } else {
-                components.add(sb.toString() + "$");
-            }
-        }
-
-        return components.toArray(new String[components.size()]);
-    }
-
     /**
      * Reads a configuration file and initialises the instance based on that
      * information.
@@ -676,7 +618,7 @@ public class FilePolicyDataManager
 
                     if (!db_rcyl.exists()) {
                         try {
-                            db_home.mkdirs();
+                            db_rcyl.mkdirs();
                         } catch (Exception e) {
                             throw new PolicyDataManagerException("Could not create DB recycle directory: "
                                     + db_rcyl.getAbsolutePath());
@@ -692,6 +634,20 @@ public class FilePolicyDataManager
                 }
             }
 
+            // get reload information
+            nodes = doc.getElementsByTagName("reload");
+            if (nodes.getLength() > 0) {
+                Node interval =
+                        nodes.item(0).getAttributes().getNamedItem("interval");
+                if (interval != null) {
+                    reloadInterval =
+                            Long.parseLong(interval.getNodeValue().trim());
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("[config] reload interval: " + reloadInterval);
+                }
+            }
+
             // get index map information
             String[] indexMapElements =
                     {"subjectAttributes", "resourceAttributes",
@@ -796,10 +752,32 @@ public class FilePolicyDataManager
         }
     }
 
-    private void loadPolicies(String policyDir)
+    /**
+     * Checks the policy directory for changes if the reload interval has
+     * passed since the last check.
+     * 
+     * @throws PolicyDataManagerException
+     */
+    private void reloadIfDue() throws PolicyDataManagerException {
+        if (reloadInterval <= 0
+                || System.currentTimeMillis() - lastCheck < reloadInterval) {
+            return;
+        }
+        loadPolicies(DB_HOME);
+    }
+
+    /**
+     * Reads, validates and indexes the policy files in the directory that
+     * are new or have changed since they were last read, and drops the
+     * policies whose files have been removed.
+     * 
+     * @param policyDir
+     *        the policy directory
+     * @throws PolicyDataManagerException
+     */
+    private synchronized void loadPolicies(String policyDir)
             throws PolicyDataManagerException {
-        Map<String, byte[]> policiesTmp =
-                new ConcurrentHashMap<String, byte[]>();
+        lastCheck = System.currentTimeMillis();
 
         File policyHome = new File(policyDir);
         if (!policyHome.exists()) {
@@ -807,22 +785,40 @@ public class FilePolicyDataManager
                     + policyHome.getAbsolutePath());
         }
 
+        boolean changed = false;
+        Set<String> seen = new HashSet<String>();
+
         File[] pf = policyHome.listFiles();
         for (File f : pf) {
             if (!f.getName().endsWith(".xml")) {
                 continue;
             }
 
+            seen.add(f.getName());
+            PolicyFile state = fileStates.get(f.getName());
+            if (state != null && state.isCurrent(f)) {
+                continue;
+            }
+
             try {
                 byte[] doc = DataFileUtils.loadFile(f);
+                validate(doc);
+
+                String policyId = getDocumentMetadata(doc).get("PolicyId");
+                if (state != null && !state.policyId.equals(policyId)) {
+                    removePolicy(state.policyId, f.getName());
+                }
 
-                InputStream docIS = new ByteArrayInputStream(doc);
-                Validator validator = validatorSchema.newValidator();
-                validator.validate(new StreamSource(docIS));
+                policyIndex.add(policyId, doc);
+                policies.put(policyId, doc);
+                policyFiles.put(policyId, f.getName());
+                fileStates.put(f.getName(), new PolicyFile(policyId, f));
+                changed = true;
 
-                Map<String, String> dm = getDocumentMetadata(doc);
-                policiesTmp.put(dm.get("PolicyId"), doc);
-                policyFiles.put(dm.get("PolicyId"), f.getName());
+                if (log.isDebugEnabled()) {
+                    log.debug("Loaded policy: " + policyId + " from "
+                            + f.getName());
+                }
             } catch (Exception e) {
                 log.error("Error loading document: " + f.getName());
                 log.error(e.getMessage());
@@ -832,25 +828,66 @@ public class FilePolicyDataManager
             }
         }
 
-        synchronized (policies) {
-            policies = policiesTmp;
+        Iterator<Map.Entry<String, PolicyFile>> i =
+                fileStates.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry<String, PolicyFile> entry = i.next();
+            if (!seen.contains(entry.getKey())) {
+                i.remove();
+                removePolicy(entry.getValue().policyId, entry.getKey());
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            setLastUpdate(System.currentTimeMillis());
+            log.info("Policies loaded: " + policies.size());
         }
     }
 
-    private Map<String, Map<String, String>> indexPolicy(byte[] policy) {
-        Map<String, Map<String, String>> indexes =
-                new HashMap<String, Map<String, String>>();
+    /**
+     * Removes a policy from memory and from the index, unless it has since
+     * been loaded from a different file.
+     */
+    private void removePolicy(String policyId, String filename) {
+        if (filename.equals(policyFiles.get(policyId))) {
+            policies.remove(policyId);
+            policyFiles.remove(policyId);
+            policyIndex.remove(policyId);
+            if (log.isDebugEnabled()) {
+                log.debug("Removed policy: " + policyId);
+            }
+        }
+    }
 
-        InputStream docIS = new ByteArrayInputStream(policy);
-        try {
-            DocumentBuilder docBuilder = dbFactory.newDocumentBuilder();
-            Document doc = docBuilder.parse(docIS);
+    private void validate(byte[] doc) throws Exception {
+        if (validatorSchema == null) {
+            return;
+        }
+        Validator validator = validatorSchema.newValidator();
+        validator.validate(new StreamSource(new ByteArrayInputStream(doc)));
+    }
 
-            NodeList nodes = doc.getElementsByTagNameNS(XACML20_POLICY_NS, "");
+    /**
+     * The modification time and size of a policy file when it was last read.
+     */
+    private static class PolicyFile {
 
-        } catch (Exception e) {
-            log.error(e.getMessage());
+        final String policyId;
+
+        final long lastModified;
+
+        final long length;
+
+        PolicyFile(String policyId, File file) {
+            this.policyId = policyId;
+            lastModified = file.lastModified();
+            length = file.length();
+        }
+
+        boolean isCurrent(File file) {
+            return file.lastModified() == lastModified
+                    && file.length() == length;
         }
-        return null;
     }
 }
@@ -0,0 +1,423 @@
+
+package melcoe.xacml.pdp.data;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import melcoe.xacml.util.AttributeBean;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * An in-memory index from the attribute values in policy targets to policy
+ * ids.
+ * <p>
+ * For each of the subject, resource and action sections of a policy's target,
+ * every Subject/Resource/Action element is indexed under the first of its
+ * equality matches on an attribute listed in the index map. Elements with no
+ * such match (and policies without the section at all) are recorded as
+ * matching anything. A lookup therefore returns a superset of the policies
+ * whose targets match the request; the exact match is still left to the
+ * policy itself.
+ * <p>
+ * Every attribute id and value found in a *Match element anywhere in a policy
+ * is also indexed, for {@link #findPolicies(AttributeBean[])}.
+ */
+public class PolicyIndex {
+
+    private static final String XACML20_POLICY_NS =
+            "urn:oasis:names:tc:xacml:2.0:policy:schema:os";
+
+    private static final String[] SECTIONS = {"Subject", "Resource", "Action"};
+
+    private final Map<String, Map<String, String>> indexMap;
+
+    private final DocumentBuilderFactory dbFactory;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** section -> attribute id -> value -> policy ids */
+    private final Map<String, Map<String, Map<String, Set<String>>>> targets =
+            new HashMap<String, Map<String, Map<String, Set<String>>>>();
+
+    /** section -> policy ids that match any value in that section */
+    private final Map<String, Set<String>> wildcards =
+            new HashMap<String, Set<String>>();
+
+    /** attribute id -> value -> policy ids, over the whole policy */
+    private final Map<String, Map<String, Set<String>>> attributes =
+            new HashMap<String, Map<String, Set<String>>>();
+
+    /** policy id -> the index keys it was added under, for removal */
+    private final Map<String, Set<Key>> keysByPolicy =
+            new HashMap<String, Set<Key>>();
+
+    /**
+     * @param indexMap
+     *        the attributes to index, as read from the indexMap section of
+     *        the configuration: a map from "subjectAttributes",
+     *        "resourceAttributes", etc. to maps of attribute id to type.
+     */
+    public PolicyIndex(Map<String, Map<String, String>> indexMap) {
+        this.indexMap = indexMap;
+        dbFactory = DocumentBuilderFactory.newInstance();
+        dbFactory.setNamespaceAware(true);
+        for (String section : SECTIONS) {
+            targets.put(section,
+                        new HashMap<String, Map<String, Set<String>>>());
+            wildcards.put(section, new HashSet<String>());
+        }
+    }
+
+    /**
+     * Indexes a policy, replacing any existing entries for the policy id.
+     *
+     * @param policyId
+     *        the policy id
+     * @param policy
+     *        the policy document
+     * @throws PolicyDataManagerException
+     *         if the policy could not be parsed
+     */
+    public void add(String policyId, byte[] policy)
+            throws PolicyDataManagerException {
+        Document doc;
+        try {
+            DocumentBuilder docBuilder = dbFactory.newDocumentBuilder();
+            doc = docBuilder.parse(new ByteArrayInputStream(policy));
+        } catch (Exception e) {
+            throw new PolicyDataManagerException("Could not index policy: "
+                    + policyId, e);
+        }
+
+        Set<Key> keys = new HashSet<Key>();
+        Element target = getChild(doc.getDocumentElement(), "Target");
+        for (String section : SECTIONS) {
+            Element sectionElement =
+                    target == null ? null : getChild(target, section + "s");
+            if (sectionElement == null) {
+                keys.add(new Key(section, null, null));
+                continue;
+            }
+            for (Element e : getChildren(sectionElement, section)) {
+                keys.add(getTargetKey(section, e));
+            }
+        }
+
+        NodeList nodes = doc.getElementsByTagNameNS(XACML20_POLICY_NS, "*");
+        for (int i = 0; i < nodes.getLength(); i++) {
+            Element e = (Element) nodes.item(i);
+            if (e.getLocalName().endsWith("Match")) {
+                String[] match = getMatch(e);
+                if (match != null) {
+                    keys.add(new Key(null, match[0], match[1]));
+                }
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            unindex(policyId);
+            for (Key key : keys) {
+                getPolicyIds(key, true).add(policyId);
+            }
+            keysByPolicy.put(policyId, keys);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a policy from the index.
+     *
+     * @param policyId
+     *        the policy id
+     */
+    public void remove(String policyId) {
+        lock.writeLock().lock();
+        try {
+            unindex(policyId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes all policies from the index.
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            for (String section : SECTIONS) {
+                targets.get(section).clear();
+                wildcards.get(section).clear();
+            }
+            attributes.clear();
+            keysByPolicy.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Obtains the ids of the policies whose targets may match a request with
+     * the given attributes.
+     *
+     * @param attributeMap
+     *        the request attributes for each category, keyed by
+     *        "subjectAttributes", "resourceAttributes", etc.
+     * @return the ids of the candidate policies
+     */
+    public Set<String> getCandidates(Map<String, Set<AttributeBean>> attributeMap) {
+        lock.readLock().lock();
+        try {
+            Set<String> result = null;
+            for (String section : SECTIONS) {
+                Set<String> candidates =
+                        new HashSet<String>(wildcards.get(section));
+                Set<AttributeBean> beans =
+                        attributeMap.get(section.toLowerCase() + "Attributes");
+                if (beans != null) {
+                    Map<String, Map<String, Set<String>>> index =
+                            targets.get(section);
+                    for (AttributeBean bean : beans) {
+                        addAll(candidates, index.get(bean.getId()), bean
+                                .getValues());
+                    }
+                }
+
+                if (result == null) {
+                    result = candidates;
+                } else {
+                    result.retainAll(candidates);
+                }
+                if (result.isEmpty()) {
+                    break;
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Obtains the ids of the policies that contain a match on each of the
+     * given attributes with one of its values.
+     *
+     * @param attributes
+     *        the attributes to search for
+     * @return the ids of the matching policies
+     */
+    public Set<String> findPolicies(AttributeBean[] attributes) {
+        lock.readLock().lock();
+        try {
+            Set<String> result = null;
+            for (AttributeBean bean : attributes) {
+                Set<String> found = new HashSet<String>();
+                addAll(found, this.attributes.get(bean.getId()), bean
+                        .getValues());
+                if (result == null) {
+                    result = found;
+                } else {
+                    result.retainAll(found);
+                }
+            }
+            return result == null ? new HashSet<String>() : result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return keysByPolicy.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void addAll(Set<String> to,
+                               Map<String, Set<String>> index,
+                               Set<String> values) {
+        if (index == null || values == null) {
+            return;
+        }
+        for (String value : values) {
+            Set<String> ids = index.get(value);
+            if (ids != null) {
+                to.addAll(ids);
+            }
+        }
+    }
+
+    /**
+     * Gets the key a Subject, Resource or Action element is indexed under:
+     * its first equality match on an indexed attribute, or the section
+     * wildcard if it has none.
+     */
+    private Key getTargetKey(String section, Element element) {
+        Map<String, String> indexed =
+                indexMap.get(section.toLowerCase() + "Attributes");
+        for (Element match : getChildren(element, section + "Match")) {
+            if (!match.getAttribute("MatchId").endsWith("-equal")) {
+                continue;
+            }
+            String[] m = getMatch(match);
+            if (m != null && indexed != null && indexed.containsKey(m[0])) {
+                return new Key(section, m[0], m[1]);
+            }
+        }
+        return new Key(section, null, null);
+    }
+
+    /**
+     * Gets the attribute id and value of a *Match element, or null if it does
+     * not use an attribute designator.
+     */
+    private static String[] getMatch(Element match) {
+        String id = null;
+        String value = null;
+        NodeList children = match.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node n = children.item(i);
+            if (n.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            String name = n.getLocalName();
+            if (name.equals("AttributeValue")) {
+                value = n.getTextContent().trim();
+            } else if (name.endsWith("AttributeDesignator")) {
+                id = ((Element) n).getAttribute("AttributeId");
+            }
+        }
+        if (id == null || value == null) {
+            return null;
+        }
+        return new String[] {id, value};
+    }
+
+    private Set<String> getPolicyIds(Key key, boolean create) {
+        if (key.section != null && key.id == null) {
+            return wildcards.get(key.section);
+        }
+
+        Map<String, Map<String, Set<String>>> byId =
+                key.section == null ? attributes : targets.get(key.section);
+        Map<String, Set<String>> byValue = byId.get(key.id);
+        if (byValue == null) {
+            if (!create) {
+                return null;
+            }
+            byValue = new HashMap<String, Set<String>>();
+            byId.put(key.id, byValue);
+        }
+        Set<String> ids = byValue.get(key.value);
+        if (ids == null && create) {
+            ids = new HashSet<String>();
+            byValue.put(key.value, ids);
+        }
+        return ids;
+    }
+
+    private void unindex(String policyId) {
+        Set<Key> keys = keysByPolicy.remove(policyId);
+        if (keys == null) {
+            return;
+        }
+        for (Key key : keys) {
+            Set<String> ids = getPolicyIds(key, false);
+            if (ids == null) {
+                continue;
+            }
+            ids.remove(policyId);
+            if (ids.isEmpty() && key.id != null) {
+                Map<String, Map<String, Set<String>>> byId =
+                        key.section == null ? attributes : targets
+                                .get(key.section);
+                Map<String, Set<String>> byValue = byId.get(key.id);
+                byValue.remove(key.value);
+                if (byValue.isEmpty()) {
+                    byId.remove(key.id);
+                }
+            }
+        }
+    }
+
+    private static Element getChild(Element parent, String localName) {
+        NodeList children = parent.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node n = children.item(i);
+            if (n.getNodeType() == Node.ELEMENT_NODE
+                    && localName.equals(n.getLocalName())) {
+                return (Element) n;
+            }
+        }
+        return null;
+    }
+
+    private static Set<Element> getChildren(Element parent, String localName) {
+        Set<Element> elements = new HashSet<Element>();
+        NodeList children = parent.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node n = children.item(i);
+            if (n.getNodeType() == Node.ELEMENT_NODE
+                    && localName.equals(n.getLocalName())) {
+                elements.add((Element) n);
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * A position in the index. A null section denotes the whole-policy
+     * attribute index; a null id denotes a section wildcard.
+     */
+    private static class Key {
+
+        final String section;
+
+        final String id;
+
+        final String value;
+
+        Key(String section, String id, String value) {
+            this.section = section;
+            this.id = id;
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) obj;
+            return eq(section, k.section) && eq(id, k.id)
+                    && eq(value, k.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return (section == null ? 0 : section.hashCode()) * 31 * 31
+                    + (id == null ? 0 : id.hashCode()) * 31
+                    + (value == null ? 0 : value.hashCode());
+        }
+
+        private static boolean eq(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
@@ -24,9 +24,13 @@ import java.io.FileInputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -73,6 +77,12 @@ public class PolicyManager {
 
     private PolicyReader policyReader = null;
 
+    // parsed policies by policy id, along with the bytes they were parsed from
+    private final Map<String, ParsedPolicy> parsedPolicies =
+            new ConcurrentHashMap<String, ParsedPolicy>();
+
+    private volatile long parsedPoliciesUpdate = -1;
+
     // the policy identifier for any policy sets we dynamically create
     private static final String PARENT_POLICY_ID =
             "urn:com:sun:xacml:support:finder:dynamic-policy-set";
@@ -180,6 +190,50 @@ public class PolicyManager {
         return policy;
     }
 
+    /**
+     * Obtains the parsed form of a policy, parsing it only if it has not been
+     * parsed before or its bytes have changed. Parsed policies that are no
+     * longer in the policy store are discarded whenever the store reports an
+     * update.
+     * 
+     * @param policyId
+     *        the policy id
+     * @param pol
+     *        the policy as a byte array
+     * @return the parsed policy
+     * @throws ParsingException
+     */
+    private AbstractPolicy getParsedPolicy(String policyId, byte[] pol)
+            throws ParsingException {
+        long lastUpdate = policyDataManager.getLastUpdate();
+        if (lastUpdate != parsedPoliciesUpdate) {
+            parsedPoliciesUpdate = lastUpdate;
+            try {
+                Set<String> current =
+                        new HashSet<String>(policyDataManager.listPolicies());
+                parsedPolicies.keySet().retainAll(current);
+            } catch (PolicyDataManagerException e) {
+                log.warn("Could not list policies, discarding parsed policies",
+                         e);
+                parsedPolicies.clear();
+            }
+        }
+
+        ParsedPolicy parsed = parsedPolicies.get(policyId);
+        if (parsed != null
+                && (parsed.source == pol || Arrays.equals(parsed.source, pol))) {
+            return parsed.policy;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Parsing policy: " + policyId);
+        }
+        AbstractPolicy policy =
+                policyReader.readPolicy(new ByteArrayInputStream(pol));
+        parsedPolicies.put(policyId, new ParsedPolicy(pol, policy));
+        return policy;
+    }
+
     /**
      * Given and Evaluation Context and a list of potential policies, this
      * method matches each policy against the Evaluation Context and extracts
@@ -206,8 +260,7 @@ public class PolicyManager {
         for (String policyId : policyList.keySet()) {
             try {
                 byte[] pol = policyList.get(policyId);
-                AbstractPolicy policy =
-                        policyReader.readPolicy(new ByteArrayInputStream(pol));
+                AbstractPolicy policy = getParsedPolicy(policyId, pol);
 
                 MatchResult match = policy.match(eval);
 
@@ -258,4 +311,19 @@ public class PolicyManager {
                                              .values()));
         }
     }
+
+    /**
+     * A parsed policy and the bytes it was parsed from.
+     */
+    private static class ParsedPolicy {
+
+        final byte[] source;
+
+        final AbstractPolicy policy;
+
+        ParsedPolicy(byte[] source, AbstractPolicy policy) {
+            this.source = source;
+            this.policy = policy;
+        }
+    }
 }
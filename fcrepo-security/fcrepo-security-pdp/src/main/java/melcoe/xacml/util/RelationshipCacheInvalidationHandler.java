@@ -0,0 +1,128 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package melcoe.xacml.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import fedora.server.proxy.AbstractInvocationHandler;
+
+/**
+ * A {@link java.lang.reflect.InvocationHandler InvocationHandler} that
+ * discards cached parent relationships held by {@link RelationshipResolverImpl}
+ * after API-M operations that may change an object's RELS-EXT.
+ * <p>
+ * It is registered with the Management module's decorators in
+ * fedora.fcfg:
+ * <pre>
+ * &lt;param name="decorator2"
+ *        value="melcoe.xacml.util.RelationshipCacheInvalidationHandler"/&gt;
+ * </pre>
+ */
+public class RelationshipCacheInvalidationHandler
+        extends AbstractInvocationHandler {
+
+    private static Logger log =
+            Logger.getLogger(RelationshipCacheInvalidationHandler.class
+                    .getName());
+
+    private static final String RELS_EXT = "RELS-EXT";
+
+    /** Methods whose second argument is the pid of the changed object. */
+    private static final Set<String> OBJECT_METHODS = new HashSet<String>();
+
+    /** Methods whose third argument is the id of the changed datastream. */
+    private static final Set<String> DATASTREAM_METHODS =
+            new HashSet<String>();
+
+    static {
+        OBJECT_METHODS.add("purgeObject");
+        OBJECT_METHODS.add("addRelationship");
+        OBJECT_METHODS.add("purgeRelationship");
+
+        DATASTREAM_METHODS.add("addDatastream");
+        DATASTREAM_METHODS.add("modifyDatastreamByReference");
+        DATASTREAM_METHODS.add("modifyDatastreamByValue");
+        DATASTREAM_METHODS.add("purgeDatastream");
+        DATASTREAM_METHODS.add("setDatastreamState");
+    }
+
+    private final RelationshipResolverImpl resolver;
+
+    public RelationshipCacheInvalidationHandler() {
+        this(ContextUtil.getInstance().getRelationshipResolver());
+    }
+
+    /**
+     * This constructor is intended for testing.
+     *
+     * @param resolver
+     */
+    public RelationshipCacheInvalidationHandler(RelationshipResolver resolver) {
+        if (resolver instanceof RelationshipResolverImpl) {
+            this.resolver = (RelationshipResolverImpl) resolver;
+        } else {
+            log.info("Relationship resolver does not cache parents, "
+                    + "invalidation disabled.");
+            this.resolver = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Object invoke(Object proxy, Method method, Object[] args)
+            throws Throwable {
+        Object returnValue = null;
+
+        try {
+            returnValue = method.invoke(target, args);
+        } catch (InvocationTargetException ite) {
+            throw ite.getTargetException();
+        }
+
+        if (resolver != null) {
+            String pid = getChangedPid(method.getName(), args, returnValue);
+            if (pid != null) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Invalidating cached parents of " + pid
+                            + " after " + method.getName());
+                }
+                resolver.invalidate(pid);
+            }
+        }
+
+        return returnValue;
+    }
+
+    /**
+     * Gets the pid of the object whose relationships may have been changed
+     * by the method, or null if the method does not change relationships.
+     */
+    private static String getChangedPid(String methodName,
+                                        Object[] args,
+                                        Object returnValue) {
+        if (methodName.equals("ingest")) {
+            // the object may previously have been cached as having no parents
+            return returnValue instanceof String ? (String) returnValue : null;
+        }
+        if (args == null || args.length < 2 || !(args[1] instanceof String)) {
+            return null;
+        }
+        if (OBJECT_METHODS.contains(methodName)) {
+            return (String) args[1];
+        }
+        if (DATASTREAM_METHODS.contains(methodName) && args.length > 2
+                && RELS_EXT.equals(args[2])) {
+            return (String) args[1];
+        }
+        return null;
+    }
+}
@@ -9,6 +9,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -31,6 +32,21 @@ import fedora.server.storage.types.RelationshipTuple;
 /**
  * A RelationshipResolver that resolves relationships via
  * {@link Management#getRelationships(fedora.server.Context, String, String)}.
+ * <p>
+ * All configured parent-child relationships of an object are resolved with a
+ * single call, and the resulting parent set is cached per PID. The following
+ * options may be given in addition to the parent-child-relationship options:
+ * <ul>
+ * <li>cache-size: the maximum number of objects whose parents are cached
+ * (default 1000, 0 disables caching)</li>
+ * <li>cache-ttl: the number of milliseconds a cached parent set is valid
+ * for (default 60000)</li>
+ * <li>ancestor-closure: if true, REST parent hierarchies are also cached
+ * (default false)</li>
+ * </ul>
+ * Cached entries can be discarded with {@link #invalidate(String)} and
+ * {@link #invalidateAll()}; {@link RelationshipCacheInvalidationHandler}
+ * does this when relationships are changed through API-M.
  * 
  * @author Edwin Shin
  */
@@ -50,8 +66,26 @@ public class RelationshipResolverImpl
     private static String DEFAULT_RELATIONSHIP =
             "info:fedora/fedora-system:def/relations-external#isMemberOf";
 
+    private static final int DEFAULT_CACHE_SIZE = 1000;
+
+    private static final long DEFAULT_CACHE_TTL = 60000;
+
     private final List<String> relationships;
 
+    private final int cacheSize;
+
+    private final long cacheTTL;
+
+    private final boolean ancestorClosure;
+
+    private final Map<String, CacheItem<Set<String>>> parentCache;
+
+    private final Map<String, CacheItem<String>> hierarchyCache;
+
+    private long hits;
+
+    private long misses;
+
     private Management apim;
 
     private Context fedoraCtx;
@@ -70,17 +104,25 @@ public class RelationshipResolverImpl
      */
     public RelationshipResolverImpl(Map<String, String> options) {
         relationships = new ArrayList<String>();
-        if (options.isEmpty()) {
-            relationships.add(DEFAULT_RELATIONSHIP);
-        } else {
-            List<String> keys = new ArrayList<String>(options.keySet());
-            Collections.sort(keys);
-            for (String s : keys) {
-                if (s.startsWith("parent-child-relationship")) {
-                    relationships.add(options.get(s));
-                }
+        List<String> keys = new ArrayList<String>(options.keySet());
+        Collections.sort(keys);
+        for (String s : keys) {
+            if (s.startsWith("parent-child-relationship")) {
+                relationships.add(options.get(s));
             }
         }
+        if (relationships.isEmpty()) {
+            relationships.add(DEFAULT_RELATIONSHIP);
+        }
+
+        cacheSize = getIntOption(options, "cache-size", DEFAULT_CACHE_SIZE);
+        cacheTTL = getLongOption(options, "cache-ttl", DEFAULT_CACHE_TTL);
+        ancestorClosure =
+                Boolean.valueOf(options.get("ancestor-closure"))
+                        .booleanValue();
+
+        parentCache = new LRUMap<Set<String>>(cacheSize);
+        hierarchyCache = new LRUMap<String>(cacheSize);
     }
 
     /*
@@ -91,14 +133,37 @@ public class RelationshipResolverImpl
      */
     public String buildRESTParentHierarchy(String pid)
             throws MelcoeXacmlException {
-        Set<String> parents = getParents(pid);
-        if (parents == null || parents.size() == 0) {
-            return "/" + pid;
+        if (ancestorClosure) {
+            String hierarchy = getCached(hierarchyCache, pid);
+            if (hierarchy != null) {
+                return hierarchy;
+            }
         }
 
-        String[] parentArray = parents.toArray(new String[parents.size()]);
+        // follow the first parent at each level, stopping if a cycle is found
+        StringBuilder hierarchy = new StringBuilder("/" + pid);
+        Set<String> visited = new HashSet<String>();
+        visited.add(pid);
+        String current = pid;
+        while (true) {
+            Set<String> parents = getParents(current);
+            if (parents == null || parents.size() == 0) {
+                break;
+            }
+            String parent = parents.iterator().next();
+            if (!visited.add(parent)) {
+                log.warn("Cycle in parent relationships of " + pid + " at "
+                        + parent);
+                break;
+            }
+            hierarchy.insert(0, "/" + parent);
+            current = parent;
+        }
 
-        return buildRESTParentHierarchy(parentArray[0]) + "/" + pid;
+        if (ancestorClosure) {
+            putCached(hierarchyCache, pid, hierarchy.toString());
+        }
+        return hierarchy.toString();
     }
 
     /*
@@ -112,49 +177,129 @@ public class RelationshipResolverImpl
             log.debug("Obtaining parents for: " + pid);
         }
 
-        Set<String> parentPIDs = new HashSet<String>();
         if (pid.equalsIgnoreCase(REPOSITORY)) {
+            return new HashSet<String>();
+        }
+
+        String key = getNormalizedPID(pid).toString();
+        Set<String> parentPIDs = getCached(parentCache, key);
+        if (parentPIDs != null) {
             return parentPIDs;
         }
 
-        query: for (String relationship : relationships) {
+        parentPIDs = new HashSet<String>();
+
+        // resolve all the parent-child relationships with a single query
+        Map<String, Set<String>> mapping = null;
+        try {
+            mapping = getRelationships(pid, null);
+        } catch (MelcoeXacmlException e) {
+            Throwable t = e.getCause();
+            // An object X, may legitimately declare a parent relation to
+            // another object, Y which does not exist. Therefore, we don't 
+            // want to continue querying for Y's parents.
+            while (t != null
+                    && !(t instanceof ObjectNotInLowlevelStorageException)) {
+                t = t.getCause();
+            }
+            if (t == null) {
+                // Unexpected error, so we throw back the original
+                throw e;
+            }
             if (log.isDebugEnabled()) {
-                log.debug("relationship query: " + pid + ", " + relationship);
+                log.debug("Parent, " + pid + ", not found.");
             }
+        }
 
-            Map<String, Set<String>> mapping;
-            try {
-                mapping = getRelationships(pid, relationship);
-            } catch (MelcoeXacmlException e) {
-                Throwable t = e.getCause();
-                // An object X, may legitimately declare a parent relation to
-                // another object, Y which does not exist. Therefore, we don't 
-                // want to continue querying for Y's parents.
-                while (t != null) {
-                    if (t instanceof ObjectNotInLowlevelStorageException) {
+        if (mapping != null) {
+            for (String relationship : relationships) {
+                Set<String> parents = mapping.get(relationship);
+                if (parents != null) {
+                    for (String parent : parents) {
+                        PID parentPID = PID.getInstance(parent);
+                        // we want the parents in demo:123 form, not info:fedora/demo:123
+                        parentPIDs.add(parentPID.toString());
                         if (log.isDebugEnabled()) {
-                            log.debug("Parent, " + pid + ", not found.");
+                            log.debug("added parent " + parentPID.toString());
                         }
-                        break query;
                     }
                 }
-                // Unexpected error, so we throw back the original
-                throw e;
             }
+        }
 
-            Set<String> parents = mapping.get(relationship);
-            if (parents != null) {
-                for (String parent : parents) {
-                    PID parentPID = PID.getInstance(parent);
-                    // we want the parents in demo:123 form, not info:fedora/demo:123
-                    parentPIDs.add(parentPID.toString());
-                    if (log.isDebugEnabled()) {
-                        log.debug("added parent " + parentPID.toString());
-                    }
-                }
+        parentPIDs = Collections.unmodifiableSet(parentPIDs);
+        putCached(parentCache, key, parentPIDs);
+        return parentPIDs;
+    }
+
+    /**
+     * Discards the cached parents of the given pid. Because the pid may be an
+     * ancestor of other objects, cached hierarchies are discarded as well.
+     * 
+     * @param pid
+     *        the pid whose relationships have changed
+     */
+    public void invalidate(String pid) {
+        String key = getNormalizedPID(pid).toString();
+        synchronized (parentCache) {
+            parentCache.remove(key);
+        }
+        clearClosure();
+    }
+
+    /**
+     * Discards all cached parents and hierarchies.
+     */
+    public void invalidateAll() {
+        synchronized (parentCache) {
+            parentCache.clear();
+        }
+        clearClosure();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    private void clearClosure() {
+        synchronized (hierarchyCache) {
+            hierarchyCache.clear();
+        }
+    }
+
+    private <T> T getCached(Map<String, CacheItem<T>> cache, String key) {
+        CacheItem<T> item;
+        synchronized (cache) {
+            item = cache.get(key);
+            if (item != null
+                    && System.currentTimeMillis() - item.created >= cacheTTL) {
+                cache.remove(key);
+                item = null;
             }
         }
-        return parentPIDs;
+        synchronized (this) {
+            if (item == null) {
+                misses++;
+            } else {
+                hits++;
+            }
+        }
+        return item == null ? null : item.value;
+    }
+
+    private <T> void putCached(Map<String, CacheItem<T>> cache,
+                               String key,
+                               T value) {
+        if (cacheSize <= 0 || cacheTTL <= 0) {
+            return;
+        }
+        synchronized (cache) {
+            cache.put(key, new CacheItem<T>(value));
+        }
     }
 
     public Map<String, Set<String>> getRelationships(String pid)
@@ -162,8 +307,18 @@ public class RelationshipResolverImpl
         return getRelationships(pid, null);
     }
 
-    private Map<String, Set<String>> getRelationships(String pid,
-                                                      String relationship)
+    /**
+     * Retrieves the relationships of the given pid, optionally restricted to
+     * a single predicate.
+     * 
+     * @param pid
+     * @param relationship
+     *        the predicate, or null for all relationships
+     * @return the map of relationships and values
+     * @throws MelcoeXacmlException
+     */
+    protected Map<String, Set<String>> getRelationships(String pid,
+                                                        String relationship)
             throws MelcoeXacmlException {
         PID subject = getNormalizedPID(pid);
         RelationshipTuple[] tuples;
@@ -245,4 +400,56 @@ public class RelationshipResolverImpl
 
         return PID.getInstance(pid.split("\\/")[0]);
     }
+
+    private static int getIntOption(Map<String, String> options,
+                                    String name,
+                                    int defaultValue) {
+        return (int) getLongOption(options, name, defaultValue);
+    }
+
+    private static long getLongOption(Map<String, String> options,
+                                      String name,
+                                      long defaultValue) {
+        String value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value for relationship resolver option " + name
+                    + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private static class CacheItem<T> {
+
+        final T value;
+
+        final long created;
+
+        CacheItem(T value) {
+            this.value = value;
+            created = System.currentTimeMillis();
+        }
+    }
+
+    private static class LRUMap<T>
+            extends LinkedHashMap<String, CacheItem<T>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        LRUMap(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheItem<T>> eldest) {
+            return size() > maxSize;
+        }
+    }
 }
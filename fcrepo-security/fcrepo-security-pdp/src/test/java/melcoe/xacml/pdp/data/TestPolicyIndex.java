@@ -0,0 +1,146 @@
+
+package melcoe.xacml.pdp.data;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import melcoe.xacml.util.AttributeBean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestPolicyIndex {
+
+    private static final String ROLE =
+            "urn:fedora:names:fedora:2.1:subject:role";
+
+    private static final String PID =
+            "urn:fedora:names:fedora:2.1:resource:object:pid";
+
+    private static final String STRING_EQUAL =
+            "urn:oasis:names:tc:xacml:1.0:function:string-equal";
+
+    private static final String REGEXP_MATCH =
+            "urn:oasis:names:tc:xacml:1.0:function:regexp-string-match";
+
+    private PolicyIndex index;
+
+    @Before
+    public void setUp() {
+        Map<String, Map<String, String>> indexMap =
+                new HashMap<String, Map<String, String>>();
+        Map<String, String> subjects = new HashMap<String, String>();
+        subjects.put(ROLE, "http://www.w3.org/2001/XMLSchema#string");
+        Map<String, String> resources = new HashMap<String, String>();
+        resources.put(PID, "http://www.w3.org/2001/XMLSchema#string");
+        indexMap.put("subjectAttributes", subjects);
+        indexMap.put("resourceAttributes", resources);
+        indexMap.put("actionAttributes", new HashMap<String, String>());
+        indexMap.put("environmentAttributes", new HashMap<String, String>());
+        index = new PolicyIndex(indexMap);
+    }
+
+    @Test
+    public void testCandidates() throws Exception {
+        index.add("student-demo1", policy("student", STRING_EQUAL, "demo:1"));
+        index.add("staff-demo1", policy("staff", STRING_EQUAL, "demo:1"));
+        index.add("student-any", policy("student", null, null));
+        index.add("student-regexp", policy("student", REGEXP_MATCH, "demo:.*"));
+
+        Set<String> candidates =
+                index.getCandidates(request("student", "demo:1"));
+        assertEquals(3, candidates.size());
+        assertTrue(candidates.contains("student-demo1"));
+        assertTrue(candidates.contains("student-any"));
+        assertTrue(candidates.contains("student-regexp"));
+
+        candidates = index.getCandidates(request("staff", "demo:2"));
+        assertEquals(0, candidates.size());
+    }
+
+    @Test
+    public void testReplaceAndRemove() throws Exception {
+        index.add("p1", policy("student", STRING_EQUAL, "demo:1"));
+        assertEquals(1, index.getCandidates(request("student", "demo:1"))
+                .size());
+
+        index.add("p1", policy("staff", STRING_EQUAL, "demo:1"));
+        assertEquals(0, index.getCandidates(request("student", "demo:1"))
+                .size());
+        assertEquals(1, index.getCandidates(request("staff", "demo:1"))
+                .size());
+
+        index.remove("p1");
+        assertEquals(0, index.size());
+        assertEquals(0, index.getCandidates(request("staff", "demo:1"))
+                .size());
+    }
+
+    @Test
+    public void testFindPolicies() throws Exception {
+        index.add("p1", policy("student", STRING_EQUAL, "demo:1"));
+        index.add("p2", policy("staff", STRING_EQUAL, "demo:1"));
+
+        Set<String> ids =
+                index.findPolicies(new AttributeBean[] {bean(PID, "demo:1")});
+        assertEquals(2, ids.size());
+
+        ids =
+                index.findPolicies(new AttributeBean[] {bean(PID, "demo:1"),
+                        bean(ROLE, "staff")});
+        assertEquals(1, ids.size());
+        assertTrue(ids.contains("p2"));
+    }
+
+    private static Map<String, Set<AttributeBean>> request(String role,
+                                                           String pid) {
+        Map<String, Set<AttributeBean>> attributeMap =
+                new HashMap<String, Set<AttributeBean>>();
+        Set<AttributeBean> subjects = new HashSet<AttributeBean>();
+        subjects.add(bean(ROLE, role));
+        Set<AttributeBean> resources = new HashSet<AttributeBean>();
+        resources.add(bean(PID, pid));
+        attributeMap.put("subjectAttributes", subjects);
+        attributeMap.put("resourceAttributes", resources);
+        attributeMap.put("actionAttributes", new HashSet<AttributeBean>());
+        return attributeMap;
+    }
+
+    private static AttributeBean bean(String id, String value) {
+        Set<String> values = new HashSet<String>();
+        values.add(value);
+        return new AttributeBean(id, null, values);
+    }
+
+    private static byte[] policy(String role, String matchId, String pid) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<Policy xmlns=\"urn:oasis:names:tc:xacml:2.0:policy:schema:os\"");
+        sb.append(" PolicyId=\"test\"><Target><Subjects><Subject>");
+        sb.append(match("Subject", STRING_EQUAL, ROLE, role));
+        sb.append("</Subject></Subjects>");
+        if (matchId != null) {
+            sb.append("<Resources><Resource>");
+            sb.append(match("Resource", matchId, PID, pid));
+            sb.append("</Resource></Resources>");
+        }
+        sb.append("</Target></Policy>");
+        return sb.toString().getBytes();
+    }
+
+    private static String match(String section,
+                                String matchId,
+                                String attributeId,
+                                String value) {
+        return "<" + section + "Match MatchId=\"" + matchId + "\">"
+                + "<AttributeValue DataType=\"http://www.w3.org/2001/XMLSchema#string\">"
+                + value + "</AttributeValue>" + "<" + section
+                + "AttributeDesignator AttributeId=\"" + attributeId
+                + "\" DataType=\"http://www.w3.org/2001/XMLSchema#string\"/>"
+                + "</" + section + "Match>";
+    }
+}
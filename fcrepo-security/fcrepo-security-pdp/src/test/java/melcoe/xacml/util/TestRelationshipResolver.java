@@ -1,12 +1,24 @@
 
 package melcoe.xacml.util;
 
-import static org.junit.Assert.assertEquals;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 public class TestRelationshipResolver {
 
+    private static final String MEMBER_OF =
+            "info:fedora/fedora-system:def/relations-external#isMemberOf";
+
+    private static final String PART_OF =
+            "info:fedora/fedora-system:def/relations-external#isPartOf";
+
     @Test
     public void testPidNormalization() throws Exception {
         RelationshipResolverImpl rr = new RelationshipResolverImpl();
@@ -17,4 +29,108 @@ public class TestRelationshipResolver {
             assertEquals("demo:1", rr.getNormalizedPID(candidate).toString());
         }
     }
+
+    @Test
+    public void testParentsResolvedWithOneQueryAndCached() throws Exception {
+        StubResolver rr = new StubResolver(options("100", "false"));
+        rr.add("demo:2", MEMBER_OF, "demo:1");
+        rr.add("demo:2", PART_OF, "demo:3");
+        rr.add("demo:2", "urn:other", "demo:4");
+
+        Set<String> parents = rr.getParents("demo:2");
+        assertEquals(2, parents.size());
+        assertTrue(parents.contains("demo:1"));
+        assertTrue(parents.contains("demo:3"));
+        assertEquals(1, rr.queries);
+
+        rr.getParents("info:fedora/demo:2");
+        assertEquals(1, rr.queries);
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        StubResolver rr = new StubResolver(options("100", "true"));
+        rr.add("demo:2", MEMBER_OF, "demo:1");
+        assertEquals("/demo:1/demo:2", rr.buildRESTParentHierarchy("demo:2"));
+
+        rr.add("demo:1", MEMBER_OF, "demo:0");
+        assertEquals("/demo:1/demo:2", rr.buildRESTParentHierarchy("demo:2"));
+
+        rr.invalidate("demo:1");
+        assertEquals("/demo:0/demo:1/demo:2", rr
+                .buildRESTParentHierarchy("demo:2"));
+    }
+
+    @Test
+    public void testCachingDisabled() throws Exception {
+        StubResolver rr = new StubResolver(options("0", "false"));
+        rr.add("demo:2", MEMBER_OF, "demo:1");
+        rr.getParents("demo:2");
+        rr.getParents("demo:2");
+        assertEquals(2, rr.queries);
+    }
+
+    @Test
+    public void testCycles() throws Exception {
+        StubResolver rr = new StubResolver(options("100", "true"));
+        rr.add("demo:1", MEMBER_OF, "demo:2");
+        rr.add("demo:2", MEMBER_OF, "demo:3");
+        rr.add("demo:3", MEMBER_OF, "demo:1");
+
+        assertEquals("/demo:2/demo:1/demo:3", rr
+                .buildRESTParentHierarchy("demo:3"));
+    }
+
+    private static Map<String, String> options(String cacheSize,
+                                               String ancestorClosure) {
+        Map<String, String> options = new HashMap<String, String>();
+        options.put("parent-child-relationship-1", MEMBER_OF);
+        options.put("parent-child-relationship-2", PART_OF);
+        options.put("cache-size", cacheSize);
+        options.put("cache-ttl", "60000");
+        options.put("ancestor-closure", ancestorClosure);
+        return options;
+    }
+
+    /**
+     * Serves relationships from memory instead of API-M.
+     */
+    private static class StubResolver
+            extends RelationshipResolverImpl {
+
+        private final Map<String, Map<String, Set<String>>> rels =
+                new HashMap<String, Map<String, Set<String>>>();
+
+        int queries;
+
+        StubResolver(Map<String, String> options) {
+            super(options);
+        }
+
+        void add(String pid, String predicate, String object) {
+            Map<String, Set<String>> map = rels.get(pid);
+            if (map == null) {
+                map = new HashMap<String, Set<String>>();
+                rels.put(pid, map);
+            }
+            Set<String> values = map.get(predicate);
+            if (values == null) {
+                values = new HashSet<String>();
+                map.put(predicate, values);
+            }
+            values.add("info:fedora/" + object);
+        }
+
+        @Override
+        protected Map<String, Set<String>> getRelationships(String pid,
+                                                            String relationship) {
+            queries++;
+            Map<String, Set<String>> map =
+                    rels.get(getNormalizedPID(pid).toString());
+            if (map == null) {
+                return new HashMap<String, Set<String>>();
+            }
+            return map;
+        }
+    }
 }
@@ -19,12 +19,12 @@
 package melcoe.fedora.pep;
 
 import java.security.MessageDigest;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import melcoe.fedora.util.AttributeComparator;
 import melcoe.fedora.util.SubjectComparator;
@@ -38,6 +38,13 @@ import com.sun.xacml.ctx.RequestCtx;
 import com.sun.xacml.ctx.Subject;
 
 /**
+ * A size-bounded, least-recently-used response cache with a time to live.
+ * <p>
+ * The cache is split into a fixed number of segments, each of which is an
+ * access-ordered map guarded by its own lock, so gets and puts are O(1) and
+ * requests hashing to different segments never contend. Request hashes are
+ * computed with a per-thread digest.
+ * 
  * @author nishen@melcoe.mq.edu.au
  */
 public class ResponseCacheImpl
@@ -52,17 +59,34 @@ public class ResponseCacheImpl
 
     private static final long DEFAULT_TTL = 10 * 60 * 1000;
 
+    private static final int SEGMENTS = 16;
+
+    private static final ThreadLocal<MessageDigest> DIGEST =
+            new ThreadLocal<MessageDigest>() {
+
+                @Override
+                protected MessageDigest initialValue() {
+                    try {
+                        return MessageDigest.getInstance("MD5");
+                    } catch (NoSuchAlgorithmException e) {
+                        throw new IllegalStateException("MD5 not available", e);
+                    }
+                }
+            };
+
     private final int CACHE_SIZE;
 
     private long TTL;
 
-    private Map<String, String> requestCache = null;
+    private final Segment[] segments;
+
+    private final AtomicLong hits = new AtomicLong();
 
-    private Map<String, Long> requestCacheTimeTracker = null;
+    private final AtomicLong misses = new AtomicLong();
 
-    private List<String> requestCacheUsageTracker = null;
+    private final AtomicLong expirations = new AtomicLong();
 
-    private MessageDigest digest = null;
+    private final AtomicLong evictions = new AtomicLong();
 
     /**
      * The default constructor that initialises the cache with default values.
@@ -96,12 +120,15 @@ public class ResponseCacheImpl
 
         CACHE_SIZE = size.intValue();
 
-        requestCache = new HashMap<String, String>(CACHE_SIZE);
-        requestCacheTimeTracker = new HashMap<String, Long>(CACHE_SIZE);
-        requestCacheUsageTracker = new ArrayList<String>(CACHE_SIZE);
+        // spread the capacity over the segments, rounding up
+        int segmentSize = (CACHE_SIZE + SEGMENTS - 1) / SEGMENTS;
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentSize);
+        }
 
         try {
-            digest = MessageDigest.getInstance("MD5");
+            DIGEST.get();
         } catch (Exception e) {
             throw new PEPException("Could not initialize the ResponseCache", e);
         }
@@ -113,29 +140,21 @@ public class ResponseCacheImpl
      * java.lang.String)
      */
     public void addCacheItem(String request, String response) {
+        if (TTL <= 0 || CACHE_SIZE <= 0) {
+            return;
+        }
+
         String hash = null;
 
         try {
             hash = makeHash(request);
 
-            // if we have a maxxed cache, remove least used item
-            if (requestCache.size() >= CACHE_SIZE) {
-                String key = requestCacheUsageTracker.remove(0);
-                requestCache.remove(key);
-                if (log.isDebugEnabled()) {
-                    log.debug("Purging cache element");
-                }
-            }
-
-            requestCache.put(hash, response);
-            requestCacheUsageTracker.add(hash);
-            requestCacheTimeTracker.put(hash, new Long(System
-                    .currentTimeMillis()));
+            segmentFor(hash).put(hash,
+                                 new CacheItem(response, System
+                                         .currentTimeMillis()));
 
             if (log.isDebugEnabled()) {
-                log.debug("Adding Cache Item (" + requestCache.size() + "/"
-                        + requestCacheUsageTracker.size() + "/"
-                        + requestCacheTimeTracker.size() + "): " + hash);
+                log.debug("Adding Cache Item: " + hash);
             }
         } catch (Exception e) {
             log.warn("Error adding cache item: " + e.getMessage(), e);
@@ -147,32 +166,34 @@ public class ResponseCacheImpl
      * @see melcoe.fedora.pep.ResponseCache#getCacheItem(java.lang.String)
      */
     public String getCacheItem(String request) {
+        if (TTL <= 0 || CACHE_SIZE <= 0) {
+            misses.incrementAndGet();
+            return null;
+        }
+
         String hash = null;
-        String response = null;
 
         try {
             hash = makeHash(request);
 
             if (log.isDebugEnabled()) {
-                log.debug("Getting Cache Item (" + requestCache.size() + "/"
-                        + requestCacheUsageTracker.size() + "/"
-                        + requestCacheTimeTracker.size() + "): " + hash);
+                log.debug("Getting Cache Item: " + hash);
             }
 
-            response = requestCache.get(hash);
+            Segment segment = segmentFor(hash);
+            CacheItem item = segment.get(hash);
 
-            if (response == null) {
+            if (item == null) {
+                misses.incrementAndGet();
                 return null;
             }
 
             // if this item is older than CACHE_ITEM_TTL then we can't use it
-            long usedLast =
-                    System.currentTimeMillis()
-                            - requestCacheTimeTracker.get(hash).longValue();
-            if (usedLast > TTL) {
-                requestCache.remove(hash);
-                requestCacheUsageTracker.remove(hash);
-                requestCacheTimeTracker.remove(hash);
+            long age = System.currentTimeMillis() - item.created;
+            if (age > TTL) {
+                segment.remove(hash, item);
+                expirations.incrementAndGet();
+                misses.incrementAndGet();
 
                 if (log.isDebugEnabled()) {
                     log.debug("CACHE_ITEM_TTL exceeded: " + hash);
@@ -181,16 +202,12 @@ public class ResponseCacheImpl
                 return null;
             }
 
-            // we just used this item, move it to the end of the list (items at
-            // beginning get removed...)
-            requestCacheUsageTracker.add(requestCacheUsageTracker
-                    .remove(requestCacheUsageTracker.indexOf(hash)));
+            hits.incrementAndGet();
+            return item.response;
         } catch (Exception e) {
             log.warn("Error getting cache item: " + e.getMessage(), e);
-            response = null;
+            return null;
         }
-
-        return response;
     }
 
     /*
@@ -198,9 +215,77 @@ public class ResponseCacheImpl
      * @see melcoe.fedora.pep.ResponseCache#invalidate()
      */
     public void invalidate() {
-        requestCache = new HashMap<String, String>(CACHE_SIZE);
-        requestCacheTimeTracker = new HashMap<String, Long>(CACHE_SIZE);
-        requestCacheUsageTracker = new ArrayList<String>(CACHE_SIZE);
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Invalidated cache: " + this);
+        }
+    }
+
+    /**
+     * @return the number of items currently in the cache
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups not answered from the cache, including
+     *         those that found an expired item
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of items discarded because their TTL was exceeded
+     */
+    public long getExpirationCount() {
+        return expirations.get();
+    }
+
+    /**
+     * @return the number of items discarded to keep the cache within size
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the fraction of lookups answered from the cache
+     */
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return "ResponseCacheImpl[size=" + size() + ", maxSize=" + CACHE_SIZE
+                + ", ttl=" + TTL + ", hits=" + getHitCount() + ", misses="
+                + getMissCount() + ", expirations=" + getExpirationCount()
+                + ", evictions=" + getEvictionCount() + "]";
+    }
+
+    private Segment segmentFor(String hash) {
+        // spread the bits so that similar hashes use different segments
+        int h = hash.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments[h & (SEGMENTS - 1)];
     }
 
     /**
@@ -220,6 +305,7 @@ public class ResponseCacheImpl
             throw new CacheException("Error converting request", pe);
         }
 
+        MessageDigest digest = DIGEST.get();
         digest.reset();
 
         Set<Attribute> attributes = null;
@@ -230,26 +316,26 @@ public class ResponseCacheImpl
             attributes = new TreeSet(new AttributeComparator());
             attributes.addAll(s.getAttributes());
             for (Attribute a : attributes) {
-                hashAttribute(a);
+                hashAttribute(digest, a);
             }
         }
 
         attributes = new TreeSet(new AttributeComparator());
         attributes.addAll(reqCtx.getResource());
         for (Attribute a : attributes) {
-            hashAttribute(a);
+            hashAttribute(digest, a);
         }
 
         attributes = new TreeSet(new AttributeComparator());
         attributes.addAll(reqCtx.getAction());
         for (Attribute a : attributes) {
-            hashAttribute(a);
+            hashAttribute(digest, a);
         }
 
         attributes = new TreeSet(new AttributeComparator());
         attributes.addAll(reqCtx.getEnvironmentAttributes());
         for (Attribute a : attributes) {
-            hashAttribute(a);
+            hashAttribute(digest, a);
         }
 
         byte[] hash = digest.digest();
@@ -260,10 +346,12 @@ public class ResponseCacheImpl
     /**
      * Utility function to add an attribute to the hash digest.
      * 
+     * @param digest
+     *        the digest being computed
      * @param a
      *        the attribute to hash
      */
-    private void hashAttribute(Attribute a) {
+    private static void hashAttribute(MessageDigest digest, Attribute a) {
         digest.update(a.getId().toString().getBytes());
         digest.update(a.getType().toString().getBytes());
         digest.update(a.getValue().encode().getBytes());
@@ -282,7 +370,7 @@ public class ResponseCacheImpl
      *        the byte array to convert
      * @return the hexadecimal string representation
      */
-    private String byte2hex(byte[] bytes) {
+    private static String byte2hex(byte[] bytes) {
         char[] hexChars =
                 {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b',
                         'c', 'd', 'e', 'f'};
@@ -295,4 +383,69 @@ public class ResponseCacheImpl
 
         return new String(sb);
     }
+
+    /**
+     * A cached response and the time it was added.
+     */
+    private static class CacheItem {
+
+        private final String response;
+
+        private final long created;
+
+        private CacheItem(String response, long created) {
+            this.response = response;
+            this.created = created;
+        }
+    }
+
+    /**
+     * One lock-guarded, access-ordered portion of the cache.
+     */
+    private class Segment {
+
+        private final Map<String, CacheItem> items;
+
+        private Segment(final int maxSize) {
+            items = new LinkedHashMap<String, CacheItem>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CacheItem> eldest) {
+                    if (size() > maxSize) {
+                        evictions.incrementAndGet();
+                        if (log.isDebugEnabled()) {
+                            log.debug("Purging cache element");
+                        }
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        private synchronized CacheItem get(String hash) {
+            return items.get(hash);
+        }
+
+        private synchronized void put(String hash, CacheItem item) {
+            items.put(hash, item);
+        }
+
+        private synchronized void remove(String hash, CacheItem item) {
+            // don't discard a fresher item added by another thread
+            if (items.get(hash) == item) {
+                items.remove(hash);
+            }
+        }
+
+        private synchronized void clear() {
+            items.clear();
+        }
+
+        private synchronized int size() {
+            return items.size();
+        }
+    }
 }
@@ -0,0 +1,83 @@
+
+package melcoe.fedora.pep;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestResponseCacheImpl {
+
+    private static final String RESPONSE = "<Response/>";
+
+    @Test
+    public void testMissThenHit() throws Exception {
+        ResponseCacheImpl cache = new ResponseCacheImpl(100, 60000L);
+        String request = request("alice", "demo:1");
+
+        assertNull(cache.getCacheItem(request));
+        cache.addCacheItem(request, RESPONSE);
+        assertEquals(RESPONSE, cache.getCacheItem(request));
+        assertNull(cache.getCacheItem(request("bob", "demo:1")));
+        assertNull(cache.getCacheItem(request("alice", "demo:2")));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        ResponseCacheImpl cache = new ResponseCacheImpl(100, 50L);
+        String request = request("alice", "demo:1");
+
+        cache.addCacheItem(request, RESPONSE);
+        Thread.sleep(100);
+        assertNull(cache.getCacheItem(request));
+        assertEquals(1, cache.getExpirationCount());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        ResponseCacheImpl cache = new ResponseCacheImpl(100, 60000L);
+        String request = request("alice", "demo:1");
+
+        cache.addCacheItem(request, RESPONSE);
+        cache.invalidate();
+        assertNull(cache.getCacheItem(request));
+    }
+
+    @Test
+    public void testSizeBound() throws Exception {
+        // one item per segment
+        ResponseCacheImpl cache = new ResponseCacheImpl(16, 60000L);
+        for (int i = 0; i < 100; i++) {
+            cache.addCacheItem(request("alice", "demo:" + i), RESPONSE);
+        }
+        assertEquals(true, cache.size() <= 16);
+        assertEquals(100 - cache.size(), cache.getEvictionCount());
+    }
+
+    private static String request(String subject, String pid) {
+        return "<Request xmlns=\"urn:oasis:names:tc:xacml:1.0:context:schema:os\">"
+                + "<Subject>"
+                + attribute("urn:fedora:names:fedora:2.1:subject:loginId",
+                            subject)
+                + "</Subject>"
+                + "<Resource>"
+                + attribute("urn:oasis:names:tc:xacml:1.0:resource:resource-id",
+                            pid)
+                + "</Resource>"
+                + "<Action>"
+                + attribute("urn:fedora:names:fedora:2.1:action:id",
+                            "urn:fedora:names:fedora:2.1:action:id-getDatastreamDissemination")
+                + "</Action>" + "<Environment/>" + "</Request>";
+    }
+
+    private static String attribute(String id, String value) {
+        return "<Attribute AttributeId=\"" + id + "\" "
+                + "DataType=\"http://www.w3.org/2001/XMLSchema#string\">"
+                + "<AttributeValue>" + value + "</AttributeValue>"
+                + "</Attribute>";
+    }
+}
@@ -0,0 +1,31 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also 
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.oai;
+
+/**
+ * Receives the items of a list response, one at a time, as a
+ * StreamingOAIProvider produces them.
+ * 
+ * @see StreamingOAIProvider
+ */
+public interface ListHandler {
+
+    /**
+     * Handle the next Record of a ListRecords response.
+     */
+    public abstract void handleRecord(Record record);
+
+    /**
+     * Handle the next Header of a ListIdentifiers response.
+     */
+    public abstract void handleHeader(Header header);
+
+    /**
+     * Handle the resumptionToken of the list. This is called at most once,
+     * after the last Record or Header.
+     */
+    public abstract void handleResumptionToken(ResumptionToken token);
+
+}
@@ -6,9 +6,11 @@ package fedora.oai;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -32,6 +34,8 @@ import fedora.server.errors.servletExceptionExtensions.RootException;
 public abstract class OAIProviderServlet
         extends HttpServlet {
 
+    private static final int BUFFER_SIZE = 8192;
+
     OAIResponder m_responder;
 
     public OAIProviderServlet() {
@@ -42,6 +46,7 @@ public abstract class OAIProviderServlet
     @Override
     public void doGet(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
+        GZIPOutputStream gzipOut = null;
         try {
             HashMap params = new HashMap();
             Enumeration enm = request.getParameterNames();
@@ -49,10 +54,18 @@ public abstract class OAIProviderServlet
                 String name = (String) enm.nextElement();
                 params.put(name, request.getParameter(name));
             }
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
             Context context =
                     ReadOnlyContext.getContext(Constants.HTTP_REQUEST.REST.uri,
                                                request);
+            // the response is written as it is produced, so that large
+            // lists do not have to be held in memory
+            response.setContentType("text/xml; charset=UTF-8");
+            OutputStream out = response.getOutputStream();
+            if (acceptsGzip(request)) {
+                response.setHeader("Content-Encoding", "gzip");
+                gzipOut = new GZIPOutputStream(out, BUFFER_SIZE);
+                out = gzipOut;
+            }
             try {
                 getResponder().respond(context, params, out);
             } catch (AuthzException ae) {
@@ -61,9 +74,21 @@ public abstract class OAIProviderServlet
                                                         ACTION_LABEL,
                                                         new String[0]);
             }
-            response.setContentType("text/xml; charset=UTF-8");
-            response.getWriter().print(new String(out.toByteArray(), "UTF-8"));
+            if (gzipOut != null) {
+                gzipOut.finish();
+            }
         } catch (Throwable t) {
+            // drop the headers set for the response, if still possible
+            if (!response.isCommitted()) {
+                response.reset();
+            } else if (gzipOut != null) {
+                // end the gzip stream, so that what was sent can be decoded
+                try {
+                    gzipOut.finish();
+                } catch (IOException e) {
+                    log("Error ending gzip stream", e);
+                }
+            }
             throw new InternalError500Exception("",
                                                 t,
                                                 request,
@@ -73,6 +98,26 @@ public abstract class OAIProviderServlet
         }
     }
 
+    /**
+     * Tells whether the client will accept a gzip-encoded response.
+     */
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        Enumeration values = request.getHeaders("Accept-Encoding");
+        while (values != null && values.hasMoreElements()) {
+            String[] codings = ((String) values.nextElement()).split(",");
+            for (String coding : codings) {
+                String[] parts = coding.trim().split(";");
+                if (parts[0].trim().equalsIgnoreCase("gzip")
+                        || parts[0].trim().equalsIgnoreCase("x-gzip")) {
+                    return parts.length < 2
+                            || !parts[1].trim().replaceAll(" ", "")
+                                    .matches("q=0(\\.0*)?");
+                }
+            }
+        }
+        return false;
+    }
+
     private static String getMessage(Throwable t) {
         String msg = t.getMessage();
         if (msg == null) {
@@ -125,12 +125,25 @@ public class OAIResponder
                                   out);
             } else if (verb.equals("ListIdentifiers")) {
                 String rToken = (String) args.get("resumptionToken");
-                List headers;
+                ListWriter writer = null;
+                if (m_provider instanceof StreamingOAIProvider) {
+                    writer =
+                            new ListWriter("ListIdentifiers",
+                                           args,
+                                           baseURL,
+                                           out);
+                }
+                List headers = null;
                 if (rToken != null) {
                     if (args.size() > 2) {
                         throw new BadArgumentException("ListIdentifiers request specified resumptionToken with other arguments.");
                     }
-                    headers = m_provider.getHeaders(rToken);
+                    if (writer != null) {
+                        ((StreamingOAIProvider) m_provider)
+                                .listHeaders(rToken, writer);
+                    } else {
+                        headers = m_provider.getHeaders(rToken);
+                    }
                 } else {
                     Iterator iter = args.keySet().iterator();
                     boolean badParam = false;
@@ -162,29 +175,41 @@ public class OAIResponder
                     if (metadataPrefix == null) {
                         throw new BadArgumentException("ListIdentifiers request did not specify metadataPrefix argument.");
                     }
-                    headers =
-                            m_provider.getHeaders(from,
-                                                  until,
-                                                  metadataPrefix,
-                                                  set);
-                }
-                if (headers.size() == 0) {
-                    throw new NoRecordsMatchException("No records match the providied criteria.");
+                    if (writer != null) {
+                        ((StreamingOAIProvider) m_provider).listHeaders(from,
+                                                                       until,
+                                                                       metadataPrefix,
+                                                                       set,
+                                                                       writer);
+                    } else {
+                        headers =
+                                m_provider.getHeaders(from,
+                                                      until,
+                                                      metadataPrefix,
+                                                      set);
+                    }
                 }
-                ResumptionToken resumptionToken = null;
-                if (m_provider.getMaxHeaders() > 0) {
-                    if (headers.size() > m_provider.getMaxHeaders()) {
-                        resumptionToken =
-                                (ResumptionToken) headers
-                                        .get(headers.size() - 1);
-                        headers = headers.subList(0, headers.size() - 1);
+                if (writer != null) {
+                    writer.finish();
+                } else {
+                    if (headers.size() == 0) {
+                        throw new NoRecordsMatchException("No records match the providied criteria.");
                     }
+                    ResumptionToken resumptionToken = null;
+                    if (m_provider.getMaxHeaders() > 0) {
+                        if (headers.size() > m_provider.getMaxHeaders()) {
+                            resumptionToken =
+                                    (ResumptionToken) headers
+                                            .get(headers.size() - 1);
+                            headers = headers.subList(0, headers.size() - 1);
+                        }
+                    }
+                    respondToListIdentifiers(args,
+                                             baseURL,
+                                             headers,
+                                             resumptionToken,
+                                             out);
                 }
-                respondToListIdentifiers(args,
-                                         baseURL,
-                                         headers,
-                                         resumptionToken,
-                                         out);
             } else if (verb.equals("ListMetadataFormats")) {
                 String identifier = (String) args.get("identifier");
                 if (identifier == null) {
@@ -200,12 +225,25 @@ public class OAIResponder
                         .getMetadataFormats(identifier), out);
             } else if (verb.equals("ListRecords")) {
                 String rToken = (String) args.get("resumptionToken");
-                List records;
+                ListWriter writer = null;
+                if (m_provider instanceof StreamingOAIProvider) {
+                    writer =
+                            new ListWriter("ListRecords",
+                                           args,
+                                           baseURL,
+                                           out);
+                }
+                List records = null;
                 if (rToken != null) {
                     if (args.size() > 2) {
                         throw new BadArgumentException("ListRecords request specified resumptionToken with other arguments.");
                     }
-                    records = m_provider.getRecords(rToken);
+                    if (writer != null) {
+                        ((StreamingOAIProvider) m_provider)
+                                .listRecords(rToken, writer);
+                    } else {
+                        records = m_provider.getRecords(rToken);
+                    }
                 } else {
                     Iterator iter = args.keySet().iterator();
                     boolean badParam = false;
@@ -237,29 +275,41 @@ public class OAIResponder
                     if (metadataPrefix == null) {
                         throw new BadArgumentException("ListRecords request did not specify metadataPrefix argument.");
                     }
-                    records =
-                            m_provider.getRecords(from,
-                                                  until,
-                                                  metadataPrefix,
-                                                  set);
-                }
-                if (records.size() == 0) {
-                    throw new NoRecordsMatchException("No records match the providied criteria.");
+                    if (writer != null) {
+                        ((StreamingOAIProvider) m_provider).listRecords(from,
+                                                                       until,
+                                                                       metadataPrefix,
+                                                                       set,
+                                                                       writer);
+                    } else {
+                        records =
+                                m_provider.getRecords(from,
+                                                      until,
+                                                      metadataPrefix,
+                                                      set);
+                    }
                 }
-                ResumptionToken resumptionToken = null;
-                if (m_provider.getMaxRecords() > 0) {
-                    if (records.size() > m_provider.getMaxRecords()) {
-                        resumptionToken =
-                                (ResumptionToken) records
-                                        .get(records.size() - 1);
-                        records = records.subList(0, records.size() - 1);
+                if (writer != null) {
+                    writer.finish();
+                } else {
+                    if (records.size() == 0) {
+                        throw new NoRecordsMatchException("No records match the providied criteria.");
                     }
+                    ResumptionToken resumptionToken = null;
+                    if (m_provider.getMaxRecords() > 0) {
+                        if (records.size() > m_provider.getMaxRecords()) {
+                            resumptionToken =
+                                    (ResumptionToken) records
+                                            .get(records.size() - 1);
+                            records = records.subList(0, records.size() - 1);
+                        }
+                    }
+                    respondToListRecords(args,
+                                         baseURL,
+                                         records,
+                                         resumptionToken,
+                                         out);
                 }
-                respondToListRecords(args,
-                                     baseURL,
-                                     records,
-                                     resumptionToken,
-                                     out);
             } else if (verb.equals("ListSets")) {
                 String rToken = (String) args.get("resumptionToken");
                 List sets;
@@ -445,6 +495,71 @@ public class OAIResponder
         appendBottom(out);
     }
 
+    /**
+     * Writes a ListRecords or ListIdentifiers response as the provider
+     * produces its items. Nothing is written until the first item arrives, so
+     * that an empty list can still be answered with a noRecordsMatch error.
+     */
+    private class ListWriter
+            implements ListHandler {
+
+        private final String m_element;
+
+        private final Map m_args;
+
+        private final String m_baseURL;
+
+        private final PrintWriter m_out;
+
+        private boolean m_started;
+
+        private ResumptionToken m_resumptionToken;
+
+        ListWriter(String element, Map args, String baseURL, PrintWriter out) {
+            m_element = element;
+            m_args = args;
+            m_baseURL = baseURL;
+            m_out = out;
+        }
+
+        public void handleRecord(Record record) {
+            start();
+            appendRecord("    ", record, m_out);
+        }
+
+        public void handleHeader(Header header) {
+            start();
+            appendHeader("    ", header, m_out);
+        }
+
+        public void handleResumptionToken(ResumptionToken token) {
+            m_resumptionToken = token;
+        }
+
+        private void start() {
+            if (!m_started) {
+                appendTop(m_out);
+                appendRequest(m_args, m_baseURL, m_out);
+                m_out.println("  <" + m_element + ">");
+                m_started = true;
+            }
+        }
+
+        void finish() throws NoRecordsMatchException {
+            if (!m_started && m_resumptionToken != null
+                    && m_resumptionToken.getValue() != null) {
+                // every item of this part was left out, but the list goes on
+                start();
+            }
+            if (!m_started) {
+                throw new NoRecordsMatchException("No records match the providied criteria.");
+            }
+            appendResumptionToken(m_resumptionToken, m_out);
+            m_out.println("  </" + m_element + ">");
+            appendBottom(m_out);
+        }
+    }
+
     private void appendRecord(String indent, Record record, PrintWriter out) {
         Header header = record.getHeader();
         String metadata = record.getMetadata();
@@ -505,7 +620,8 @@ public class OAIResponder
                 out.print(" cursor=\"" + token.getCursor() + "\"");
             }
             if (token.getValue() != null) {
-                out.println(">" + token.getValue() + "</resumptionToken>");
+                out.println(">" + OAIResponder.enc(token.getValue())
+                        + "</resumptionToken>");
             } else {
                 out.println("/>");
             }
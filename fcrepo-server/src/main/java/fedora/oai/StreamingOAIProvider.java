@@ -0,0 +1,117 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also 
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.oai;
+
+import java.util.Date;
+
+/**
+ * An OAIProvider that can hand the Records and Headers of a list response to
+ * a ListHandler as they are read, rather than returning the complete list.
+ * <p>
+ * The handler receives at most getMaxRecords() Records (or getMaxHeaders()
+ * Headers), followed by the resumptionToken, if any.
+ */
+public interface StreamingOAIProvider
+        extends OAIProvider {
+
+    /**
+     * Pass the Records of items in the repository to the handler.
+     * 
+     * @param from
+     *        an optional UTC date specifying a lower bound for datestamp-based
+     *        selective harvesting.
+     * @param until
+     *        an optional UTC date specifying an upper bound for
+     *        datestamp-based selective harvesting.
+     * @param metadataPrefix
+     *        the metadata format.
+     * @param set
+     *        an optional setSpec for set-based selective harvesting.
+     * @param handler
+     *        the handler to receive the Records.
+     * @throws CannotDisseminateFormatException
+     * @throws NoRecordsMatchException
+     * @throws NoSetHierarchyException
+     * @throws RepositoryException
+     *         if an error has occurred.
+     */
+    public abstract void listRecords(Date from,
+                                     Date until,
+                                     String metadataPrefix,
+                                     String set,
+                                     ListHandler handler)
+            throws CannotDisseminateFormatException, NoRecordsMatchException,
+            NoSetHierarchyException, RepositoryException;
+
+    /**
+     * Pass the remaining portion of a set of Records to the handler.
+     * 
+     * @param resumptionToken
+     *        a string that can be used to get the rest of the list.
+     * @param handler
+     *        the handler to receive the Records.
+     * @throws CannotDisseminateFormatException
+     * @throws NoRecordsMatchException
+     * @throws NoSetHierarchyException
+     * @throws BadResumptionTokenException
+     * @throws RepositoryException
+     *         if an error has occurred.
+     */
+    public abstract void listRecords(String resumptionToken,
+                                     ListHandler handler)
+            throws CannotDisseminateFormatException, NoRecordsMatchException,
+            NoSetHierarchyException, BadResumptionTokenException,
+            RepositoryException;
+
+    /**
+     * Pass the Headers of items in the repository to the handler.
+     * 
+     * @param from
+     *        an optional UTC date specifying a lower bound for datestamp-based
+     *        selective harvesting.
+     * @param until
+     *        an optional UTC date specifying an upper bound for
+     *        datestamp-based selective harvesting.
+     * @param metadataPrefix
+     *        the metadata format.
+     * @param set
+     *        an optional setSpec for set-based selective harvesting.
+     * @param handler
+     *        the handler to receive the Headers.
+     * @throws CannotDisseminateFormatException
+     * @throws NoRecordsMatchException
+     * @throws NoSetHierarchyException
+     * @throws RepositoryException
+     *         if an error has occurred.
+     */
+    public abstract void listHeaders(Date from,
+                                     Date until,
+                                     String metadataPrefix,
+                                     String set,
+                                     ListHandler handler)
+            throws CannotDisseminateFormatException, NoRecordsMatchException,
+            NoSetHierarchyException, RepositoryException;
+
+    /**
+     * Pass the remaining portion of a set of Headers to the handler.
+     * 
+     * @param resumptionToken
+     *        a string that can be used to get the rest of the list.
+     * @param handler
+     *        the handler to receive the Headers.
+     * @throws CannotDisseminateFormatException
+     * @throws NoRecordsMatchException
+     * @throws NoSetHierarchyException
+     * @throws BadResumptionTokenException
+     * @throws RepositoryException
+     *         if an error has occurred.
+     */
+    public abstract void listHeaders(String resumptionToken,
+                                     ListHandler handler)
+            throws CannotDisseminateFormatException, NoRecordsMatchException,
+            NoSetHierarchyException, BadResumptionTokenException,
+            RepositoryException;
+
+}
@@ -9,6 +9,9 @@ import fedora.common.Models;
 import fedora.server.Context;
 import fedora.server.Module;
 import fedora.server.Server;
+import fedora.server.access.dissemination.DatastreamPrefetcher;
+import fedora.server.access.dissemination.DeliveryLimiter;
+import fedora.server.access.dissemination.DisseminationCache;
 import fedora.server.access.dissemination.DisseminationService;
 import fedora.server.errors.*;
 import fedora.server.search.FieldSearchQuery;
@@ -25,6 +28,8 @@ import fedora.server.utilities.DateUtility;
 import org.apache.log4j.Logger;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
@@ -61,6 +66,15 @@ public class DefaultAccess
 
     private Authorization m_authorizationModule;
 
+    /** Cache of dissemination results, or null if disabled. */
+    private DisseminationCache m_disseminationCache;
+
+    /** Limits concurrent content deliveries by the access servlets. */
+    private DeliveryLimiter m_deliveryLimiter;
+
+    /** Fetches mediated External datastreams in advance, or null. */
+    private DatastreamPrefetcher m_datastreamPrefetcher;
+
     /**
      * <p>
      * Creates and initializes the Access Module. When the server is starting
@@ -101,6 +115,110 @@ public class DefaultAccess
             throw new ModuleInitializationException("doMediateDatastreams parameter must be specified.",
                                                     getRole());
         }
+
+        initDisseminationCache();
+
+        long maxDeliveries = getLongParameter("maxConcurrentDeliveries", 0);
+        if (maxDeliveries > 0) {
+            m_deliveryLimiter =
+                    new DeliveryLimiter((int) maxDeliveries,
+                                        getLongParameter("deliveryWaitSeconds",
+                                                         5) * 1000);
+            LOG.info("Limiting concurrent content deliveries to "
+                    + maxDeliveries);
+        }
+    }
+
+    /**
+     * Gets the limit on concurrent content deliveries.
+     *
+     * @return the limiter, or null if deliveries are not limited.
+     */
+    public DeliveryLimiter getDeliveryLimiter() {
+        return m_deliveryLimiter;
+    }
+
+    /**
+     * Gets the prefetcher of mediated External datastreams.
+     *
+     * @return the prefetcher, or null if prefetching is disabled.
+     */
+    public DatastreamPrefetcher getDatastreamPrefetcher() {
+        return m_datastreamPrefetcher;
+    }
+
+    /**
+     * Creates the dissemination cache if any service deployments are
+     * configured for caching.
+     */
+    private void initDisseminationCache()
+            throws ModuleInitializationException {
+        long defaultSeconds =
+                getLongParameter("disseminationCacheSeconds", 3600);
+        Map<String, Long> ttlByDeployment = new HashMap<String, Long>();
+        String deployments = getParameter("disseminationCacheDeployments");
+        if (deployments != null) {
+            for (String deployment : deployments.trim().split("[\\s,]+")) {
+                if (deployment.length() == 0) {
+                    continue;
+                }
+                long seconds = defaultSeconds;
+                int i = deployment.indexOf('=');
+                if (i != -1) {
+                    try {
+                        seconds = Long.parseLong(deployment.substring(i + 1));
+                    } catch (NumberFormatException e) {
+                        throw new ModuleInitializationException("Bad value for "
+                                + "disseminationCacheDeployments parameter: "
+                                + deployment, getRole());
+                    }
+                    deployment = deployment.substring(0, i);
+                }
+                ttlByDeployment.put(deployment, new Long(seconds * 1000));
+            }
+        }
+        if (ttlByDeployment.isEmpty()) {
+            return;
+        }
+
+        String dir = getParameter("disseminationCacheDir");
+        if (dir == null) {
+            dir = "access/cache";
+        }
+        File cacheDir = new File(dir);
+        if (!cacheDir.isAbsolute()) {
+            cacheDir = new File(getServer().getHomeDir(), dir);
+        }
+        try {
+            m_disseminationCache =
+                    new DisseminationCache(cacheDir,
+                                           getLongParameter("disseminationCacheDiskBytes",
+                                                            104857600),
+                                           getLongParameter("disseminationCacheMemoryBytes",
+                                                            8388608),
+                                           getLongParameter("disseminationCacheEntryBytes",
+                                                            10485760),
+                                           ttlByDeployment);
+        } catch (IOException e) {
+            throw new ModuleInitializationException("Unable to create "
+                    + "dissemination cache: " + e.getMessage(), getRole());
+        }
+        LOG.info("Caching disseminations of " + ttlByDeployment.keySet()
+                + " in " + cacheDir.getPath());
+    }
+
+    private long getLongParameter(String name, long defaultValue)
+            throws ModuleInitializationException {
+        String value = getParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ModuleInitializationException("Bad value for " + name
+                    + " parameter: " + value, getRole());
+        }
     }
 
     @Override
@@ -146,6 +264,23 @@ public class DefaultAccess
                                                     getRole());
         }
 
+        long prefetchThreads = getLongParameter("datastreamPrefetchThreads", 0);
+        if (prefetchThreads > 0
+                && Boolean.valueOf(getParameter("doMediateDatastreams"))) {
+            m_datastreamPrefetcher =
+                    new DatastreamPrefetcher(m_externalContentManager,
+                                             (int) prefetchThreads,
+                                             (int) getLongParameter("datastreamPrefetchMaxBytes",
+                                                                    1048576));
+            LOG.info("datastreamPrefetchThreads=" + prefetchThreads);
+        }
+    }
+
+    @Override
+    public void shutdownModule() throws ModuleShutdownException {
+        if (m_datastreamPrefetcher != null) {
+            m_datastreamPrefetcher.shutdown();
+        }
     }
 
     private static final Hashtable<String, String> accessActionAttributes =
@@ -419,6 +554,31 @@ public class DefaultAccess
                                             methodName,
                                             asOfDateTime);
 
+        // Serve a cached result if the deployment allows it. Authorization
+        // has already been enforced above.
+        String cacheKey = null;
+        if (m_disseminationCache != null
+                && m_disseminationCache.isCacheable(authzAux_sDepPID,
+                                                    dissBindInfo)) {
+            cacheKey =
+                    DisseminationCache.getKey(PID,
+                                              sDefPID,
+                                              methodName,
+                                              h_userParms,
+                                              authzAux_sDepPID,
+                                              deploymentReader
+                                                      .getLastModDate(),
+                                              dissBindInfo);
+            dissemination = m_disseminationCache.get(cacheKey);
+            if (dissemination != null) {
+                stopTime = new Date().getTime();
+                interval = stopTime - initStartTime;
+                LOG.debug("Roundtrip GetDissemination (cached): " + interval
+                        + " milliseconds.");
+                return dissemination;
+            }
+        }
+
         // Assemble and execute the dissemination request from the binding info.
         DisseminationService dissService = new DisseminationService();
         dissemination =
@@ -429,6 +589,12 @@ public class DefaultAccess
                                                   authzAux_sDepPID,
                                                   deploymentReader,
                                                   methodName);
+        if (cacheKey != null) {
+            dissemination =
+                    m_disseminationCache.put(cacheKey,
+                                             authzAux_sDepPID,
+                                             dissemination);
+        }
 
         stopTime = new Date().getTime();
         interval = stopTime - startTime;
@@ -38,6 +38,7 @@ import fedora.common.Constants;
 import fedora.server.Context;
 import fedora.server.ReadOnlyContext;
 import fedora.server.Server;
+import fedora.server.access.dissemination.DeliveryLimiter;
 import fedora.server.errors.DatastreamNotFoundException;
 import fedora.server.errors.DisseminationException;
 import fedora.server.errors.GeneralException;
@@ -160,6 +161,9 @@ public class FedoraAccessServlet
     /** Instance of the access subsystem. */
     private static Access s_access = null;
 
+    /** Limits concurrent content deliveries. */
+    private static DeliveryLimiter s_deliveries = null;
+
     /** Portion of initial request URL from protocol up to query string */
     private String requestURI = null;
 
@@ -681,20 +685,28 @@ public class FedoraAccessServlet
                         }
                     }
                 }
-                out = response.getOutputStream();
-                int byteStream = 0;
-                LOG.debug("Started reading dissemination stream");
-                InputStream dissemResult = dissemination.getStream();
-                byte[] buffer = new byte[BUF];
-                while ((byteStream = dissemResult.read(buffer)) != -1) {
-                    out.write(buffer, 0, byteStream);
+                if (!s_deliveries.acquire()) {
+                    s_deliveries.sendBusy(response);
+                    return;
+                }
+                try {
+                    out = response.getOutputStream();
+                    int byteStream = 0;
+                    LOG.debug("Started reading dissemination stream");
+                    InputStream dissemResult = dissemination.getStream();
+                    byte[] buffer = new byte[BUF];
+                    while ((byteStream = dissemResult.read(buffer)) != -1) {
+                        out.write(buffer, 0, byteStream);
+                    }
+                    buffer = null;
+                    dissemResult.close();
+                    dissemResult = null;
+                    out.flush();
+                    out.close();
+                    LOG.debug("Finished reading dissemination stream");
+                } finally {
+                    s_deliveries.release();
                 }
-                buffer = null;
-                dissemResult.close();
-                dissemResult = null;
-                out.flush();
-                out.close();
-                LOG.debug("Finished reading dissemination stream");
             }
         } finally {
             dissemination.close();
@@ -808,19 +820,27 @@ public class FedoraAccessServlet
                         }
                     }
                 }
-                int byteStream = 0;
-                LOG.debug("Started reading dissemination stream");
-                InputStream dissemResult = dissemination.getStream();
-                byte[] buffer = new byte[BUF];
-                while ((byteStream = dissemResult.read(buffer)) != -1) {
-                    out.write(buffer, 0, byteStream);
+                // the permit is only taken once the backend service has
+                // answered, so that its callbacks to /get/ for datastreams
+                // never wait for permits held by the disseminations that
+                // invoked it
+                if (!s_deliveries.acquire()) {
+                    s_deliveries.sendBusy(response);
+                    return;
+                }
+                try {
+                    LOG.debug("Started reading dissemination stream");
+                    InputStream dissemResult = dissemination.getStream();
+                    // pass the backend response on as it arrives
+                    StreamUtility.streamAsAvailable(dissemResult, out, BUF);
+                    dissemResult.close();
+                    dissemResult = null;
+                    out.flush();
+                    out.close();
+                    LOG.debug("Finished reading dissemination stream");
+                } finally {
+                    s_deliveries.release();
                 }
-                buffer = null;
-                dissemResult.close();
-                dissemResult = null;
-                out.flush();
-                out.close();
-                LOG.debug("Finished reading dissemination stream");
             }
         } finally {
             dissemination.close();
@@ -972,6 +992,7 @@ public class FedoraAccessServlet
             s_server = Server.getInstance(new File(FEDORA_HOME), false);
             s_access =
                     (Access) s_server.getModule("fedora.server.access.Access");
+            s_deliveries = DeliveryLimiter.getInstance(s_server);
         } catch (InitializationException ie) {
             throw new ServletException("Unable to get Fedora Server instance."
                     + ie.getMessage());
@@ -5,6 +5,10 @@
 package fedora.server.access;
 
 import java.io.File;
+import java.io.PrintWriter;
+
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -12,8 +16,10 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
 
+import org.trippi.RDFFormat;
 import org.trippi.TriplestoreReader;
 import org.trippi.TriplestoreWriter;
+import org.trippi.TrippiException;
 import org.trippi.server.TrippiServer;
 import org.trippi.server.http.TrippiServlet;
 
@@ -25,11 +31,24 @@ import fedora.server.Server;
 import fedora.server.errors.authorization.AuthzException;
 import fedora.server.errors.servletExceptionExtensions.InternalError500Exception;
 import fedora.server.errors.servletExceptionExtensions.RootException;
+import fedora.server.resourceIndex.PreparedQueries;
+import fedora.server.resourceIndex.PreparedQuery;
+import fedora.server.resourceIndex.QueryResultCache;
 import fedora.server.resourceIndex.ResourceIndex;
+import fedora.server.resourceIndex.ResourceIndexModule;
 import fedora.server.security.Authorization;
+import fedora.server.utilities.StreamUtility;
 
 /**
  * RISearchServlet
+ * <p>
+ * In addition to Trippi's ad-hoc queries, runs the prepared queries
+ * registered with the Resource Index module: <code>prepared=name</code>
+ * runs the named query, with its placeholders filled from the request
+ * parameters of the same names, and the optional <code>format</code>,
+ * <code>limit</code> and <code>distinct</code> parameters. An empty
+ * <code>prepared</code> parameter lists the prepared queries with their
+ * run counts and timings.
  *
  * @version $Id$
  */
@@ -100,7 +119,14 @@ public class RISearchServlet
                     ReadOnlyContext.getContext(Constants.HTTP_REQUEST.REST.uri,
                                                request);
             m_authorization.enforceRIFindObjects(context);
-            super.doGet(server, request, response);
+            String prepared = request.getParameter("prepared");
+            if (prepared == null) {
+                super.doGet(server, request, response);
+            } else if (prepared.length() == 0) {
+                listPrepared(response);
+            } else {
+                runPrepared(prepared, request, response);
+            }
         } catch (AuthzException e) {
             LOG.error("Authorization failed for request: "
                     + request.getRequestURI() + " (actionLabel=" + ACTION_LABEL
@@ -120,6 +146,103 @@ public class RISearchServlet
         }
     }
 
+    private PreparedQueries getPreparedQueries() throws ServletException {
+        TriplestoreWriter writer = getWriter();
+        if (writer instanceof ResourceIndexModule) {
+            PreparedQueries prepared =
+                    ((ResourceIndexModule) writer).getPreparedQueries();
+            if (prepared != null) {
+                return prepared;
+            }
+        }
+        throw new ServletException("Prepared queries are not available.");
+    }
+
+    private void runPrepared(String name,
+                             HttpServletRequest request,
+                             HttpServletResponse response) throws Exception {
+        PreparedQueries prepared = getPreparedQueries();
+        PreparedQuery query = prepared.get(name);
+        if (query == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND,
+                               "No such prepared query: " + name);
+            return;
+        }
+        String boundQuery;
+        RDFFormat format;
+        int limit = 0;
+        try {
+            Map<String, String> values = new HashMap<String, String>();
+            for (String param : query.getParameterNames()) {
+                values.put(param, request.getParameter(param));
+            }
+            boundQuery = query.bind(values);
+            String formatName = request.getParameter("format");
+            if (formatName != null && formatName.length() > 0) {
+                format = RDFFormat.forName(formatName);
+            } else if (query.isTuples()) {
+                format = RDFFormat.SPARQL;
+            } else {
+                format = RDFFormat.RDF_XML;
+            }
+            String limitValue = request.getParameter("limit");
+            if (limitValue != null && limitValue.length() > 0) {
+                limit = Integer.parseInt(limitValue);
+            }
+        } catch (IllegalArgumentException e) {
+            // includes NumberFormatException
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                               e.getMessage());
+            return;
+        } catch (TrippiException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                               e.getMessage());
+            return;
+        }
+        String distinct = request.getParameter("distinct");
+        response.setContentType(format.getMIMEType() + "; charset=UTF-8");
+        prepared.run(getReader(),
+                     query,
+                     boundQuery,
+                     format,
+                     limit,
+                     "true".equalsIgnoreCase(distinct)
+                             || "on".equalsIgnoreCase(distinct),
+                     response.getOutputStream());
+    }
+
+    private void listPrepared(HttpServletResponse response) throws Exception {
+        PreparedQueries prepared = getPreparedQueries();
+        QueryResultCache cache = prepared.getCache();
+        response.setContentType("text/xml; charset=UTF-8");
+        PrintWriter out = response.getWriter();
+        out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        out.println("<preparedQueries generation=\""
+                + prepared.getGeneration() + "\" cacheSize=\"" + cache.size()
+                + "\" cacheHits=\"" + cache.getHitCount()
+                + "\" cacheMisses=\"" + cache.getMissCount() + "\">");
+        for (PreparedQuery query : prepared.getAll()) {
+            StringBuilder params = new StringBuilder();
+            for (String param : query.getParameterNames()) {
+                if (params.length() > 0) {
+                    params.append(' ');
+                }
+                params.append(param);
+            }
+            out.println("  <query name=\"" + StreamUtility.enc(query.getName())
+                    + "\" type=\"" + query.getType() + "\" lang=\""
+                    + StreamUtility.enc(query.getLang()) + "\" parameters=\""
+                    + StreamUtility.enc(params.toString()) + "\" runs=\""
+                    + query.getRunCount() + "\" errors=\""
+                    + query.getErrorCount() + "\" cacheHits=\""
+                    + query.getCacheHitCount() + "\" totalMillis=\""
+                    + query.getTotalMillis() + "\" maxMillis=\""
+                    + query.getMaxMillis() + "\"/>");
+        }
+        out.println("</preparedQueries>");
+        out.flush();
+    }
+
     @Override
     public boolean closeOnDestroy() {
         return false;
@@ -0,0 +1,185 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.access.dissemination;
+
+import java.security.SecureRandom;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fedora.server.storage.types.DatastreamMediation;
+
+/**
+ * The in-memory registry of temporary ids used for datastream mediation.
+ * <p>
+ * Ids are random, so that a backend service cannot guess the id of another
+ * service's datastream. Registrations are kept in a concurrent map for
+ * lookup, and in a queue in the order in which they were made; expired
+ * registrations are removed from the head of the queue whenever a new one is
+ * added, so registering and resolving never require a scan of the whole
+ * registry.
+ */
+public class DatastreamMediationRegistry {
+
+    private static final char[] ID_CHARS =
+            "abcdefghijklmnopqrstuvwxyz234567".toCharArray();
+
+    /** Number of random bytes in an id; 15 bytes encode to 24 characters. */
+    private static final int ID_BYTES = 15;
+
+    private final long m_expirationMillis;
+
+    private final SecureRandom m_random = new SecureRandom();
+
+    private final ConcurrentMap<String, DatastreamMediation> m_registry =
+            new ConcurrentHashMap<String, DatastreamMediation>();
+
+    private final Queue<DatastreamMediation> m_expiryQueue =
+            new ConcurrentLinkedQueue<DatastreamMediation>();
+
+    private final AtomicLong m_registered = new AtomicLong();
+
+    private final AtomicLong m_resolved = new AtomicLong();
+
+    private final AtomicLong m_notFound = new AtomicLong();
+
+    private final AtomicLong m_expired = new AtomicLong();
+
+    /**
+     * Creates a registry whose entries are discarded
+     * <code>expirationMillis</code> milliseconds after they are registered.
+     */
+    public DatastreamMediationRegistry(long expirationMillis) {
+        m_expirationMillis = expirationMillis;
+    }
+
+    /**
+     * Registers a datastream for mediation, discarding any expired
+     * registrations first. The new id is assigned to
+     * <code>dm.mediatedDatastreamID</code>, and the time of registration to
+     * <code>dm.registrationTime</code>.
+     *
+     * @return the id.
+     */
+    public String register(DatastreamMediation dm) {
+        long now = System.currentTimeMillis();
+        purge(now);
+
+        dm.registrationTime = now;
+        String id;
+        do {
+            id = newId();
+        } while (m_registry.putIfAbsent(id, dm) != null);
+        dm.mediatedDatastreamID = id;
+        m_expiryQueue.add(dm);
+        m_registered.incrementAndGet();
+        return id;
+    }
+
+    /**
+     * Gets a registration.
+     *
+     * @return the registration, or null if the id is unknown or has expired.
+     */
+    public DatastreamMediation get(String id) {
+        DatastreamMediation dm = m_registry.get(id);
+        if (dm != null
+                && System.currentTimeMillis() - dm.registrationTime >= m_expirationMillis) {
+            if (m_registry.remove(id, dm)) {
+                DatastreamPrefetcher.discard(dm);
+            }
+            dm = null;
+        }
+        if (dm == null) {
+            m_notFound.incrementAndGet();
+        } else {
+            m_resolved.incrementAndGet();
+        }
+        return dm;
+    }
+
+    /**
+     * Discards a registration, along with any of its prefetched content that
+     * has not been taken.
+     */
+    public void remove(String id) {
+        DatastreamMediation dm = m_registry.remove(id);
+        if (dm != null) {
+            DatastreamPrefetcher.discard(dm);
+        }
+    }
+
+    /**
+     * Discards the registrations that have expired. Since registrations are
+     * queued in the order in which they were made, this stops at the first
+     * one that has not.
+     */
+    private void purge(long now) {
+        synchronized (m_expiryQueue) {
+            DatastreamMediation dm;
+            while ((dm = m_expiryQueue.peek()) != null
+                    && now - dm.registrationTime >= m_expirationMillis) {
+                m_expiryQueue.poll();
+                if (m_registry.remove(dm.mediatedDatastreamID, dm)) {
+                    DatastreamPrefetcher.discard(dm);
+                    m_expired.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private String newId() {
+        byte[] bytes = new byte[ID_BYTES];
+        m_random.nextBytes(bytes);
+        StringBuffer id = new StringBuffer();
+        // every 5 bytes yield 8 characters of 5 bits each
+        for (int i = 0; i < bytes.length; i += 5) {
+            long bits = 0;
+            for (int j = 0; j < 5; j++) {
+                bits = bits << 8 | bytes[i + j] & 0xff;
+            }
+            for (int j = 7; j >= 0; j--) {
+                id.append(ID_CHARS[(int) (bits >>> j * 5) & 31]);
+            }
+        }
+        return id.toString();
+    }
+
+    /** The number of ids currently registered. */
+    public int size() {
+        return m_registry.size();
+    }
+
+    /** The number of ids registered since startup. */
+    public long getRegisteredCount() {
+        return m_registered.get();
+    }
+
+    /** The number of lookups that found a registration. */
+    public long getResolvedCount() {
+        return m_resolved.get();
+    }
+
+    /** The number of lookups of unknown or expired ids. */
+    public long getNotFoundCount() {
+        return m_notFound.get();
+    }
+
+    /** The number of registrations discarded because they expired. */
+    public long getExpiredCount() {
+        return m_expired.get();
+    }
+
+    @Override
+    public String toString() {
+        return "DatastreamMediationRegistry[size=" + size() + ", registered="
+                + getRegisteredCount() + ", resolved=" + getResolvedCount()
+                + ", notFound=" + getNotFoundCount() + ", expired="
+                + getExpiredCount() + "]";
+    }
+}
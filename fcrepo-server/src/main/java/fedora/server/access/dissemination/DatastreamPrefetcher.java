@@ -0,0 +1,263 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.access.dissemination;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import fedora.common.http.HttpInputStream;
+
+import fedora.server.errors.GeneralException;
+import fedora.server.errors.ServerException;
+import fedora.server.storage.ContentManagerParams;
+import fedora.server.storage.ExternalContentManager;
+import fedora.server.storage.types.DatastreamMediation;
+import fedora.server.storage.types.MIMETypedStream;
+
+/**
+ * Starts fetching the content of mediated External datastreams as soon as
+ * they are registered, so that the requests for all the datastreams bound to
+ * a dissemination are made in parallel, and are already under way by the time
+ * the backend service calls back to <code>DatastreamResolverServlet</code>.
+ * <p>
+ * Fetched content is read into memory, and its connection released, right
+ * away. Content larger than <code>maxBytes</code> is not kept; its request is
+ * aborted, and the servlet fetches it itself when asked for it. At most
+ * <code>threads * 4</code> prefetches are queued, running, or held waiting
+ * for the servlet at a time; further datastreams are not prefetched.
+ * <p>
+ * The fetched content is held in the registration until the servlet takes
+ * it, or until the registration is discarded.
+ */
+public class DatastreamPrefetcher {
+
+    private static final Logger LOG =
+            Logger.getLogger(DatastreamPrefetcher.class.getName());
+
+    private final ExternalContentManager m_ecm;
+
+    private final int m_maxBytes;
+
+    private final int m_maxInFlight;
+
+    private final Semaphore m_inFlight;
+
+    private final ThreadPoolExecutor m_executor;
+
+    /**
+     * Creates a prefetcher that fetches up to <code>threads</code>
+     * datastreams at a time, and keeps those of up to <code>maxBytes</code>
+     * bytes.
+     */
+    public DatastreamPrefetcher(ExternalContentManager ecm,
+                                int threads,
+                                int maxBytes) {
+        m_ecm = ecm;
+        m_maxBytes = maxBytes;
+        m_maxInFlight = threads * 4;
+        m_inFlight = new Semaphore(m_maxInFlight);
+        m_executor =
+                new ThreadPoolExecutor(threads,
+                                       threads,
+                                       60,
+                                       TimeUnit.SECONDS,
+                                       new ArrayBlockingQueue<Runnable>(threads * 4),
+                                       new PrefetchThreadFactory());
+    }
+
+    /**
+     * Starts fetching the content of a datastream about to be registered, if
+     * it is an
+     * External datastream available over http(s). If too many prefetches are
+     * already in flight, the datastream is left to be fetched when the
+     * backend service asks for it.
+     */
+    public void prefetch(DatastreamMediation dm) {
+        if (!"E".equals(dm.dsControlGroupType) || dm.dsLocation == null
+                || !dm.dsLocation.startsWith("http")) {
+            return;
+        }
+        if (!m_inFlight.tryAcquire()) {
+            LOG.debug("Too many prefetches in flight, not prefetching "
+                    + dm.dsLocation);
+            return;
+        }
+        final ContentManagerParams params =
+                new ContentManagerParams(dm.dsLocation);
+        PrefetchTask task = new PrefetchTask(new Callable<MIMETypedStream>() {
+
+            public MIMETypedStream call() throws Exception {
+                return read(m_ecm.getExternalContent(params), m_maxBytes);
+            }
+        }, m_inFlight);
+        try {
+            m_executor.execute(task);
+            synchronized (dm) {
+                dm.prefetched = task;
+            }
+        } catch (RejectedExecutionException e) {
+            task.release();
+            LOG.debug("Prefetch queue full, not prefetching "
+                    + dm.dsLocation);
+        }
+    }
+
+    /**
+     * Reads content into memory and closes its stream.
+     *
+     * @return the content, now held in memory, or null if it was larger
+     *         than <code>maxBytes</code>.
+     */
+    static MIMETypedStream read(MIMETypedStream content, int maxBytes)
+            throws IOException {
+        InputStream in = content.getStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean complete = false;
+        try {
+            byte[] buf = new byte[8192];
+            int len;
+            while (out.size() <= maxBytes && (len = in.read(buf)) != -1) {
+                out.write(buf, 0, len);
+            }
+            complete = out.size() <= maxBytes;
+        } finally {
+            if (!complete && in instanceof HttpInputStream) {
+                // don't read the rest of a response that won't be kept
+                ((HttpInputStream) in).abort();
+            } else {
+                in.close();
+            }
+        }
+        if (!complete) {
+            return null;
+        }
+        content.setStream(new ByteArrayInputStream(out.toByteArray()));
+        return content;
+    }
+
+    /**
+     * Takes the prefetched content of a registered datastream.
+     *
+     * @return the content, or null if it was not prefetched, was too large
+     *         to keep, or has already been taken.
+     * @throws ServerException
+     *         if the content could not be fetched.
+     */
+    public static MIMETypedStream take(DatastreamMediation dm)
+            throws ServerException {
+        Future<MIMETypedStream> future;
+        synchronized (dm) {
+            future = dm.prefetched;
+            dm.prefetched = null;
+        }
+        if (future == null) {
+            return null;
+        }
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ServerException) {
+                throw (ServerException) cause;
+            }
+            throw new GeneralException("Error prefetching datastream", cause);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw new GeneralException("Interrupted prefetching datastream", e);
+        } finally {
+            if (future instanceof PrefetchTask) {
+                ((PrefetchTask) future).release();
+            }
+        }
+    }
+
+    /**
+     * Discards any prefetched content of a registered datastream that has not
+     * been taken. This never waits for the fetch; one that has not started
+     * is cancelled.
+     */
+    public static void discard(DatastreamMediation dm) {
+        Future<MIMETypedStream> future;
+        synchronized (dm) {
+            future = dm.prefetched;
+            dm.prefetched = null;
+        }
+        if (future != null) {
+            future.cancel(false);
+            if (future instanceof PrefetchTask) {
+                ((PrefetchTask) future).release();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of prefetches that are queued, running, or held
+     * waiting to be taken.
+     */
+    public int getInFlightCount() {
+        return m_maxInFlight - m_inFlight.availablePermits();
+    }
+
+    /**
+     * Stops fetching. Content already fetched can still be taken.
+     */
+    public void shutdown() {
+        m_executor.shutdownNow();
+    }
+
+    /**
+     * A fetch that holds one of the prefetcher's in-flight permits until its
+     * content is taken or discarded.
+     */
+    private static class PrefetchTask
+            extends FutureTask<MIMETypedStream> {
+
+        private final Semaphore m_inFlight;
+
+        private final AtomicBoolean m_released = new AtomicBoolean();
+
+        PrefetchTask(Callable<MIMETypedStream> callable, Semaphore inFlight) {
+            super(callable);
+            m_inFlight = inFlight;
+        }
+
+        void release() {
+            if (m_released.compareAndSet(false, true)) {
+                m_inFlight.release();
+            }
+        }
+    }
+
+    private static class PrefetchThreadFactory
+            implements ThreadFactory {
+
+        private final AtomicInteger m_count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t =
+                    new Thread(r, "DatastreamPrefetcher-"
+                            + m_count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -9,12 +9,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
 
-import java.sql.Timestamp;
-
-import java.util.Date;
 import java.util.Enumeration;
-import java.util.Hashtable;
-import java.util.Iterator;
 
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
@@ -43,13 +38,14 @@ import fedora.server.storage.types.DatastreamMediation;
 import fedora.server.storage.types.MIMETypedStream;
 import fedora.server.storage.types.Property;
 import fedora.server.utilities.ServerUtility;
+import fedora.server.utilities.StreamUtility;
 
 /**
  * This servlet acts as a proxy to resolve the physical location of datastreams.
  *
  * <p>It requires a single parameter named <code>id</code> that denotes the
- * temporary id of the requested datastresm. This id is in the form of a
- * DateTime stamp. The servlet will perform an in-memory hashtable lookup
+ * temporary id of the requested datastresm. This id is a random string
+ * issued by the DisseminationService. The servlet will perform an in-memory lookup
  * using the temporary id to obtain the actual physical location of the
  * datastream and then return the contents of the datastream as a MIME-typed
  * stream. This servlet is invoked primarily by external mechanisms needing to
@@ -77,12 +73,14 @@ public class DatastreamResolverServlet
 
     private static DOManager m_manager;
 
-    private static Hashtable dsRegistry;
+    private static DatastreamMediationRegistry dsRegistry;
 
     private static int datastreamMediationLimit;
 
     private static final String HTML_CONTENT_TYPE = "text/html";
 
+    private static final int BUF = 8192;
+
     private static String fedoraServerHost;
 
     private static String fedoraServerPort;
@@ -159,16 +157,13 @@ public class DatastreamResolverServlet
         String user = null;
         String pass = null;
         MIMETypedStream mimeTypedStream = null;
-        DisseminationService ds = null;
-        Timestamp keyTimestamp = null;
-        Timestamp currentTimestamp = null;
         PrintWriter out = null;
         ServletOutputStream outStream = null;
         String requestURI =
                 request.getRequestURL().toString() + "?"
                         + request.getQueryString();
 
-        id = request.getParameter("id").replaceAll("T", " ");
+        id = request.getParameter("id");
         LOG.debug("Datastream tempID=" + id);
 
         LOG.debug("DRS doGet()");
@@ -188,20 +183,17 @@ public class DatastreamResolverServlet
                                    message);
                 return;
             }
-            id = id.replaceAll("T", " ").replaceAll("/", "").trim();
+            id = id.replaceAll("/", "").trim();
 
-            // Get in-memory hashtable of mappings from Fedora server.
-            ds = new DisseminationService();
+            // Get in-memory registry of mappings from Fedora server.
             dsRegistry = DisseminationService.dsRegistry;
-            DatastreamMediation dm = (DatastreamMediation) dsRegistry.get(id);
+            DatastreamMediation dm = dsRegistry.get(id);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(dsRegistry.toString());
+            }
             if (dm == null) {
-                StringBuffer entries = new StringBuffer();
-                Iterator eIter = dsRegistry.keySet().iterator();
-                while (eIter.hasNext()) {
-                    entries.append("'" + (String) eIter.next() + "' ");
-                }
                 throw new IOException("Cannot find datastream in temp registry by key: "
-                        + id + "\n" + "Reg entries: " + entries.toString());
+                        + id);
             }
             dsPhysicalLocation = dm.dsLocation;
             dsControlGroupType = dm.dsControlGroupType;
@@ -310,8 +302,6 @@ public class DatastreamResolverServlet
                     }
                 }
             }
-            keyTimestamp = Timestamp.valueOf(ds.extractTimestamp(id));
-            currentTimestamp = new Timestamp(new Date().getTime());
             LOG.debug("dsPhysicalLocation=" + dsPhysicalLocation
                     + "dsControlGroupType=" + dsControlGroupType);
 
@@ -320,7 +310,7 @@ public class DatastreamResolverServlet
             // The expiration limit can be adjusted using the Fedora config
             // parameter
             // named "datastreamMediationLimit" which is in milliseconds.
-            long diff = currentTimestamp.getTime() - keyTimestamp.getTime();
+            long diff = System.currentTimeMillis() - dm.registrationTime;
             LOG.debug("Timestamp diff for mechanism's reponse: " + diff
                     + " ms.");
             if (diff > (long) datastreamMediationLimit) {
@@ -453,12 +443,18 @@ public class DatastreamResolverServlet
 
                 // Datastream is ReferencedExternalContent so dsLocation is a
                 // URL string
-                ExternalContentManager externalContentManager =
-                        (ExternalContentManager) s_server
-                                .getModule("fedora.server.storage.ExternalContentManager");
-                ContentManagerParams params = new ContentManagerParams(dsPhysicalLocation);
-                params.setContext(context);
-                mimeTypedStream = externalContentManager.getExternalContent(params);
+                // unless it is already being fetched
+                mimeTypedStream = DatastreamPrefetcher.take(dm);
+                if (mimeTypedStream == null) {
+                    ExternalContentManager externalContentManager =
+                            (ExternalContentManager) s_server
+                                    .getModule("fedora.server.storage.ExternalContentManager");
+                    ContentManagerParams params =
+                            new ContentManagerParams(dsPhysicalLocation);
+                    params.setContext(context);
+                    mimeTypedStream =
+                            externalContentManager.getExternalContent(params);
+                }
                 
                 // had substituted context:
                 // ReadOnlyContext.getContext(Constants.HTTP_REQUEST.REST.uri,
@@ -481,14 +477,12 @@ public class DatastreamResolverServlet
                         }
                     }
                 }
-                int byteStream = 0;
-                byte[] buffer = new byte[255];
-                while ((byteStream = mimeTypedStream.getStream().read(buffer)) != -1) {
-                    outStream.write(buffer, 0, byteStream);
+                try {
+                    StreamUtility.streamAsAvailable(mimeTypedStream
+                            .getStream(), outStream, BUF);
+                } finally {
+                    mimeTypedStream.close();
                 }
-                buffer = null;
-                outStream.flush();
-                mimeTypedStream.close();
             } else if (dsControlGroupType.equalsIgnoreCase("M")
                     || dsControlGroupType.equalsIgnoreCase("X")) {
                 // Datastream is either XMLMetadata or ManagedContent so
@@ -522,15 +516,13 @@ public class DatastreamResolverServlet
                         (Datastream) doReader.getDatastream(dsID, dsVersionID);
                 LOG.debug("Got datastream: " + d.DatastreamID);
                 InputStream is = d.getContentStream();
-                int bytestream = 0;
                 response.setContentType(d.DSMIME);
                 outStream = response.getOutputStream();
-                byte[] buffer = new byte[255];
-                while ((bytestream = is.read(buffer)) != -1) {
-                    outStream.write(buffer, 0, bytestream);
+                try {
+                    StreamUtility.streamAsAvailable(is, outStream, BUF);
+                } finally {
+                    is.close();
                 }
-                buffer = null;
-                is.close();
             } else {
                 out = response.getWriter();
                 response.setContentType(HTML_CONTENT_TYPE);
@@ -562,12 +554,17 @@ public class DatastreamResolverServlet
             if (outStream != null) {
                 outStream.close();
             }
-            dsRegistry.remove(id);
+            if (dsRegistry != null && id != null) {
+                dsRegistry.remove(id);
+            }
         }
     }
 
     // Clean up resources
     public void destroy() {
+        if (dsRegistry != null) {
+            LOG.info("Datastream mediation: " + dsRegistry);
+        }
     }
 
 }
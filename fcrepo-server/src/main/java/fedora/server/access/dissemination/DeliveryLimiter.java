@@ -0,0 +1,137 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.access.dissemination;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+
+import fedora.server.Server;
+import fedora.server.access.DefaultAccess;
+
+/**
+ * Limits how many datastream and dissemination contents are sent to clients
+ * at the same time.
+ * <p>
+ * Sending content holds a container thread until the client has read all of
+ * it, so a few slow clients downloading large content can take every thread
+ * and leave cheap requests queued behind them. With a limit, a request that
+ * cannot start sending within the configured wait is refused with
+ * 503 Service Unavailable and a Retry-After header, and the remaining
+ * threads stay available for everything else.
+ * <p>
+ * Each successful {@link #acquire()} must be matched by exactly one
+ * {@link #release()}, or by one call to
+ * {@link #send(InputStream, OutputStream)}.
+ */
+public class DeliveryLimiter {
+
+    /** A limiter that never refuses. */
+    private static final DeliveryLimiter UNLIMITED = new DeliveryLimiter(0, 0);
+
+    private final Semaphore m_permits;
+
+    private final long m_waitMillis;
+
+    /**
+     * Creates a limiter.
+     *
+     * @param maxDeliveries
+     *        the most contents sent at once, or 0 for no limit.
+     * @param waitMillis
+     *        how long a request waits for another to finish before it is
+     *        refused.
+     */
+    public DeliveryLimiter(int maxDeliveries, long waitMillis) {
+        m_permits = maxDeliveries > 0 ? new Semaphore(maxDeliveries) : null;
+        m_waitMillis = waitMillis;
+    }
+
+    /**
+     * Gets the limiter configured for the server's access module.
+     *
+     * @return the limiter; never null.
+     */
+    public static DeliveryLimiter getInstance(Server server) {
+        Object access = server.getModule("fedora.server.access.Access");
+        if (access instanceof DefaultAccess) {
+            DeliveryLimiter limiter =
+                    ((DefaultAccess) access).getDeliveryLimiter();
+            if (limiter != null) {
+                return limiter;
+            }
+        }
+        return UNLIMITED;
+    }
+
+    /**
+     * Waits for permission to send content.
+     *
+     * @return true if content may be sent, false if the limit was reached
+     *         and the request should be refused.
+     */
+    public boolean acquire() {
+        if (m_permits == null) {
+            return true;
+        }
+        try {
+            return m_permits.tryAcquire(m_waitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Signals that sending the content acquired for has finished, or failed.
+     */
+    public void release() {
+        if (m_permits != null) {
+            m_permits.release();
+        }
+    }
+
+    /**
+     * Copies content to the client, then closes it and releases the
+     * permission acquired for it, whether or not the copy succeeded.
+     */
+    public void send(InputStream in, OutputStream out) throws IOException {
+        try {
+            IOUtils.copy(in, out);
+        } finally {
+            try {
+                in.close();
+            } finally {
+                release();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of seconds a refused client should wait before trying
+     * again.
+     */
+    public int getRetryAfterSeconds() {
+        return (int) Math.max(1, m_waitMillis / 1000);
+    }
+
+    /**
+     * Refuses a request with 503 Service Unavailable.
+     */
+    public void sendBusy(HttpServletResponse response) throws IOException {
+        response.setHeader("Retry-After",
+                           Integer.toString(getRetryAfterSeconds()));
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                           "Too many concurrent content deliveries; "
+                                   + "try again later");
+    }
+}
@@ -0,0 +1,561 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.access.dissemination;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+import fedora.server.storage.types.DisseminationBindingInfo;
+import fedora.server.storage.types.MIMETypedStream;
+import fedora.server.storage.types.Property;
+
+/**
+ * A bounded cache of dissemination results, for service deployments whose
+ * methods always produce the same output for the same input.
+ * <p>
+ * Results are keyed on the object PID, service definition, method name,
+ * user parameters, the last modified date of the service deployment and the
+ * id, version and create date of every bound datastream. A new version of
+ * any input datastream therefore yields a new key, and the stale entry is
+ * never served again; it ages out through the normal eviction.
+ * <p>
+ * Every entry is written to a file in the cache directory, and entries no
+ * larger than an eighth of the memory limit are also held in memory. Entries
+ * are evicted least-recently-used first, when the total size on disk would
+ * exceed its limit, or when they are older than the time-to-live configured
+ * for their service deployment. The index is kept in memory only, so the
+ * cache directory is emptied when the cache is created.
+ * <p>
+ * Results are stored as they are read by the client: nothing is cached if
+ * the client stops reading before the end of the stream, or if the result
+ * is larger than the entry size limit.
+ */
+public class DisseminationCache {
+
+    private static final Logger LOG =
+            Logger.getLogger(DisseminationCache.class.getName());
+
+    private static final String REDIRECT_MIME_TYPE =
+            "application/fedora-redirect";
+
+    private final File m_dir;
+
+    private final long m_maxDiskBytes;
+
+    private final long m_maxMemoryBytes;
+
+    private final long m_maxEntryBytes;
+
+    private final long m_maxMemoryEntryBytes;
+
+    /** service deployment PID -> time-to-live in milliseconds */
+    private final Map<String, Long> m_ttlByDeployment;
+
+    private final LinkedHashMap<String, Entry> m_entries;
+
+    private long m_diskBytes;
+
+    private long m_memoryBytes;
+
+    private long m_hits;
+
+    private long m_misses;
+
+    /**
+     * Creates a cache.
+     *
+     * @param dir
+     *        the directory in which to store entries. It is created if
+     *        necessary, and any files already in it are deleted.
+     * @param maxDiskBytes
+     *        the maximum total size of the entries.
+     * @param maxMemoryBytes
+     *        the maximum total size of the entries held in memory.
+     * @param maxEntryBytes
+     *        the size of the largest dissemination that will be cached.
+     * @param ttlByDeployment
+     *        the service deployments whose disseminations may be cached,
+     *        mapped to the number of milliseconds for which an entry remains
+     *        valid.
+     * @throws IOException
+     *         if the cache directory cannot be created.
+     */
+    public DisseminationCache(File dir,
+                              long maxDiskBytes,
+                              long maxMemoryBytes,
+                              long maxEntryBytes,
+                              Map<String, Long> ttlByDeployment)
+            throws IOException {
+        m_dir = dir;
+        m_maxDiskBytes = maxDiskBytes;
+        m_maxMemoryBytes = maxMemoryBytes;
+        m_maxEntryBytes = Math.min(maxEntryBytes, maxDiskBytes);
+        m_maxMemoryEntryBytes = maxMemoryBytes / 8;
+        m_ttlByDeployment = ttlByDeployment;
+        m_entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create dissemination cache directory "
+                    + dir.getPath());
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && !file.delete()) {
+                    LOG.warn("Unable to delete old dissemination cache file "
+                            + file.getPath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells whether the result of a dissemination may be cached: its service
+     * deployment must be configured for caching, and none of its bound
+     * datastreams may be External or Redirect, since their content can change
+     * without a new datastream version being created.
+     */
+    public boolean isCacheable(String sDepPID,
+                               DisseminationBindingInfo[] bindings) {
+        if (!m_ttlByDeployment.containsKey(sDepPID)) {
+            return false;
+        }
+        for (DisseminationBindingInfo binding : bindings) {
+            if ("E".equals(binding.dsControlGroupType)
+                    || "R".equals(binding.dsControlGroupType)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Builds the cache key for a dissemination request.
+     *
+     * @param PID
+     *        the PID of the object being disseminated.
+     * @param sDefPID
+     *        the PID of the service definition.
+     * @param methodName
+     *        the method name.
+     * @param userParms
+     *        the user parameters, including any default values.
+     * @param sDepPID
+     *        the PID of the service deployment.
+     * @param sDepLastModDate
+     *        the last modified date of the service deployment.
+     * @param bindings
+     *        the datastreams bound to the method.
+     * @return the key.
+     */
+    public static String getKey(String PID,
+                                String sDefPID,
+                                String methodName,
+                                Map<String, String> userParms,
+                                String sDepPID,
+                                Date sDepLastModDate,
+                                DisseminationBindingInfo[] bindings) {
+        StringBuffer key = new StringBuffer();
+        append(key, "pid", PID);
+        append(key, "sdef", sDefPID);
+        append(key, "method", methodName);
+        append(key, "sdep", sDepPID);
+        append(key, "sdepDate", getTime(sDepLastModDate));
+        // sort parameters so that their order never affects the key
+        for (Map.Entry<String, String> parm : new TreeMap<String, String>(userParms)
+                .entrySet()) {
+            append(key, "parm:" + parm.getKey(), parm.getValue());
+        }
+        for (DisseminationBindingInfo binding : bindings) {
+            append(key, "ds:" + binding.DSBindKey, binding.dsID + "/"
+                    + binding.dsVersionID + "/" + getTime(binding.dsCreateDT));
+        }
+        return key.toString();
+    }
+
+    private static void append(StringBuffer key, String name, String value) {
+        key.append(name);
+        key.append('=');
+        key.append(value);
+        key.append('\n');
+    }
+
+    private static String getTime(Date date) {
+        return date == null ? "null" : Long.toString(date.getTime());
+    }
+
+    /**
+     * Gets a cached dissemination.
+     *
+     * @return the dissemination, or null if there is no unexpired entry for
+     *         the key.
+     */
+    public MIMETypedStream get(String key) {
+        Entry entry;
+        synchronized (this) {
+            entry = m_entries.get(key);
+            if (entry != null && entry.expires <= System.currentTimeMillis()) {
+                remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                m_misses++;
+                return null;
+            }
+            m_hits++;
+        }
+
+        InputStream in;
+        byte[] data = entry.data;
+        if (data != null) {
+            in = new ByteArrayInputStream(data);
+        } else {
+            try {
+                in = new FileInputStream(entry.file);
+            } catch (FileNotFoundException e) {
+                LOG.warn("Dissemination cache file is missing: "
+                        + entry.file.getPath());
+                synchronized (this) {
+                    if (m_entries.get(key) == entry) {
+                        remove(key);
+                    }
+                }
+                return null;
+            }
+        }
+        return new MIMETypedStream(entry.mimeType, in, entry.header);
+    }
+
+    /**
+     * Arranges for a dissemination to be cached as it is read.
+     *
+     * @param key
+     *        the cache key, from
+     *        {@link #getKey(String, String, String, Map, String, Date, DisseminationBindingInfo[])}.
+     * @param sDepPID
+     *        the PID of the service deployment.
+     * @param dissemination
+     *        the dissemination.
+     * @return a dissemination to be returned in place of the given one.
+     *         Redirects are returned unchanged.
+     */
+    public MIMETypedStream put(String key,
+                               String sDepPID,
+                               MIMETypedStream dissemination) {
+        Long ttl = m_ttlByDeployment.get(sDepPID);
+        if (ttl == null || dissemination == null
+                || dissemination.getStream() == null
+                || REDIRECT_MIME_TYPE.equalsIgnoreCase(dissemination.MIMEType)) {
+            return dissemination;
+        }
+        File temp;
+        OutputStream out;
+        try {
+            temp = File.createTempFile("diss", ".tmp", m_dir);
+            out = new FileOutputStream(temp);
+        } catch (IOException e) {
+            LOG.warn("Unable to create dissemination cache file", e);
+            return dissemination;
+        }
+        Entry entry =
+                new Entry(dissemination.MIMEType,
+                          dissemination.header,
+                          System.currentTimeMillis() + ttl.longValue());
+        dissemination.setStream(new CachingInputStream(dissemination
+                .getStream(), key, entry, temp, out));
+        return dissemination;
+    }
+
+    /**
+     * Discards all entries. Statistics are retained.
+     */
+    public synchronized void clear() {
+        for (Entry entry : m_entries.values()) {
+            delete(entry.file);
+        }
+        m_entries.clear();
+        m_diskBytes = 0;
+        m_memoryBytes = 0;
+    }
+
+    public synchronized int size() {
+        return m_entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return m_hits;
+    }
+
+    public synchronized long getMissCount() {
+        return m_misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DisseminationCache[size=" + m_entries.size() + ", diskBytes="
+                + m_diskBytes + ", memoryBytes=" + m_memoryBytes + ", hits="
+                + m_hits + ", misses=" + m_misses + "]";
+    }
+
+    /**
+     * Adds a completely read dissemination to the cache, evicting older
+     * entries as necessary.
+     */
+    private synchronized void commit(String key, Entry entry, File temp) {
+        File file = new File(m_dir, getFileName(key));
+        remove(key);
+        if (file.exists()) {
+            delete(file);
+        }
+        if (!temp.renameTo(file)) {
+            LOG.warn("Unable to rename dissemination cache file "
+                    + temp.getPath());
+            delete(temp);
+            return;
+        }
+        entry.file = file;
+        m_entries.put(key, entry);
+        m_diskBytes += entry.size;
+        if (entry.data != null) {
+            m_memoryBytes += entry.size;
+        }
+
+        Iterator<Map.Entry<String, Entry>> eldest =
+                m_entries.entrySet().iterator();
+        while (m_diskBytes > m_maxDiskBytes && eldest.hasNext()) {
+            Entry e = eldest.next().getValue();
+            eldest.remove();
+            delete(e.file);
+            m_diskBytes -= e.size;
+            if (e.data != null) {
+                m_memoryBytes -= e.size;
+            }
+        }
+        // keep evicted entries on disk, but drop their in-memory copies
+        Iterator<Entry> values = m_entries.values().iterator();
+        while (m_memoryBytes > m_maxMemoryBytes && values.hasNext()) {
+            Entry e = values.next();
+            if (e.data != null) {
+                e.data = null;
+                m_memoryBytes -= e.size;
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Cached dissemination (" + entry.size + " bytes): "
+                    + this);
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = m_entries.remove(key);
+        if (entry != null) {
+            delete(entry.file);
+            m_diskBytes -= entry.size;
+            if (entry.data != null) {
+                m_memoryBytes -= entry.size;
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        if (file != null && file.exists() && !file.delete()) {
+            LOG.warn("Unable to delete dissemination cache file "
+                    + file.getPath());
+        }
+    }
+
+    private static String getFileName(String key) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] digest = md.digest(key.getBytes("UTF-8"));
+            StringBuffer name = new StringBuffer();
+            for (byte b : digest) {
+                String hex = Integer.toHexString(b & 0xff);
+                if (hex.length() == 1) {
+                    name.append('0');
+                }
+                name.append(hex);
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static class Entry {
+
+        final String mimeType;
+
+        final Property[] header;
+
+        final long expires;
+
+        File file;
+
+        long size;
+
+        byte[] data;
+
+        Entry(String mimeType, Property[] header, long expires) {
+            this.mimeType = mimeType;
+            this.header = header;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Copies a dissemination to a cache file as it is read, and commits the
+     * entry once the end of the stream is reached.
+     */
+    private class CachingInputStream
+            extends FilterInputStream {
+
+        private final String m_key;
+
+        private final Entry m_entry;
+
+        private final File m_temp;
+
+        private OutputStream m_out;
+
+        private ByteArrayOutputStream m_memory;
+
+        private long m_count;
+
+        CachingInputStream(InputStream in,
+                           String key,
+                           Entry entry,
+                           File temp,
+                           OutputStream out) {
+            super(in);
+            m_key = key;
+            m_entry = entry;
+            m_temp = temp;
+            m_out = out;
+            m_memory = new ByteArrayOutputStream();
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                finish();
+            } else {
+                copy(new byte[] {(byte) b}, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n == -1) {
+                finish();
+            } else {
+                copy(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped bytes cannot be cached
+            abandon();
+            return super.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            abandon();
+            super.close();
+        }
+
+        private void copy(byte[] b, int off, int len) {
+            if (m_out == null) {
+                return;
+            }
+            m_count += len;
+            if (m_count > m_maxEntryBytes) {
+                abandon();
+                return;
+            }
+            try {
+                m_out.write(b, off, len);
+            } catch (IOException e) {
+                LOG.warn("Error writing dissemination cache file", e);
+                abandon();
+                return;
+            }
+            if (m_memory != null) {
+                if (m_count > m_maxMemoryEntryBytes) {
+                    m_memory = null;
+                } else {
+                    m_memory.write(b, off, len);
+                }
+            }
+        }
+
+        private void finish() {
+            if (m_out == null) {
+                return;
+            }
+            try {
+                m_out.close();
+            } catch (IOException e) {
+                LOG.warn("Error writing dissemination cache file", e);
+                abandon();
+                return;
+            }
+            m_out = null;
+            m_entry.size = m_count;
+            if (m_memory != null) {
+                m_entry.data = m_memory.toByteArray();
+                m_memory = null;
+            }
+            commit(m_key, m_entry, m_temp);
+        }
+
+        private void abandon() {
+            if (m_out == null) {
+                return;
+            }
+            try {
+                m_out.close();
+            } catch (IOException e) {
+                LOG.debug("Error closing abandoned dissemination cache file",
+                          e);
+            }
+            m_out = null;
+            m_memory = null;
+            delete(m_temp);
+        }
+    }
+}
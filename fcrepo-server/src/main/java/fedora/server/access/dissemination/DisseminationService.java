@@ -11,8 +11,6 @@ import java.io.UnsupportedEncodingException;
 
 import java.net.URLEncoder;
 
-import java.sql.Timestamp;
-
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Hashtable;
@@ -23,7 +21,9 @@ import org.apache.log4j.Logger;
 
 import fedora.common.Constants;
 import fedora.server.Context;
+import fedora.server.Module;
 import fedora.server.Server;
+import fedora.server.access.DefaultAccess;
 import fedora.server.errors.DisseminationBindingInfoNotFoundException;
 import fedora.server.errors.DisseminationException;
 import fedora.server.errors.GeneralException;
@@ -71,12 +71,6 @@ public class DisseminationService {
     /** The expiration limit in minutes for removing entries from the database. */
     private static int datastreamExpirationLimit = 0;
 
-    /**
-     * An incremental counter used to insure uniqueness of tempIDs used for
-     * datastream mediation.
-     */
-    private static int counter = 0;
-
     /** Datastream Mediation control flag. */
     private static boolean doDatastreamMediation;
 
@@ -99,6 +93,9 @@ public class DisseminationService {
     private static BackendSecurity m_beSecurity;
 
     private static ExternalContentManager s_ecm;
+
+    /** Fetches mediated External datastreams in advance, or null. */
+    private static DatastreamPrefetcher s_prefetcher;
     /** Make sure we have a server instance for error logging purposes. */
     static {
         try {
@@ -145,13 +142,20 @@ public class DisseminationService {
             s_ecm =   (ExternalContentManager)
             s_server.getModule("fedora.server.storage.ExternalContentManager");
 
+            Module access = s_server.getModule("fedora.server.access.Access");
+            if (access instanceof DefaultAccess) {
+                s_prefetcher =
+                        ((DefaultAccess) access).getDatastreamPrefetcher();
+            }
+
         } catch (InitializationException ie) {
             LOG.error("Initialization error", ie);
         }
     }
 
-    /** The hashtable containing information required for datastream mediation. */
-    protected static Hashtable<String, DatastreamMediation> dsRegistry = new Hashtable<String, DatastreamMediation>(1000);
+    /** The registry containing information required for datastream mediation. */
+    protected static DatastreamMediationRegistry dsRegistry =
+            new DatastreamMediationRegistry(datastreamExpirationLimit * 1000L);
 
     /**
      * <p>
@@ -775,31 +779,16 @@ public class DisseminationService {
      * external mechanism services, a proxy is used to disguise the datastream
      * locations. This method generates a temporary ID that maps to the physical
      * datastream location and registers this information in a memory resident
-     * hashtable for subsequent resolution of the physical datastream location.
+     * registry for subsequent resolution of the physical datastream location.
      * The servlet <code>DatastreamResolverServlet</code> provides the proxy
      * resolution service for datastreams.
      * </p>
      * <p>
+     * The tempID is a random string of lower case letters and digits, which
+     * cannot be guessed from the ids of other registrations. Registrations are
+     * removed from the registry after the number of seconds given by the
+     * Fedora config parameter named "datastreamExpirationLimit".
      * </p>
-     * <p>
-     * The format of the tempID is derived from <code>java.sql.Timestamp</code>
-     * with an arbitrary counter appended to the end to insure uniqueness. The
-     * syntax is of the form:
-     * <ul>
-     * <p>
-     * YYYY-MM-DD HH:mm:ss.mmm:dddddd where
-     * </p>
-     * <ul>
-     * <li>YYYY - year (1900-8099)</li>
-     * <li>MM - month (01-12)</li>
-     * <li>DD - day (01-31)</li>
-     * <li>hh - hours (0-23)</li>
-     * <li>mm - minutes (0-59)</li>
-     * <li>ss - seconds (0-59)</li>
-     * <li>mmm - milliseconds (0-999)</li>
-     * <li>dddddd - incremental counter (0-999999)</li>
-     * </ul>
-     * </ul>
      *
      * @param dsLocation
      *        The physical location of the datastream.
@@ -817,35 +806,12 @@ public class DisseminationService {
             throws ServerException {
 
         String tempID = null;
-        Timestamp timeStamp = null;
-        if (counter > 999999) {
-            counter = 0;
-        }
-        long currentTime = new Timestamp(new Date().getTime()).getTime();
-        long expireLimit =
-                currentTime - (long) datastreamExpirationLimit * 1000;
 
         try {
 
-            // Remove any datastream registrations that have expired.
-            // The expiration limit can be adjusted using the Fedora config parameter
-            // named "datastreamExpirationLimit" which is in seconds.
-            for (Enumeration<String> e = dsRegistry.keys(); e.hasMoreElements();) {
-                String key = e.nextElement();
-                timeStamp = Timestamp.valueOf(extractTimestamp(key));
-                if (expireLimit > timeStamp.getTime()) {
-                    dsRegistry.remove(key);
-                    LOG.debug("DatastreamMediationKey removed from Hash: "
-                            + key);
-                }
-            }
-
             // Register datastream.
             if (tempID == null) {
-                timeStamp = new Timestamp(new Date().getTime());
-                tempID = timeStamp.toString() + ":" + counter++;
                 DatastreamMediation dm = new DatastreamMediation();
-                dm.mediatedDatastreamID = tempID;
                 dm.dsLocation = dsLocation;
                 dm.dsControlGroupType = dsControlGroupType;
                 dm.methodName = methodName;
@@ -921,8 +887,11 @@ public class DisseminationService {
                 dm.callBasicAuth = beServiceCallBasicAuth;
                 dm.callbackSSL = beServiceCallbackSSL;
                 dm.callSSL = beServiceCallSSL;
-                dsRegistry.put(tempID, dm);
-                LOG.debug("DatastreammediationKey added to Hash: " + tempID);
+                if (s_prefetcher != null) {
+                    s_prefetcher.prefetch(dm);
+                }
+                tempID = dsRegistry.register(dm);
+                LOG.debug("DatastreamMediationKey added to registry: " + tempID);
             }
 
         } catch (Throwable th) {
@@ -933,28 +902,7 @@ public class DisseminationService {
                     + th.getMessage() + "\" .");
         }
 
-        // Replace the blank between date and time with the character "T".
-        return tempID.replaceAll(" ", "T");
-    }
-
-    /**
-     * <p>
-     * The tempID that is used for datastream mediation consists of a <code>
-     * Timestamp</code>
-     * plus a counter appended to the end to insure uniqueness. This method is a
-     * utility method used to extract the Timestamp portion from the tempID by
-     * stripping off the arbitrary counter at the end of the string.
-     * </p>
-     *
-     * @param tempID
-     *        The tempID to be extracted.
-     * @return The extracted Timestamp value as a string.
-     */
-    public String extractTimestamp(String tempID) {
-        StringBuffer sb = new StringBuffer();
-        sb.append(tempID);
-        sb.replace(tempID.lastIndexOf(":"), tempID.length(), "");
-        return sb.toString();
+        return tempID;
     }
 
     /**
@@ -16,6 +16,8 @@ import fedora.server.errors.ModuleShutdownException;
 import fedora.server.errors.ServerException;
 import fedora.server.journal.recoverylog.JournalRecoveryLog;
 import fedora.server.management.ManagementDelegate;
+import fedora.server.management.ObjectExport;
+import fedora.server.storage.types.ContentDigest;
 import fedora.server.storage.types.Datastream;
 import fedora.server.storage.types.RelationshipTuple;
 
@@ -308,6 +310,22 @@ public class JournalConsumer
         return delegate.export(context, pid, format, exportContext, encoding);
     }
 
+    /**
+     * Read-only method: pass the call to the {@link ManagementDelegate}.
+     */
+    public ObjectExport prepareExport(Context context,
+                                      String pid,
+                                      String format,
+                                      String exportContext,
+                                      String encoding)
+            throws ServerException {
+        return delegate.prepareExport(context,
+                                      pid,
+                                      format,
+                                      exportContext,
+                                      encoding);
+    }
+
     /**
      * Read-only method: pass the call to the {@link ManagementDelegate}.
      */
@@ -367,6 +385,33 @@ public class JournalConsumer
         return delegate.getTempStream(id);
     }
 
+    /**
+     * Delegate to the ManagementDelegate. Like getTempStream, this method is
+     * not exposed at the service level, and is invoked by internal server
+     * code.
+     */
+    public ContentDigest getTempStreamDigest(String id) throws ServerException {
+        return delegate.getTempStreamDigest(id);
+    }
+
+    /**
+     * Delegate to the ManagementDelegate. Like getTempStream, this method is
+     * not exposed at the service level, and is invoked by internal server
+     * code.
+     */
+    public String getTempStreamStagingKey(String id) throws ServerException {
+        return delegate.getTempStreamStagingKey(id);
+    }
+
+    /**
+     * Delegate to the ManagementDelegate. Like getTempStream, this method is
+     * not exposed at the service level, and is invoked by internal server
+     * code.
+     */
+    public void removeTempStream(String id) throws ServerException {
+        delegate.removeTempStream(id);
+    }
+
     /**
      * While the server is reading a Journal to recover its state, block any
      * attempt to use the Management API.
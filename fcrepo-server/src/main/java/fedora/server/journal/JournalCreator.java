@@ -18,6 +18,8 @@ import fedora.server.errors.ModuleShutdownException;
 import fedora.server.errors.ServerException;
 import fedora.server.journal.entry.CreatorJournalEntry;
 import fedora.server.management.ManagementDelegate;
+import fedora.server.management.ObjectExport;
+import fedora.server.storage.types.ContentDigest;
 import fedora.server.storage.types.Datastream;
 import fedora.server.storage.types.RelationshipTuple;
 
@@ -460,6 +462,22 @@ public class JournalCreator
         return delegate.export(context, pid, format, exportContext, encoding);
     }
 
+    /**
+     * Let the delegate do it.
+     */
+    public ObjectExport prepareExport(Context context,
+                                      String pid,
+                                      String format,
+                                      String exportContext,
+                                      String encoding)
+            throws ServerException {
+        return delegate.prepareExport(context,
+                                      pid,
+                                      format,
+                                      exportContext,
+                                      encoding);
+    }
+
     /**
      * Let the delegate do it.
      */
@@ -497,4 +515,25 @@ public class JournalCreator
         return delegate.getTempStream(id);
     }
 
+    /**
+     * Let the delegate do it.
+     */
+    public ContentDigest getTempStreamDigest(String id) throws ServerException {
+        return delegate.getTempStreamDigest(id);
+    }
+
+    /**
+     * Let the delegate do it.
+     */
+    public String getTempStreamStagingKey(String id) throws ServerException {
+        return delegate.getTempStreamStagingKey(id);
+    }
+
+    /**
+     * Let the delegate do it.
+     */
+    public void removeTempStream(String id) throws ServerException {
+        delegate.removeTempStream(id);
+    }
+
 }
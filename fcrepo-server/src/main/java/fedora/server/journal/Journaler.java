@@ -20,6 +20,8 @@ import fedora.server.errors.ModuleShutdownException;
 import fedora.server.errors.ServerException;
 import fedora.server.management.Management;
 import fedora.server.management.ManagementDelegate;
+import fedora.server.management.ObjectExport;
+import fedora.server.storage.types.ContentDigest;
 import fedora.server.storage.types.Datastream;
 import fedora.server.storage.types.RelationshipTuple;
 
@@ -195,6 +197,22 @@ public class Journaler
         return worker.export(context, pid, format, exportContext, encoding);
     }
 
+    /**
+     * Delegate to the JournalWorker.
+     */
+    public ObjectExport prepareExport(Context context,
+                                      String pid,
+                                      String format,
+                                      String exportContext,
+                                      String encoding)
+            throws ServerException {
+        return worker.prepareExport(context,
+                                    pid,
+                                    format,
+                                    exportContext,
+                                    encoding);
+    }
+
     /**
      * Delegate to the JournalWorker.
      */
@@ -361,6 +379,27 @@ public class Journaler
         return worker.getTempStream(id);
     }
 
+    /**
+     * Delegate to the JournalWorker.
+     */
+    public ContentDigest getTempStreamDigest(String id) throws ServerException {
+        return worker.getTempStreamDigest(id);
+    }
+
+    /**
+     * Delegate to the JournalWorker.
+     */
+    public String getTempStreamStagingKey(String id) throws ServerException {
+        return worker.getTempStreamStagingKey(id);
+    }
+
+    /**
+     * Delegate to the JournalWorker.
+     */
+    public void removeTempStream(String id) throws ServerException {
+        worker.removeTempStream(id);
+    }
+
     /**
      * Delegate to the JournalWorker.
      */
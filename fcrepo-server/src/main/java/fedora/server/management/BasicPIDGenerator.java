@@ -35,6 +35,8 @@ public class BasicPIDGenerator
 
     private File m_oldPidGenDir;
 
+    private int m_blockSize = DBPIDGenerator.DEFAULT_BLOCK_SIZE;
+
     /**
      * Constructs a BasicPIDGenerator.
      * 
@@ -55,7 +57,18 @@ public class BasicPIDGenerator
     }
 
     @Override
-    public void initModule() {
+    public void initModule() throws ModuleInitializationException {
+        String blockSize = getParameter("pidBlockSize");
+        if (blockSize != null) {
+            try {
+                m_blockSize = Integer.parseInt(blockSize.trim());
+            } catch (NumberFormatException e) {
+                throw new ModuleInitializationException("Bad value for pidBlockSize parameter: "
+                                                                + blockSize,
+                                                        getRole());
+            }
+        }
+
         // this parameter is no longer required; but if it's specified,
         // we can automatically upgrade from a pre-1.2 version of Fedora by 
         // making sure the old "last pid generated" value is respected later.
@@ -84,7 +97,9 @@ public class BasicPIDGenerator
                                                     getRole());
         }
         try {
-            m_pidGenerator = new DBPIDGenerator(mgr.getPool(), m_oldPidGenDir);
+            m_pidGenerator = new DBPIDGenerator(mgr.getPool(),
+                                                m_oldPidGenDir,
+                                                m_blockSize);
         } catch (Exception e) {
             String msg = "Can't get default connection pool";
             LOG.fatal(msg, e);
@@ -96,6 +111,11 @@ public class BasicPIDGenerator
         return m_pidGenerator.generatePID(namespaceID);
     }
 
+    public PID[] generatePIDs(String namespaceID, int count)
+            throws IOException {
+        return m_pidGenerator.generatePIDs(namespaceID, count);
+    }
+
     public PID getLastPID() throws IOException {
         return m_pidGenerator.getLastPID();
     }
@@ -17,6 +17,10 @@ import java.sql.Statement;
 
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
@@ -29,6 +33,13 @@ import fedora.server.utilities.SQLUtility;
 /**
  * A PIDGenerator that uses a database to keep track of the highest pid it knows
  * about for each namespace.
+ * <p>
+ * Rather than writing each pid to the database as it is generated, the
+ * generator leases a block of ids for a namespace by recording the end of the
+ * block as the highest id, and then hands out ids from the block with an
+ * atomic counter. The database is only written when a block runs out, and
+ * since the recorded value is never lower than any id handed out, no id is
+ * reused after a restart; the unused part of the last block is skipped.
  * 
  * @author Chris Wilper
  */
@@ -39,12 +50,27 @@ public class DBPIDGenerator
     private static final Logger LOG =
             Logger.getLogger(DBPIDGenerator.class.getName());
 
-    private final HashMap m_highestID;
+    /** The default number of ids to lease at a time. */
+    public static final int DEFAULT_BLOCK_SIZE = 100;
 
-    private PID m_lastPID;
+    private final ConcurrentMap<String, Namespace> m_namespaces =
+            new ConcurrentHashMap<String, Namespace>();
+
+    private final int m_blockSize;
+
+    private volatile PID m_lastPID;
 
     private final ConnectionPool m_connectionPool;
 
+    /**
+     * Initialize the DBPIDGenerator, leasing blocks of
+     * <code>DEFAULT_BLOCK_SIZE</code> ids.
+     */
+    public DBPIDGenerator(ConnectionPool cPool, File oldPidGenDir)
+            throws IOException {
+        this(cPool, oldPidGenDir, DEFAULT_BLOCK_SIZE);
+    }
+
     /**
      * Initialize the DBPIDGenerator. This initializes the memory hash with
      * values in the database, if any. If oldPidGenDir is not null, the
@@ -52,24 +78,48 @@ public class DBPIDGenerator
      * generated PID as reported by the log files in that directory. This is to
      * support automatic upgrade of this functionality from versions of Fedora
      * prior to 1.2.
+     * 
+     * @param blockSize
+     *        the number of ids to lease from the database at a time.
      */
-    public DBPIDGenerator(ConnectionPool cPool, File oldPidGenDir)
+    public DBPIDGenerator(ConnectionPool cPool, File oldPidGenDir, int blockSize)
             throws IOException {
+        this(cPool, readHighestIDs(cPool), blockSize);
+        upgradeIfNeeded(oldPidGenDir);
+    }
+
+    /**
+     * Initialize the DBPIDGenerator with the given highest ids.
+     */
+    DBPIDGenerator(ConnectionPool cPool,
+                   Map<String, Integer> highestIDs,
+                   int blockSize) {
         m_connectionPool = cPool;
-        m_highestID = new HashMap();
-        // load the values from the database into the m_highestID hash
+        m_blockSize = Math.max(blockSize, 1);
+        for (Map.Entry<String, Integer> entry : highestIDs.entrySet()) {
+            m_namespaces.put(entry.getKey(), new Namespace(entry.getKey(),
+                                                           entry.getValue()
+                                                                   .intValue()));
+        }
+    }
+
+    /**
+     * Reads the highest id recorded for each namespace from the database.
+     */
+    private static Map<String, Integer> readHighestIDs(ConnectionPool cPool) {
+        Map<String, Integer> highestIDs = new HashMap<String, Integer>();
         // pidGen:  namespace  highestID
         Statement s = null;
         ResultSet results = null;
         Connection conn = null;
         try {
-            conn = m_connectionPool.getConnection();
+            conn = cPool.getConnection();
             String query = "SELECT namespace, highestID FROM pidGen";
             s = conn.createStatement();
             results = s.executeQuery(query);
             while (results.next()) {
-                m_highestID.put(results.getString("namespace"),
-                                new Integer(results.getInt("highestID")));
+                highestIDs.put(results.getString("namespace"),
+                               new Integer(results.getInt("highestID")));
             }
         } catch (SQLException sqle) {
             LOG.warn("Unable to read pidGen table; assuming it "
@@ -83,7 +133,7 @@ public class DBPIDGenerator
                     s.close();
                 }
                 if (conn != null) {
-                    m_connectionPool.free(conn);
+                    cPool.free(conn);
                 }
             } catch (SQLException sqle2) {
                 LOG.warn("Error trying to free db "
@@ -93,7 +143,7 @@ public class DBPIDGenerator
                 s = null;
             }
         }
-        upgradeIfNeeded(oldPidGenDir);
+        return highestIDs;
     }
 
     /**
@@ -128,38 +178,47 @@ public class DBPIDGenerator
      * Generate a new pid that is guaranteed to be unique, within the given
      * namespace.
      */
-    public synchronized PID generatePID(String namespace) throws IOException {
-        int i = getHighestID(namespace);
-        i++;
-        setHighestID(namespace, i);
+    public PID generatePID(String namespace) throws IOException {
+        int id = getNamespace(namespace).nextID();
+        m_lastPID = toPID(namespace, id);
+        return m_lastPID;
+    }
 
-        try {
-            m_lastPID = new PID(namespace + ":" + i);
-        } catch (MalformedPIDException e) {
-            throw new IOException(e.getMessage());
+    /**
+     * Generate <code>count</code> new pids with consecutive ids, within the
+     * given namespace. The ids are reserved with a single database update,
+     * whatever the count.
+     */
+    public PID[] generatePIDs(String namespace, int count) throws IOException {
+        if (count < 1) {
+            return new PID[0];
         }
-        return m_lastPID;
+        int first = getNamespace(namespace).reserve(count);
+        PID[] pids = new PID[count];
+        for (int i = 0; i < count; i++) {
+            pids[i] = toPID(namespace, first + i);
+        }
+        m_lastPID = pids[count - 1];
+        return pids;
     }
 
     /**
      * Get the last pid that was generated.
      */
-    public synchronized PID getLastPID() {
+    public PID getLastPID() {
         return m_lastPID;
     }
 
     /**
      * Cause the given PID to never be generated by the PID generator.
      */
-    public synchronized void neverGeneratePID(String pid) throws IOException {
+    public void neverGeneratePID(String pid) throws IOException {
         LOG.debug("Never generating PID: " + pid);
         try {
             PID p = new PID(pid);
             String ns = p.getNamespaceId();
             int id = Integer.parseInt(p.getObjectId());
-            if (id > getHighestID(ns)) {
-                setHighestID(ns, id);
-            }
+            getNamespace(ns).skipTo(id);
         } catch (MalformedPIDException mpe) {
             throw new IOException(mpe.getMessage());
         } catch (NumberFormatException nfe) {
@@ -168,24 +227,31 @@ public class DBPIDGenerator
         }
     }
 
-    /**
-     * Gets the highest id ever used for the given namespace.
-     */
-    private int getHighestID(String namespace) {
-        Integer i = (Integer) m_highestID.get(namespace);
-        if (i == null) {
-            return 0;
+    private static PID toPID(String namespace, int id) throws IOException {
+        try {
+            return new PID(namespace + ":" + id);
+        } catch (MalformedPIDException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    private Namespace getNamespace(String namespace) {
+        Namespace ns = m_namespaces.get(namespace);
+        if (ns == null) {
+            ns = new Namespace(namespace, 0);
+            Namespace existing = m_namespaces.putIfAbsent(namespace, ns);
+            if (existing != null) {
+                ns = existing;
+            }
         }
-        return i.intValue();
+        return ns;
     }
 
     /**
      * Sets the highest id ever used for the given namespace.
      */
-    private void setHighestID(String namespace, int id) throws IOException {
+    void setHighestID(String namespace, int id) throws IOException {
         LOG.debug("Setting highest ID for " + namespace + " to " + id);
-        m_highestID.put(namespace, new Integer(id));
-        // write the new highest id in the database, too
         Connection conn = null;
         try {
             conn = m_connectionPool.getConnection();
@@ -205,4 +271,99 @@ public class DBPIDGenerator
         }
     }
 
+    /**
+     * The ids leased for a namespace.
+     */
+    private class Namespace {
+
+        private final String m_name;
+
+        /** The current lease; replaced, under this lock, when it runs out. */
+        private volatile Lease m_lease;
+
+        /** The highest id recorded in the database. */
+        private int m_highestID;
+
+        Namespace(String name, int highestID) {
+            m_name = name;
+            m_highestID = highestID;
+            m_lease = new Lease(highestID, highestID);
+        }
+
+        /**
+         * Hands out the next id, leasing a new block first if the current one
+         * has run out.
+         */
+        int nextID() throws IOException {
+            while (true) {
+                Lease lease = m_lease;
+                int id = lease.next.incrementAndGet();
+                if (id <= lease.limit) {
+                    return id;
+                }
+                synchronized (this) {
+                    if (m_lease == lease) {
+                        lease(m_highestID, m_blockSize);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Reserves <code>count</code> consecutive ids beyond those already
+         * leased, along with a new block for single ids.
+         * 
+         * @return the first id.
+         */
+        synchronized int reserve(int count) throws IOException {
+            int first = m_highestID + 1;
+            lease(m_highestID + count, m_blockSize);
+            return first;
+        }
+
+        /**
+         * Ensures that no id up to and including <code>id</code> will be
+         * handed out.
+         */
+        synchronized void skipTo(int id) throws IOException {
+            if (id > m_highestID) {
+                lease(id, m_blockSize);
+            } else {
+                AtomicInteger next = m_lease.next;
+                int current;
+                while ((current = next.get()) < id
+                        && !next.compareAndSet(current, id)) {
+                }
+            }
+        }
+
+        /**
+         * Records a new highest id of <code>start + size</code>, and makes
+         * the ids after <code>start</code> the current lease. The unused ids
+         * of any previous lease are abandoned. Must be called with the lock
+         * held.
+         */
+        private void lease(int start, int size) throws IOException {
+            int limit = start + size;
+            setHighestID(m_name, limit);
+            m_highestID = limit;
+            m_lease = new Lease(start, limit);
+        }
+    }
+
+    /**
+     * A block of ids, of which those after <code>next</code> and up to
+     * <code>limit</code> have not been handed out.
+     */
+    private static class Lease {
+
+        final AtomicInteger next;
+
+        final int limit;
+
+        Lease(int last, int limit) {
+            next = new AtomicInteger(last);
+            this.limit = limit;
+        }
+    }
 }
@@ -4,11 +4,13 @@
  */
 package fedora.server.management;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -19,10 +21,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Date;
-import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -60,13 +62,16 @@ import fedora.server.storage.DOManager;
 import fedora.server.storage.DOReader;
 import fedora.server.storage.DOWriter;
 import fedora.server.storage.ExternalContentManager;
+import fedora.server.storage.lowlevel.IStageable;
 import fedora.server.storage.types.AuditRecord;
+import fedora.server.storage.types.ContentDigest;
 import fedora.server.storage.types.Datastream;
 import fedora.server.storage.types.DatastreamManagedContent;
 import fedora.server.storage.types.DatastreamReferencedContent;
 import fedora.server.storage.types.DatastreamXMLMetadata;
 import fedora.server.storage.types.MIMETypedStream;
 import fedora.server.storage.types.RelationshipTuple;
+import fedora.server.utilities.DigestingOutputStream;
 import fedora.server.utilities.StreamUtility;
 import fedora.server.validation.ValidationConstants;
 import fedora.server.validation.ValidationUtility;
@@ -92,38 +97,53 @@ public class DefaultManagement
 
     private final int m_uploadStorageMinutes;
 
-    private int m_lastId;
+    private final AtomicInteger m_lastId;
 
     private final File m_tempDir;
 
-    private final Hashtable<String, Long> m_uploadStartTime;
+    private final UploadIndex m_uploads;
 
-    private long m_lastPurgeInMillis = System.currentTimeMillis();
+    private final IStageable m_stagingStore;
+
+    private volatile boolean m_stagedLeftoversAdded;
+
+    private volatile long m_lastPurgeInMillis = System.currentTimeMillis();
 
     private final long m_purgeDelayInMillis;
 
+    private final List<String> m_uploadChecksumTypes;
+
     /**
+     * @param uploads the uploads left over from a previous run
+     * @param stagingStore the low-level store to stage uploads in, or null
+     *                     to write them to files in tempDir
      * @param purgeDelayInMillis milliseconds to delay before removing
      *                           old uploaded files
+     * @param uploadChecksumTypes checksum algorithms to compute while
+     *                            uploaded files are written
      * @author Frederic Buffet & Tommy Bourdin (Atos Worldline)
      * @date   August 1, 2008
      */
-    public DefaultManagement(Authorization authz,
-                             DOManager doMgr,
-                             ExternalContentManager ecMgr,
-                             int uploadMinutes,
-                             int lastId,
-                             File tempDir,
-                             Hashtable<String, Long> uploadStartTime,
-                             long purgeDelayInMillis) {
+    DefaultManagement(Authorization authz,
+                      DOManager doMgr,
+                      ExternalContentManager ecMgr,
+                      int uploadMinutes,
+                      int lastId,
+                      File tempDir,
+                      UploadIndex uploads,
+                      IStageable stagingStore,
+                      long purgeDelayInMillis,
+                      List<String> uploadChecksumTypes) {
         m_authz = authz;
         m_manager = doMgr;
         m_contentManager = ecMgr;
         m_uploadStorageMinutes = uploadMinutes;
-        m_lastId = lastId;
+        m_lastId = new AtomicInteger(lastId);
         m_tempDir = tempDir;
-        m_uploadStartTime = uploadStartTime;
+        m_uploads = uploads;
+        m_stagingStore = stagingStore;
         m_purgeDelayInMillis = purgeDelayInMillis;
+        m_uploadChecksumTypes = uploadChecksumTypes;
     }
 
     public String ingest(Context context,
@@ -276,36 +296,66 @@ public class DefaultManagement
                               String format,
                               String exportContext,
                               String encoding) throws ServerException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        prepareExport(context, pid, format, exportContext, encoding)
+                .write(bytes);
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+
+    public ObjectExport prepareExport(Context context,
+                                      final String pid,
+                                      final String format,
+                                      final String exportContext,
+                                      final String encoding)
+            throws ServerException {
+        boolean prepared = false;
         try {
             LOG.debug("Entered export");
 
             m_authz.enforceExport(context,
-                                              pid,
-                                              format,
-                                              exportContext,
-                                              encoding);
+                                  pid,
+                                  format,
+                                  exportContext,
+                                  encoding);
 
-            DOReader reader =
+            final DOReader reader =
                     m_manager.getReader(Server.USE_DEFINITIVE_STORE,
                                         context,
                                         pid);
-            InputStream instream = reader.Export(format, exportContext);
-
-            return instream;
+            prepared = true;
+            return new ObjectExport() {
+
+                public void write(OutputStream out) throws ServerException {
+                    try {
+                        reader.Export(format, exportContext, out);
+                    } finally {
+                        logExport(pid, format, exportContext, encoding);
+                    }
+                }
+            };
         } finally {
-            // Log completion
-            if (LOG.isInfoEnabled()) {
-                StringBuilder logMsg = new StringBuilder("Completed export(");
-                logMsg.append("pid: ").append(pid);
-                logMsg.append(", format: ").append(format);
-                logMsg.append(", exportContext: ").append(exportContext);
-                logMsg.append(", encoding: ").append(encoding);
-                logMsg.append(")");
-                LOG.info(logMsg.toString());
+            if (!prepared) {
+                logExport(pid, format, exportContext, encoding);
             }
+        }
+    }
 
-            LOG.debug("Exiting export");
+    private static void logExport(String pid,
+                                  String format,
+                                  String exportContext,
+                                  String encoding) {
+        // Log completion
+        if (LOG.isInfoEnabled()) {
+            StringBuilder logMsg = new StringBuilder("Completed export(");
+            logMsg.append("pid: ").append(pid);
+            logMsg.append(", format: ").append(format);
+            logMsg.append(", exportContext: ").append(exportContext);
+            logMsg.append(", encoding: ").append(encoding);
+            logMsg.append(")");
+            LOG.info(logMsg.toString());
         }
+
+        LOG.debug("Exiting export");
     }
 
     public Date purgeObject(Context context,
@@ -504,6 +554,7 @@ public class DefaultManagement
             ds.DatastreamAltIDs = altIDs;
             ds.DSMIME = MIMEType;
             ds.DSChecksumType = Datastream.validateChecksumType(checksumType);
+            setUploadDigest(ds);
 
             if (checksum != null && checksumType != null) {
                 String check = ds.getChecksum();
@@ -683,9 +734,10 @@ public class DefaultManagement
             newds.DatastreamAltIDs = altIDs;
             nowUTC = Server.getCurrentDate(context);
             newds.DSCreateDT = nowUTC;
-            // newds.DSSize will be computed later
+            // newds.DSSize will be computed later, unless it was uploaded
             newds.DSLocation = dsLocation;
             newds.DSChecksumType = checksumType;
+            setUploadDigest(newds);
 
             // next, add the datastream via the object writer
             w.addDatastream(newds, orig.DSVersionable);
@@ -1201,33 +1253,101 @@ public class DefaultManagement
             throws StreamWriteException, AuthzException {
         m_authz.enforceUpload(context);
         // first clean up after old stuff
+        addStagedLeftovers();
         purgeUploadedFiles();
         // then generate an id
         int id = getNextTempId(context);
-        // and attempt to save the stream
-        File outFile = new File(m_tempDir, "" + id);
-        FileOutputStream out = null;
+        // and attempt to save the stream, straight into the low-level
+        // store's staging area if there is one, so it can later be committed
+        // by a rename instead of a copy
+        String stagingKey = null;
+        File outFile = null;
+        OutputStream sink = null;
+        DigestingOutputStream out = null;
         try {
-            out = new FileOutputStream(outFile);
+            if (m_stagingStore != null) {
+                stagingKey = getStagingKey("" + id);
+                sink = m_stagingStore.stageDatastream(stagingKey);
+            } else {
+                outFile = new File(m_tempDir, "" + id);
+                sink = new FileOutputStream(outFile);
+            }
+            // compute the checksums as the content is written, so it
+            // need not be read again to checksum it
+            out = new DigestingOutputStream(sink, m_uploadChecksumTypes);
             StreamUtility.pipeStream(in, out, 32768);
         } catch (Exception e) {
-            if (out != null) {
+            if (sink != null) {
                 try {
-                    out.close();
+                    sink.close();
                 } catch (Exception ex) {
+                    LOG.warn("Error closing partly written upload '" + id
+                            + "'", ex);
                 }
-                outFile.delete();
+                removeUpload("" + id, stagingKey);
             }
             throw new StreamWriteException("Error writing temp stream", e);
         }
-        // if we got this far w/o an exception, add to hash with current time
-        // and return the identifier-that-looks-like-a-url
-        long now = System.currentTimeMillis();
-        m_uploadStartTime.put("" + id, new Long(now));
+        // if we got this far w/o an exception, add to the index with the
+        // current time and return the identifier-that-looks-like-a-url
+        m_uploads.add(new UploadIndex.Upload("" + id,
+                                             System.currentTimeMillis(),
+                                             stagingKey,
+                                             out.getDigest()));
         return "uploaded://" + id;
     }
 
-    private synchronized int getNextTempId(Context context) {
+    /**
+     * Puts uploads left staged in the low-level store by a previous run in
+     * the index, like the leftovers in the upload directory, so that they
+     * expire, and makes sure their ids are not reused. This is done on the
+     * first upload rather than on construction, when the low-level store
+     * may not be initialized yet.
+     */
+    private void addStagedLeftovers() {
+        if (m_stagingStore == null || m_stagedLeftoversAdded) {
+            return;
+        }
+        synchronized (this) {
+            if (m_stagedLeftoversAdded) {
+                return;
+            }
+            String prefix = getStagingKey("");
+            long leftoverStartTime = System.currentTimeMillis();
+            Iterator<String> keys = m_stagingStore.listStagedDatastreams();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                if (!key.startsWith(prefix)) {
+                    continue;
+                }
+                try {
+                    String internalId = key.substring(prefix.length());
+                    int id = Integer.parseInt(internalId);
+                    if (id > m_lastId.get()) {
+                        m_lastId.set(id);
+                    }
+                    if (m_uploads.get(internalId) == null) {
+                        m_uploads.add(new UploadIndex.Upload(internalId,
+                                                             leftoverStartTime,
+                                                             key,
+                                                             null));
+                    }
+                } catch (NumberFormatException nfe) {
+                    // skip keys that aren't numbered
+                }
+            }
+            m_stagedLeftoversAdded = true;
+        }
+    }
+
+    /**
+     * Gets the key an upload is staged under in the low-level store.
+     */
+    static String getStagingKey(String id) {
+        return "upload-" + id;
+    }
+
+    private int getNextTempId(Context context) {
 
         int recoveryId = -1;
 
@@ -1247,20 +1367,25 @@ public class DefaultManagement
             }
         }
         if (recoveryId == -1) {
-            m_lastId++;
+            return m_lastId.incrementAndGet();
         } else {
-            m_lastId = recoveryId;
+            m_lastId.set(recoveryId);
+            return recoveryId;
         }
-        return m_lastId;
     }
 
     public InputStream getTempStream(String id) throws StreamReadException {
         // it should come in starting with "uploaded://"
         if (id.startsWith(DatastreamManagedContent.UPLOADED_SCHEME) || id.length() < 12) {
             String internalId = id.substring(11);
-            if (m_uploadStartTime.get(internalId) != null) {
+            UploadIndex.Upload upload = m_uploads.get(internalId);
+            if (upload != null) {
                 // found... return inputstream
                 try {
+                    if (upload.getStagingKey() != null) {
+                        return m_stagingStore.retrieveStagedDatastream(upload
+                                .getStagingKey());
+                    }
                     return new FileInputStream(new File(m_tempDir, internalId));
                 } catch (Exception e) {
                     throw new StreamReadException(e.getMessage());
@@ -1274,6 +1399,65 @@ public class DefaultManagement
         }
     }
 
+    /**
+     * Gets the size and checksums that were computed when the file with the
+     * given id was uploaded.
+     *
+     * @return the digest, or null if the id is not that of an uploaded file.
+     */
+    public ContentDigest getTempStreamDigest(String id) {
+        UploadIndex.Upload upload = getUpload(id);
+        return upload == null ? null : upload.getDigest();
+    }
+
+    /**
+     * Gets the key the file with the given id was staged under in the
+     * low-level store. Staged content can be committed as a datastream's
+     * content only once; after that it is no longer staged.
+     *
+     * @return the key, or null if the file was not staged.
+     */
+    public String getTempStreamStagingKey(String id) {
+        UploadIndex.Upload upload = getUpload(id);
+        return upload == null ? null : upload.getStagingKey();
+    }
+
+    /**
+     * Forgets the file with the given id, and deletes any of its content
+     * that is left. This is done once staged content has been committed,
+     * since it can be committed only once.
+     */
+    public void removeTempStream(String id) {
+        UploadIndex.Upload upload = getUpload(id);
+        if (upload != null && m_uploads.remove(upload)) {
+            removeUpload(upload.getId(), upload.getStagingKey());
+        }
+    }
+
+    private UploadIndex.Upload getUpload(String id) {
+        if (id.startsWith(DatastreamManagedContent.UPLOADED_SCHEME)) {
+            return m_uploads.get(id.substring(11));
+        }
+        return null;
+    }
+
+    /**
+     * Gives a managed datastream whose content was uploaded the size and
+     * checksums computed during the upload, so they are not computed again
+     * by reading the content. Inline XML is not stored as uploaded, so it is
+     * left alone.
+     */
+    private void setUploadDigest(Datastream ds) {
+        if ("M".equals(ds.DSControlGrp) && ds.DSLocation != null
+                && ds.DSLocation.startsWith(DatastreamManagedContent.UPLOADED_SCHEME)) {
+            ContentDigest digest = getTempStreamDigest(ds.DSLocation);
+            if (digest != null) {
+                ds.DSContentDigest = digest;
+                ds.DSSize = digest.getSize();
+            }
+        }
+    }
+
     public Date setDatastreamState(Context context,
                                    String pid,
                                    String datastreamID,
@@ -1736,42 +1920,43 @@ public class DefaultManagement
             long minStartTime =
                 currentTimeMillis - (this.m_uploadStorageMinutes * 60000);
 
-            // List files to purge and remove filename to map
-            // This operation is synchronized to be thread-safe
-            // ------------------------------------------------
-            List<String> removeList = new ArrayList<String>();
-            synchronized (this.m_uploadStartTime) {
-                for (Entry<String, Long> entry :
-                  m_uploadStartTime.entrySet()) {
-                    String filename = entry.getKey();
-                    long startTime = entry.getValue().longValue();
-                    if (startTime < minStartTime) {
-                        removeList.add(filename);
-                    }
-                }
-                for (String filename : removeList) {
-                    this.m_uploadStartTime.remove(filename);
-                }
-            }
-
-            // Delete file to purged
-            // This operation is out of synchronised block for performances
+            // Remove expired uploads from the index; they are the oldest,
+            // so the others need not be looked at
             // ------------------------------------------------------------
-            for (int i = 0; i < removeList.size(); i++) {
-                String id = removeList.get(i);
-
-                File file = new File(this.m_tempDir, id);
-                if (file.exists()) {
-                    if (file.delete()) {
-                        LOG.info("Removed uploaded file '" + id
+            for (UploadIndex.Upload upload : m_uploads
+                    .removeStartedBefore(minStartTime)) {
+                if (removeUpload(upload.getId(), upload.getStagingKey())) {
+                    LOG.info("Removed uploaded file '" + upload.getId()
                             + "' because it expired.");
-                    } else {
-                        LOG.warn("Could not remove expired uploaded file '"
-                            + id + "'. Check permissions in management/upload/ directory.");
-                    }
                 }
             }
         }
     }
 
+    /**
+     * Deletes the content of an upload, wherever it was written.
+     *
+     * @return whether it was removed or was already gone.
+     */
+    private boolean removeUpload(String id, String stagingKey) {
+        if (stagingKey != null) {
+            try {
+                // already gone if it was committed
+                m_stagingStore.removeStagedDatastream(stagingKey);
+                return true;
+            } catch (Exception e) {
+                LOG.warn("Could not remove uploaded file '" + id
+                        + "' from the low-level store's staging area.", e);
+                return false;
+            }
+        }
+        File file = new File(this.m_tempDir, id);
+        if (file.exists() && !file.delete()) {
+            LOG.warn("Could not remove uploaded file '"
+                + id + "'. Check permissions in management/upload/ directory.");
+            return false;
+        }
+        return true;
+    }
+
 }
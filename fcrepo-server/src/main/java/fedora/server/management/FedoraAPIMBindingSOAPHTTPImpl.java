@@ -143,14 +143,12 @@ public class FedoraAPIMBindingSOAPHTTPImpl
             throws RemoteException {
         assertInitialized();
         try {
-            InputStream in =
-                    s_management.export(ReadOnlyContext.getSoapContext(),
-                                        PID,
-                                        format,
-                                        exportContext,
-                                        "UTF-8");
             ByteArrayOutputStream out = new ByteArrayOutputStream();
-            pipeStream(in, out);
+            s_management.prepareExport(ReadOnlyContext.getSoapContext(),
+                                       PID,
+                                       format,
+                                       exportContext,
+                                       "UTF-8").write(out);
             return out.toByteArray();
         } catch (Throwable th) {
             LOG.error("Error exporting object", th);
@@ -11,6 +11,7 @@ import java.util.Date;
 import fedora.server.Context;
 import fedora.server.errors.ServerException;
 import fedora.server.messaging.PName;
+import fedora.server.storage.types.ContentDigest;
 import fedora.server.storage.types.Datastream;
 import fedora.server.storage.types.RelationshipTuple;
 
@@ -45,6 +46,13 @@ public interface Management {
                               @PName("exportContext")String exportContext,
                               @PName("encoding")String encoding) throws ServerException;
 
+    public ObjectExport prepareExport(@PName("context")Context context,
+                                      @PName("pid")String pid,
+                                      @PName("format")String format,
+                                      @PName("exportContext")String exportContext,
+                                      @PName("encoding")String encoding)
+            throws ServerException;
+
     public Date purgeObject(@PName("context")Context context,
                             @PName("pid")String pid,
                             @PName("logMessage")String logMessage,
@@ -120,6 +128,12 @@ public interface Management {
 
     public InputStream getTempStream(@PName("id")String id) throws ServerException;
 
+    public ContentDigest getTempStreamDigest(@PName("id")String id) throws ServerException;
+
+    public String getTempStreamStagingKey(@PName("id")String id) throws ServerException;
+
+    public void removeTempStream(@PName("id")String id) throws ServerException;
+
     public Date setDatastreamState(@PName("context")Context context,
                                    @PName("pid")String pid,
                                    @PName("dsID")String dsID,
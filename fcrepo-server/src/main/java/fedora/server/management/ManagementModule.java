@@ -7,10 +7,12 @@ package fedora.server.management;
 import java.io.File;
 import java.io.InputStream;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
-import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -20,6 +22,7 @@ import org.apache.log4j.Logger;
 import fedora.server.Context;
 import fedora.server.Module;
 import fedora.server.Server;
+import fedora.server.errors.GeneralException;
 import fedora.server.errors.ModuleInitializationException;
 import fedora.server.errors.ModuleShutdownException;
 import fedora.server.errors.ServerException;
@@ -28,6 +31,8 @@ import fedora.server.proxy.ProxyFactory;
 import fedora.server.security.Authorization;
 import fedora.server.storage.DOManager;
 import fedora.server.storage.ExternalContentManager;
+import fedora.server.storage.lowlevel.IStageable;
+import fedora.server.storage.types.ContentDigest;
 import fedora.server.storage.types.Datastream;
 import fedora.server.storage.types.RelationshipTuple;
 
@@ -55,7 +60,15 @@ public class ManagementModule
 
     private File m_tempDir;
 
-    private Hashtable<String, Long> m_uploadStartTime;
+    private UploadIndex m_uploads;
+
+    /** Whether uploads are staged in the low-level store. */
+    private boolean m_uploadStaging;
+
+    /** How long a resumable upload session is kept after its last write. */
+    private int m_uploadSessionMinutes;
+
+    private UploadSessions m_uploadSessions;
 
     private Management mgmt;
     
@@ -64,6 +77,9 @@ public class ManagementModule
     /** Delay between purge of two uploaded files. */
     private long m_purgeDelayInMillis;
 
+    /** Checksum algorithms computed while uploaded files are written. */
+    private List<String> m_uploadChecksumTypes;
+
     public ManagementModule(Map<String, String> moduleParameters,
                             Server server,
                             String role)
@@ -98,10 +114,10 @@ public class ManagementModule
             if (!m_tempDir.isDirectory()) {
                 m_tempDir.mkdirs();
             }
-            // put leftovers in hash, while saving highest id as m_lastId
-            m_uploadStartTime = new Hashtable<String, Long>();
+            // put leftovers in the index, while saving highest id as m_lastId
+            m_uploads = new UploadIndex();
             String[] fNames = m_tempDir.list();
-            Long leftoverStartTime = new Long(System.currentTimeMillis());
+            long leftoverStartTime = System.currentTimeMillis();
             m_lastId = 0;
             for (String element : fNames) {
                 try {
@@ -109,7 +125,10 @@ public class ManagementModule
                     if (id > m_lastId) {
                         m_lastId = id;
                     }
-                    m_uploadStartTime.put(element, leftoverStartTime);
+                    m_uploads.add(new UploadIndex.Upload(element,
+                                                         leftoverStartTime,
+                                                         null,
+                                                         null));
                 } catch (NumberFormatException nfe) {
                     // skip files that aren't named numerically
                 }
@@ -120,6 +139,31 @@ public class ManagementModule
                     + ": " + e.getMessage(), getRole(), e);
         }
 
+        // write uploads straight into the low-level store? default=false
+        String staging = getParameter("uploadStaging");
+        if (staging != null && !staging.equalsIgnoreCase("true")
+                && !staging.equalsIgnoreCase("false")) {
+            throw new ModuleInitializationException("Bad value for "
+                    + "uploadStaging parameter: " + staging, getRole());
+        }
+        m_uploadStaging = "true".equalsIgnoreCase(staging);
+
+        // how long should we keep idle resumable upload sessions? default=1 day
+        String sessionMin = getParameter("uploadSessionMinutes");
+        if (sessionMin == null) {
+            sessionMin = "1440";
+        }
+        try {
+            m_uploadSessionMinutes = Integer.parseInt(sessionMin);
+            if (m_uploadSessionMinutes < 1) {
+                throw new NumberFormatException();
+            }
+        } catch (NumberFormatException nfe) {
+            throw new ModuleInitializationException("Bad value for "
+                    + "uploadSessionMinutes parameter: " + sessionMin,
+                    getRole());
+        }
+
         // initialize variables pertaining to checksumming datastreams.
         String auto = getParameter("autoChecksum");
         LOG.debug("Got Parameter: autoChecksum = " + auto);
@@ -129,6 +173,52 @@ public class ManagementModule
         }
         LOG.debug("autoChecksum is " + auto);
         LOG.debug("defaultChecksumType is " + Datastream.defaultChecksumType);
+
+        // checksums to compute while uploaded files are written: the default
+        // type, if any, and any others that are often asked for; Fedora
+        // knows of types the JVM may have no implementation of
+        m_uploadChecksumTypes = new ArrayList<String>();
+        try {
+            String type =
+                    Datastream.validateChecksumType(Datastream.defaultChecksumType);
+            if (type != null && !type.equals(Datastream.CHECKSUMTYPE_DISABLED)) {
+                MessageDigest.getInstance(type);
+                m_uploadChecksumTypes.add(type);
+            }
+        } catch (GeneralException e) {
+            LOG.warn("Default checksum will not be computed on upload: "
+                    + e.getMessage());
+        } catch (NoSuchAlgorithmException e) {
+            LOG.warn("Default checksum will not be computed on upload: "
+                    + e.getMessage());
+        }
+        String uploadChecksums = getParameter("uploadChecksumAlgorithms");
+        if (uploadChecksums != null) {
+            for (String type : uploadChecksums.split("[\\s,]+")) {
+                if (type.length() == 0) {
+                    continue;
+                }
+                try {
+                    type = Datastream.validateChecksumType(type);
+                    if (!type.equals(Datastream.CHECKSUMTYPE_DISABLED)) {
+                        MessageDigest.getInstance(type);
+                    }
+                } catch (GeneralException e) {
+                    throw new ModuleInitializationException("Bad value for "
+                            + "uploadChecksumAlgorithms parameter: "
+                            + e.getMessage(), getRole());
+                } catch (NoSuchAlgorithmException e) {
+                    throw new ModuleInitializationException("Bad value for "
+                            + "uploadChecksumAlgorithms parameter: "
+                            + e.getMessage(), getRole());
+                }
+                if (!type.equals(Datastream.CHECKSUMTYPE_DISABLED)
+                        && !m_uploadChecksumTypes.contains(type)) {
+                    m_uploadChecksumTypes.add(type);
+                }
+            }
+        }
+        LOG.debug("uploadChecksumTypes are " + m_uploadChecksumTypes);
        
         // get delay between purge of two uploaded files (default 1 minute)
         String purgeDelayInMillis = getParameter("purgeDelayInMillis");
@@ -171,6 +261,19 @@ public class ManagementModule
                                                     getRole());
         }
 
+        IStageable stagingStore = null;
+        if (m_uploadStaging) {
+            Object llstore =
+                    getServer()
+                            .getModule("fedora.server.storage.lowlevel.ILowlevelStorage");
+            if (llstore instanceof IStageable) {
+                stagingStore = (IStageable) llstore;
+            } else {
+                LOG.warn("The low-level store cannot stage content; uploads "
+                        + "will be written to " + m_tempDir.getPath());
+            }
+        }
+
         Management m =
                 new DefaultManagement(m_fedoraXACMLModule,
                                       m_manager,
@@ -178,10 +281,31 @@ public class ManagementModule
                                       m_uploadStorageMinutes,
                                       m_lastId,
                                       m_tempDir,
-                                      m_uploadStartTime,
-                                      m_purgeDelayInMillis);
+                                      m_uploads,
+                                      stagingStore,
+                                      m_purgeDelayInMillis,
+                                      m_uploadChecksumTypes);
 
         mgmt = getProxyChain(m);
+
+        // completed sessions are put through the Management role, like any
+        // other upload, so they are journaled when journaling is on
+        Management management =
+                (Management) getServer()
+                        .getModule("fedora.server.management.Management");
+        m_uploadSessions =
+                new UploadSessions(new File(getServer().getHomeDir(),
+                                            "management/upload-sessions"),
+                                   m_uploadSessionMinutes * 60000L,
+                                   m_fedoraXACMLModule,
+                                   management);
+    }
+
+    /**
+     * Gets the resumable upload sessions.
+     */
+    public UploadSessions getUploadSessions() {
+        return m_uploadSessions;
     }
     
     @Override
@@ -265,6 +389,22 @@ public class ManagementModule
         return mgmt.export(context, pid, format, exportContext, encoding);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public ObjectExport prepareExport(Context context,
+                                      String pid,
+                                      String format,
+                                      String exportContext,
+                                      String encoding)
+            throws ServerException {
+        return mgmt.prepareExport(context,
+                                  pid,
+                                  format,
+                                  exportContext,
+                                  encoding);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -328,6 +468,27 @@ public class ManagementModule
         return mgmt.getTempStream(id);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public ContentDigest getTempStreamDigest(String id) throws ServerException {
+        return mgmt.getTempStreamDigest(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getTempStreamStagingKey(String id) throws ServerException {
+        return mgmt.getTempStreamStagingKey(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void removeTempStream(String id) throws ServerException {
+        mgmt.removeTempStream(id);
+    }
+
     /**
      * {@inheritDoc}
      */
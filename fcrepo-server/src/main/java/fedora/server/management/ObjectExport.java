@@ -0,0 +1,26 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.management;
+
+import java.io.OutputStream;
+
+import fedora.server.errors.ServerException;
+
+/**
+ * An export of a digital object that has been authorized and read, and is
+ * ready to be serialized.
+ *
+ * @see Management#prepareExport(fedora.server.Context, String, String,
+ *      String, String)
+ */
+public interface ObjectExport {
+
+    /**
+     * Serializes the object to the given stream. Most serializers close the
+     * stream once the object has been written, so nothing should be written
+     * to it afterwards.
+     */
+    public void write(OutputStream out) throws ServerException;
+}
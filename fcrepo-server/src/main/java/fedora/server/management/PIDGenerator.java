@@ -26,6 +26,17 @@ public interface PIDGenerator {
      */
     public PID generatePID(String namespace) throws IOException;
 
+    /**
+     * Generate the given number of new pids, guaranteed to be unique, within
+     * the given namespace.
+     * 
+     * @param namespace
+     * @param count
+     * @return the PIDs, in the order in which they were generated
+     * @throws IOException
+     */
+    public PID[] generatePIDs(String namespace, int count) throws IOException;
+
     /**
      * Get the last pid that was generated.
      * 
@@ -0,0 +1,129 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.management;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import fedora.server.storage.types.ContentDigest;
+
+/**
+ * The uploads being held for use as datastream content, indexed by id for
+ * lookups and kept in the order they were added, oldest first, so that
+ * expired uploads can be removed without scanning the others or locking out
+ * concurrent uploads.
+ */
+class UploadIndex {
+
+    private final ConcurrentMap<String, Upload> m_uploads =
+            new ConcurrentHashMap<String, Upload>();
+
+    private final Queue<Upload> m_byAge = new ConcurrentLinkedQueue<Upload>();
+
+    /**
+     * Adds an upload, replacing any upload with the same id. Uploads should
+     * be added in the order they were started.
+     */
+    void add(Upload upload) {
+        m_uploads.put(upload.getId(), upload);
+        m_byAge.add(upload);
+    }
+
+    /**
+     * Gets the upload with the given id.
+     *
+     * @return the upload, or null if there is none.
+     */
+    Upload get(String id) {
+        return m_uploads.get(id);
+    }
+
+    /**
+     * Removes an upload, unless it has since been replaced by another with
+     * the same id. It is dropped from the age order when it would have
+     * expired.
+     *
+     * @return whether it was removed.
+     */
+    boolean remove(Upload upload) {
+        return m_uploads.remove(upload.getId(), upload);
+    }
+
+    /**
+     * Removes the uploads that were started before the given time. Uploads
+     * since replaced by another with the same id are dropped, but not
+     * returned.
+     *
+     * @return the removed uploads, oldest first.
+     */
+    List<Upload> removeStartedBefore(long time) {
+        List<Upload> removed = new ArrayList<Upload>();
+        Upload upload;
+        while ((upload = m_byAge.peek()) != null
+                && upload.getStartTime() < time) {
+            // only one caller succeeds in removing the head
+            if (m_byAge.remove(upload)
+                    && m_uploads.remove(upload.getId(), upload)) {
+                removed.add(upload);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Content uploaded for later use.
+     */
+    static class Upload {
+
+        private final String m_id;
+
+        private final long m_startTime;
+
+        private final String m_stagingKey;
+
+        private final ContentDigest m_digest;
+
+        /**
+         * Creates an upload.
+         *
+         * @param id
+         *        the internal id, n in uploaded://n.
+         * @param startTime
+         *        when the upload was started, in milliseconds.
+         * @param stagingKey
+         *        the key the content is staged under in the low-level store,
+         *        or null if it is in a temporary file.
+         * @param digest
+         *        the size and checksums of the content, or null if they are
+         *        not known.
+         */
+        Upload(String id, long startTime, String stagingKey, ContentDigest digest) {
+            m_id = id;
+            m_startTime = startTime;
+            m_stagingKey = stagingKey;
+            m_digest = digest;
+        }
+
+        String getId() {
+            return m_id;
+        }
+
+        long getStartTime() {
+            return m_startTime;
+        }
+
+        String getStagingKey() {
+            return m_stagingKey;
+        }
+
+        ContentDigest getDigest() {
+            return m_digest;
+        }
+    }
+}
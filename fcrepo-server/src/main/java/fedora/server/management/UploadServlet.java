@@ -26,6 +26,7 @@ import fedora.server.Context;
 import fedora.server.ReadOnlyContext;
 import fedora.server.Server;
 import fedora.server.errors.InitializationException;
+import fedora.server.errors.UnknownSessionTokenException;
 import fedora.server.errors.authorization.AuthzException;
 import fedora.server.errors.servletExceptionExtensions.RootException;
 
@@ -37,6 +38,22 @@ import fedora.server.errors.servletExceptionExtensions.RootException;
  * <p>
  * If it fails it will return a non-201 status code with a text/plain
  * explanation. The submitted file must be named "file".
+ * <p>
+ * Large files can instead be sent in chunks to a resumable upload session
+ * (see {@link UploadSessions}):
+ * <ul>
+ * <li>POST /management/upload/sessions?length=n starts a session, returning
+ * "201 Created" with its URL in the Location header and its id in the
+ * body. The length is optional.</li>
+ * <li>PUT /management/upload/sessions/id?offset=n writes the request body at
+ * offset n, checking it against the Content-MD5 header if there is one.
+ * Chunks may be sent in any order, in parallel, and again if they fail.</li>
+ * <li>GET /management/upload/sessions/id tells which byte ranges have been
+ * received.</li>
+ * <li>POST /management/upload/sessions/id finishes the session, returning
+ * "201 Created" and the opaque identifier, as above.</li>
+ * <li>DELETE /management/upload/sessions/id abandons the session.</li>
+ * </ul>
  *
  * @author Chris Wilper
  */
@@ -49,15 +66,24 @@ public class UploadServlet
 
     private static final long serialVersionUID = 1L;
 
+    private static final String SESSIONS_PATH = "/sessions";
+
     /** Instance of Management subsystem (for storing uploaded files). */
     private static Management s_management = null;
 
+    /** Resumable upload sessions, or null if there are none. */
+    private static UploadSessions s_sessions = null;
+
     /**
      * The servlet entry point. http://host:port/fedora/management/upload
      */
     @Override
     public void doPost(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
+        if (request.getPathInfo() != null) {
+            doSession(request, response);
+            return;
+        }
         Context context =
                 ReadOnlyContext.getContext(Constants.HTTP_REQUEST.REST.uri,
                                            request);
@@ -99,19 +125,131 @@ public class UploadServlet
 
     @Override
     public void doGet(HttpServletRequest request, HttpServletResponse response)
-            throws IOException {
+            throws ServletException, IOException {
+        if (request.getPathInfo() != null) {
+            doSession(request, response);
+            return;
+        }
         sendResponse(HttpServletResponse.SC_OK,
                      "Client must use HTTP Multipart POST",
                      response);
     }
 
+    @Override
+    public void doPut(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        doSession(request, response);
+    }
+
+    @Override
+    public void doDelete(HttpServletRequest request,
+                         HttpServletResponse response)
+            throws ServletException, IOException {
+        doSession(request, response);
+    }
+
+    /**
+     * Handles requests for resumable upload sessions, at
+     * /management/upload/sessions and /management/upload/sessions/id.
+     */
+    private void doSession(HttpServletRequest request,
+                           HttpServletResponse response)
+            throws ServletException {
+        String path = request.getPathInfo();
+        String method = request.getMethod();
+        String id = null;
+        if (path != null && path.startsWith(SESSIONS_PATH + "/")) {
+            id = path.substring(SESSIONS_PATH.length() + 1);
+        }
+        if (s_sessions == null || path == null
+                || !(path.equals(SESSIONS_PATH) || id != null
+                        && id.length() > 0 && id.indexOf('/') == -1)) {
+            sendResponse(HttpServletResponse.SC_NOT_FOUND,
+                         "Not found: " + path,
+                         response);
+            return;
+        }
+        Context context =
+                ReadOnlyContext.getContext(Constants.HTTP_REQUEST.REST.uri,
+                                           request);
+        try {
+            if (id == null) {
+                if (!method.equals("POST")) {
+                    sendResponse(HttpServletResponse.SC_METHOD_NOT_ALLOWED,
+                                 "Client must use HTTP POST to start a session",
+                                 response);
+                    return;
+                }
+                long length = parseLong(request.getParameter("length"), -1);
+                id = s_sessions.create(context, length);
+                response.setHeader("Location", request.getRequestURL() + "/"
+                        + id);
+                sendResponse(HttpServletResponse.SC_CREATED, id, response);
+            } else if (method.equals("PUT")) {
+                long offset = parseLong(request.getParameter("offset"), 0);
+                s_sessions.write(context,
+                                 id,
+                                 offset,
+                                 request.getInputStream(),
+                                 request.getHeader("Content-MD5"));
+                sendResponse(HttpServletResponse.SC_OK,
+                             s_sessions.getStatus(context, id),
+                             response);
+            } else if (method.equals("GET")) {
+                sendResponse(HttpServletResponse.SC_OK,
+                             s_sessions.getStatus(context, id),
+                             response);
+            } else if (method.equals("POST")) {
+                sendResponse(HttpServletResponse.SC_CREATED,
+                             s_sessions.finish(context, id),
+                             response);
+            } else if (method.equals("DELETE")) {
+                s_sessions.cancel(context, id);
+                response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+            } else {
+                sendResponse(HttpServletResponse.SC_METHOD_NOT_ALLOWED,
+                             "Unsupported method: " + method,
+                             response);
+            }
+        } catch (AuthzException ae) {
+            throw RootException.getServletException(ae,
+                                                    request,
+                                                    "Upload",
+                                                    new String[0]);
+        } catch (UnknownSessionTokenException e) {
+            sendResponse(HttpServletResponse.SC_NOT_FOUND,
+                         e.getMessage(),
+                         response);
+        } catch (IllegalArgumentException e) {
+            sendResponse(HttpServletResponse.SC_BAD_REQUEST,
+                         e.getMessage(),
+                         response);
+        } catch (Exception e) {
+            LOG.error("Error handling upload session request", e);
+            sendResponse(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e
+                    .getClass().getName()
+                    + ": " + e.getMessage(), response);
+        }
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+        if (value == null || value.length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + value);
+        }
+    }
+
     public void sendResponse(int status,
                              String message,
                              HttpServletResponse response) {
         try {
             if (status == HttpServletResponse.SC_CREATED) {
                 LOG.info("Successful upload, id=" + message);
-            } else {
+            } else if (status >= HttpServletResponse.SC_BAD_REQUEST) {
                 LOG.error("Failed upload: " + message);
             }
             response.setStatus(status);
@@ -139,6 +277,7 @@ public class UploadServlet
             if (s_management == null) {
                 throw new ServletException("Unable to get Management module from server.");
             }
+            s_sessions = UploadSessions.getInstance(server);
         } catch (InitializationException ie) {
             throw new ServletException("Unable to get Fedora Server instance."
                     + ie.getMessage());
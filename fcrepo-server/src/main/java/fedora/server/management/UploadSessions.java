@@ -0,0 +1,617 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.management;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import java.nio.channels.FileChannel;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+
+import fedora.common.Constants;
+
+import fedora.server.Context;
+import fedora.server.Server;
+import fedora.server.errors.ServerException;
+import fedora.server.errors.StreamReadException;
+import fedora.server.errors.StreamWriteException;
+import fedora.server.errors.UnknownSessionTokenException;
+import fedora.server.errors.authorization.AuthzDeniedException;
+import fedora.server.security.Authorization;
+
+import fedora.utilities.Base64;
+
+/**
+ * Resumable uploads: content sent in chunks to a session, by offset, in any
+ * order and possibly in parallel, and added as an ordinary upload (an
+ * uploaded:// location usable in API-M calls) once all of it has arrived.
+ * <p>
+ * Each session is a directory holding the content received so far, written
+ * at the offsets it was sent for, and a properties file recording the
+ * declared length, the owner, and the byte ranges received, so that sessions
+ * survive a restart. Chunks are spooled to files of their own while they
+ * arrive, and copied into the content once checked. Sessions that are not written to for the expiry time
+ * are removed.
+ */
+public class UploadSessions {
+
+    /** Logger for this class. */
+    private static final Logger LOG =
+            Logger.getLogger(UploadSessions.class.getName());
+
+    private static final String DATA_FILE = "data";
+
+    private static final String PROPERTIES_FILE = "session.properties";
+
+    private static final String CHUNK_PREFIX = "chunk-";
+
+    private final File m_dir;
+
+    private final long m_expiryMillis;
+
+    private final Authorization m_authz;
+
+    private final Management m_management;
+
+    private final ConcurrentMap<String, Session> m_sessions =
+            new ConcurrentHashMap<String, Session>();
+
+    /**
+     * Creates an instance keeping sessions in the given directory, and loads
+     * any sessions already there.
+     *
+     * @param dir
+     *        the directory.
+     * @param expiryMillis
+     *        how long a session is kept after it was last written to.
+     * @param authz
+     *        used to check that the caller may upload.
+     * @param management
+     *        where completed uploads are put.
+     */
+    UploadSessions(File dir,
+                   long expiryMillis,
+                   Authorization authz,
+                   Management management) {
+        m_dir = dir;
+        m_expiryMillis = expiryMillis;
+        m_authz = authz;
+        m_management = management;
+        m_dir.mkdirs();
+        File[] sessionDirs = m_dir.listFiles();
+        if (sessionDirs != null) {
+            for (File sessionDir : sessionDirs) {
+                try {
+                    Session session = Session.load(sessionDir);
+                    m_sessions.put(session.getId(), session);
+                } catch (IOException e) {
+                    LOG.warn("Removing unreadable upload session "
+                            + sessionDir.getName(), e);
+                    delete(sessionDir);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the sessions kept by the given server's management module, which
+     * fills the ManagementDelegate role instead when journaling is on.
+     *
+     * @return the sessions, or null if the module does not keep any.
+     */
+    public static UploadSessions getInstance(Server server) {
+        String[] roles = {"fedora.server.management.Management",
+                          "fedora.server.management.ManagementDelegate"};
+        for (String role : roles) {
+            Object module = server.getModule(role);
+            if (module instanceof ManagementModule) {
+                return ((ManagementModule) module).getUploadSessions();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Starts a session.
+     *
+     * @param length
+     *        the length of the content, or -1 if it is not known yet.
+     * @return the session id.
+     */
+    public String create(Context context, long length) throws ServerException {
+        m_authz.enforceUpload(context);
+        purgeExpired();
+        String id = UUID.randomUUID().toString();
+        Session session =
+                new Session(new File(m_dir, id), length, getOwner(context));
+        if (!session.getDir().mkdirs()) {
+            throw new StreamWriteException("Unable to create upload session "
+                    + "directory " + session.getDir().getPath());
+        }
+        try {
+            session.getDataFile().createNewFile();
+            session.save();
+        } catch (IOException e) {
+            delete(session.getDir());
+            throw new StreamWriteException("Unable to create upload session: "
+                    + e.getMessage());
+        }
+        m_sessions.put(id, session);
+        LOG.debug("Started upload session " + id);
+        return id;
+    }
+
+    /**
+     * Writes a chunk of content at the given offset. The chunk is only
+     * written into the content, and recorded as received, once all of it has
+     * arrived and, if given, its checksum matches.
+     *
+     * @param offset
+     *        where in the content the chunk goes.
+     * @param in
+     *        the chunk, which is read until it ends.
+     * @param md5
+     *        the Base64-encoded MD5 digest of the chunk, as sent in a
+     *        Content-MD5 header, or null.
+     * @throws IllegalArgumentException
+     *         if the chunk goes beyond the declared length or does not match
+     *         its checksum.
+     */
+    public void write(Context context,
+                      String id,
+                      long offset,
+                      InputStream in,
+                      String md5) throws ServerException {
+        Session session = getSession(context, id);
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset must not be negative: "
+                    + offset);
+        }
+        session.write(offset, in, md5);
+    }
+
+    /**
+     * Describes the state of a session: its length, if known, and the byte
+     * ranges received so far, e.g.
+     *
+     * <pre>
+     * length: 3145728
+     * received: 0-1048575, 2097152-3145727
+     * </pre>
+     */
+    public String getStatus(Context context, String id)
+            throws ServerException {
+        return getSession(context, id).getStatus();
+    }
+
+    /**
+     * Adds the content of a complete session as an upload and ends the
+     * session.
+     *
+     * @return the uploaded:// location of the content.
+     * @throws IllegalArgumentException
+     *         if some of the content has not been received.
+     */
+    public String finish(Context context, String id) throws ServerException {
+        Session session = getSession(context, id);
+        session.finish();
+        InputStream in;
+        try {
+            in = new FileInputStream(session.getDataFile());
+        } catch (IOException e) {
+            throw new StreamReadException("Unable to read upload session "
+                    + id + ": " + e.getMessage());
+        }
+        String location = null;
+        try {
+            location = m_management.putTempStream(context, in);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+            }
+            if (location == null) {
+                // let the client try again
+                session.reopen();
+            }
+        }
+        remove(session);
+        LOG.debug("Finished upload session " + id + " as " + location);
+        return location;
+    }
+
+    /**
+     * Abandons a session, discarding whatever was received.
+     */
+    public void cancel(Context context, String id) throws ServerException {
+        Session session = getSession(context, id);
+        session.cancel();
+        remove(session);
+    }
+
+    private Session getSession(Context context, String id)
+            throws ServerException {
+        m_authz.enforceUpload(context);
+        Session session = m_sessions.get(id);
+        if (session == null) {
+            throw new UnknownSessionTokenException("No such upload session: "
+                    + id);
+        }
+        String owner = session.getOwner();
+        if (owner != null && !owner.equals(getOwner(context))) {
+            throw new AuthzDeniedException("Upload session " + id
+                    + " belongs to another user");
+        }
+        return session;
+    }
+
+    private static String getOwner(Context context) {
+        return context.getSubjectValue(Constants.SUBJECT.LOGIN_ID.uri);
+    }
+
+    private void purgeExpired() {
+        long minLastWritten = System.currentTimeMillis() - m_expiryMillis;
+        for (Session session : m_sessions.values()) {
+            if (session.getLastWritten() < minLastWritten) {
+                LOG.info("Removing upload session " + session.getId()
+                        + " because it expired.");
+                remove(session);
+            }
+        }
+    }
+
+    private void remove(Session session) {
+        if (m_sessions.remove(session.getId(), session)) {
+            delete(session.getDir());
+        }
+    }
+
+    private static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        if (!dir.delete()) {
+            LOG.warn("Could not remove upload session directory "
+                    + dir.getPath());
+        }
+    }
+
+    /**
+     * An upload in progress.
+     */
+    static class Session {
+
+        private final File m_dir;
+
+        private final long m_length;
+
+        private final String m_owner;
+
+        /** The ranges received, as sorted, non-adjacent [start, end) pairs. */
+        private final List<long[]> m_ranges = new ArrayList<long[]>();
+
+        private volatile long m_lastWritten = System.currentTimeMillis();
+
+        private boolean m_finished;
+
+        Session(File dir, long length, String owner) {
+            m_dir = dir;
+            m_length = length;
+            m_owner = owner;
+        }
+
+        static Session load(File dir) throws IOException {
+            File file = new File(dir, PROPERTIES_FILE);
+            Properties props = new Properties();
+            InputStream in = new FileInputStream(file);
+            try {
+                props.load(in);
+            } finally {
+                in.close();
+            }
+            Session session;
+            try {
+                session = new Session(dir,
+                                      Long.parseLong(props.getProperty("length")),
+                                      props.getProperty("owner"));
+                String ranges = props.getProperty("ranges");
+                if (ranges.length() > 0) {
+                    for (String range : ranges.split(",")) {
+                        int i = range.indexOf('-');
+                        session.addRange(Long.parseLong(range.substring(0, i)),
+                                         Long.parseLong(range.substring(i + 1)) + 1);
+                    }
+                }
+            } catch (RuntimeException e) {
+                throw new IOException("Bad upload session properties in "
+                        + file.getPath() + ": " + e);
+            }
+            session.m_lastWritten = file.lastModified();
+            // chunks being received when the server stopped were not
+            // recorded, and will be sent again
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File chunk : files) {
+                    if (chunk.getName().startsWith(CHUNK_PREFIX)) {
+                        chunk.delete();
+                    }
+                }
+            }
+            return session;
+        }
+
+        String getId() {
+            return m_dir.getName();
+        }
+
+        File getDir() {
+            return m_dir;
+        }
+
+        File getDataFile() {
+            return new File(m_dir, DATA_FILE);
+        }
+
+        String getOwner() {
+            return m_owner;
+        }
+
+        long getLastWritten() {
+            return m_lastWritten;
+        }
+
+        void write(long offset, InputStream in, String md5)
+                throws ServerException {
+            synchronized (this) {
+                checkNotFinished();
+            }
+            MessageDigest digest = null;
+            if (md5 != null) {
+                try {
+                    digest = MessageDigest.getInstance("MD5");
+                } catch (NoSuchAlgorithmException wontHappen) {
+                    throw new RuntimeException(wontHappen);
+                }
+            }
+            // the chunk is spooled and checked before any of it goes into
+            // the content, so that a bad retry of a range already received
+            // can't overwrite it; chunks are spooled in parallel, and only
+            // copied into place one at a time
+            File chunk;
+            try {
+                chunk = File.createTempFile(CHUNK_PREFIX, null, m_dir);
+            } catch (IOException e) {
+                throw new StreamWriteException("Error writing upload chunk: "
+                        + e.getMessage());
+            }
+            try {
+                long length = spool(in, chunk, offset, digest);
+                if (digest != null
+                        && !MessageDigest.isEqual(digest.digest(), Base64
+                                .decode(md5))) {
+                    throw new IllegalArgumentException("Chunk at offset "
+                            + offset + " does not match its Content-MD5");
+                }
+                if (length > 0) {
+                    synchronized (this) {
+                        checkNotFinished();
+                        try {
+                            copyToData(chunk, offset);
+                            addRange(offset, offset + length);
+                            save();
+                        } catch (IOException e) {
+                            throw new StreamWriteException("Error writing "
+                                    + "upload chunk: " + e.getMessage());
+                        }
+                    }
+                }
+            } finally {
+                chunk.delete();
+            }
+        }
+
+        /**
+         * Reads a chunk into a file of its own.
+         *
+         * @return the length of the chunk.
+         * @throws IllegalArgumentException
+         *         if the chunk goes beyond the declared length.
+         */
+        private long spool(InputStream in,
+                           File chunk,
+                           long offset,
+                           MessageDigest digest) throws ServerException {
+            long length = 0;
+            OutputStream out = null;
+            try {
+                out = new FileOutputStream(chunk);
+                byte[] buf = new byte[32768];
+                int len;
+                while ((len = in.read(buf)) != -1) {
+                    length += len;
+                    if (m_length >= 0 && offset + length > m_length) {
+                        throw new IllegalArgumentException("Chunk at offset "
+                                + offset + " goes beyond the upload length "
+                                + m_length);
+                    }
+                    out.write(buf, 0, len);
+                    if (digest != null) {
+                        digest.update(buf, 0, len);
+                    }
+                    m_lastWritten = System.currentTimeMillis();
+                }
+            } catch (IOException e) {
+                throw new StreamWriteException("Error writing upload chunk: "
+                        + e.getMessage());
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        LOG.warn("Error closing upload chunk "
+                                + chunk.getPath(), e);
+                    }
+                }
+            }
+            return length;
+        }
+
+        /** Copies a spooled chunk into the content at the given offset. */
+        private void copyToData(File chunk, long offset) throws IOException {
+            FileInputStream in = new FileInputStream(chunk);
+            try {
+                RandomAccessFile file =
+                        new RandomAccessFile(getDataFile(), "rw");
+                try {
+                    FileChannel source = in.getChannel();
+                    FileChannel target = file.getChannel();
+                    long size = source.size();
+                    long copied = 0;
+                    // writing at the target's position, unlike transferFrom,
+                    // can start beyond the end of the content received
+                    target.position(offset);
+                    while (copied < size) {
+                        copied += source.transferTo(copied,
+                                                    size - copied,
+                                                    target);
+                    }
+                } finally {
+                    file.close();
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        /**
+         * Stops the session from accepting more content.
+         *
+         * @throws IllegalArgumentException
+         *         if some of the content has not been received.
+         */
+        synchronized void finish() {
+            checkNotFinished();
+            boolean complete;
+            if (m_ranges.isEmpty()) {
+                complete = m_length <= 0;
+            } else {
+                long[] first = m_ranges.get(0);
+                complete = m_ranges.size() == 1 && first[0] == 0
+                        && (m_length < 0 || first[1] == m_length);
+            }
+            if (!complete) {
+                throw new IllegalArgumentException("Upload is incomplete; "
+                        + getStatus().replace('\n', ';'));
+            }
+            m_finished = true;
+        }
+
+        /**
+         * Stops the session from accepting more content, however much of it
+         * has been received.
+         */
+        synchronized void cancel() {
+            m_finished = true;
+        }
+
+        /**
+         * Lets a finished session accept content again, when the content
+         * could not be added as an upload.
+         */
+        synchronized void reopen() {
+            m_finished = false;
+        }
+
+        synchronized String getStatus() {
+            StringBuffer status = new StringBuffer();
+            if (m_length >= 0) {
+                status.append("length: ").append(m_length).append('\n');
+            }
+            status.append("received: ");
+            appendRanges(status, ", ");
+            status.append('\n');
+            return status.toString();
+        }
+
+        private void checkNotFinished() {
+            if (m_finished) {
+                throw new IllegalArgumentException("Upload session "
+                        + getId() + " is finished");
+            }
+        }
+
+        private void addRange(long start, long end) {
+            int i = 0;
+            // skip ranges that end before this one starts
+            while (i < m_ranges.size() && m_ranges.get(i)[1] < start) {
+                i++;
+            }
+            // merge with ranges that overlap or touch this one
+            while (i < m_ranges.size() && m_ranges.get(i)[0] <= end) {
+                long[] range = m_ranges.remove(i);
+                start = Math.min(start, range[0]);
+                end = Math.max(end, range[1]);
+            }
+            m_ranges.add(i, new long[] {start, end});
+        }
+
+        /** Appends the ranges as inclusive start-end pairs, as in HTTP. */
+        private void appendRanges(StringBuffer out, String separator) {
+            for (int i = 0; i < m_ranges.size(); i++) {
+                if (i > 0) {
+                    out.append(separator);
+                }
+                out.append(m_ranges.get(i)[0]);
+                out.append('-');
+                out.append(m_ranges.get(i)[1] - 1);
+            }
+        }
+
+        private void save() throws IOException {
+            Properties props = new Properties();
+            props.setProperty("length", "" + m_length);
+            if (m_owner != null) {
+                props.setProperty("owner", m_owner);
+            }
+            StringBuffer ranges = new StringBuffer();
+            appendRanges(ranges, ",");
+            props.setProperty("ranges", ranges.toString());
+
+            File file = new File(m_dir, PROPERTIES_FILE);
+            File temp = new File(m_dir, PROPERTIES_FILE + ".tmp");
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                props.store(out, null);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                file.delete();
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Unable to rename " + temp.getPath());
+                }
+            }
+        }
+    }
+}
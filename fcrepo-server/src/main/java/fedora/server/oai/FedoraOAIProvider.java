@@ -4,6 +4,11 @@
  */
 package fedora.server.oai;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
 import java.text.SimpleDateFormat;
 
 import java.util.ArrayList;
@@ -13,6 +18,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
+import org.apache.log4j.Logger;
+
 import fedora.common.Constants;
 
 import fedora.oai.BadResumptionTokenException;
@@ -21,34 +28,52 @@ import fedora.oai.DateGranularitySupport;
 import fedora.oai.DeletedRecordSupport;
 import fedora.oai.Header;
 import fedora.oai.IDDoesNotExistException;
+import fedora.oai.ListHandler;
 import fedora.oai.NoMetadataFormatsException;
 import fedora.oai.NoRecordsMatchException;
 import fedora.oai.NoSetHierarchyException;
-import fedora.oai.OAIProvider;
 import fedora.oai.Record;
 import fedora.oai.RepositoryException;
+import fedora.oai.ResumptionToken;
 import fedora.oai.SimpleHeader;
 import fedora.oai.SimpleMetadataFormat;
 import fedora.oai.SimpleRecord;
 import fedora.oai.SimpleResumptionToken;
 import fedora.oai.SimpleSetInfo;
+import fedora.oai.StreamingOAIProvider;
 
+import fedora.server.ReadOnlyContext;
+import fedora.server.Server;
 import fedora.server.errors.ServerException;
-import fedora.server.errors.UnknownSessionTokenException;
 import fedora.server.search.Condition;
 import fedora.server.search.FieldSearch;
 import fedora.server.search.FieldSearchQuery;
-import fedora.server.search.FieldSearchResult;
 import fedora.server.search.ObjectFields;
+import fedora.server.storage.ConnectionPool;
+import fedora.server.storage.DOReader;
+import fedora.server.storage.RepositoryReader;
+import fedora.server.storage.types.DatastreamXMLMetadata;
 import fedora.server.utilities.DCFields;
+import fedora.server.utilities.DateUtility;
 
 /**
  * Simple FieldSearch-based OAI provider.
+ * <p>
+ * ListRecords and ListIdentifiers responses are read from the doFields table
+ * in (dcmDate, pid) order, a page at a time, and the items of the page are
+ * handed on once its database connection has been released. Their
+ * resumptionTokens hold the position of the last item sent, so they do not
+ * expire. A record whose metadata cannot be read is logged and left out, so
+ * that one bad object does not cut short a response that has already begun.
  * 
  * @author Chris Wilper
  */
 public class FedoraOAIProvider
-        implements Constants, OAIProvider {
+        implements Constants, StreamingOAIProvider {
+
+    /** Logger for this class. */
+    private static final Logger LOG =
+            Logger.getLogger(FedoraOAIProvider.class.getName());
 
     private final String m_repositoryName;
 
@@ -72,12 +97,23 @@ public class FedoraOAIProvider
 
     private final FieldSearch m_fieldSearch;
 
+    private final ConnectionPool m_cPool;
+
+    private final RepositoryReader m_repoReader;
+
     private final Set<SimpleMetadataFormat> m_formats;
 
     private static Set s_emptySet = new HashSet();
 
-    private static String[] s_headerFields =
-            new String[] {"pid", "dcmDate"};
+    private static Set<String> s_compressions = new HashSet<String>();
+
+    static {
+        s_compressions.add("gzip");
+    }
+
+    /** Objects without a DC datastream have a dcmDate of zero. */
+    private static long s_earliestDCMDate =
+            DateUtility.parseDateAsUTC("2000-01-01").getTime();
 
     private static String[] s_headerAndDCFields =
             new String[] {"pid", "dcmDate", "title", "creator",
@@ -95,7 +131,9 @@ public class FedoraOAIProvider
                              long maxSets,
                              long maxRecords,
                              long maxHeaders,
-                             FieldSearch fieldSearch) {
+                             FieldSearch fieldSearch,
+                             ConnectionPool cPool,
+                             RepositoryReader repoReader) {
         m_repositoryName = repositoryName;
         m_repositoryDomainName = repositoryDomainName;
         m_localname = localname;
@@ -105,6 +143,8 @@ public class FedoraOAIProvider
         m_maxRecords = maxRecords;
         m_maxHeaders = maxHeaders;
         m_fieldSearch = fieldSearch;
+        m_cPool = cPool;
+        m_repoReader = repoReader;
         m_descriptions = new HashSet<String>();
         StringBuffer buf = new StringBuffer();
         buf.append("      <oai-identifier xmlns=\"" + OAI_IDENTIFIER.uri
@@ -172,7 +212,7 @@ public class FedoraOAIProvider
     }
 
     public Set getSupportedCompressionEncodings() {
-        return s_emptySet;
+        return s_compressions;
     }
 
     public Set getDescriptions() {
@@ -234,92 +274,98 @@ public class FedoraOAIProvider
                            String set) throws CannotDisseminateFormatException,
             NoRecordsMatchException, NoSetHierarchyException,
             RepositoryException {
-        if (!metadataPrefix.equals("oai_dc")) {
-            throw new CannotDisseminateFormatException("Repository does not provide that format in OAI-PMH responses.");
-        }
-        List l = null;
-        FieldSearchResult fsr;
-        try {
-            fsr =
-                    m_fieldSearch
-                            .findObjects(s_headerAndDCFields,
-                                         (int) getMaxRecords(),
-                                         new FieldSearchQuery(Condition
-                                                 .getConditions("dcmDate>'2000-01-01'"
-                                                         + getDatePart(from,
-                                                                       until))));
-            l = fsr.objectFieldsList();
-        } catch (ServerException se) {
-            throw new RepositoryException(se.getClass().getName() + ": "
-                    + se.getMessage());
-        }
-        if (l.size() == 0) {
-            throw new NoRecordsMatchException("No records match the given criteria.");
-        }
-        ArrayList<Object> ret = new ArrayList<Object>();
-        for (int i = 0; i < l.size(); i++) {
-            ObjectFields f = (ObjectFields) l.get(i);
-            ret.add(new SimpleRecord(getHeader(f), getDCXML(f), s_emptySet));
-        }
-        if (fsr.getToken() != null) {
-            // add resumptionToken stuff
-            ret.add(new SimpleResumptionToken(fsr.getToken(), fsr
-                    .getExpirationDate(), fsr.getCompleteListSize(), fsr
-                    .getCursor()));
-        }
-        return ret;
+        ListCollector collector = new ListCollector();
+        listRecords(from, until, metadataPrefix, set, collector);
+        return collector.getList();
     }
 
-    private Header getHeader(ObjectFields f) {
-        String identifier = "oai:" + m_repositoryDomainName + ":" + f.getPid();
-        Date datestamp = f.getDCMDate();
-        HashSet<String> setSpecs = new HashSet<String>();
-        return new SimpleHeader(identifier, datestamp, setSpecs, true);
+    public List getRecords(String resumptionToken)
+            throws CannotDisseminateFormatException, NoRecordsMatchException,
+            NoSetHierarchyException, BadResumptionTokenException,
+            RepositoryException {
+        ListCollector collector = new ListCollector();
+        listRecords(resumptionToken, collector);
+        return collector.getList();
     }
 
-    private String getDCXML(DCFields dc) {
-        return dc.getAsXML();
+    public List getHeaders(Date from,
+                           Date until,
+                           String metadataPrefix,
+                           String set) throws CannotDisseminateFormatException,
+            NoRecordsMatchException, NoSetHierarchyException,
+            RepositoryException {
+        ListCollector collector = new ListCollector();
+        listHeaders(from, until, metadataPrefix, set, collector);
+        return collector.getList();
     }
 
-    public List getRecords(String resumptionToken)
+    public List getHeaders(String resumptionToken)
             throws CannotDisseminateFormatException, NoRecordsMatchException,
             NoSetHierarchyException, BadResumptionTokenException,
             RepositoryException {
-        // this is the exact same as the other getRecords, except for the FieldSearch call,
-        // and the fact that we re-throw UnknownSessionTokenException
-        // as a BadResumptionTokenException
-        List l = null;
-        FieldSearchResult fsr;
-        try {
-            fsr = m_fieldSearch.resumeFindObjects(resumptionToken);
-            l = fsr.objectFieldsList();
-        } catch (UnknownSessionTokenException uste) {
-            throw new BadResumptionTokenException("Not a known resumptionToken.");
-        } catch (ServerException se) {
-            throw new RepositoryException(se.getClass().getName() + ": "
-                    + se.getMessage());
-        }
-        if (l.size() == 0) {
-            throw new NoRecordsMatchException("No records match the given criteria.");
-        }
-        ArrayList<Object> ret = new ArrayList<Object>();
-        for (int i = 0; i < l.size(); i++) {
-            ObjectFields f = (ObjectFields) l.get(i);
-            ret.add(new SimpleRecord(getHeader(f), getDCXML(f), s_emptySet));
+        ListCollector collector = new ListCollector();
+        listHeaders(resumptionToken, collector);
+        return collector.getList();
+    }
+
+    public void listRecords(Date from,
+                            Date until,
+                            String metadataPrefix,
+                            String set,
+                            ListHandler handler)
+            throws CannotDisseminateFormatException, NoRecordsMatchException,
+            NoSetHierarchyException, RepositoryException {
+        list(getListToken(from, until, metadataPrefix),
+             m_maxRecords,
+             true,
+             handler);
+    }
+
+    public void listRecords(String resumptionToken, ListHandler handler)
+            throws CannotDisseminateFormatException, NoRecordsMatchException,
+            NoSetHierarchyException, BadResumptionTokenException,
+            RepositoryException {
+        list(ListToken.parse(resumptionToken), m_maxRecords, true, handler);
+    }
+
+    public void listHeaders(Date from,
+                            Date until,
+                            String metadataPrefix,
+                            String set,
+                            ListHandler handler)
+            throws CannotDisseminateFormatException, NoRecordsMatchException,
+            NoSetHierarchyException, RepositoryException {
+        list(getListToken(from, until, metadataPrefix),
+             m_maxHeaders,
+             false,
+             handler);
+    }
+
+    public void listHeaders(String resumptionToken, ListHandler handler)
+            throws CannotDisseminateFormatException, NoRecordsMatchException,
+            NoSetHierarchyException, BadResumptionTokenException,
+            RepositoryException {
+        list(ListToken.parse(resumptionToken), m_maxHeaders, false, handler);
+    }
+
+    private ListToken getListToken(Date from,
+                                   Date until,
+                                   String metadataPrefix)
+            throws CannotDisseminateFormatException {
+        if (!metadataPrefix.equals("oai_dc")) {
+            throw new CannotDisseminateFormatException("Repository does not provide that format in OAI-PMH responses.");
         }
-        if (fsr.getToken() != null) {
-            ret.add(new SimpleResumptionToken(fsr.getToken(), fsr
-                    .getExpirationDate(), fsr.getCompleteListSize(), fsr
-                    .getCursor()));
+        long untilMillis = -1;
+        if (until != null) {
+            // until is given to the second, so include the whole second
+            untilMillis = getDateBound(until) + 999;
         }
-        return ret;
+        return new ListToken(metadataPrefix,
+                             from == null ? -1 : getDateBound(from),
+                             untilMillis);
     }
 
-    private String getDatePart(Date from, Date until) {
-        if (from == null && until == null) {
-            return "";
-        }
-        StringBuffer out = new StringBuffer();
+    private long getDateBound(Date date) {
         // Note OAI only support ISO8601 dates to the seconds
         // and Fedora stores dates down to the millisecond level.
         // This should not matter since OAI requests specify
@@ -329,101 +375,168 @@ public class FedoraOAIProvider
         // concern for millisecond granularity.
         SimpleDateFormat formatter =
                 new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-        if (from != null) {
-            out.append(" dcmDate>='");
-            out.append(formatter.format(from));
-            out.append("'");
-        }
-        if (until != null) {
-            out.append(" dcmDate<='");
-            out.append(formatter.format(until));
-            out.append("'");
-        }
-        return out.toString();
+        return DateUtility.parseDateAsUTC(formatter.format(date)).getTime();
     }
 
-    public List getHeaders(Date from,
-                           Date until,
-                           String metadataPrefix,
-                           String set) throws CannotDisseminateFormatException,
-            NoRecordsMatchException, NoSetHierarchyException,
+    /**
+     * Passes the items of the list that follow the given position to the
+     * handler, in (dcmDate, pid) order. The items are read from the database
+     * first, and the connection released, so that it is not held while the
+     * handler writes them. If more than max items remain, the handler then
+     * gets a resumptionToken holding the position of the last item that was
+     * sent.
+     */
+    private void list(ListToken position,
+                      long max,
+                      boolean withMetadata,
+                      ListHandler handler) throws NoRecordsMatchException,
             RepositoryException {
-        if (!metadataPrefix.equals("oai_dc")) {
-            throw new CannotDisseminateFormatException("Repository does not provide that format in OAI-PMH responses.");
-        }
-        List l = null;
-        FieldSearchResult fsr;
-        try {
-            fsr =
-                    m_fieldSearch
-                            .findObjects(s_headerFields,
-                                         (int) getMaxHeaders(),
-                                         new FieldSearchQuery(Condition
-                                                 .getConditions("dcmDate>'2000-01-01'"
-                                                         + getDatePart(from,
-                                                                       until))));
-            l = fsr.objectFieldsList();
-        } catch (ServerException se) {
-            throw new RepositoryException(se.getClass().getName() + ": "
-                    + se.getMessage());
-        }
-        if (l.size() == 0) {
+        List<String> pids = new ArrayList<String>();
+        List<Long> dates = new ArrayList<Long>();
+        read(position, max, pids, dates);
+        if (pids.size() == 0) {
             throw new NoRecordsMatchException("No records match the given criteria.");
         }
-        ArrayList<Object> ret = new ArrayList<Object>();
-        for (int i = 0; i < l.size(); i++) {
-            ObjectFields f = (ObjectFields) l.get(i);
-            String identifier =
-                    "oai:" + m_repositoryDomainName + ":" + f.getPid();
-            Date datestamp = f.getDCMDate();
-            HashSet<String> setSpecs = new HashSet<String>();
-
-            ret.add(new SimpleHeader(identifier, datestamp, setSpecs, true));
+
+        int count = (int) Math.min(pids.size(), max);
+        for (int i = 0; i < count; i++) {
+            String pid = pids.get(i);
+            Header header = getHeader(pid, new Date(dates.get(i)));
+            if (withMetadata) {
+                String dc;
+                try {
+                    dc = getDCXML(pid);
+                } catch (RepositoryException e) {
+                    LOG.warn("Leaving " + pid + " out of ListRecords "
+                            + "response: " + e.getMessage());
+                    continue;
+                }
+                handler.handleRecord(new SimpleRecord(header, dc, s_emptySet));
+            } else {
+                handler.handleHeader(header);
+            }
         }
-        if (fsr.getToken() != null) {
-            ret.add(new SimpleResumptionToken(fsr.getToken(), fsr
-                    .getExpirationDate(), fsr.getCompleteListSize(), fsr
-                    .getCursor()));
+        if (pids.size() > count) {
+            String token =
+                    position.next(dates.get(count - 1),
+                                  pids.get(count - 1),
+                                  count).toString();
+            handler.handleResumptionToken(new SimpleResumptionToken(token,
+                                                                    null,
+                                                                    -1,
+                                                                    position
+                                                                            .getCursor()));
+        } else if (position.isResumed()) {
+            // the last part of a resumed list gets an empty token
+            handler.handleResumptionToken(new SimpleResumptionToken(null,
+                                                                    null,
+                                                                    -1,
+                                                                    position
+                                                                            .getCursor()));
         }
-        return ret;
     }
 
-    public List getHeaders(String resumptionToken)
-            throws CannotDisseminateFormatException, NoRecordsMatchException,
-            NoSetHierarchyException, BadResumptionTokenException,
-            RepositoryException {
-        // this is the exact same as the other getHeaders, except for the FieldSearch call,
-        // and the fact that we re-throw UnknownSessionTokenException
-        // as a BadResumptionTokenException
-        List l = null;
-        FieldSearchResult fsr;
+    /**
+     * Reads the pids and dcmDates of up to max + 1 items that follow the
+     * given position; one more than needed tells whether the list goes on.
+     */
+    private void read(ListToken position,
+                      long max,
+                      List<String> pids,
+                      List<Long> dates) throws RepositoryException {
+        StringBuffer query =
+                new StringBuffer("SELECT pid, dcmDate FROM doFields WHERE dcmDate > ?");
+        if (position.hasFrom()) {
+            query.append(" AND dcmDate >= ?");
+        }
+        if (position.hasUntil()) {
+            query.append(" AND dcmDate <= ?");
+        }
+        if (position.isResumed()) {
+            query.append(" AND (dcmDate > ? OR (dcmDate = ? AND pid > ?))");
+        }
+        query.append(" ORDER BY dcmDate, pid");
+
+        Connection conn = null;
+        PreparedStatement st = null;
+        ResultSet results = null;
+        try {
+            conn = m_cPool.getConnection();
+            st = conn.prepareStatement(query.toString());
+            int i = 1;
+            st.setLong(i++, s_earliestDCMDate);
+            if (position.hasFrom()) {
+                st.setLong(i++, position.getFrom());
+            }
+            if (position.hasUntil()) {
+                st.setLong(i++, position.getUntil());
+            }
+            if (position.isResumed()) {
+                st.setLong(i++, position.getLastDate());
+                st.setLong(i++, position.getLastDate());
+                st.setString(i++, position.getLastPID());
+            }
+            st.setMaxRows((int) Math.min(max + 1, Integer.MAX_VALUE));
+            results = st.executeQuery();
+            while (results.next()) {
+                pids.add(results.getString("pid"));
+                dates.add(results.getLong("dcmDate"));
+            }
+        } catch (SQLException e) {
+            throw new RepositoryException("Error querying the database: "
+                    + e.getMessage());
+        } finally {
+            try {
+                if (results != null) {
+                    results.close();
+                }
+                if (st != null) {
+                    st.close();
+                }
+            } catch (SQLException e) {
+                LOG.warn("Error closing statement or result set", e);
+            } finally {
+                if (conn != null) {
+                    m_cPool.free(conn);
+                }
+            }
+        }
+    }
+
+    private String getDCXML(String pid) throws RepositoryException {
         try {
-            fsr = m_fieldSearch.resumeFindObjects(resumptionToken);
-            l = fsr.objectFieldsList();
-        } catch (UnknownSessionTokenException uste) {
-            throw new BadResumptionTokenException("Not a known resumptionToken.");
+            DOReader r =
+                    m_repoReader.getReader(Server.USE_DEFINITIVE_STORE,
+                                           ReadOnlyContext.EMPTY,
+                                           pid);
+            DatastreamXMLMetadata dcmd =
+                    (DatastreamXMLMetadata) r.GetDatastream("DC", null);
+            if (dcmd == null) {
+                return new ObjectFields().getAsXML();
+            }
+            return new ObjectFields(s_headerAndDCFields, dcmd
+                    .getContentStream()).getAsXML();
         } catch (ServerException se) {
             throw new RepositoryException(se.getClass().getName() + ": "
                     + se.getMessage());
+        } catch (ClassCastException cce) {
+            throw new RepositoryException("Object " + pid
+                    + " has a DC datastream, but it's not inline XML.");
         }
-        if (l.size() == 0) {
-            throw new NoRecordsMatchException("No records match the given criteria.");
-        }
-        ArrayList<Object> ret = new ArrayList<Object>();
-        for (int i = 0; i < l.size(); i++) {
-            ObjectFields f = (ObjectFields) l.get(i);
-            String identifier =
-                    "oai:" + m_repositoryDomainName + ":" + f.getPid();
-            Date datestamp = f.getDCMDate();
-            HashSet<String> setSpecs = new HashSet<String>();
-            ret.add(new SimpleHeader(identifier, datestamp, setSpecs, true));
-        }
-        if (fsr.getToken() != null) {
-            ret.add(new SimpleResumptionToken(fsr.getToken(), fsr
-                    .getExpirationDate(), fsr.getCompleteListSize(), fsr
-                    .getCursor()));
-        }
-        return ret;
+    }
+
+    private Header getHeader(ObjectFields f) {
+        return getHeader(f.getPid(), f.getDCMDate());
+    }
+
+    private Header getHeader(String pid, Date datestamp) {
+        String identifier = "oai:" + m_repositoryDomainName + ":" + pid;
+        HashSet<String> setSpecs = new HashSet<String>();
+        return new SimpleHeader(identifier, datestamp, setSpecs, true);
+    }
+
+    private String getDCXML(DCFields dc) {
+        return dc.getAsXML();
     }
 
     public List getSets() throws NoSetHierarchyException, RepositoryException {
@@ -503,4 +616,32 @@ public class FedoraOAIProvider
         return m_maxHeaders;
     }
 
+    /**
+     * Collects the items of a list, followed by the resumptionToken if the
+     * list goes on, as getRecords and getHeaders return them.
+     */
+    private static class ListCollector
+            implements ListHandler {
+
+        private final List<Object> m_list = new ArrayList<Object>();
+
+        public void handleRecord(Record record) {
+            m_list.add(record);
+        }
+
+        public void handleHeader(Header header) {
+            m_list.add(header);
+        }
+
+        public void handleResumptionToken(ResumptionToken token) {
+            if (token.getValue() != null) {
+                m_list.add(token);
+            }
+        }
+
+        List getList() {
+            return m_list;
+        }
+    }
+
 }
\ No newline at end of file
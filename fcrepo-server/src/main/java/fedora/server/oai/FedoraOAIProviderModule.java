@@ -17,17 +17,22 @@ import fedora.oai.CannotDisseminateFormatException;
 import fedora.oai.DateGranularitySupport;
 import fedora.oai.DeletedRecordSupport;
 import fedora.oai.IDDoesNotExistException;
+import fedora.oai.ListHandler;
 import fedora.oai.NoMetadataFormatsException;
 import fedora.oai.NoRecordsMatchException;
 import fedora.oai.NoSetHierarchyException;
-import fedora.oai.OAIProvider;
 import fedora.oai.Record;
 import fedora.oai.RepositoryException;
+import fedora.oai.StreamingOAIProvider;
 
 import fedora.server.Module;
 import fedora.server.Server;
+import fedora.server.errors.ConnectionPoolNotFoundException;
 import fedora.server.errors.ModuleInitializationException;
 import fedora.server.search.FieldSearch;
+import fedora.server.storage.ConnectionPool;
+import fedora.server.storage.ConnectionPoolManager;
+import fedora.server.storage.DOManager;
 
 /**
  * An OAIProvider that acts as a server module and wraps FedoraOAIProvider.
@@ -37,7 +42,7 @@ import fedora.server.search.FieldSearch;
  */
 public class FedoraOAIProviderModule
         extends Module
-        implements OAIProvider {
+        implements StreamingOAIProvider {
 
     /** Logger for this class. */
     private static final Logger LOG =
@@ -172,6 +177,32 @@ public class FedoraOAIProviderModule
                                                         getRole());
             }
         }
+        //
+        // get connectionPool from ConnectionPoolManager
+        //
+        ConnectionPoolManager cpm =
+                (ConnectionPoolManager) getServer()
+                        .getModule("fedora.server.storage.ConnectionPoolManager");
+        if (cpm == null) {
+            throw new ModuleInitializationException("ConnectionPoolManager module was required, but apparently has "
+                                                            + "not been loaded.",
+                                                    getRole());
+        }
+        String cPoolName = getParameter("connectionPool");
+        ConnectionPool cPool = null;
+        try {
+            if (cPoolName == null) {
+                LOG.debug("connectionPool unspecified; using default from "
+                        + "ConnectionPoolManager.");
+                cPool = cpm.getPool();
+            } else {
+                LOG.debug("connectionPool specified: " + cPoolName);
+                cPool = cpm.getPool(cPoolName);
+            }
+        } catch (ConnectionPoolNotFoundException cpnfe) {
+            throw new ModuleInitializationException("Could not find requested "
+                    + "connectionPool.", getRole());
+        }
         m_wrappedOAIProvider =
                 new FedoraOAIProvider(repositoryName,
                                       repositoryDomainName,
@@ -183,7 +214,9 @@ public class FedoraOAIProviderModule
                                       maxSets,
                                       maxRecords,
                                       maxHeaders,
-                                      fieldSearch);
+                                      fieldSearch,
+                                      cPool,
+                                      (DOManager) mgr);
     }
 
     public String getRepositoryName() {
@@ -262,6 +295,48 @@ public class FedoraOAIProviderModule
         return m_wrappedOAIProvider.getHeaders(resumptionToken);
     }
 
+    public void listRecords(Date from,
+                            Date until,
+                            String metadataPrefix,
+                            String set,
+                            ListHandler handler)
+            throws CannotDisseminateFormatException, NoRecordsMatchException,
+            NoSetHierarchyException, RepositoryException {
+        m_wrappedOAIProvider.listRecords(from,
+                                         until,
+                                         metadataPrefix,
+                                         set,
+                                         handler);
+    }
+
+    public void listRecords(String resumptionToken, ListHandler handler)
+            throws CannotDisseminateFormatException, NoRecordsMatchException,
+            NoSetHierarchyException, BadResumptionTokenException,
+            RepositoryException {
+        m_wrappedOAIProvider.listRecords(resumptionToken, handler);
+    }
+
+    public void listHeaders(Date from,
+                            Date until,
+                            String metadataPrefix,
+                            String set,
+                            ListHandler handler)
+            throws CannotDisseminateFormatException, NoRecordsMatchException,
+            NoSetHierarchyException, RepositoryException {
+        m_wrappedOAIProvider.listHeaders(from,
+                                         until,
+                                         metadataPrefix,
+                                         set,
+                                         handler);
+    }
+
+    public void listHeaders(String resumptionToken, ListHandler handler)
+            throws CannotDisseminateFormatException, NoRecordsMatchException,
+            NoSetHierarchyException, BadResumptionTokenException,
+            RepositoryException {
+        m_wrappedOAIProvider.listHeaders(resumptionToken, handler);
+    }
+
     public List getSets() throws NoSetHierarchyException, RepositoryException {
         return m_wrappedOAIProvider.getSets();
     }
@@ -0,0 +1,166 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.oai;
+
+import fedora.oai.BadResumptionTokenException;
+
+/**
+ * The position of a harvester in a ListRecords or ListIdentifiers list.
+ * <p>
+ * Lists are ordered by (dcmDate, pid), so the list can be resumed from the
+ * last item that was sent without keeping any state on the server. The
+ * string form of a position is used as the resumptionToken, and has the form
+ * <code>metadataPrefix:from:until:cursor:dcmDate:pid</code>, where from and
+ * until are empty if unbounded.
+ */
+class ListToken {
+
+    private static final long UNBOUNDED = -1;
+
+    private final String m_metadataPrefix;
+
+    private final long m_from;
+
+    private final long m_until;
+
+    private final long m_cursor;
+
+    private final long m_lastDate;
+
+    private final String m_lastPID;
+
+    /**
+     * Creates the position at the start of a list.
+     *
+     * @param from
+     *        the lowest dcmDate in the list, or -1 if unbounded.
+     * @param until
+     *        the highest dcmDate in the list, or -1 if unbounded.
+     */
+    ListToken(String metadataPrefix, long from, long until) {
+        this(metadataPrefix, from, until, 0, 0, null);
+    }
+
+    private ListToken(String metadataPrefix,
+                      long from,
+                      long until,
+                      long cursor,
+                      long lastDate,
+                      String lastPID) {
+        m_metadataPrefix = metadataPrefix;
+        m_from = from;
+        m_until = until;
+        m_cursor = cursor;
+        m_lastDate = lastDate;
+        m_lastPID = lastPID;
+    }
+
+    /**
+     * Parses the value of a resumptionToken.
+     */
+    static ListToken parse(String value) throws BadResumptionTokenException {
+        String[] parts = value.split(":", 6);
+        if (parts.length != 6 || parts[0].length() == 0
+                || parts[5].length() == 0) {
+            throw new BadResumptionTokenException("Not a known resumptionToken.");
+        }
+        try {
+            return new ListToken(parts[0],
+                                 parseBound(parts[1]),
+                                 parseBound(parts[2]),
+                                 Long.parseLong(parts[3]),
+                                 Long.parseLong(parts[4]),
+                                 parts[5]);
+        } catch (NumberFormatException e) {
+            throw new BadResumptionTokenException("Not a known resumptionToken.");
+        }
+    }
+
+    private static long parseBound(String value) {
+        if (value.length() == 0) {
+            return UNBOUNDED;
+        }
+        long bound = Long.parseLong(value);
+        if (bound < 0) {
+            throw new NumberFormatException(value);
+        }
+        return bound;
+    }
+
+    /**
+     * Gets the position after the given item, which has been sent as the
+     * count-th item since this position.
+     */
+    ListToken next(long lastDate, String lastPID, long count) {
+        return new ListToken(m_metadataPrefix,
+                             m_from,
+                             m_until,
+                             m_cursor + count,
+                             lastDate,
+                             lastPID);
+    }
+
+    String getMetadataPrefix() {
+        return m_metadataPrefix;
+    }
+
+    boolean hasFrom() {
+        return m_from != UNBOUNDED;
+    }
+
+    long getFrom() {
+        return m_from;
+    }
+
+    boolean hasUntil() {
+        return m_until != UNBOUNDED;
+    }
+
+    long getUntil() {
+        return m_until;
+    }
+
+    /**
+     * Gets the number of items in the list before this position.
+     */
+    long getCursor() {
+        return m_cursor;
+    }
+
+    /**
+     * Tells whether this position is after the start of the list.
+     */
+    boolean isResumed() {
+        return m_lastPID != null;
+    }
+
+    long getLastDate() {
+        return m_lastDate;
+    }
+
+    String getLastPID() {
+        return m_lastPID;
+    }
+
+    @Override
+    public String toString() {
+        StringBuffer out = new StringBuffer(m_metadataPrefix);
+        out.append(':');
+        if (hasFrom()) {
+            out.append(m_from);
+        }
+        out.append(':');
+        if (hasUntil()) {
+            out.append(m_until);
+        }
+        out.append(':');
+        out.append(m_cursor);
+        out.append(':');
+        out.append(m_lastDate);
+        out.append(':');
+        out.append(m_lastPID);
+        return out.toString();
+    }
+}
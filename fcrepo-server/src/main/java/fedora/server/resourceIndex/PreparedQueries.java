@@ -0,0 +1,259 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.resourceIndex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import org.trippi.RDFFormat;
+import org.trippi.TripleIterator;
+import org.trippi.TriplestoreReader;
+import org.trippi.TrippiException;
+import org.trippi.TupleIterator;
+
+/**
+ * The prepared queries registered with the Resource Index, and the optional
+ * cache of their results.
+ * <p>
+ * Results are written to the client as the triplestore's cursor is read;
+ * when caching is enabled, a copy of the output is kept as well, and stored
+ * once the query has finished if it fits within the cache's size limit.
+ * <p>
+ * The Resource Index advances the update generation after every change, so
+ * that results cached before the change are no longer served.
+ */
+public class PreparedQueries {
+
+    private static final Logger LOG = Logger.getLogger(PreparedQueries.class);
+
+    private final Map<String, PreparedQuery> m_queries;
+
+    private final QueryResultCache m_cache;
+
+    private final AtomicLong m_generation = new AtomicLong();
+
+    /**
+     * Creates the registry.
+     *
+     * @param queries
+     *        the queries, by name.
+     * @param cache
+     *        the result cache; may be disabled.
+     */
+    public PreparedQueries(Map<String, PreparedQuery> queries,
+                           QueryResultCache cache) {
+        m_queries =
+                Collections.unmodifiableMap(new TreeMap<String, PreparedQuery>(queries));
+        m_cache = cache;
+    }
+
+    /**
+     * Gets a query by name.
+     *
+     * @return the query, or null if there is no query with the name.
+     */
+    public PreparedQuery get(String name) {
+        return m_queries.get(name);
+    }
+
+    /**
+     * Gets all queries, in order of name.
+     */
+    public Collection<PreparedQuery> getAll() {
+        return m_queries.values();
+    }
+
+    public QueryResultCache getCache() {
+        return m_cache;
+    }
+
+    /**
+     * Signals that the content of the Resource Index has changed.
+     */
+    public void updated() {
+        m_generation.incrementAndGet();
+    }
+
+    public long getGeneration() {
+        return m_generation.get();
+    }
+
+    /**
+     * Runs a query and writes the result to the given stream.
+     *
+     * @param reader
+     *        the triplestore to query.
+     * @param query
+     *        the query to run.
+     * @param boundQuery
+     *        the query text, as made by {@link PreparedQuery#bind(Map)}.
+     * @param format
+     *        the output format.
+     * @param limit
+     *        the most results to return, or 0 for no limit.
+     * @param distinct
+     *        whether to leave out duplicate results.
+     * @param out
+     *        where to write the result; it is flushed, but not closed.
+     */
+    public void run(TriplestoreReader reader,
+                    PreparedQuery query,
+                    String boundQuery,
+                    RDFFormat format,
+                    int limit,
+                    boolean distinct,
+                    OutputStream out) throws IOException, TrippiException {
+        long start = System.currentTimeMillis();
+        boolean cacheHit = false;
+        try {
+            String key = null;
+            long generation = m_generation.get();
+            byte[] cached = null;
+            if (m_cache.isEnabled()) {
+                key =
+                        query.getName() + '\n' + format.getName() + '\n'
+                                + limit + '\n' + distinct + '\n' + boundQuery;
+                cached = m_cache.get(key, generation);
+            }
+            if (cached != null) {
+                out.write(cached);
+                cacheHit = true;
+            } else if (key != null) {
+                CapturingOutputStream capture =
+                        new CapturingOutputStream(out, m_cache.getMaxBytes());
+                write(reader, query, boundQuery, format, limit, distinct, capture);
+                byte[] result = capture.getCaptured();
+                if (result != null) {
+                    m_cache.put(key, generation, result);
+                }
+            } else {
+                write(reader, query, boundQuery, format, limit, distinct, out);
+            }
+            out.flush();
+        } catch (IOException e) {
+            query.recordError();
+            throw e;
+        } catch (TrippiException e) {
+            query.recordError();
+            throw e;
+        } catch (RuntimeException e) {
+            query.recordError();
+            throw e;
+        }
+        long millis = System.currentTimeMillis() - start;
+        query.recordRun(millis, cacheHit);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Ran prepared query " + query.getName() + " in "
+                    + millis + "ms" + (cacheHit ? " (cached)" : ""));
+        }
+    }
+
+    private static void write(TriplestoreReader reader,
+                              PreparedQuery query,
+                              String boundQuery,
+                              RDFFormat format,
+                              int limit,
+                              boolean distinct,
+                              OutputStream out) throws TrippiException {
+        if (query.isTuples()) {
+            TupleIterator tuples =
+                    reader.findTuples(query.getLang(),
+                                      boundQuery,
+                                      limit,
+                                      distinct);
+            try {
+                tuples.toStream(out, format);
+            } finally {
+                tuples.close();
+            }
+        } else {
+            TripleIterator triples;
+            if (query.getTemplate() == null) {
+                triples =
+                        reader.findTriples(query.getLang(),
+                                           boundQuery,
+                                           limit,
+                                           distinct);
+            } else {
+                triples =
+                        reader.findTriples(query.getLang(),
+                                           boundQuery,
+                                           query.getTemplate(),
+                                           limit,
+                                           distinct);
+            }
+            try {
+                triples.setAliasMap(reader.getAliasMap());
+                triples.toStream(out, format);
+            } finally {
+                triples.close();
+            }
+        }
+    }
+
+    /**
+     * Passes everything written on, and keeps a copy as long as it is no
+     * larger than a limit.
+     */
+    private static class CapturingOutputStream
+            extends OutputStream {
+
+        private final OutputStream m_out;
+
+        private final int m_maxBytes;
+
+        private ByteArrayOutputStream m_copy = new ByteArrayOutputStream();
+
+        CapturingOutputStream(OutputStream out, int maxBytes) {
+            m_out = out;
+            m_maxBytes = maxBytes;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            m_out.write(b);
+            if (m_copy != null) {
+                m_copy.write(b);
+                checkSize();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            m_out.write(b, off, len);
+            if (m_copy != null) {
+                m_copy.write(b, off, len);
+                checkSize();
+            }
+        }
+
+        private void checkSize() {
+            if (m_copy.size() > m_maxBytes) {
+                m_copy = null;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            m_out.flush();
+        }
+
+        /**
+         * Gets everything written, or null if it was too large to keep.
+         */
+        byte[] getCaptured() {
+            return m_copy == null ? null : m_copy.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.resourceIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A named, parameterized Resource Index query.
+ * <p>
+ * The query text may contain placeholders of the form <code>${name}</code>.
+ * It is split into its literal parts and placeholders once, when the query
+ * is registered, so running it only joins the parts with the values given.
+ * Values are meant for PIDs, URIs and similar identifiers, and are
+ * restricted to ASCII letters and digits and the characters
+ * <code>: / - _ ~ % .</code>, so that they cannot change the structure of an
+ * iTQL or SPARQL query. A value may not begin or end with a period, so it
+ * cannot end a SPARQL triple pattern.
+ * <p>
+ * The query also keeps running totals of how often it was run and how long
+ * that took.
+ */
+public class PreparedQuery {
+
+    public static final String TUPLES = "tuples";
+
+    public static final String TRIPLES = "triples";
+
+    private static final String LEGAL_VALUE_PUNCTUATION = ":/-_~%.";
+
+    private final String m_name;
+
+    private final String m_type;
+
+    private final String m_lang;
+
+    private final String m_template;
+
+    /** The literal text around the placeholders; one more than m_params. */
+    private final String[] m_parts;
+
+    private final String[] m_params;
+
+    private long m_runs;
+
+    private long m_errors;
+
+    private long m_cacheHits;
+
+    private long m_totalMillis;
+
+    private long m_maxMillis;
+
+    /**
+     * Compiles a query.
+     *
+     * @param name
+     *        the name the query is run by.
+     * @param type
+     *        {@link #TUPLES} or {@link #TRIPLES}.
+     * @param lang
+     *        the query language, e.g. itql or sparql.
+     * @param query
+     *        the query text, with <code>${name}</code> placeholders.
+     * @param template
+     *        for a triples query, an optional triple template that makes
+     *        triples of the tuples the query finds; otherwise null.
+     * @throws IllegalArgumentException
+     *         if the type is unknown or a placeholder is malformed.
+     */
+    public PreparedQuery(String name,
+                         String type,
+                         String lang,
+                         String query,
+                         String template) {
+        if (!TUPLES.equals(type) && !TRIPLES.equals(type)) {
+            throw new IllegalArgumentException("Unknown query type for "
+                    + name + ": " + type);
+        }
+        if (template != null && !TRIPLES.equals(type)) {
+            throw new IllegalArgumentException("A template is only allowed "
+                    + "for triples queries: " + name);
+        }
+        m_name = name;
+        m_type = type;
+        m_lang = lang;
+        m_template = template;
+
+        List<String> parts = new ArrayList<String>();
+        List<String> params = new ArrayList<String>();
+        int start = 0;
+        int i;
+        while ((i = query.indexOf("${", start)) != -1) {
+            int end = query.indexOf('}', i);
+            if (end == -1) {
+                throw new IllegalArgumentException("Unterminated placeholder "
+                        + "in query " + name + ": " + query.substring(i));
+            }
+            String param = query.substring(i + 2, end).trim();
+            if (param.length() == 0) {
+                throw new IllegalArgumentException("Empty placeholder in "
+                        + "query " + name);
+            }
+            parts.add(query.substring(start, i));
+            params.add(param);
+            start = end + 1;
+        }
+        parts.add(query.substring(start));
+        m_parts = parts.toArray(new String[parts.size()]);
+        m_params = params.toArray(new String[params.size()]);
+    }
+
+    public String getName() {
+        return m_name;
+    }
+
+    public String getType() {
+        return m_type;
+    }
+
+    public boolean isTuples() {
+        return TUPLES.equals(m_type);
+    }
+
+    public String getLang() {
+        return m_lang;
+    }
+
+    /**
+     * Gets the triple template, or null if there is none.
+     */
+    public String getTemplate() {
+        return m_template;
+    }
+
+    /**
+     * Gets the names of the placeholders, in the order they appear. A name
+     * used more than once appears more than once.
+     */
+    public String[] getParameterNames() {
+        return m_params.clone();
+    }
+
+    /**
+     * Makes the query text for the given placeholder values.
+     *
+     * @throws IllegalArgumentException
+     *         if a value is missing or contains a character that is not
+     *         allowed.
+     */
+    public String bind(Map<String, String> values) {
+        StringBuilder query = new StringBuilder(m_parts[0]);
+        for (int i = 0; i < m_params.length; i++) {
+            String value = values.get(m_params[i]);
+            if (value == null || value.length() == 0) {
+                throw new IllegalArgumentException("Missing value for "
+                        + "parameter " + m_params[i]);
+            }
+            checkValue(m_params[i], value);
+            query.append(value);
+            query.append(m_parts[i + 1]);
+        }
+        return query.toString();
+    }
+
+    private static void checkValue(String param, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z')
+                    && !(c >= '0' && c <= '9')
+                    && LEGAL_VALUE_PUNCTUATION.indexOf(c) == -1) {
+                throw new IllegalArgumentException("Illegal character in "
+                        + "value for parameter " + param + ": " + value);
+            }
+        }
+        if (value.charAt(0) == '.' || value.charAt(value.length() - 1) == '.') {
+            throw new IllegalArgumentException("Value for parameter " + param
+                    + " may not begin or end with a period: " + value);
+        }
+    }
+
+    /**
+     * Records a successful run.
+     *
+     * @param millis
+     *        how long the run took.
+     * @param cacheHit
+     *        whether the result came from the result cache.
+     */
+    public synchronized void recordRun(long millis, boolean cacheHit) {
+        m_runs++;
+        if (cacheHit) {
+            m_cacheHits++;
+        }
+        m_totalMillis += millis;
+        if (millis > m_maxMillis) {
+            m_maxMillis = millis;
+        }
+    }
+
+    /**
+     * Records a failed run.
+     */
+    public synchronized void recordError() {
+        m_errors++;
+    }
+
+    public synchronized long getRunCount() {
+        return m_runs;
+    }
+
+    public synchronized long getErrorCount() {
+        return m_errors;
+    }
+
+    public synchronized long getCacheHitCount() {
+        return m_cacheHits;
+    }
+
+    public synchronized long getTotalMillis() {
+        return m_totalMillis;
+    }
+
+    public synchronized long getMaxMillis() {
+        return m_maxMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PreparedQuery[name=" + m_name + ", runs=" + m_runs
+                + ", errors=" + m_errors + ", cacheHits=" + m_cacheHits
+                + ", totalMillis=" + m_totalMillis + ", maxMillis="
+                + m_maxMillis + "]";
+    }
+}
@@ -0,0 +1,160 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.resourceIndex;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of formatted prepared query results.
+ * <p>
+ * Each result is stored with the Resource Index update generation that was
+ * current when its query started. A result is only served while the
+ * generation is unchanged; the first lookup at a newer generation discards
+ * every entry, since any of them may be out of date. Entries also expire
+ * after a fixed number of milliseconds, which bounds how long a result can
+ * outlive updates that reach the triplestore in the background, after the
+ * generation was advanced. Eviction is least recently used.
+ */
+public class QueryResultCache {
+
+    private final int m_maxSize;
+
+    private final int m_maxBytes;
+
+    private final long m_ttlMillis;
+
+    private final Map<String, Entry> m_entries;
+
+    private long m_generation;
+
+    private long m_hits;
+
+    private long m_misses;
+
+    /**
+     * Creates a cache of at most <code>maxSize</code> results of at most
+     * <code>maxBytes</code> bytes each, each of which is valid for at most
+     * <code>ttlMillis</code> milliseconds. A size of zero (or less) disables
+     * caching.
+     */
+    public QueryResultCache(int maxSize, int maxBytes, long ttlMillis) {
+        m_maxSize = maxSize;
+        m_maxBytes = maxBytes;
+        m_ttlMillis = ttlMillis;
+        m_entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > m_maxSize;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return m_maxSize > 0 && m_maxBytes > 0 && m_ttlMillis > 0;
+    }
+
+    /**
+     * Gets the largest result that will be cached, in bytes.
+     */
+    public int getMaxBytes() {
+        return m_maxBytes;
+    }
+
+    /**
+     * Gets a cached result.
+     *
+     * @param generation
+     *        the current update generation.
+     * @return the result, or null if there is no unexpired result for the
+     *         key at the given generation.
+     */
+    public synchronized byte[] get(String key, long generation) {
+        advance(generation);
+        Entry entry = m_entries.get(key);
+        if (entry != null) {
+            if (entry.generation == generation
+                    && entry.expires > System.currentTimeMillis()) {
+                m_hits++;
+                return entry.result;
+            }
+            m_entries.remove(key);
+        }
+        m_misses++;
+        return null;
+    }
+
+    /**
+     * Records a result.
+     *
+     * @param generation
+     *        the update generation that was current when the query started.
+     *        If it has since been advanced, the result is not recorded.
+     */
+    public synchronized void put(String key, long generation, byte[] result) {
+        if (!isEnabled() || result.length > m_maxBytes) {
+            return;
+        }
+        advance(generation);
+        if (generation < m_generation) {
+            return;
+        }
+        m_entries.put(key, new Entry(generation,
+                                     result,
+                                     System.currentTimeMillis() + m_ttlMillis));
+    }
+
+    private void advance(long generation) {
+        if (generation > m_generation) {
+            m_entries.clear();
+            m_generation = generation;
+        }
+    }
+
+    /**
+     * Discards all results. Statistics are retained.
+     */
+    public synchronized void clear() {
+        m_entries.clear();
+    }
+
+    public synchronized int size() {
+        return m_entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return m_hits;
+    }
+
+    public synchronized long getMissCount() {
+        return m_misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "QueryResultCache[size=" + m_entries.size() + ", maxSize="
+                + m_maxSize + ", maxBytes=" + m_maxBytes + ", ttlMillis="
+                + m_ttlMillis + ", hits=" + m_hits + ", misses=" + m_misses
+                + "]";
+    }
+
+    private static class Entry {
+
+        final long generation;
+
+        final byte[] result;
+
+        final long expires;
+
+        Entry(long generation, byte[] result, long expires) {
+            this.generation = generation;
+            this.result = result;
+            this.expires = expires;
+        }
+    }
+}
@@ -50,6 +50,11 @@ public class ResourceIndexModule
      */
     private ResourceIndex _ri;
 
+    /**
+     * The prepared queries, or null if the RI is off.
+     */
+    private PreparedQueries _prepared;
+
     /////////////////////////////////////
     // Initialization & Module Methods //
     /////////////////////////////////////
@@ -86,6 +91,20 @@ public class ResourceIndexModule
      * example, alias:xyz with a value of urn:example:long:uri:x:y:z: will make
      * it possible to use "xyz:a" to mean "urn:example:long:uri:x:y:z:a" in
      * queries. </li>
+     * <li> preparedQuery:name (optional, query)<br/> Registers a named,
+     * parameterized query that RISearch clients can run with
+     * <code>prepared=name</code>. Placeholders of the form
+     * <code>${param}</code> are filled from request parameters of the same
+     * name. The language, type (tuples or triples) and, for triples, the
+     * triple template can be given with <code>preparedQuery:name:lang</code>
+     * (default itql), <code>preparedQuery:name:type</code> (default tuples)
+     * and <code>preparedQuery:name:template</code>. </li>
+     * <li> preparedQueryCacheSize (optional, default is 0)<br/> The most
+     * prepared query results to cache; 0 disables the cache. </li>
+     * <li> preparedQueryCacheMaxBytes (optional, default is 65536)<br/> The
+     * largest prepared query result to cache. </li>
+     * <li> preparedQueryCacheTTL (optional, default is 300)<br/> The most
+     * seconds a prepared query result is cached for. </li>
      * </ul>
      */
     @Override
@@ -112,6 +131,60 @@ public class ResourceIndexModule
                                                     getRole(),
                                                     e);
         }
+        _prepared = loadPreparedQueries();
+    }
+
+    /**
+     * Gets the prepared queries.
+     *
+     * @return the queries, or null if the RI is off.
+     */
+    public PreparedQueries getPreparedQueries() {
+        return _prepared;
+    }
+
+    private PreparedQueries loadPreparedQueries()
+            throws ModuleInitializationException {
+        Map<String, PreparedQuery> queries =
+                new HashMap<String, PreparedQuery>();
+        Iterator<String> iter = parameterNames();
+        while (iter.hasNext()) {
+            String pName = iter.next();
+            String[] parts = pName.split(":");
+            if (parts.length == 2 && parts[0].equals("preparedQuery")) {
+                String type = getParameter(pName + ":type");
+                String lang = getParameter(pName + ":lang");
+                try {
+                    queries.put(parts[1],
+                                new PreparedQuery(parts[1],
+                                                  type == null
+                                                          ? PreparedQuery.TUPLES
+                                                          : type,
+                                                  lang == null ? "itql" : lang,
+                                                  getParameter(pName),
+                                                  getParameter(pName
+                                                          + ":template")));
+                } catch (IllegalArgumentException e) {
+                    throw new ModuleInitializationException(e.getMessage(),
+                                                            getRole());
+                }
+            }
+        }
+        QueryResultCache cache =
+                new QueryResultCache(getInt("preparedQueryCacheSize", 0),
+                                     getInt("preparedQueryCacheMaxBytes",
+                                            65536),
+                                     getInt("preparedQueryCacheTTL", 300) * 1000L);
+        return new PreparedQueries(queries, cache);
+    }
+
+    /**
+     * Advances the prepared query update generation after a change.
+     */
+    private void updated() {
+        if (_prepared != null) {
+            _prepared.updated();
+        }
     }
 
     private TriplestoreConnector getConnector(Parameterized datastore)
@@ -174,6 +247,20 @@ public class ResourceIndexModule
         }
     }
 
+    private int getInt(String name, int defaultValue)
+            throws ModuleInitializationException {
+        String value = getParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ModuleInitializationException(name + " parameter, if "
+                    + "specified, must be an integer", getRole());
+        }
+    }
+
     private boolean getBoolean(String name, boolean defaultValue)
             throws ModuleInitializationException {
         String value = getParameter(name);
@@ -242,6 +329,7 @@ public class ResourceIndexModule
      */
     public void addObject(DOReader reader) throws ResourceIndexException {
         _ri.addObject(reader);
+        updated();
     }
 
     /**
@@ -250,6 +338,7 @@ public class ResourceIndexModule
     public void modifyObject(DOReader oldReader, DOReader newReader)
             throws ResourceIndexException {
         _ri.modifyObject(oldReader, newReader);
+        updated();
     }
 
     /**
@@ -257,6 +346,7 @@ public class ResourceIndexModule
      */
     public void deleteObject(DOReader oldReader) throws ResourceIndexException {
         _ri.deleteObject(oldReader);
+        updated();
     }
 
     /**
@@ -407,6 +497,7 @@ public class ResourceIndexModule
     public void add(List<Triple> triples, boolean flush) throws IOException,
             TrippiException {
         _ri.add(triples, flush);
+        updated();
     }
 
     /**
@@ -415,6 +506,7 @@ public class ResourceIndexModule
     public void add(TripleIterator triples, boolean flush) throws IOException,
             TrippiException {
         _ri.add(triples, flush);
+        updated();
     }
 
     /**
@@ -423,6 +515,7 @@ public class ResourceIndexModule
     public void add(Triple triple, boolean flush) throws IOException,
             TrippiException {
         _ri.add(triple, flush);
+        updated();
     }
 
     /**
@@ -431,6 +524,7 @@ public class ResourceIndexModule
     public void delete(List<Triple> triples, boolean flush) throws IOException,
             TrippiException {
         _ri.delete(triples, flush);
+        updated();
     }
 
     /**
@@ -439,6 +533,7 @@ public class ResourceIndexModule
     public void delete(TripleIterator triples, boolean flush)
             throws IOException, TrippiException {
         _ri.delete(triples, flush);
+        updated();
     }
 
     /**
@@ -447,6 +542,7 @@ public class ResourceIndexModule
     public void delete(Triple triple, boolean flush) throws IOException,
             TrippiException {
         _ri.delete(triple, flush);
+        updated();
     }
 
     /**
@@ -454,6 +550,7 @@ public class ResourceIndexModule
      */
     public void flushBuffer() throws IOException, TrippiException {
         _ri.flushBuffer();
+        updated();
     }
 
     /**
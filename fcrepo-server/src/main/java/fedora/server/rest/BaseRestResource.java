@@ -5,8 +5,9 @@
 package fedora.server.rest;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringReader;
-import java.io.Writer;
 
 import java.net.URI;
 
@@ -14,11 +15,10 @@ import java.util.Date;
 
 import javax.servlet.http.HttpServletRequest;
 
-import javax.xml.transform.Templates;
+import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.TransformerFactoryConfigurationError;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
@@ -29,10 +29,9 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.Response.Status;
 
-import net.sf.saxon.FeatureKeys;
-
 import org.apache.commons.io.IOUtils;
 
 import org.apache.log4j.Logger;
@@ -45,12 +44,15 @@ import fedora.server.Server;
 import fedora.server.access.Access;
 import fedora.server.errors.DatastreamNotFoundException;
 import fedora.server.errors.ObjectNotInLowlevelStorageException;
+import fedora.server.errors.UnknownSessionTokenException;
 import fedora.server.errors.authorization.AuthzException;
 import fedora.server.management.Management;
 import fedora.server.storage.types.MIMETypedStream;
 import fedora.server.storage.types.Property;
 import fedora.server.utilities.DateUtility;
 
+import fedora.utilities.XmlTransformUtility;
+
 /**
  * A barebone RESTFUL resource implementation.
  *
@@ -107,25 +109,58 @@ public class BaseRestResource {
         return new DefaultSerializer(fedoraServerHost, context);
     }
 
-    protected void transform(String xml, String xslt, Writer out)
+    /**
+     * Transforms serialized XML with one of the server's stylesheets. The
+     * stylesheet is compiled (or fetched from the cache) up front, so a bad
+     * stylesheet is reported before the response is started; the output is
+     * written directly to the response as it is produced.
+     *
+     * @param xml
+     *        the XML to transform.
+     * @param xslt
+     *        the stylesheet, relative to the server's home directory.
+     * @return the transformation, to be used as the response entity.
+     */
+    protected StreamingOutput transform(final String xml, String xslt)
     throws TransformerFactoryConfigurationError,
-           TransformerConfigurationException,
-           TransformerException {
+           TransformerConfigurationException {
         File xslFile = new File(fedoraServer.getHomeDir(), xslt);
-        TransformerFactory factory = TransformerFactory.newInstance();
-        if (factory.getClass().getName().equals("net.sf.saxon.TransformerFactoryImpl")) {
-            factory.setAttribute(FeatureKeys.VERSION_WARNING, Boolean.FALSE);
-        }
-        Templates template = factory.newTemplates(new StreamSource(xslFile));
-        Transformer transformer = template.newTransformer();
+        final Transformer transformer =
+                XmlTransformUtility.getTemplates(xslFile).newTransformer();
         String appContext = getContext().getEnvironmentValue(Constants.FEDORA_APP_CONTEXT_NAME);
         transformer.setParameter("fedora", appContext);
-        transformer.transform(new StreamSource(new StringReader(xml)), new StreamResult(out));
+        transformer.setOutputProperty(OutputKeys.ENCODING, DEFAULT_ENC);
+        return new StreamingOutput() {
+
+            public void write(OutputStream out) throws IOException {
+                try {
+                    transformer.transform(new StreamSource(new StringReader(xml)),
+                                          new StreamResult(out));
+                } catch (TransformerException e) {
+                    throw new WebApplicationException(e);
+                }
+            }
+        };
     }
 
     protected Response buildResponse(MIMETypedStream result) throws Exception {
+        return buildResponse(result, result.getStream());
+    }
+
+    /**
+     * Builds the response for a dissemination, with the given entity in
+     * place of the dissemination's stream. Redirect disseminations are
+     * answered with a redirect, and the entity is not used.
+     */
+    protected Response buildResponse(MIMETypedStream result, Object entity)
+    throws Exception {
         if (result.MIMEType.equalsIgnoreCase("application/fedora-redirect")) {
-            URI location = URI.create(IOUtils.toString(result.getStream()));
+            URI location;
+            try {
+                location = URI.create(IOUtils.toString(result.getStream()));
+            } finally {
+                result.close();
+            }
             return Response.temporaryRedirect(location).build();
         } else {
             ResponseBuilder builder = Response.ok();
@@ -141,14 +176,15 @@ public class BaseRestResource {
             }
 
             builder.type(result.MIMEType);
-            builder.entity(result.getStream());
+            builder.entity(entity);
             return builder.build();
         }
     }
 
     protected Response handleException(Exception ex) {
         if (ex instanceof ObjectNotInLowlevelStorageException ||
-            ex instanceof DatastreamNotFoundException) {
+            ex instanceof DatastreamNotFoundException ||
+            ex instanceof UnknownSessionTokenException) {
             LOG.warn("Resource not found: " + ex.getMessage() + "; unable to fulfill REST API request", ex);
             return Response.status(Status.NOT_FOUND).entity(ex.getMessage()).type("text/plain").build();
         } else if (ex instanceof AuthzException) {
@@ -0,0 +1,473 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.Response.Status;
+
+import org.apache.commons.io.IOUtils;
+
+import org.apache.log4j.Logger;
+
+import fedora.server.Context;
+import fedora.server.access.ObjectProfile;
+import fedora.server.errors.DatastreamNotFoundException;
+import fedora.server.errors.ObjectNotInLowlevelStorageException;
+import fedora.server.errors.authorization.AuthzException;
+import fedora.server.storage.types.DatastreamDef;
+import fedora.server.utilities.StreamUtility;
+
+/**
+ * Implements the /objects/batch REST API, for working with many objects in
+ * one request.
+ *
+ * <p>POST /objects/batch/ingest ? logMessage format encoding newPid threads
+ *
+ * <p>Ingests each file of a zip archive (the request body, of type
+ * application/zip) as a separate object, exactly as if it had been posted
+ * to /objects/{pid}. Up to <code>threads</code> objects are validated,
+ * deserialized and committed at a time, by a pool shared by all requests;
+ * a request that arrives while the pool's queue is full is refused with
+ * 503 Service Unavailable. Each object succeeds or fails on its
+ * own, and the result for each is written to the response as soon as it is
+ * known, in the order the objects finish:
+ *
+ * <pre>
+ * &lt;batchIngest&gt;
+ *   &lt;object entry="a.xml" pid="demo:1"/&gt;
+ *   &lt;object entry="b.xml"&gt;&lt;error&gt;message&lt;/error&gt;&lt;/object&gt;
+ * &lt;/batchIngest&gt;
+ * </pre>
+ *
+ * If the archive itself cannot be read, the objects already submitted are
+ * still reported, followed by an error element for the archive.
+ *
+ * <p>GET /objects/batch/profiles ? pid (repeated) asOfDateTime datastreams
+ *
+ * <p>Gets the profile and, unless <code>datastreams=false</code>, the
+ * datastream listing of each object, in the same XML as
+ * /objects/{pid}?format=xml and /objects/{pid}/datastreams?format=xml. The
+ * objects are read in parallel by a pool shared by all requests, and are
+ * written to the response in the order requested as they become available.
+ * Each request has only a few objects queued or being read at a time, so a
+ * large request does not hold up the others, and a request that arrives
+ * while the pool's queue is full is refused with 503 Service Unavailable.
+ * An object that cannot be read is reported with an error element and the
+ * status it would have had on its own:
+ *
+ * <pre>
+ * &lt;objects&gt;
+ *   &lt;object pid="demo:1"&gt;&lt;objectProfile .../&gt;&lt;objectDatastreams .../&gt;&lt;/object&gt;
+ *   &lt;object pid="demo:2"&gt;&lt;error status="404"&gt;message&lt;/error&gt;&lt;/object&gt;
+ * &lt;/objects&gt;
+ * </pre>
+ */
+@Path("/batch")
+public class BatchResource extends BaseRestResource {
+
+    private static final Logger LOG =
+            Logger.getLogger(BatchResource.class.getName());
+
+    private static final String FOXML1_1 =
+            "info:fedora/fedora-system:FOXML-1.1";
+
+    private static final String ZIP = "application/zip";
+
+    /** The most objects ingested at a time for one request. */
+    private static final int MAX_THREADS = 16;
+
+    /** The most objects ingested at a time, across all requests. */
+    private static final int INGEST_THREADS = 16;
+
+    /** The most objects waiting to be ingested, across all requests. */
+    private static final int INGEST_QUEUE = 64;
+
+    /** The most objects that can be read in one request. */
+    private static final int MAX_PIDS = 1000;
+
+    /** The most objects read at a time, across all requests. */
+    private static final int READ_THREADS = 8;
+
+    /** The most objects waiting to be read, across all requests. */
+    private static final int READ_QUEUE = 64;
+
+    /** The most objects queued or being read at a time for one request. */
+    private static final int READ_WINDOW = 4;
+
+    /** Seconds a client refused for lack of capacity should wait. */
+    private static final int RETRY_AFTER_SECONDS = 5;
+
+    private static final ThreadPoolExecutor INGESTERS =
+            newPool("BatchResource-ingester", INGEST_THREADS, INGEST_QUEUE);
+
+    private static final ThreadPoolExecutor READERS =
+            newPool("BatchResource-reader", READ_THREADS, READ_QUEUE);
+
+    /**
+     * Creates a pool shared by all requests. When its queue is full, a task
+     * is run by the thread submitting it, so a response that has already
+     * started is finished, only more slowly.
+     */
+    private static ThreadPoolExecutor newPool(final String name,
+                                              int threads,
+                                              int queueSize) {
+        return new ThreadPoolExecutor(threads,
+                                      threads,
+                                      0L,
+                                      TimeUnit.MILLISECONDS,
+                                      new ArrayBlockingQueue<Runnable>(queueSize),
+                                      new ThreadFactory() {
+
+                                          public Thread newThread(Runnable r) {
+                                              Thread t = new Thread(r, name);
+                                              t.setDaemon(true);
+                                              return t;
+                                          }
+                                      },
+                                      new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Tells whether a pool's queue is full, so that a new request should be
+     * refused rather than started.
+     */
+    private static boolean isBusy(ThreadPoolExecutor pool) {
+        return pool.getQueue().remainingCapacity() == 0;
+    }
+
+    private static Response busy() {
+        return Response.status(Status.SERVICE_UNAVAILABLE)
+                .header("Retry-After", RETRY_AFTER_SECONDS).build();
+    }
+
+    @Path("/ingest")
+    @POST
+    @Consumes(ZIP)
+    public Response ingest(
+            @QueryParam(RestParam.LOG_MESSAGE)
+            final String logMessage,
+            @QueryParam(RestParam.FORMAT)
+            @DefaultValue(FOXML1_1)
+            final String format,
+            @QueryParam(RestParam.ENCODING)
+            @DefaultValue(DEFAULT_ENC)
+            final String encoding,
+            @QueryParam(RestParam.NEW_PID)
+            @DefaultValue("false")
+            final boolean newPid,
+            @QueryParam(RestParam.THREADS)
+            @DefaultValue("4")
+            final int threads,
+            final InputStream archive) {
+        try {
+            if (threads < 1 || threads > MAX_THREADS) {
+                throw new IllegalArgumentException("threads must be between 1 and "
+                        + MAX_THREADS);
+            }
+            if (isBusy(INGESTERS)) {
+                return busy();
+            }
+            final Context context = getContext();
+            StreamingOutput report = new StreamingOutput() {
+
+                public void write(OutputStream out) throws IOException {
+                    ingest(context,
+                           new ZipInputStream(archive),
+                           logMessage,
+                           format,
+                           encoding,
+                           newPid,
+                           threads,
+                           new OutputStreamWriter(out, DEFAULT_ENC));
+                }
+            };
+            return Response.ok(report, TEXT_XML).build();
+        } catch (Exception ex) {
+            return handleException(ex);
+        }
+    }
+
+    private void ingest(final Context context,
+                        ZipInputStream archive,
+                        final String logMessage,
+                        final String format,
+                        final String encoding,
+                        final boolean newPid,
+                        int threads,
+                        Writer out) throws IOException {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write("<batchIngest>\n");
+        out.flush();
+
+        CompletionService<String> results =
+                new ExecutorCompletionService<String>(INGESTERS);
+        Set<Future<String>> submitted = new HashSet<Future<String>>();
+        int pending = 0;
+        try {
+            try {
+                ZipEntry entry;
+                while ((entry = archive.getNextEntry()) != null) {
+                    if (entry.isDirectory()) {
+                        continue;
+                    }
+                    final String name = entry.getName();
+                    final byte[] foxml = IOUtils.toByteArray(archive);
+                    submitted.add(results.submit(new Callable<String>() {
+
+                        public String call() {
+                            return ingestOne(context,
+                                             name,
+                                             foxml,
+                                             logMessage,
+                                             format,
+                                             encoding,
+                                             newPid);
+                        }
+                    }));
+                    pending++;
+                    // keep this request's share of the pool, and the
+                    // objects held in memory, bounded
+                    if (pending >= threads) {
+                        out.write(take(results, submitted));
+                        out.flush();
+                        pending--;
+                    }
+                }
+            } catch (IOException e) {
+                LOG.warn("Error reading batch ingest archive", e);
+                for (; pending > 0; pending--) {
+                    out.write(take(results, submitted));
+                }
+                out.write("  <error>Error reading archive: "
+                        + StreamUtility.enc(String.valueOf(e.getMessage()))
+                        + "</error>\n");
+            }
+            for (; pending > 0; pending--) {
+                out.write(take(results, submitted));
+                out.flush();
+            }
+        } finally {
+            // skip the objects not yet started for a client that went away
+            for (Future<String> result : submitted) {
+                result.cancel(false);
+            }
+        }
+        out.write("</batchIngest>\n");
+        out.flush();
+    }
+
+    /**
+     * Ingests one object of the archive.
+     *
+     * @return the result element for the object.
+     */
+    private String ingestOne(Context context,
+                             String name,
+                             byte[] foxml,
+                             String logMessage,
+                             String format,
+                             String encoding,
+                             boolean newPid) {
+        StringBuilder result = new StringBuilder("  <object entry=\"");
+        result.append(StreamUtility.enc(name)).append('"');
+        try {
+            String pid = apiMService.ingest(context,
+                                            new ByteArrayInputStream(foxml),
+                                            logMessage,
+                                            format,
+                                            encoding,
+                                            newPid);
+            result.append(" pid=\"").append(StreamUtility.enc(pid))
+                    .append("\"/>\n");
+        } catch (Exception e) {
+            LOG.warn("Batch ingest of " + name + " failed", e);
+            result.append("><error>")
+                    .append(StreamUtility.enc(String.valueOf(e.getMessage())))
+                    .append("</error></object>\n");
+        }
+        return result.toString();
+    }
+
+    @Path("/profiles")
+    @GET
+    public Response getObjectProfiles(
+            @QueryParam(RestParam.PID)
+            final List<String> pids,
+            @QueryParam(RestParam.AS_OF_DATE_TIME)
+            String dateTime,
+            @QueryParam("datastreams")
+            @DefaultValue("true")
+            final boolean datastreams) {
+        try {
+            if (pids == null || pids.size() == 0) {
+                throw new IllegalArgumentException("At least one pid is required");
+            }
+            if (pids.size() > MAX_PIDS) {
+                throw new IllegalArgumentException("At most " + MAX_PIDS
+                        + " pids may be requested at once");
+            }
+            final Date asOfDateTime = parseDate(dateTime);
+            if (isBusy(READERS)) {
+                return busy();
+            }
+            final Context context = getContext();
+            final DefaultSerializer serializer = getSerializer(context);
+
+            // reads are only submitted once the response is being written,
+            // so nothing is read for a HEAD request or an aborted one
+            StreamingOutput profiles = new StreamingOutput() {
+
+                public void write(OutputStream out) throws IOException {
+                    Writer writer = new OutputStreamWriter(out, DEFAULT_ENC);
+                    writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+                    writer.write("<objects>\n");
+                    Iterator<String> next = pids.iterator();
+                    LinkedList<Future<String>> window =
+                            new LinkedList<Future<String>>();
+                    try {
+                        while (next.hasNext() || !window.isEmpty()) {
+                            while (next.hasNext()
+                                    && window.size() < READ_WINDOW) {
+                                final String pid = next.next();
+                                window.add(READERS.submit(new Callable<String>() {
+
+                                    public String call() {
+                                        return readOne(context,
+                                                       serializer,
+                                                       pid,
+                                                       asOfDateTime,
+                                                       datastreams);
+                                    }
+                                }));
+                            }
+                            writer.write(get(window.removeFirst()));
+                            writer.flush();
+                        }
+                    } finally {
+                        // stop reading for a client that went away
+                        for (Future<String> result : window) {
+                            result.cancel(true);
+                        }
+                    }
+                    writer.write("</objects>\n");
+                    writer.flush();
+                }
+            };
+            return Response.ok(profiles, TEXT_XML).build();
+        } catch (Exception ex) {
+            return handleException(ex);
+        }
+    }
+
+    /**
+     * Reads the profile and datastream listing of one object.
+     *
+     * @return the result element for the object.
+     */
+    private String readOne(Context context,
+                           DefaultSerializer serializer,
+                           String pid,
+                           Date asOfDateTime,
+                           boolean datastreams) {
+        StringBuilder result = new StringBuilder("  <object pid=\"");
+        result.append(StreamUtility.enc(pid)).append("\">");
+        try {
+            ObjectProfile profile =
+                    apiAService.getObjectProfile(context, pid, asOfDateTime);
+            result.append(withoutDeclaration(serializer
+                    .objectProfileToXML(profile, asOfDateTime)));
+            if (datastreams) {
+                DatastreamDef[] dsDefs =
+                        apiAService.listDatastreams(context, pid, asOfDateTime);
+                result.append(withoutDeclaration(serializer
+                        .dataStreamsToXML(pid, asOfDateTime, dsDefs)));
+            }
+        } catch (Exception e) {
+            int status = 500;
+            if (e instanceof ObjectNotInLowlevelStorageException
+                    || e instanceof DatastreamNotFoundException) {
+                status = 404;
+            } else if (e instanceof AuthzException) {
+                status = 401;
+            } else {
+                LOG.warn("Batch read of " + pid + " failed", e);
+            }
+            result.setLength(0);
+            result.append("  <object pid=\"").append(StreamUtility.enc(pid))
+                    .append("\"><error status=\"").append(status).append("\">")
+                    .append(StreamUtility.enc(String.valueOf(e.getMessage())))
+                    .append("</error>");
+        }
+        result.append("</object>\n");
+        return result.toString();
+    }
+
+    private static String withoutDeclaration(String xml) {
+        if (xml.startsWith("<?xml")) {
+            return xml.substring(xml.indexOf("?>") + 2);
+        }
+        return xml;
+    }
+
+    private static String get(Future<String> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for batch read");
+        } catch (ExecutionException e) {
+            // readOne reports its own errors
+            throw new RestException(e.getCause());
+        }
+    }
+
+    private static String take(CompletionService<String> results,
+                               Set<Future<String>> submitted)
+            throws IOException {
+        try {
+            Future<String> result = results.take();
+            submitted.remove(result);
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for batch ingest");
+        } catch (ExecutionException e) {
+            // ingestOne reports its own errors
+            throw new RestException(e.getCause());
+        }
+    }
+}
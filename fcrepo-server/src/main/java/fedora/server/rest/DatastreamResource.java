@@ -4,9 +4,9 @@
  */
 package fedora.server.rest;
 
-import java.io.CharArrayWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 import java.net.URLEncoder;
 
@@ -16,6 +16,7 @@ import java.util.List;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HttpMethod;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
@@ -25,10 +26,12 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 
 import fedora.common.http.WebClient;
 
 import fedora.server.Context;
+import fedora.server.access.dissemination.DeliveryLimiter;
 import fedora.server.rest.RestUtil.RequestContent;
 import fedora.server.storage.types.Datastream;
 import fedora.server.storage.types.DatastreamDef;
@@ -90,9 +93,7 @@ public class DatastreamResource extends BaseRestResource {
             String output = getSerializer(context).dataStreamsToXML(pid, asOfDateTime, dsDefs);
 
             if (TEXT_HTML.isCompatible(mime)) {
-                CharArrayWriter writer = new CharArrayWriter();
-                transform(output, "access/listDatastreams.xslt", writer);
-                output = writer.toString();
+                return Response.ok(transform(output, "access/listDatastreams.xslt"), mime).build();
             }
 
             return Response.ok(output, mime).build();
@@ -140,9 +141,7 @@ public class DatastreamResource extends BaseRestResource {
             MediaType mime = RestHelper.getContentType(format);
 
             if (TEXT_HTML.isCompatible(mime)) {
-                CharArrayWriter writer = new CharArrayWriter();
-                transform(xml, "management/viewDatastreamProfile.xslt", writer);
-                xml = writer.toString();
+                return Response.ok(transform(xml, "management/viewDatastreamProfile.xslt"), mime).build();
             }
 
             return Response.ok(xml, mime).build();
@@ -170,6 +169,12 @@ public class DatastreamResource extends BaseRestResource {
 
 
         Context context = getContext();
+        DeliveryLimiter deliveries = DeliveryLimiter.getInstance(fedoraServer);
+        if (!deliveries.acquire()) {
+            return Response.status(Status.SERVICE_UNAVAILABLE).header(
+                    "Retry-After", deliveries.getRetryAfterSeconds()).build();
+        }
+        boolean delivering = false;
         try {
             MIMETypedStream stream = apiAService.getDatastreamDissemination(
                                                                         context,
@@ -181,12 +186,39 @@ public class DatastreamResource extends BaseRestResource {
 
             }
 
-            return buildResponse(stream);
+            if (stream.MIMEType.equalsIgnoreCase("application/fedora-redirect")) {
+                return buildResponse(stream);
+            }
+            if (HttpMethod.HEAD.equals(servletRequest.getMethod())) {
+                // no content is sent, so nothing is held for it
+                stream.close();
+                return buildResponse(stream, null);
+            }
+            // released when the content has been sent, or sending failed
+            Response response =
+                    buildResponse(stream, deliver(stream.getStream(),
+                                                  deliveries));
+            delivering = true;
+            return response;
         } catch (Exception ex) {
             return handleException(ex);
+        } finally {
+            if (!delivering) {
+                deliveries.release();
+            }
         }
     }
 
+    private static StreamingOutput deliver(final InputStream in,
+                                           final DeliveryLimiter deliveries) {
+        return new StreamingOutput() {
+
+            public void write(OutputStream out) throws IOException {
+                deliveries.send(in, out);
+            }
+        };
+    }
+
     /**
      * Invoke API-M.purgeDatastream
      *
@@ -44,7 +44,7 @@ public class DefaultSerializer {
 
     String pidsToXml(
             String[] pidList) {
-        StringBuffer xml = new StringBuffer();
+        StringBuilder xml = new StringBuilder();
         xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
         xml.append("<pidList "
                 + " xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\""
@@ -65,7 +65,7 @@ public class DefaultSerializer {
     String objectProfileToXML(
             ObjectProfile objProfile,
             Date versDateTime) throws IOException {
-        StringBuffer buffer = new StringBuffer();
+        StringBuilder buffer = new StringBuilder();
 
         String pid = objProfile.PID;
 
@@ -124,7 +124,7 @@ public class DefaultSerializer {
 
     String datastreamProfileToXML(String pid, String dsID, Datastream dsProfile, Date versDateTime, boolean validateChecksum)
             throws IOException {
-        StringBuffer buffer = new StringBuffer();
+        StringBuilder buffer = new StringBuilder();
 
         buffer.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
         buffer.append("<datastreamProfile "
@@ -177,7 +177,7 @@ public class DefaultSerializer {
     String objectHistoryToXml(
             String[] objectHistory,
             String pid) throws IOException {
-        StringBuffer buffer = new StringBuffer();
+        StringBuilder buffer = new StringBuilder();
         buffer.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
         buffer.append("<fedoraObjectHistory "
                 + " xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\""
@@ -200,7 +200,7 @@ public class DefaultSerializer {
             String pid,
             String sDef,
             Date versDateTime) {
-        StringBuffer buffer = new StringBuffer();
+        StringBuilder buffer = new StringBuilder();
 
         buffer.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
         String asOfDateTimeElement = "";
@@ -276,7 +276,7 @@ public class DefaultSerializer {
             String[] wantedFields,
             int maxResults,
             FieldSearchResult result) {
-        StringBuffer html = new StringBuffer();
+        StringBuilder html = new StringBuilder();
         HashSet<String> fieldHash = new HashSet<String>();
 
         if (wantedFields != null) {
@@ -458,7 +458,7 @@ public class DefaultSerializer {
 
     String searchResultToXml(
             FieldSearchResult result) {
-        StringBuffer xmlBuf = new StringBuffer();
+        StringBuilder xmlBuf = new StringBuilder();
 
         xmlBuf.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
         xmlBuf.append("<result xmlns=\"http://www.fedora.info/definitions/1/0/types/\">\n");
@@ -520,7 +520,7 @@ public class DefaultSerializer {
 
     static private String join(
             List<DCField> l) {
-        StringBuffer ret = new StringBuffer();
+        StringBuilder ret = new StringBuilder();
         for (int i = 0; i < l.size(); i++) {
             if (i > 0) {
                 ret.append(", ");
@@ -533,14 +533,14 @@ public class DefaultSerializer {
     private static void appendXML(
             String name,
             String value,
-            StringBuffer out) {
+            StringBuilder out) {
         if (value != null) {
             out.append("      <" + name + ">" + StreamUtility.enc(value) + "</" + name
                     + ">\n");
         }
     }
 
-    private void appendXML(String name, List<DCField> values, StringBuffer out) {
+    private void appendXML(String name, List<DCField> values, StringBuilder out) {
         for (int i = 0; i < values.size(); i++) {
             appendXML(name, values.get(i).getValue(), out);
         }
@@ -549,7 +549,7 @@ public class DefaultSerializer {
     private static void appendXML(
             String name,
             Date dt,
-            StringBuffer out) {
+            StringBuilder out) {
         if (dt != null)
             appendXML(name, DateUtility.convertDateToString(dt), out);
     }
@@ -558,7 +558,7 @@ public class DefaultSerializer {
             String pid,
             Date asOfDateTime,
             DatastreamDef[] dsDefs) {
-        StringBuffer xml = new StringBuffer();
+        StringBuilder xml = new StringBuilder();
         xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
         if (asOfDateTime == null
                 || DateUtility.convertDateToString(asOfDateTime).equalsIgnoreCase("")) {
@@ -5,8 +5,9 @@
 package fedora.server.rest;
 
 import java.io.ByteArrayInputStream;
-import java.io.CharArrayWriter;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 import java.net.URI;
 import java.net.URLEncoder;
@@ -26,6 +27,7 @@ import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.log4j.Logger;
 
@@ -33,6 +35,8 @@ import fedora.common.Constants;
 
 import fedora.server.Context;
 import fedora.server.access.ObjectProfile;
+import fedora.server.errors.ServerException;
+import fedora.server.management.ObjectExport;
 import fedora.server.rest.RestUtil.RequestContent;
 import fedora.server.utilities.StreamUtility;
 
@@ -62,7 +66,7 @@ public class FedoraObjectResource extends BaseRestResource {
     @Produces(XML)
     public Response getObjectExport(
             @PathParam(RestParam.PID)
-            String pid,
+            final String pid,
             @QueryParam(RestParam.FORMAT)
             @DefaultValue(FOXML1_1)
             String format,
@@ -74,8 +78,29 @@ public class FedoraObjectResource extends BaseRestResource {
 
         try {
             Context context = getContext();
-            InputStream is = apiMService.export(context, pid, format, exportContext, encoding);
-            return Response.ok(is, TEXT_XML).build();
+            // Authz and object lookup happen here, so that their errors are
+            // reported with the usual status; the object is then written to
+            // the response as it is serialized.
+            final ObjectExport export =
+                    apiMService.prepareExport(context,
+                                              pid,
+                                              format,
+                                              exportContext,
+                                              encoding);
+            StreamingOutput output = new StreamingOutput() {
+
+                public void write(OutputStream out) throws IOException {
+                    try {
+                        export.write(out);
+                    } catch (ServerException ex) {
+                        // the response may already be committed
+                        LOG.error("Error exporting " + pid, ex);
+                        throw new IOException("Error exporting " + pid + ": "
+                                + ex.getMessage());
+                    }
+                }
+            };
+            return Response.ok(output, TEXT_XML).build();
         } catch (Exception ex) {
             return handleException(ex);
         }
@@ -106,9 +131,7 @@ public class FedoraObjectResource extends BaseRestResource {
             MediaType mime = RestHelper.getContentType(format);
 
             if (TEXT_HTML.isCompatible(mime)) {
-                CharArrayWriter writer = new CharArrayWriter();
-                transform(xml, "access/viewObjectHistory.xslt", writer);
-                xml = writer.toString();
+                return Response.ok(transform(xml, "access/viewObjectHistory.xslt"), mime).build();
             }
 
             return Response.ok(xml, mime).build();
@@ -168,9 +191,7 @@ public class FedoraObjectResource extends BaseRestResource {
             MediaType mime = RestHelper.getContentType(format);
 
             if (TEXT_HTML.isCompatible(mime)) {
-                CharArrayWriter writer = new CharArrayWriter();
-                transform(xml, "access/viewObjectProfile.xslt", writer);
-                xml = writer.toString();
+                return Response.ok(transform(xml, "access/viewObjectProfile.xslt"), mime).build();
             }
 
             return Response.ok(xml, mime).build();
@@ -4,8 +4,6 @@
  */
 package fedora.server.rest;
 
-import java.io.CharArrayWriter;
-
 import java.util.ArrayList;
 import java.util.List;
 
@@ -129,9 +127,7 @@ public class FedoraObjectSearchResource extends BaseRestResource {
                 String output = getSerializer(context).pidsToXml(pidList);
 
                 if (TEXT_HTML.isCompatible(mime)) {
-                    CharArrayWriter writer = new CharArrayWriter();
-                    transform(output, "management/getNextPIDInfo.xslt", writer);
-                    output = writer.toString();
+                    return Response.ok(transform(output, "management/getNextPIDInfo.xslt"), mime).build();
                 }
 
                 return Response.ok(output, mime).build();
@@ -36,4 +36,6 @@ public interface RestParam {
     String IGNORE_CONTENT = "ignoreContent";
     String IGNORE_MIME = "ignoreMime";
     String DOWNLOAD = "download";
+    String NEW_PID = "newPid";
+    String THREADS = "threads";
 }
@@ -0,0 +1,133 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.rest;
+
+import java.io.InputStream;
+
+import java.net.URI;
+
+import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import fedora.server.management.UploadSessions;
+
+/**
+ * A rest controller for resumable uploads: large content sent in chunks, in
+ * any order and possibly in parallel, to a session kept on the server, and
+ * then used as the dsLocation (uploaded://n) of a managed content datastream.
+ *
+ * <ul>
+ * <li>POST /objects/uploads ? length - starts a session; 201 Created, with
+ * the session URL as the Location and the session id as the body.</li>
+ * <li>PUT /objects/uploads/{id} ? offset - writes the request body at the
+ * offset, checking it against the Content-MD5 header if given; 200 OK, with
+ * the session status as the body.</li>
+ * <li>GET /objects/uploads/{id} - gets the session status: its length, if
+ * given, and the byte ranges received.</li>
+ * <li>POST /objects/uploads/{id} - finishes the session; 201 Created, with
+ * the uploaded:// location as the body.</li>
+ * <li>DELETE /objects/uploads/{id} - abandons the session; 204 No Content.
+ * </li>
+ * </ul>
+ *
+ * @see UploadSessions
+ */
+@Path("/uploads")
+public class UploadResource extends BaseRestResource {
+
+    private static final String TEXT = "text/plain";
+
+    @POST
+    public Response createSession(
+            @QueryParam("length")
+            @DefaultValue("-1")
+            long length) {
+        try {
+            String id = getSessions().create(getContext(), length);
+            URI location = uriInfo.getAbsolutePathBuilder().path(id).build();
+            return Response.created(location).entity(id).type(TEXT).build();
+        } catch (Exception ex) {
+            return handleException(ex);
+        }
+    }
+
+    @Path("/{id}")
+    @PUT
+    public Response writeChunk(
+            @PathParam("id")
+            String id,
+            @QueryParam("offset")
+            @DefaultValue("0")
+            long offset,
+            @HeaderParam("Content-MD5")
+            String md5,
+            InputStream content) {
+        try {
+            UploadSessions sessions = getSessions();
+            sessions.write(getContext(), id, offset, content, md5);
+            return Response.ok(sessions.getStatus(getContext(), id), TEXT)
+                    .build();
+        } catch (Exception ex) {
+            return handleException(ex);
+        }
+    }
+
+    @Path("/{id}")
+    @GET
+    public Response getSessionStatus(
+            @PathParam("id")
+            String id) {
+        try {
+            return Response.ok(getSessions().getStatus(getContext(), id), TEXT)
+                    .build();
+        } catch (Exception ex) {
+            return handleException(ex);
+        }
+    }
+
+    @Path("/{id}")
+    @POST
+    public Response finishSession(
+            @PathParam("id")
+            String id) {
+        try {
+            String location = getSessions().finish(getContext(), id);
+            return Response.status(Status.CREATED).entity(location).type(TEXT)
+                    .build();
+        } catch (Exception ex) {
+            return handleException(ex);
+        }
+    }
+
+    @Path("/{id}")
+    @DELETE
+    public Response cancelSession(
+            @PathParam("id")
+            String id) {
+        try {
+            getSessions().cancel(getContext(), id);
+            return Response.noContent().build();
+        } catch (Exception ex) {
+            return handleException(ex);
+        }
+    }
+
+    private UploadSessions getSessions() {
+        UploadSessions sessions = UploadSessions.getInstance(fedoraServer);
+        if (sessions == null) {
+            throw new RestException("Resumable uploads are not available");
+        }
+        return sessions;
+    }
+}
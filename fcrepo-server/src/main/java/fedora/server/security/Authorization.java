@@ -46,6 +46,16 @@ public interface Authorization {
 
     public void reloadPolicies(Context context) throws Exception;
 
+    /**
+     * Discards any authorization state cached for the given object. This is
+     * called by the storage subsystem whenever the object is committed or
+     * purged.
+     *
+     * @param pid
+     *        the PID of the object that changed.
+     */
+    public void objectModified(String pid);
+
     public void enforceAddDatastream(Context context,
                                      String pid,
                                      String dsId,
@@ -0,0 +1,348 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.security;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fedora.common.Constants;
+
+import fedora.server.Context;
+
+/**
+ * A bounded cache of recent authorization decisions.
+ * <p>
+ * Decisions are keyed on the normalized subject, action, resource and
+ * request context attributes that were presented to the PDP. Entries live
+ * for at most a fixed number of milliseconds, and can be discarded all at
+ * once (when policies are reloaded) or per object (when an object is
+ * modified). When the cache is full, the oldest decisions are discarded
+ * first.
+ * <p>
+ * Attributes whose values change on every request (the current date and
+ * time) are left out of the key; the time-to-live bounds how stale a
+ * cached decision based on them can be.
+ * <p>
+ * Every discard advances a generation counter. A caller reads the
+ * generation before it starts evaluating a request and passes it to
+ * {@link #put(String, String, boolean, long)}, so that a decision made
+ * under policies, or a state of its object, that have since been discarded
+ * is not recorded. Discarding an object's decisions only affects decisions
+ * about that object.
+ * <p>
+ * Looking up and recording decisions takes no cache-wide lock.
+ */
+public class AuthzDecisionCache {
+
+    private static final Set<String> VOLATILE_ATTRIBUTES =
+            new HashSet<String>();
+
+    static {
+        VOLATILE_ATTRIBUTES.add(Constants.ENVIRONMENT.CURRENT_DATE_TIME.uri);
+        VOLATILE_ATTRIBUTES.add(Constants.ENVIRONMENT.CURRENT_DATE.uri);
+        VOLATILE_ATTRIBUTES.add(Constants.ENVIRONMENT.CURRENT_TIME.uri);
+    }
+
+    private final int m_maxSize;
+
+    private final long m_ttlMillis;
+
+    private final ConcurrentMap<String, Entry> m_entries =
+            new ConcurrentHashMap<String, Entry>();
+
+    /** Keys in the order they were added, to discard the oldest first. */
+    private final Queue<String> m_order = new ConcurrentLinkedQueue<String>();
+
+    private final AtomicInteger m_orderSize = new AtomicInteger();
+
+    /** The generation at which each recently modified object was discarded. */
+    private final ConcurrentMap<String, Removal> m_removals =
+            new ConcurrentHashMap<String, Removal>();
+
+    private final AtomicLong m_generation = new AtomicLong();
+
+    /** Decisions made before this generation are all stale. */
+    private volatile long m_minGeneration;
+
+    private long m_lastPruned = System.currentTimeMillis();
+
+    private final AtomicLong m_hits = new AtomicLong();
+
+    private final AtomicLong m_misses = new AtomicLong();
+
+    /**
+     * Creates a cache of at most <code>maxSize</code> decisions, each of
+     * which is valid for <code>ttlMillis</code> milliseconds. A size of zero
+     * (or less) disables caching.
+     */
+    public AuthzDecisionCache(int maxSize, long ttlMillis) {
+        m_maxSize = maxSize;
+        m_ttlMillis = ttlMillis;
+    }
+
+    public boolean isEnabled() {
+        return m_maxSize > 0 && m_ttlMillis > 0;
+    }
+
+    /**
+     * Builds the cache key for a decision request.
+     */
+    public static String getKey(String subjectId,
+                                String action,
+                                String api,
+                                String pid,
+                                String namespace,
+                                Context context) {
+        StringBuffer key = new StringBuffer();
+        append(key, "s", subjectId);
+        append(key, "a", action);
+        append(key, "api", api);
+        append(key, "r", pid);
+        append(key, "ns", namespace);
+        appendAttributes(key, 'S', context.subjectAttributes(), context);
+        appendAttributes(key, 'A', context.actionAttributes(), context);
+        appendAttributes(key, 'R', context.resourceAttributes(), context);
+        appendAttributes(key, 'E', context.environmentAttributes(), context);
+        return key.toString();
+    }
+
+    private static void append(StringBuffer key, String name, String value) {
+        key.append(name);
+        key.append('=');
+        key.append(value);
+        key.append('\n');
+    }
+
+    private static void appendAttributes(StringBuffer key,
+                                         char category,
+                                         Iterator names,
+                                         Context context) {
+        // sort names so that attribute order never affects the key
+        Set<String> sorted = new TreeSet<String>();
+        while (names.hasNext()) {
+            String name = (String) names.next();
+            if (!VOLATILE_ATTRIBUTES.contains(name)) {
+                sorted.add(name);
+            }
+        }
+        for (String name : sorted) {
+            String[] values;
+            switch (category) {
+                case 'S':
+                    values = context.getSubjectValues(name);
+                    break;
+                case 'A':
+                    values = context.getActionValues(name);
+                    break;
+                case 'R':
+                    values = context.getResourceValues(name);
+                    break;
+                default:
+                    values = context.getEnvironmentValues(name);
+                    break;
+            }
+            key.append(category);
+            key.append(':');
+            key.append(name);
+            key.append('=');
+            if (values != null) {
+                for (int i = 0; i < values.length; i++) {
+                    if (i > 0) {
+                        key.append('\t');
+                    }
+                    key.append(values[i]);
+                }
+            }
+            key.append('\n');
+        }
+    }
+
+    /**
+     * Gets a cached decision.
+     *
+     * @return <code>Boolean.TRUE</code> if permitted,
+     *         <code>Boolean.FALSE</code> if denied, or null if there is no
+     *         unexpired decision for the key.
+     */
+    public Boolean get(String key) {
+        Entry entry = m_entries.get(key);
+        if (entry != null) {
+            if (entry.expires > System.currentTimeMillis()
+                    && !isStale(entry.pid, entry.generation)) {
+                m_hits.incrementAndGet();
+                return entry.permitted;
+            }
+            m_entries.remove(key, entry);
+        }
+        m_misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Gets the current generation, to be passed to
+     * {@link #put(String, String, boolean, long)}.
+     */
+    public long getGeneration() {
+        return m_generation.get();
+    }
+
+    /**
+     * Records a decision about the object with the given PID.
+     */
+    public void put(String key, String pid, boolean permitted) {
+        put(key, pid, permitted, getGeneration());
+    }
+
+    /**
+     * Records a decision about the object with the given PID, unless all
+     * decisions, or those about the object, have been discarded since the
+     * given generation was read.
+     */
+    public void put(String key, String pid, boolean permitted, long generation) {
+        if (!isEnabled() || isStale(pid, generation)) {
+            return;
+        }
+        Entry entry =
+                new Entry(pid,
+                          Boolean.valueOf(permitted),
+                          System.currentTimeMillis() + m_ttlMillis,
+                          generation);
+        if (m_entries.put(key, entry) == null) {
+            m_order.add(key);
+            m_orderSize.incrementAndGet();
+        }
+        while (m_orderSize.get() > m_maxSize) {
+            String eldest = m_order.poll();
+            if (eldest == null) {
+                break;
+            }
+            m_orderSize.decrementAndGet();
+            m_entries.remove(eldest);
+        }
+    }
+
+    /**
+     * Discards all decisions about the object with the given PID.
+     */
+    public synchronized void remove(String pid) {
+        long now = System.currentTimeMillis();
+        // decisions already cached are dropped as they are next looked up
+        m_removals.put(pid, new Removal(m_generation.incrementAndGet(), now));
+        if (now - m_lastPruned > m_ttlMillis) {
+            prune(now);
+        }
+    }
+
+    /**
+     * Discards all decisions. Statistics are retained.
+     */
+    public synchronized void clear() {
+        m_minGeneration = m_generation.incrementAndGet();
+        m_entries.clear();
+        m_removals.clear();
+    }
+
+    public int size() {
+        return m_entries.size();
+    }
+
+    public long getHitCount() {
+        return m_hits.get();
+    }
+
+    public long getMissCount() {
+        return m_misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "AuthzDecisionCache[size=" + m_entries.size() + ", maxSize="
+                + m_maxSize + ", ttlMillis=" + m_ttlMillis + ", hits="
+                + m_hits.get() + ", misses=" + m_misses.get() + "]";
+    }
+
+    /**
+     * Tells whether a decision about the object, made by an evaluation that
+     * started at the given generation, has since been discarded.
+     */
+    private boolean isStale(String pid, long generation) {
+        if (generation < m_minGeneration) {
+            return true;
+        }
+        Removal removal = m_removals.get(pid);
+        return removal != null && generation < removal.generation;
+    }
+
+    /**
+     * Forgets the removals of objects modified more than the time-to-live
+     * ago. Every decision cached before one of them has expired by now, so
+     * they are only needed for evaluations that started before them, which
+     * are all treated as stale instead.
+     */
+    private void prune(long now) {
+        long minGeneration = m_minGeneration;
+        Iterator<Map.Entry<String, Removal>> iter =
+                m_removals.entrySet().iterator();
+        List<String> pruned = new ArrayList<String>();
+        while (iter.hasNext()) {
+            Map.Entry<String, Removal> removal = iter.next();
+            if (removal.getValue().time < now - m_ttlMillis) {
+                minGeneration =
+                        Math.max(minGeneration,
+                                 removal.getValue().generation);
+                pruned.add(removal.getKey());
+            }
+        }
+        // raise the minimum before forgetting the removals, so that no
+        // stale decision is let through in between
+        m_minGeneration = minGeneration;
+        for (String pid : pruned) {
+            m_removals.remove(pid);
+        }
+        m_lastPruned = now;
+    }
+
+    private static class Entry {
+
+        final String pid;
+
+        final Boolean permitted;
+
+        final long expires;
+
+        final long generation;
+
+        Entry(String pid, Boolean permitted, long expires, long generation) {
+            this.pid = pid;
+            this.permitted = permitted;
+            this.expires = expires;
+            this.generation = generation;
+        }
+    }
+
+    private static class Removal {
+
+        final long generation;
+
+        final long time;
+
+        Removal(long generation, long time) {
+            this.generation = generation;
+            this.time = time;
+        }
+    }
+
+}
@@ -152,6 +152,15 @@ public class DefaultAuthorization
 
     private static final String OWNER_ID_SEPARATOR_KEY = "OWNER-ID-SEPARATOR";
 
+    private static final String OBJECT_POLICY_CACHE_SIZE_KEY =
+            "OBJECT-POLICY-CACHE-SIZE";
+
+    private static final String DECISION_CACHE_SIZE_KEY =
+            "DECISION-CACHE-SIZE";
+
+    private static final String DECISION_CACHE_SECONDS_KEY =
+            "DECISION-CACHE-SECONDS";
+
     private final PolicyParser m_policyParser;
 
     private PolicyEnforcementPoint xacmlPep;
@@ -166,6 +175,12 @@ public class DefaultAuthorization
 
     private String ownerIdSeparator = ",";
 
+    private int objectPolicyCacheSize = 1000;
+
+    private int decisionCacheSize = 1000;
+
+    private int decisionCacheSeconds = 5;
+
     boolean enforceListObjectInFieldSearchResults = true;
 
     boolean enforceListObjectInResourceIndexResults = true;
@@ -219,6 +234,42 @@ public class DefaultAuthorization
                     (String) moduleParameters.get(OWNER_ID_SEPARATOR_KEY);
             LOG.debug("ownerIdSeparator is [" + ownerIdSeparator + "]");
         }
+        if (moduleParameters.containsKey(OBJECT_POLICY_CACHE_SIZE_KEY)) {
+            try {
+                objectPolicyCacheSize =
+                        Integer.parseInt((String) moduleParameters
+                                .get(OBJECT_POLICY_CACHE_SIZE_KEY));
+            } catch (NumberFormatException e) {
+                throw new ModuleInitializationException("bad init parm integer value for "
+                                                                + OBJECT_POLICY_CACHE_SIZE_KEY,
+                                                        role,
+                                                        e);
+            }
+        }
+        if (moduleParameters.containsKey(DECISION_CACHE_SIZE_KEY)) {
+            try {
+                decisionCacheSize =
+                        Integer.parseInt((String) moduleParameters
+                                .get(DECISION_CACHE_SIZE_KEY));
+            } catch (NumberFormatException e) {
+                throw new ModuleInitializationException("bad init parm integer value for "
+                                                                + DECISION_CACHE_SIZE_KEY,
+                                                        role,
+                                                        e);
+            }
+        }
+        if (moduleParameters.containsKey(DECISION_CACHE_SECONDS_KEY)) {
+            try {
+                decisionCacheSeconds =
+                        Integer.parseInt((String) moduleParameters
+                                .get(DECISION_CACHE_SECONDS_KEY));
+            } catch (NumberFormatException e) {
+                throw new ModuleInitializationException("bad init parm integer value for "
+                                                                + DECISION_CACHE_SECONDS_KEY,
+                                                        role,
+                                                        e);
+            }
+        }
 
         // Initialize the policy parser given the POLICY_SCHEMA_PATH_KEY
         if (moduleParameters.containsKey(POLICY_SCHEMA_PATH_KEY)) {
@@ -411,7 +462,10 @@ public class DefaultAuthorization
                              validateRepositoryPolicies,
                              validateObjectPoliciesFromDatastream,
                              m_policyParser,
-                             ownerIdSeparator);
+                             ownerIdSeparator,
+                             objectPolicyCacheSize,
+                             decisionCacheSize,
+                             decisionCacheSeconds * 1000L);
         } catch (Throwable e1) {
             throw new ModuleInitializationException(e1.getMessage(),
                                                     getRole(),
@@ -425,6 +479,12 @@ public class DefaultAuthorization
         xacmlPep.newPdp();
     }
 
+    public void objectModified(String pid) {
+        if (xacmlPep != null) {
+            xacmlPep.objectModified(pid);
+        }
+    }
+
     private final String extractNamespace(String pid) {
         String namespace = "";
         int colonPosition = pid.indexOf(':');
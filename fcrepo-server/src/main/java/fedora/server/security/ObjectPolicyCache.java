@@ -0,0 +1,144 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.security;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.sun.xacml.AbstractPolicy;
+
+/**
+ * A bounded, least-recently-used cache of parsed object policies.
+ * <p>
+ * Entries are keyed by PID and remember which version of the
+ * <code>POLICY</code> datastream they were parsed from, so a lookup with a
+ * different version key is treated as a miss. Entries may also be removed
+ * explicitly when the object is committed or purged.
+ */
+public class ObjectPolicyCache {
+
+    private final int m_maxSize;
+
+    private final Map<String, Entry> m_entries;
+
+    private long m_hits;
+
+    private long m_misses;
+
+    private long m_parses;
+
+    /**
+     * Creates a cache that holds at most <code>maxSize</code> policies.
+     * A size of zero (or less) disables caching, but parse counts are
+     * still recorded.
+     */
+    public ObjectPolicyCache(int maxSize) {
+        m_maxSize = maxSize;
+        m_entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > m_maxSize;
+            }
+        };
+    }
+
+    /**
+     * Gets the cached policy for the given PID, if it was parsed from the
+     * datastream version identified by <code>versionKey</code>.
+     *
+     * @return the policy, or null if not cached or stale.
+     */
+    public synchronized AbstractPolicy get(String pid, String versionKey) {
+        Entry entry = m_entries.get(pid);
+        if (entry != null && entry.versionKey.equals(versionKey)) {
+            m_hits++;
+            return entry.policy;
+        }
+        m_misses++;
+        return null;
+    }
+
+    /**
+     * Records a freshly-parsed policy for the given PID and datastream
+     * version.
+     */
+    public synchronized void put(String pid,
+                                 String versionKey,
+                                 AbstractPolicy policy) {
+        m_parses++;
+        if (m_maxSize > 0) {
+            m_entries.put(pid, new Entry(versionKey, policy));
+        }
+    }
+
+    /**
+     * Removes any cached policy for the given PID.
+     */
+    public synchronized void remove(String pid) {
+        m_entries.remove(pid);
+    }
+
+    /**
+     * Removes all cached policies. Statistics are retained.
+     */
+    public synchronized void clear() {
+        m_entries.clear();
+    }
+
+    public synchronized int size() {
+        return m_entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return m_hits;
+    }
+
+    public synchronized long getMissCount() {
+        return m_misses;
+    }
+
+    /**
+     * Gets the number of times an object policy has been parsed.
+     */
+    public synchronized long getParseCount() {
+        return m_parses;
+    }
+
+    /**
+     * Gets the fraction of lookups that were served from the cache, or 0.0
+     * if there have been no lookups.
+     */
+    public synchronized double getHitRatio() {
+        long total = m_hits + m_misses;
+        if (total == 0) {
+            return 0.0;
+        }
+        return (double) m_hits / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ObjectPolicyCache[size=" + m_entries.size() + ", maxSize="
+                + m_maxSize + ", hits=" + m_hits + ", misses=" + m_misses
+                + ", parses=" + m_parses + ", hitRatio=" + getHitRatio()
+                + "]";
+    }
+
+    private static class Entry {
+
+        final String versionKey;
+
+        final AbstractPolicy policy;
+
+        Entry(String versionKey, AbstractPolicy policy) {
+            this.versionKey = versionKey;
+            this.policy = policy;
+        }
+    }
+
+}
@@ -12,6 +12,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.ServletContext;
 
@@ -56,7 +57,7 @@ public class PolicyEnforcementPoint {
 
     private static int count = 0;
 
-    private String enforceMode = ENFORCE_MODE_ENFORCE_POLICIES;
+    private volatile String enforceMode = ENFORCE_MODE_ENFORCE_POLICIES;
 
     static final String ENFORCE_MODE_ENFORCE_POLICIES = "enforce-policies";
 
@@ -144,9 +145,9 @@ public class PolicyEnforcementPoint {
     }
 
     /**
-     * xacml pdp
+     * xacml pdp; replaced wholesale by newPdp(), so enforce() never waits
      */
-    private PDP pdp = null;
+    private volatile PDP pdp = null;
 
     /**
      * available during init(); keep as logging hook
@@ -198,7 +199,8 @@ public class PolicyEnforcementPoint {
                                        manager,
                                        validateRepositoryPolicies,
                                        validateObjectPoliciesFromDatastream,
-                                       policyParser);
+                                       policyParser,
+                                       objectPolicyCache);
         LOG.debug("after constucting fedora policy finder module");
         LOG
                 .debug("before adding fedora policy finder module to policy finder hashset");
@@ -209,11 +211,9 @@ public class PolicyEnforcementPoint {
         policyFinder.setModules(policyModules);
         LOG.debug("o after setting policy finder hashset into policy finder");
 
-        PDP pdp = new PDP(new PDPConfig(attrFinder, policyFinder, null));
-        synchronized (this) {
-            this.pdp = pdp;
-            //so enforce() will wait, if this pdp update is in progress
-        }
+        this.pdp = new PDP(new PDPConfig(attrFinder, policyFinder, null));
+        // decisions made under the old policies no longer apply
+        decisionCache.clear();
     }
 
     String combiningAlgorithm = null;
@@ -234,6 +234,11 @@ public class PolicyEnforcementPoint {
 
     String ownerIdSeparator = ",";
 
+    // replaced in initPep() and read by request threads
+    volatile ObjectPolicyCache objectPolicyCache = new ObjectPolicyCache(0);
+
+    volatile AuthzDecisionCache decisionCache = new AuthzDecisionCache(0, 0);
+
     public void initPep(String enforceMode,
                         String combiningAlgorithm,
                         String globalPolicyConfig,
@@ -243,7 +248,10 @@ public class PolicyEnforcementPoint {
                         boolean validateRepositoryPolicies,
                         boolean validateObjectPoliciesFromDatastream,
                         PolicyParser policyParser,
-                        String ownerIdSeparator) throws Exception {
+                        String ownerIdSeparator,
+                        int objectPolicyCacheSize,
+                        int decisionCacheSize,
+                        long decisionCacheMillis) throws Exception {
         LOG.debug("in initPep()");
         destroy();
         this.policyParser = policyParser;
@@ -263,9 +271,36 @@ public class PolicyEnforcementPoint {
         this.validateObjectPoliciesFromDatastream =
                 validateObjectPoliciesFromDatastream;
         this.ownerIdSeparator = ownerIdSeparator;
+        this.objectPolicyCache = new ObjectPolicyCache(objectPolicyCacheSize);
+        this.decisionCache =
+                new AuthzDecisionCache(decisionCacheSize, decisionCacheMillis);
         newPdp();
     }
 
+    /**
+     * Discards cached authorization state for an object that has been
+     * committed or purged.
+     */
+    public void objectModified(String pid) {
+        objectPolicyCache.remove(pid);
+        decisionCache.remove(pid);
+    }
+
+    /**
+     * Gets the cache of parsed object policies, which also records parse
+     * counts and the cache hit ratio.
+     */
+    public ObjectPolicyCache getObjectPolicyCache() {
+        return objectPolicyCache;
+    }
+
+    /**
+     * Gets the cache of recent authorization decisions.
+     */
+    public AuthzDecisionCache getDecisionCache() {
+        return decisionCache;
+    }
+
     public void inactivate() {
         destroy();
     }
@@ -273,6 +308,10 @@ public class PolicyEnforcementPoint {
     public void destroy() {
         servletContext = null;
         pdp = null;
+        LOG.info("Object policy cache statistics: " + objectPolicyCache);
+        LOG.info("Decision cache statistics: " + decisionCache);
+        objectPolicyCache.clear();
+        decisionCache.clear();
     }
 
     private final Set wrapSubjects(String subjectLoginId) {
@@ -358,10 +397,10 @@ public class PolicyEnforcementPoint {
         return resources;
     }
 
-    private int n = 0;
+    private final AtomicInteger n = new AtomicInteger();
 
-    private synchronized int next() {
-        return n++;
+    private int next() {
+        return n.getAndIncrement();
     }
 
     private final Set NULL_SET = new HashSet();
@@ -375,9 +414,6 @@ public class PolicyEnforcementPoint {
 
         long enforceStartTime = System.currentTimeMillis();
         try {
-            synchronized (this) {
-                //wait, if pdp update is in progress
-            }
             if (ENFORCE_MODE_PERMIT_ALL_REQUESTS.equals(enforceMode)) {
                 LOG
                         .debug("permitting request because enforceMode==ENFORCE_MODE_PERMIT_ALL_REQUESTS");
@@ -389,6 +425,34 @@ public class PolicyEnforcementPoint {
                 LOG.debug("denying request because enforceMode is invalid");
                 throw new AuthzOperationalException("invalid enforceMode from config");
             } else {
+                // read once, so the decision goes to the cache it was
+                // looked up in, and read the generation before the pdp, so
+                // that a decision made by a pdp replaced meanwhile is
+                // dropped
+                AuthzDecisionCache cache = decisionCache;
+                long generation = cache.getGeneration();
+                String cacheKey = null;
+                if (cache.isEnabled()) {
+                    cacheKey = AuthzDecisionCache.getKey(subjectId,
+                                                         action,
+                                                         api,
+                                                         pid,
+                                                         namespace,
+                                                         context);
+                    Boolean cached = cache.get(cacheKey);
+                    if (cached != null) {
+                        LOG.debug("in pep, using cached decision");
+                        if (!cached.booleanValue()) {
+                            throw new AuthzDeniedException("");
+                        }
+                        if (context.getNoOp()) {
+                            throw new AuthzPermittedException("noOp");
+                        }
+                        return;
+                    }
+                }
+                // use the current pdp throughout, even if a reload swaps it
+                PDP currentPdp = pdp;
                 ResponseCtx response = null;
                 String contextIndex = null;
                 try {
@@ -417,7 +481,7 @@ public class PolicyEnforcementPoint {
 
                     long st = System.currentTimeMillis();
                     try {
-                        response = pdp.evaluate(request);
+                        response = currentPdp.evaluate(request);
                     } finally {
                         long dur = System.currentTimeMillis() - st;
                         LOG.debug("Policy evaluation took " + dur + "ms.");
@@ -431,7 +495,11 @@ public class PolicyEnforcementPoint {
                     contextAttributeFinder.unregisterContext(contextIndex);
                 }
                 LOG.debug("in pep, before denyBiasedAuthz() called");
-                if (!denyBiasedAuthz(response.getResults())) {
+                boolean permitted = denyBiasedAuthz(response.getResults());
+                if (cacheKey != null) {
+                    cache.put(cacheKey, pid, permitted, generation);
+                }
+                if (!permitted) {
                     throw new AuthzDeniedException("");
                 }
             }
@@ -73,6 +73,8 @@ public class PolicyFinderModule
 
     private final List<AbstractPolicy> m_repositoryPolicies;
 
+    private final ObjectPolicyCache m_objectPolicyCache;
+
     public PolicyFinderModule(String combiningAlgorithm,
                               String repositoryPolicyDirectoryPath,
                               String repositoryBackendPolicyDirectoryPath,
@@ -80,7 +82,8 @@ public class PolicyFinderModule
                               RepositoryReader repoReader,
                               boolean validateRepositoryPolicies,
                               boolean validateObjectPoliciesFromDatastream,
-                              PolicyParser policyParser)
+                              PolicyParser policyParser,
+                              ObjectPolicyCache objectPolicyCache)
             throws GeneralException {
 
         m_combiningAlgorithm = combiningAlgorithm;
@@ -88,6 +91,7 @@ public class PolicyFinderModule
         m_validateRepositoryPolicies = validateRepositoryPolicies;
         m_validateObjectPoliciesFromDatastream = validateObjectPoliciesFromDatastream;
         m_policyParser = policyParser;
+        m_objectPolicyCache = objectPolicyCache;
 
         LOG.info("Loading repository policies...");
         m_repositoryPolicies = new ArrayList<AbstractPolicy>();
@@ -165,18 +169,35 @@ public class PolicyFinderModule
                                                      pid);
             Datastream ds = reader.GetDatastream("POLICY", null);
             if (ds != null) {
-                LOG.debug("Using POLICY for " + pid);
-                return m_policyParser
-                        .copy().parse(ds.getContentStream(),
-                                      m_validateObjectPoliciesFromDatastream);
+                String versionKey = getVersionKey(ds);
+                AbstractPolicy policy =
+                        m_objectPolicyCache.get(pid, versionKey);
+                if (policy == null) {
+                    LOG.debug("Parsing POLICY for " + pid);
+                    policy = m_policyParser
+                            .copy().parse(ds.getContentStream(),
+                                          m_validateObjectPoliciesFromDatastream);
+                    m_objectPolicyCache.put(pid, versionKey, policy);
+                } else {
+                    LOG.debug("Using cached POLICY for " + pid);
+                }
+                return policy;
             } else {
+                m_objectPolicyCache.remove(pid);
                 return null;
             }
         } catch (ObjectNotInLowlevelStorageException e) {
+            m_objectPolicyCache.remove(pid);
             return null;
         }
     }
 
+    // identifies the exact POLICY datastream version a policy was parsed from
+    private static String getVersionKey(Datastream ds) {
+        long created = ds.DSCreateDT == null ? 0 : ds.DSCreateDT.getTime();
+        return ds.DSVersionID + "/" + created;
+    }
+
     // get the pid from the context, or null if unable
     private static String getPid(EvaluationCtx context) {
         URI resourceIdType = null;
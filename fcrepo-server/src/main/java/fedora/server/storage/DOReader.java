@@ -5,6 +5,7 @@
 package fedora.server.storage;
 
 import java.io.InputStream;
+import java.io.OutputStream;
 
 import java.util.Date;
 import java.util.List;
@@ -107,6 +108,26 @@ public interface DOReader {
     public InputStream Export(String format, String exportContext)
             throws ServerException;
 
+    /**
+     * Writes the content of the entire digital object as XML, as
+     * {@link #Export(String, String)} does, to the given stream. The
+     * serialization is written as it is produced, so it is never held in
+     * memory as a whole.
+     *
+     * @param format
+     *        The format to export the object in. If null or "default", will use
+     *        the repository's configured default export format.
+     * @param exportContext
+     *        The use case for export (public, migrate, archive).
+     * @param out
+     *        The stream to write to.
+     * @throws ServerException
+     *         If there object could not be found or there was was a failure in
+     *         accessing or writing the object for any reason.
+     */
+    public void Export(String format, String exportContext, OutputStream out)
+            throws ServerException;
+
     /**
      * @deprecated in Fedora 3.0, use Export() instead
      */
@@ -24,6 +24,8 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
@@ -34,6 +36,7 @@ import org.apache.log4j.Logger;
 
 import fedora.common.Constants;
 import fedora.common.Models;
+import fedora.common.PID;
 
 import fedora.server.Context;
 import fedora.server.Module;
@@ -58,7 +61,9 @@ import fedora.server.resourceIndex.ResourceIndex;
 import fedora.server.search.FieldSearch;
 import fedora.server.search.FieldSearchQuery;
 import fedora.server.search.FieldSearchResult;
+import fedora.server.security.Authorization;
 import fedora.server.storage.lowlevel.ILowlevelStorage;
+import fedora.server.storage.lowlevel.IStageable;
 import fedora.server.storage.translation.DOTranslationUtility;
 import fedora.server.storage.translation.DOTranslator;
 import fedora.server.storage.types.BasicDigitalObject;
@@ -125,6 +130,12 @@ public class DefaultDOManager
 
     private DOReaderCache m_readerCache;
 
+    private DOReaderCache m_deploymentReaderCache;
+
+    private DOReaderCache m_definitionReaderCache;
+
+    private Authorization m_authorization;
+
     private final Set<String> m_lockedPIDs;
 
     protected ConnectionPool m_connectionPool;
@@ -254,6 +265,51 @@ public class DefaultDOManager
             m_readerCache =
                     new DOReaderCache(readerCacheSize, readerCacheSeconds);
         }
+
+        // service deployment and definition readers hold parsed method
+        // maps and bindings, and are only dropped when the object changes
+        String srcSize = getParameter("serviceReaderCacheSize");
+        if (srcSize == null) {
+            LOG.debug("Parameter serviceReaderCacheSize not given, using 50");
+            srcSize = "50";
+        }
+        int serviceReaderCacheSize;
+        try {
+            serviceReaderCacheSize = Integer.parseInt(srcSize);
+            if (serviceReaderCacheSize < 0) {
+                throw new Exception("Cannot be less than zero");
+            }
+        } catch (Exception e) {
+            throw new ModuleInitializationException("Bad value for serviceReaderCacheSize parameter: "
+                                                            + e.getMessage(),
+                                                    getRole());
+        }
+
+        String srcSeconds = getParameter("serviceReaderCacheSeconds");
+        if (srcSeconds == null) {
+            LOG.debug("Parameter serviceReaderCacheSeconds not given, using 300");
+            srcSeconds = "300";
+        }
+        int serviceReaderCacheSeconds;
+        try {
+            serviceReaderCacheSeconds = Integer.parseInt(srcSeconds);
+            if (serviceReaderCacheSeconds < 1) {
+                throw new Exception("Cannot be less than one");
+            }
+        } catch (Exception e) {
+            throw new ModuleInitializationException("Bad value for serviceReaderCacheSeconds parameter: "
+                                                            + e.getMessage(),
+                                                    getRole());
+        }
+
+        if (serviceReaderCacheSize > 0) {
+            m_deploymentReaderCache =
+                    new DOReaderCache(serviceReaderCacheSize,
+                                      serviceReaderCacheSeconds);
+            m_definitionReaderCache =
+                    new DOReaderCache(serviceReaderCacheSize,
+                                      serviceReaderCacheSeconds);
+        }
     }
 
     protected void initRetainPID() {
@@ -377,6 +433,12 @@ public class DefaultDOManager
                                                     getRole());
         }
 
+        // get ref to authorization module, if any, so it can be told
+        // when objects change
+        m_authorization =
+                (Authorization) getServer()
+                        .getModule("fedora.server.security.Authorization");
+
         /* Load the service deployment cache from the registry */
         initializeCModelDeploymentCache();
     }
@@ -451,6 +513,12 @@ public class DefaultDOManager
             throws SQLException {
 
         String sDep = obj.getPid();
+
+        /* Cached readers hold the old bindings */
+        if (m_deploymentReaderCache != null) {
+            m_deploymentReaderCache.remove(sDep);
+        }
+
         Set<RelationshipTuple> sDefs =
                 obj.getRelationships(Constants.MODEL.IS_DEPLOYMENT_OF, null);
         Set<RelationshipTuple> models =
@@ -547,6 +615,12 @@ public class DefaultDOManager
         if (m_readerCache != null) {
             m_readerCache.close();
         }
+        if (m_deploymentReaderCache != null) {
+            m_deploymentReaderCache.close();
+        }
+        if (m_definitionReaderCache != null) {
+            m_definitionReaderCache.close();
+        }
     }
 
     public void releaseWriter(DOWriter writer) {
@@ -678,16 +752,36 @@ public class DefaultDOManager
                                                               Context context,
                                                               String pid)
             throws ServerException {
-        {
-            return new SimpleServiceDeploymentReader(context,
-                                                     this,
-                                                     m_translator,
-                                                     m_defaultExportFormat,
-                                                     m_defaultStorageFormat,
-                                                     m_storageCharacterEncoding,
-                                                     m_permanentStore
-                                                             .retrieveObject(pid));
+        ServiceDeploymentReader reader = null;
+        if (m_deploymentReaderCache != null) {
+            reader = (ServiceDeploymentReader) m_deploymentReaderCache.get(pid);
+            if (reader != null) {
+                // the deployment map knows the last modified date of every
+                // deployment in the registry; a mismatch means it's stale
+                Long lastModDate = m_cModelDeploymentMap.getLastModDate(pid);
+                if (lastModDate != null
+                        && lastModDate.longValue() != reader.getLastModDate()
+                                .getTime()) {
+                    m_deploymentReaderCache.remove(pid);
+                    reader = null;
+                }
+            }
         }
+        if (reader == null) {
+            reader =
+                    new SimpleServiceDeploymentReader(context,
+                                                      this,
+                                                      m_translator,
+                                                      m_defaultExportFormat,
+                                                      m_defaultStorageFormat,
+                                                      m_storageCharacterEncoding,
+                                                      m_permanentStore
+                                                              .retrieveObject(pid));
+            if (m_deploymentReaderCache != null) {
+                m_deploymentReaderCache.put(reader);
+            }
+        }
+        return reader;
     }
 
     /**
@@ -697,16 +791,25 @@ public class DefaultDOManager
                                                               Context context,
                                                               String pid)
             throws ServerException {
-        {
-            return new SimpleServiceDefinitionReader(context,
-                                                     this,
-                                                     m_translator,
-                                                     m_defaultExportFormat,
-                                                     m_defaultStorageFormat,
-                                                     m_storageCharacterEncoding,
-                                                     m_permanentStore
-                                                             .retrieveObject(pid));
+        ServiceDefinitionReader reader = null;
+        if (m_definitionReaderCache != null) {
+            reader = (ServiceDefinitionReader) m_definitionReaderCache.get(pid);
+        }
+        if (reader == null) {
+            reader =
+                    new SimpleServiceDefinitionReader(context,
+                                                      this,
+                                                      m_translator,
+                                                      m_defaultExportFormat,
+                                                      m_defaultStorageFormat,
+                                                      m_storageCharacterEncoding,
+                                                      m_permanentStore
+                                                              .retrieveObject(pid));
+            if (m_definitionReaderCache != null) {
+                m_definitionReaderCache.put(reader);
+            }
         }
+        return reader;
     }
 
     /**
@@ -755,7 +858,7 @@ public class DefaultDOManager
      * @param newPid
      *        true if the system should generate a new PID for the object
      */
-    public synchronized DOWriter getIngestWriter(boolean cachedObjectRequired,
+    public DOWriter getIngestWriter(boolean cachedObjectRequired,
                                                  Context context,
                                                  InputStream in,
                                                  String format,
@@ -846,101 +949,107 @@ public class DefaultDOManager
                     DigitalObjectUtil.updateLegacyDatastreams(obj);
                 }
 
-                // PID VALIDATION:
-                // validate and normalized the provided pid, if any
-                if (obj.getPid() != null && obj.getPid().length() > 0) {
-                    obj.setPid(Server.getPID(obj.getPid()).toString());
-                }
-
-                // PID GENERATION:
-                // have the system generate a PID if one was not provided
-                if (obj.getPid() != null
-                        && obj.getPid().indexOf(":") != -1
-                        && (m_retainPIDs == null || m_retainPIDs.contains(obj
-                                .getPid().split(":")[0]))) {
-                    LOG
-                            .debug("Stream contained PID with retainable namespace-id; will use PID from stream");
-                    try {
-                        m_pidGenerator.neverGeneratePID(obj.getPid());
-                    } catch (IOException e) {
-                        throw new GeneralException("Error calling pidGenerator.neverGeneratePID(): "
-                                + e.getMessage());
+                // The temp file, validation and deserialization above can
+                // run concurrently; choosing the PID through registering
+                // the object must not, or two ingests could claim the
+                // same PID.
+                synchronized (this) {
+                    // PID VALIDATION:
+                    // validate and normalized the provided pid, if any
+                    if (obj.getPid() != null && obj.getPid().length() > 0) {
+                        obj.setPid(Server.getPID(obj.getPid()).toString());
                     }
-                } else {
-                    if (newPid) {
-                        LOG.debug("Client wants a new PID");
-                        // yes... so do that, then set it in the obj.
-                        String p = null;
+
+                    // PID GENERATION:
+                    // have the system generate a PID if one was not provided
+                    if (obj.getPid() != null
+                            && obj.getPid().indexOf(":") != -1
+                            && (m_retainPIDs == null || m_retainPIDs.contains(obj
+                                    .getPid().split(":")[0]))) {
+                        LOG
+                                .debug("Stream contained PID with retainable namespace-id; will use PID from stream");
                         try {
-                            // If the context contains a recovery PID, use that.
-                            // Otherwise, generate a new PID as usual.
-                            if (context instanceof RecoveryContext) {
-                                RecoveryContext rContext =
-                                        (RecoveryContext) context;
-                                p =
-                                        rContext
-                                                .getRecoveryValue(Constants.RECOVERY.PID.uri);
-                            }
-                            if (p == null) {
-                                p =
-                                        m_pidGenerator
-                                                .generatePID(m_pidNamespace)
-                                                .toString();
-                            } else {
-                                LOG
-                                        .debug("Using new PID from recovery context");
-                                m_pidGenerator.neverGeneratePID(p);
-                            }
-                        } catch (Exception e) {
-                            throw new GeneralException("Error generating PID, PIDGenerator returned unexpected error: ("
-                                    + e.getClass().getName()
-                                    + ") - "
+                            m_pidGenerator.neverGeneratePID(obj.getPid());
+                        } catch (IOException e) {
+                            throw new GeneralException("Error calling pidGenerator.neverGeneratePID(): "
                                     + e.getMessage());
                         }
-                        LOG.info("Generated new PID: " + p);
-                        obj.setPid(p);
                     } else {
-                        LOG.debug("Client wants to use existing PID.");
+                        if (newPid) {
+                            LOG.debug("Client wants a new PID");
+                            // yes... so do that, then set it in the obj.
+                            String p = null;
+                            try {
+                                // If the context contains a recovery PID, use that.
+                                // Otherwise, generate a new PID as usual.
+                                if (context instanceof RecoveryContext) {
+                                    RecoveryContext rContext =
+                                            (RecoveryContext) context;
+                                    p =
+                                            rContext
+                                                    .getRecoveryValue(Constants.RECOVERY.PID.uri);
+                                }
+                                if (p == null) {
+                                    p =
+                                            m_pidGenerator
+                                                    .generatePID(m_pidNamespace)
+                                                    .toString();
+                                } else {
+                                    LOG
+                                            .debug("Using new PID from recovery context");
+                                    m_pidGenerator.neverGeneratePID(p);
+                                }
+                            } catch (Exception e) {
+                                throw new GeneralException("Error generating PID, PIDGenerator returned unexpected error: ("
+                                        + e.getClass().getName()
+                                        + ") - "
+                                        + e.getMessage());
+                            }
+                            LOG.info("Generated new PID: " + p);
+                            obj.setPid(p);
+                        } else {
+                            LOG.debug("Client wants to use existing PID.");
+                        }
                     }
-                }
-
-                LOG.info("New object PID is " + obj.getPid());
-
-                // CHECK REGISTRY:
-                // ensure the object doesn't already exist
-                if (objectExists(obj.getPid())) {
-                    throw new ObjectExistsException("The PID '"
-                            + obj.getPid()
-                            + "' already exists in the registry; the object can't be re-created.");
-                }
-
-                // GET DIGITAL OBJECT WRITER:
-                // get an object writer configured with the DEFAULT export format
-                LOG.debug("Getting new writer with default export format: "
-                        + m_defaultExportFormat);
-                LOG.debug("Instantiating a SimpleDOWriter");
-                w = new SimpleDOWriter(context,
-                                       this,
-                                       m_translator,
-                                       m_defaultExportFormat,
-                                       m_storageCharacterEncoding,
-                                       obj);
-
-                // WRITE LOCK:
-                // ensure no one else can modify the object now
-                getWriteLock(obj.getPid());
 
-                // DEFAULT DATASTREAMS:
-                populateDC(obj, w, nowUTC);
+                    LOG.info("New object PID is " + obj.getPid());
 
-                // DATASTREAM VALIDATION
-                ValidationUtility.validateReservedDatastreams(w);
+                    // CHECK REGISTRY:
+                    // ensure the object doesn't already exist
+                    if (objectExists(obj.getPid())) {
+                        throw new ObjectExistsException("The PID '"
+                                + obj.getPid()
+                                + "' already exists in the registry; the object can't be re-created.");
+                    }
 
-                // REGISTRY:
-                // at this point the object is valid, so make a record
-                // of it in the digital object registry
-                registerObject(obj, getUserId(context), obj.getLabel(), obj
-                        .getCreateDate(), obj.getLastModDate());
+                    // GET DIGITAL OBJECT WRITER:
+                    // get an object writer configured with the DEFAULT export format
+                    LOG.debug("Getting new writer with default export format: "
+                            + m_defaultExportFormat);
+                    LOG.debug("Instantiating a SimpleDOWriter");
+                    w = new SimpleDOWriter(context,
+                                           this,
+                                           m_translator,
+                                           m_defaultExportFormat,
+                                           m_storageCharacterEncoding,
+                                           obj);
+
+                    // WRITE LOCK:
+                    // ensure no one else can modify the object now
+                    getWriteLock(obj.getPid());
+
+                    // DEFAULT DATASTREAMS:
+                    populateDC(obj, w, nowUTC);
+
+                    // DATASTREAM VALIDATION
+                    ValidationUtility.validateReservedDatastreams(w);
+
+                    // REGISTRY:
+                    // at this point the object is valid, so make a record
+                    // of it in the digital object registry
+                    registerObject(obj, getUserId(context), obj.getLabel(), obj
+                            .getCreateDate(), obj.getLastModDate());
+                }
                 return w;
             } catch (IOException e) {
 
@@ -1089,6 +1198,12 @@ public class DefaultDOManager
             if (m_readerCache != null) {
                 m_readerCache.remove(obj.getPid());
             }
+            if (m_authorization != null) {
+                m_authorization.objectModified(obj.getPid());
+            }
+            if (m_definitionReaderCache != null) {
+                m_definitionReaderCache.remove(obj.getPid());
+            }
 
             // REGISTRY:
             // Remove digital object from the registry
@@ -1139,6 +1254,8 @@ public class DefaultDOManager
 
                 // DATASTREAM STORAGE:
                 // copy and store any datastreams of type Managed Content
+                Map<String, StagedUpload> stagedUploads =
+                        new LinkedHashMap<String, StagedUpload>();
                 Iterator<String> dsIDIter = obj.datastreamIdIterator();
                 while (dsIDIter.hasNext()) {
                     String dsID = dsIDIter.next();
@@ -1154,11 +1271,31 @@ public class DefaultDOManager
                             if (URL_PROTOCOL.matcher(dmc.DSLocation).matches()) {
                                 // if it's a url, we need to grab content for this version
                                 MIMETypedStream mimeTypedStream;
+                                String stagingKey = null;
                                 if (dmc.DSLocation.startsWith(DatastreamManagedContent.UPLOADED_SCHEME)) {
-                                    mimeTypedStream =
-                                            new MIMETypedStream(null,
-                                                                m_management.getTempStream(dmc.DSLocation),
-                                                                null);
+                                    // keep the size and checksums computed on
+                                    // upload, so serializing the object below
+                                    // need not read the stored content again
+                                    if (dmc.DSContentDigest == null) {
+                                        dmc.DSContentDigest =
+                                                m_management.getTempStreamDigest(dmc.DSLocation);
+                                        if (dmc.DSContentDigest != null) {
+                                            dmc.DSSize =
+                                                    dmc.DSContentDigest.getSize();
+                                        }
+                                    }
+                                    // content staged in the permanent store
+                                    // is renamed into place below, not copied
+                                    stagingKey =
+                                            m_management.getTempStreamStagingKey(dmc.DSLocation);
+                                    if (stagingKey == null) {
+                                        mimeTypedStream =
+                                                new MIMETypedStream(null,
+                                                                    m_management.getTempStream(dmc.DSLocation),
+                                                                    null);
+                                    } else {
+                                        mimeTypedStream = null;
+                                    }
                                     LOG
                                             .info("Getting managed datastream from internal uploaded "
                                                     + "location: "
@@ -1204,7 +1341,22 @@ public class DefaultDOManager
                                 String id =
                                         obj.getPid() + "+" + dmc.DatastreamID
                                                 + "+" + dmc.DSVersionID;
-                                if (obj.isNew()) {
+                                if (stagingKey != null) {
+                                    // renamed into place once the object
+                                    // is known to serialize, below; content
+                                    // used by more than one version is
+                                    // renamed once and copied for the rest
+                                    StagedUpload upload =
+                                            stagedUploads.get(stagingKey);
+                                    if (upload == null) {
+                                        stagedUploads.put(stagingKey,
+                                                          new StagedUpload(dmc.DSLocation,
+                                                                           stagingKey,
+                                                                           id));
+                                    } else {
+                                        upload.copyKeys.add(id);
+                                    }
+                                } else if (obj.isNew()) {
                                     m_permanentStore
                                             .addDatastream(id, mimeTypedStream
                                                     .getStream());
@@ -1302,42 +1454,80 @@ public class DefaultDOManager
                              m_storageCharacterEncoding,
                              DOTranslationUtility.SERIALIZE_STORAGE_INTERNAL);
 
+                // STAGED DATASTREAM STORAGE:
+                // commit the uploaded content staged for managed datastreams
+                // before the object that refers to it is stored; if storing
+                // the object fails, the content is put back in staging so
+                // the upload can be used again
+                List<StagedUpload> committed = new ArrayList<StagedUpload>();
+                boolean stored = false;
+                try {
+                    for (StagedUpload upload : stagedUploads.values()) {
+                        ((IStageable) m_permanentStore)
+                                .commitStagedDatastream(upload.stagingKey,
+                                                        upload.dsKey);
+                        committed.add(upload);
+                        for (String copyKey : upload.copyKeys) {
+                            try {
+                                m_permanentStore
+                                        .addDatastream(copyKey,
+                                                       m_permanentStore
+                                                               .retrieveDatastream(upload.dsKey));
+                            } catch (ObjectAlreadyInLowlevelStorageException oailse) {
+                                m_permanentStore
+                                        .replaceDatastream(copyKey,
+                                                           m_permanentStore
+                                                                   .retrieveDatastream(upload.dsKey));
+                            }
+                        }
+                    }
 
-                // RESOURCE INDEX:
-                if (m_resourceIndex != null
-                        && m_resourceIndex.getIndexLevel() != ResourceIndex.INDEX_LEVEL_OFF) {
-                    LOG.info("Adding to ResourceIndex");
-                    if (obj.isNew()) {
-                        m_resourceIndex.addObject(new SimpleDOReader(null,
-                                                                     null,
-                                                                     null,
-                                                                     null,
-                                                                     null,
-                                                                     obj));
-                    } else {
-                        m_resourceIndex.modifyObject(getReader(false, null, obj
-                                .getPid()), new SimpleDOReader(null,
-                                                               null,
-                                                               null,
-                                                               null,
-                                                               null,
-                                                               obj));
+                    // RESOURCE INDEX:
+                    if (m_resourceIndex != null
+                            && m_resourceIndex.getIndexLevel() != ResourceIndex.INDEX_LEVEL_OFF) {
+                        LOG.info("Adding to ResourceIndex");
+                        if (obj.isNew()) {
+                            m_resourceIndex.addObject(new SimpleDOReader(null,
+                                                                         null,
+                                                                         null,
+                                                                         null,
+                                                                         null,
+                                                                         obj));
+                        } else {
+                            m_resourceIndex.modifyObject(getReader(false, null, obj
+                                    .getPid()), new SimpleDOReader(null,
+                                                                   null,
+                                                                   null,
+                                                                   null,
+                                                                   null,
+                                                                   obj));
 
+                        }
+                        LOG.debug("Finished adding to ResourceIndex.");
                     }
-                    LOG.debug("Finished adding to ResourceIndex.");
-                }
 
-                // STORAGE:
-                // write XML serialization of object to persistent storage
-                LOG.debug("Storing digital object");
-                if (obj.isNew()) {
-                    m_permanentStore.addObject(obj.getPid(),
-                                               new ByteArrayInputStream(out
-                                                       .toByteArray()));
-                } else {
-                    m_permanentStore.replaceObject(obj.getPid(),
+                    // STORAGE:
+                    // write XML serialization of object to persistent storage
+                    LOG.debug("Storing digital object");
+                    if (obj.isNew()) {
+                        m_permanentStore.addObject(obj.getPid(),
                                                    new ByteArrayInputStream(out
                                                            .toByteArray()));
+                    } else {
+                        m_permanentStore.replaceObject(obj.getPid(),
+                                                       new ByteArrayInputStream(out
+                                                               .toByteArray()));
+                    }
+                    stored = true;
+                } finally {
+                    if (!stored) {
+                        restageUploads(committed);
+                    }
+                }
+
+                // staged content can only be committed once
+                for (StagedUpload upload : stagedUploads.values()) {
+                    m_management.removeTempStream(upload.location);
                 }
 
                 // INVALIDATE DOREADER CACHE:
@@ -1346,6 +1536,12 @@ public class DefaultDOManager
                 if (m_readerCache != null) {
                     m_readerCache.remove(obj.getPid());
                 }
+                if (m_authorization != null) {
+                    m_authorization.objectModified(obj.getPid());
+                }
+                if (m_definitionReaderCache != null) {
+                    m_definitionReaderCache.remove(obj.getPid());
+                }
 
                 // REGISTRY:
                 /*
@@ -1894,8 +2090,9 @@ public class DefaultDOManager
             namespace = m_pidNamespace;
         }
         try {
+            PID[] pids = m_pidGenerator.generatePIDs(namespace, numPIDs);
             for (int i = 0; i < numPIDs; i++) {
-                pidList[i] = m_pidGenerator.generatePID(namespace).toString();
+                pidList[i] = pids[i].toString();
             }
             return pidList;
         } catch (IOException ioe) {
@@ -2051,6 +2248,20 @@ public class DefaultDOManager
             }
         }
 
+        /**
+         * Return the last modified date recorded for a service deployment, or
+         * null if it isn't deployed in any context
+         */
+        public Long getLastModDate(String sDep) {
+            for (Map<String, Long> deployments : map.values()) {
+                Long lastModDate = deployments.get(sDep);
+                if (lastModDate != null) {
+                    return lastModDate;
+                }
+            }
+            return null;
+        }
+
         /**
          * Return all the (cModel, sDef) contexts a serviceDeployment deploys
          * for
@@ -2067,6 +2278,57 @@ public class DefaultDOManager
         }
     }
 
+    /**
+     * Puts committed uploaded content back in staging after the object that
+     * refers to it could not be stored, removing any copies made of it.
+     */
+    private void restageUploads(List<StagedUpload> uploads) {
+        for (StagedUpload upload : uploads) {
+            for (String copyKey : upload.copyKeys) {
+                try {
+                    m_permanentStore.removeDatastream(copyKey);
+                } catch (LowlevelStorageException e) {
+                    LOG.debug("Copy " + copyKey + " of " + upload.location
+                            + " was not stored", e);
+                }
+            }
+            try {
+                StreamUtility.pipeStream(m_permanentStore
+                        .retrieveDatastream(upload.dsKey),
+                                         ((IStageable) m_permanentStore)
+                                                 .stageDatastream(upload.stagingKey),
+                                         4096);
+                m_permanentStore.removeDatastream(upload.dsKey);
+            } catch (Exception e) {
+                LOG.warn("Unable to put uploaded content " + upload.location
+                        + " back in staging", e);
+            }
+        }
+    }
+
+    /**
+     * Uploaded content staged in the permanent store, to be committed as the
+     * content of a datastream, and copied as the content of any other
+     * datastreams that use the same upload.
+     */
+    private static class StagedUpload {
+
+        /** The uploaded:// location of the content. */
+        public final String location;
+
+        public final String stagingKey;
+
+        public final String dsKey;
+
+        public final List<String> copyKeys = new ArrayList<String>();
+
+        private StagedUpload(String location, String stagingKey, String dsKey) {
+            this.location = location;
+            this.stagingKey = stagingKey;
+            this.dsKey = dsKey;
+        }
+    }
+
     private static class ServiceContext {
 
         public final String cModel;
@@ -5,17 +5,24 @@
 package fedora.server.storage;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URL;
 import java.util.Hashtable;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import javax.activation.MimetypesFileTypeMap;
 
 import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
 import org.apache.log4j.Logger;
 
 import fedora.common.http.HttpInputStream;
+import fedora.common.http.HttpStatusException;
 import fedora.common.http.WebClient;
 import fedora.server.Context;
 import fedora.server.Module;
@@ -24,6 +31,7 @@ import fedora.server.Server;
 import fedora.server.errors.GeneralException;
 import fedora.server.errors.HttpServiceNotFoundException;
 import fedora.server.errors.ModuleInitializationException;
+import fedora.server.errors.ModuleShutdownException;
 import fedora.server.errors.authorization.AuthzException;
 import fedora.server.security.Authorization;
 import fedora.server.security.BackendPolicies;
@@ -31,6 +39,7 @@ import fedora.server.security.BackendSecurity;
 import fedora.server.security.BackendSecuritySpec;
 import fedora.server.storage.types.MIMETypedStream;
 import fedora.server.storage.types.Property;
+import fedora.server.utilities.MD5Utility;
 import fedora.server.utilities.ServerUtility;
 
 /**
@@ -59,6 +68,14 @@ public class DefaultExternalContentManager
 
     private WebClient m_http;
 
+    private IdleConnectionTimeoutThread m_idleConnectionReaper;
+
+    private HostCircuitBreaker m_circuitBreaker;
+
+    private ExternalContentCache m_cache;
+
+    private ExecutorService m_cacheRevalidator;
+
     /**
      * Creates a new DefaultExternalContentManager.
      * 
@@ -105,7 +122,11 @@ public class DefaultExternalContentManager
 
             m_http = new WebClient();
             m_http.USER_AGENT = m_userAgent;
+            configureConnections();
+            configureCache();
 
+        } catch (ModuleInitializationException e) {
+            throw e;
         } catch (Throwable th) {
             throw new ModuleInitializationException("[DefaultExternalContentManager] "
                                                             + "An external content manager "
@@ -119,6 +140,149 @@ public class DefaultExternalContentManager
         }
     }
 
+    /**
+     * Configures the HTTP connection pool from the module parameters.
+     * Connections are kept alive for reuse until they have been idle for
+     * idleConnectionTimeoutSeconds.
+     */
+    private void configureConnections() throws ModuleInitializationException {
+        m_http.setMaxConnectionsPerHost(getIntParameter("maxConnectionsPerHost",
+                                                        m_http.MAX_CONNECTIONS_PER_HOST));
+        m_http.setMaxTotalConnections(getIntParameter("maxTotalConnections",
+                                                      m_http.MAX_TOTAL_CONNECTIONS));
+        m_http.setTimeouts(getIntParameter("connectionTimeoutSeconds",
+                                           m_http.TIMEOUT_SECONDS),
+                           getIntParameter("socketTimeoutSeconds",
+                                           m_http.SOCKET_TIMEOUT_SECONDS));
+
+        // per-backend limits, e.g. "http://localhost:8080/=20"
+        String backends = getParameter("backendMaxConnections");
+        if (backends != null) {
+            for (String backend : backends.trim().split("\\s+")) {
+                if (backend.length() == 0) {
+                    continue;
+                }
+                int i = backend.lastIndexOf('=');
+                try {
+                    m_http.setMaxConnectionsPerHost(backend.substring(0, i),
+                                                    Integer.parseInt(backend
+                                                            .substring(i + 1)));
+                } catch (Exception e) {
+                    throw new ModuleInitializationException("Bad value for "
+                            + "backendMaxConnections parameter: " + backend,
+                                                            getRole());
+                }
+            }
+        }
+
+        int idleSeconds = getIntParameter("idleConnectionTimeoutSeconds", 60);
+        if (idleSeconds > 0) {
+            m_idleConnectionReaper = new IdleConnectionTimeoutThread();
+            m_idleConnectionReaper.setName("ExternalContentManager-IdleConnectionReaper");
+            m_idleConnectionReaper.setConnectionTimeout(idleSeconds * 1000L);
+            m_idleConnectionReaper.setTimeoutInterval(Math.min(idleSeconds,
+                                                               30) * 1000L);
+            m_idleConnectionReaper.addConnectionManager(m_http
+                    .getConnectionManager());
+            m_idleConnectionReaper.start();
+        }
+    }
+
+    /**
+     * Configures the circuit breaker and the cache of content from servers
+     * other than this one. The cache is disabled if contentCacheBytes is 0.
+     */
+    private void configureCache() throws ModuleInitializationException {
+        m_circuitBreaker =
+                new HostCircuitBreaker(getIntParameter("circuitBreakerFailures",
+                                                       5),
+                                       getIntParameter("circuitBreakerSeconds",
+                                                       30) * 1000L);
+
+        long maxBytes = getLongParameter("contentCacheBytes", 0);
+        if (maxBytes <= 0) {
+            return;
+        }
+        String dir = getParameter("contentCacheDir");
+        if (dir == null) {
+            dir = "cache/external";
+        }
+        File cacheDir = new File(dir);
+        if (!cacheDir.isAbsolute()) {
+            cacheDir = new File(getServer().getHomeDir(), dir);
+        }
+        m_cacheRevalidator =
+                Executors.newFixedThreadPool(2, new ThreadFactory() {
+
+                    public Thread newThread(Runnable r) {
+                        Thread t =
+                                new Thread(r,
+                                           "ExternalContentManager-CacheRevalidator");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        try {
+            m_cache =
+                    new ExternalContentCache(cacheDir,
+                                             maxBytes,
+                                             getLongParameter("contentCacheEntryBytes",
+                                                              10485760),
+                                             getIntParameter("contentCacheDefaultSeconds",
+                                                             60) * 1000L,
+                                             getIntParameter("contentCacheStaleSeconds",
+                                                             0) * 1000L,
+                                             m_cacheRevalidator);
+        } catch (IOException e) {
+            throw new ModuleInitializationException(e.getMessage(), getRole());
+        }
+        LOG.info("Caching up to " + maxBytes + " bytes of external content in "
+                + cacheDir.getPath());
+    }
+
+    private long getLongParameter(String name, long defaultValue)
+            throws ModuleInitializationException {
+        String value = getParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ModuleInitializationException("Bad value for " + name
+                    + " parameter: " + value, getRole());
+        }
+    }
+
+    private int getIntParameter(String name, int defaultValue)
+            throws ModuleInitializationException {
+        String value = getParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ModuleInitializationException("Bad value for " + name
+                    + " parameter: " + value, getRole());
+        }
+    }
+
+    @Override
+    public void shutdownModule() throws ModuleShutdownException {
+        if (m_idleConnectionReaper != null) {
+            m_idleConnectionReaper.shutdown();
+            m_idleConnectionReaper = null;
+        }
+        if (m_cacheRevalidator != null) {
+            m_cacheRevalidator.shutdownNow();
+            m_cacheRevalidator = null;
+        }
+        if (m_cache != null) {
+            LOG.info(m_cache);
+        }
+    }
+
     /*
      * Retrieves the external content. 
      * Currently the protocols <code>file</code> and 
@@ -141,7 +305,8 @@ public class DefaultExternalContentManager
             throw new GeneralException("protocol for retrieval of external content not supported. URL: " + params.getUrl());
         } catch (Exception ex) {
             // catch anything but generalexception
-            ex.printStackTrace();
+            LOG.error("Error getting external content from "
+                    + params.getUrl(), ex);
             throw new HttpServiceNotFoundException("[" + this.getClass().getSimpleName() + "] "
                     + "returned an error.  The underlying error was a "
                     + ex.getClass().getName()
@@ -154,23 +319,92 @@ public class DefaultExternalContentManager
     /**
      * Get a MIMETypedStream for the given URL. If user or password are
      * <code>null</code>, basic authentication will not be attempted.
+     * Content from servers other than this one is served from the cache, if
+     * enabled.
      */
     private MIMETypedStream get(String url, String user, String pass, String knownMimeType)
             throws GeneralException {
         LOG.debug("DefaultExternalContentManager.get(" + url + ")");
+        UsernamePasswordCredentials creds = null;
+        if (user != null && user.length() > 0 && pass != null
+                && pass.length() > 0) {
+            creds = new UsernamePasswordCredentials(user, pass);
+        }
+        CircuitBreakingFetcher fetcher = new CircuitBreakingFetcher(creds);
         try {
-            HttpInputStream response = m_http.get(url, true, user, pass);
-            String mimeType =
-                    response.getResponseHeaderValue("Content-Type",
-                                                    knownMimeType);
-            Property[] headerArray =
-                    toPropertyArray(response.getResponseHeaders());
-            return new MIMETypedStream(mimeType, response, headerArray);
+            if (m_cache != null && !ServerUtility.isURLFedoraServer(url)) {
+                // responses may differ by user, but the key should not
+                // hold the password itself
+                String key = url;
+                if (creds != null) {
+                    key += " " + MD5Utility.getBase16Hash(user + ":" + pass);
+                }
+                return m_cache.get(key,
+                                   url,
+                                   knownMimeType,
+                                   fetcher);
+            }
+            ExternalContentCache.Response response = fetcher.fetch(url, null);
+            String mimeType = knownMimeType;
+            for (Property header : response.headers) {
+                if (header.name.equalsIgnoreCase("Content-Type")) {
+                    mimeType = header.value;
+                }
+            }
+            return new MIMETypedStream(mimeType,
+                                       response.body,
+                                       response.headers);
         } catch (Exception e) {
             throw new GeneralException("Error getting " + url, e);
         }
     }
 
+    /**
+     * Fetches content with the shared client, refusing requests to hosts
+     * whose circuit is open.
+     */
+    private class CircuitBreakingFetcher
+            implements ExternalContentCache.Fetcher {
+
+        private final UsernamePasswordCredentials m_creds;
+
+        CircuitBreakingFetcher(UsernamePasswordCredentials creds) {
+            m_creds = creds;
+        }
+
+        public ExternalContentCache.Response fetch(String url,
+                                                   Map<String, String> requestHeaders)
+                throws IOException {
+            String host = new URL(url).getHost();
+            if (!m_circuitBreaker.allowRequest(host)) {
+                throw new IOException("Not connecting to " + host
+                        + " after repeated failures");
+            }
+            // the outcome is always recorded, so that a trial request
+            // cannot leave the circuit waiting for it forever
+            HttpInputStream response;
+            boolean succeeded = false;
+            try {
+                response = m_http.get(url, true, m_creds, requestHeaders);
+                succeeded = true;
+            } catch (HttpStatusException e) {
+                // the host answered; only server errors count against it
+                succeeded = e.getStatusCode() < 500;
+                throw e;
+            } finally {
+                if (succeeded) {
+                    m_circuitBreaker.recordSuccess(host);
+                } else {
+                    m_circuitBreaker.recordFailure(host);
+                }
+            }
+            return new ExternalContentCache.Response(response.getStatusCode(),
+                                                     toPropertyArray(response
+                                                             .getResponseHeaders()),
+                                                     response);
+        }
+    }
+
     /**
      * Convert the given HTTP <code>Headers</code> to an array of
      * <code>Property</code> objects.
@@ -247,7 +481,6 @@ public class DefaultExternalContentManager
             LOG.error(me.getMessage(),me); 
             throw me;
         } catch (Throwable th) {
-            th.printStackTrace(System.err);
             // catch anything but generalexception
             LOG.error(th.getMessage(),th);
              throw new HttpServiceNotFoundException("[FileExternalContentManager] "
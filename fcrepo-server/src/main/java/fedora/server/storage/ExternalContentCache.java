@@ -0,0 +1,771 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.storage;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.log4j.Logger;
+
+import fedora.server.storage.types.MIMETypedStream;
+import fedora.server.storage.types.Property;
+
+/**
+ * A bounded disk cache of external content, following the caching rules of
+ * HTTP.
+ * <p>
+ * A response is stored if it is a 200 with no <code>no-store</code> or
+ * <code>private</code> directive and is no larger than the entry size limit.
+ * It is served without contacting the upstream server for as long as it is
+ * fresh, according to <code>Cache-Control: s-maxage/max-age</code> or
+ * <code>Expires</code>. Without either, a response with a
+ * <code>Last-Modified</code> date is fresh for a tenth of its age, but for
+ * at most the configured default; any other response is stale at once, and
+ * is revalidated on every request. Once stale, an entry is
+ * revalidated with a conditional request using its <code>ETag</code> and
+ * <code>Last-Modified</code> values; a 304 response renews it without
+ * transferring the content again.
+ * <p>
+ * Within the <code>stale-while-revalidate</code> period (from the response,
+ * or the configured default), a stale entry is served at once while it is
+ * revalidated in the background. A stale entry is also served if the
+ * upstream server cannot be reached. Neither applies to responses marked
+ * <code>no-cache</code> or <code>must-revalidate</code>.
+ * <p>
+ * Concurrent requests for the same content are collapsed into a single
+ * upstream request. Entries are evicted least-recently-used first when the
+ * total size would exceed its limit. The index is kept in memory only, so the
+ * cache directory is emptied when the cache is created.
+ */
+public class ExternalContentCache {
+
+    private static final Logger LOG =
+            Logger.getLogger(ExternalContentCache.class.getName());
+
+    /** Response headers that describe the connection, not the content. */
+    private static final String[] HOP_BY_HOP_HEADERS =
+            {"Connection", "Keep-Alive", "Transfer-Encoding", "TE", "Trailer",
+                    "Upgrade", "Proxy-Authenticate", "Proxy-Authorization"};
+
+    private static final String HTTP_DATE_FORMAT =
+            "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    /**
+     * Fetches content from upstream.
+     */
+    public interface Fetcher {
+
+        /**
+         * Makes a GET request.
+         *
+         * @param url
+         *        the URL to get
+         * @param requestHeaders
+         *        any conditional request headers
+         * @return the response, whose status is 200, or 304 if the request
+         *         was conditional.
+         * @throws IOException
+         *         if the request failed.
+         */
+        Response fetch(String url, Map<String, String> requestHeaders)
+                throws IOException;
+    }
+
+    /**
+     * An upstream response.
+     */
+    public static class Response {
+
+        public final int status;
+
+        public final Property[] headers;
+
+        public final InputStream body;
+
+        public Response(int status, Property[] headers, InputStream body) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+
+    private final File m_dir;
+
+    private final long m_maxBytes;
+
+    private final long m_maxEntryBytes;
+
+    private final long m_defaultFreshMillis;
+
+    private final long m_defaultStaleMillis;
+
+    private final Executor m_revalidator;
+
+    private final LinkedHashMap<String, Entry> m_entries;
+
+    /** Upstream requests in progress, by key. */
+    private final ConcurrentMap<String, Future<Outcome>> m_inFlight =
+            new ConcurrentHashMap<String, Future<Outcome>>();
+
+    private long m_bytes;
+
+    private long m_hits;
+
+    private long m_staleHits;
+
+    private long m_misses;
+
+    private long m_revalidations;
+
+    /**
+     * Creates a cache.
+     *
+     * @param dir
+     *        the directory in which to store content. It is created if
+     *        necessary, and any files already in it are deleted.
+     * @param maxBytes
+     *        the maximum total size of the cached content.
+     * @param maxEntryBytes
+     *        the size of the largest response that will be cached.
+     * @param defaultFreshMillis
+     *        the longest a response with a Last-Modified date, but without
+     *        explicit freshness information, is considered fresh.
+     * @param defaultStaleMillis
+     *        how long a stale response without a stale-while-revalidate
+     *        directive may be served while it is revalidated.
+     * @param revalidator
+     *        runs background revalidations.
+     * @throws IOException
+     *         if the cache directory cannot be created.
+     */
+    public ExternalContentCache(File dir,
+                                long maxBytes,
+                                long maxEntryBytes,
+                                long defaultFreshMillis,
+                                long defaultStaleMillis,
+                                Executor revalidator)
+            throws IOException {
+        m_dir = dir;
+        m_maxBytes = maxBytes;
+        m_maxEntryBytes = Math.min(maxEntryBytes, maxBytes);
+        m_defaultFreshMillis = defaultFreshMillis;
+        m_defaultStaleMillis = defaultStaleMillis;
+        m_revalidator = revalidator;
+        m_entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create external content cache directory "
+                    + dir.getPath());
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && !file.delete()) {
+                    LOG.warn("Unable to delete old external content cache file "
+                            + file.getPath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets content, from the cache if possible.
+     *
+     * @param key
+     *        identifies the content; the URL plus anything else, such as
+     *        credentials, that may affect the response.
+     * @param url
+     *        the URL of the content.
+     * @param defaultMimeType
+     *        the MIME type to use if the response has no Content-Type.
+     * @param fetcher
+     *        makes the upstream request when needed.
+     * @return the content.
+     * @throws IOException
+     *         if the content is not cached and could not be fetched.
+     */
+    public MIMETypedStream get(final String key,
+                               final String url,
+                               String defaultMimeType,
+                               final Fetcher fetcher) throws IOException {
+        long now = System.currentTimeMillis();
+        Entry entry;
+        synchronized (this) {
+            entry = m_entries.get(key);
+            if (entry != null && now < entry.freshUntil) {
+                m_hits++;
+            } else if (entry != null && now < entry.staleUntil) {
+                m_staleHits++;
+            }
+        }
+
+        if (entry != null && now < entry.freshUntil) {
+            MIMETypedStream stream = open(key, entry, defaultMimeType);
+            if (stream != null) {
+                return stream;
+            }
+            entry = null;
+        } else if (entry != null && now < entry.staleUntil) {
+            MIMETypedStream stream = open(key, entry, defaultMimeType);
+            if (stream != null) {
+                revalidateLater(key, url, entry, fetcher);
+                return stream;
+            }
+            entry = null;
+        }
+
+        synchronized (this) {
+            m_misses++;
+        }
+        final Entry old = entry;
+        FutureTask<Outcome> task =
+                new FutureTask<Outcome>(new Callable<Outcome>() {
+
+                    public Outcome call() throws IOException {
+                        return fetch(key, url, old, fetcher);
+                    }
+                });
+        Future<Outcome> inFlight = m_inFlight.putIfAbsent(key, task);
+        if (inFlight == null) {
+            // we make the request
+            try {
+                task.run();
+            } finally {
+                m_inFlight.remove(key, task);
+            }
+            Outcome outcome = getOutcome(task);
+            if (outcome.live != null) {
+                return toStream(outcome.live, defaultMimeType);
+            }
+            MIMETypedStream stream = open(key, outcome.entry, defaultMimeType);
+            if (stream != null) {
+                return stream;
+            }
+        } else {
+            // someone else is making the request; use its result if it
+            // could be cached
+            Outcome outcome = getOutcome(inFlight);
+            if (outcome.entry != null) {
+                MIMETypedStream stream =
+                        open(key, outcome.entry, defaultMimeType);
+                if (stream != null) {
+                    return stream;
+                }
+            }
+        }
+        return toStream(fetcher.fetch(url, null), defaultMimeType);
+    }
+
+    /**
+     * Starts revalidating an entry in the background, unless a request for it
+     * is already in progress.
+     */
+    private void revalidateLater(final String key,
+                                 final String url,
+                                 final Entry old,
+                                 final Fetcher fetcher) {
+        FutureTask<Outcome> task =
+                new FutureTask<Outcome>(new Callable<Outcome>() {
+
+                    public Outcome call() throws IOException {
+                        Outcome outcome = fetch(key, url, old, fetcher);
+                        if (outcome.live != null) {
+                            outcome.live.body.close();
+                        }
+                        return outcome;
+                    }
+                }) {
+
+                    @Override
+                    protected void done() {
+                        m_inFlight.remove(key, this);
+                    }
+                };
+        if (m_inFlight.putIfAbsent(key, task) != null) {
+            return;
+        }
+        try {
+            m_revalidator.execute(task);
+        } catch (RejectedExecutionException e) {
+            m_inFlight.remove(key, task);
+        }
+    }
+
+    private static Outcome getOutcome(Future<Outcome> future)
+            throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted waiting for external content");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            IOException ioe = new IOException("Error getting external content");
+            ioe.initCause(cause);
+            throw ioe;
+        }
+    }
+
+    /**
+     * Makes an upstream request, conditional if there is an old entry, and
+     * stores the response if it can be cached.
+     */
+    private Outcome fetch(String key, String url, Entry old, Fetcher fetcher)
+            throws IOException {
+        Map<String, String> requestHeaders = null;
+        if (old != null) {
+            requestHeaders = new HashMap<String, String>();
+            if (old.etag != null) {
+                requestHeaders.put("If-None-Match", old.etag);
+            }
+            if (old.lastModified != null) {
+                requestHeaders.put("If-Modified-Since", old.lastModified);
+            }
+        }
+
+        Response response;
+        try {
+            response = fetcher.fetch(url, requestHeaders);
+        } catch (IOException e) {
+            if (old != null && !old.mustRevalidate) {
+                LOG.warn("Serving stale content for " + url
+                        + " after upstream error: " + e.getMessage());
+                return new Outcome(old, null);
+            }
+            throw e;
+        }
+
+        if (response.status == 304 && old != null) {
+            response.body.close();
+            Entry renewed = old.renew(response.headers);
+            synchronized (this) {
+                m_revalidations++;
+                if (m_entries.get(key) == old) {
+                    m_entries.put(key, renewed);
+                }
+            }
+            return new Outcome(renewed, null);
+        }
+
+        Entry entry = newEntry(response.headers);
+        if (response.status != 200 || entry == null
+                || getContentLength(response.headers) > m_maxEntryBytes) {
+            return new Outcome(null, response);
+        }
+
+        // copy the content to a file, as long as it is not too large
+        File file = File.createTempFile("ext", ".tmp", m_dir);
+        long size = 0;
+        boolean complete = false;
+        OutputStream out = new FileOutputStream(file);
+        try {
+            byte[] buf = new byte[8192];
+            int len;
+            while (size <= m_maxEntryBytes
+                    && (len = response.body.read(buf)) != -1) {
+                out.write(buf, 0, len);
+                size += len;
+            }
+            complete = size <= m_maxEntryBytes;
+        } catch (IOException e) {
+            out.close();
+            delete(file);
+            response.body.close();
+            throw e;
+        } finally {
+            out.close();
+        }
+
+        if (!complete) {
+            // too large: pass on what has been read, then the rest
+            InputStream in =
+                    new SequenceInputStream(new DeletingFileInputStream(file),
+                                            response.body);
+            return new Outcome(null, new Response(response.status,
+                                                  response.headers,
+                                                  in));
+        }
+        response.body.close();
+        entry.file = file;
+        entry.size = size;
+        commit(key, entry);
+        return new Outcome(entry, null);
+    }
+
+    private synchronized void commit(String key, Entry entry) {
+        remove(key);
+        m_entries.put(key, entry);
+        m_bytes += entry.size;
+        Iterator<Entry> eldest = m_entries.values().iterator();
+        while (m_bytes > m_maxBytes && eldest.hasNext()) {
+            Entry e = eldest.next();
+            eldest.remove();
+            delete(e.file);
+            m_bytes -= e.size;
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = m_entries.remove(key);
+        if (entry != null) {
+            delete(entry.file);
+            m_bytes -= entry.size;
+        }
+    }
+
+    /**
+     * Opens a cached entry, or returns null if its file has gone, e.g.
+     * because it was evicted.
+     */
+    private MIMETypedStream open(String key,
+                                 Entry entry,
+                                 String defaultMimeType) {
+        try {
+            return new MIMETypedStream(entry.getMimeType(defaultMimeType),
+                                       new FileInputStream(entry.file),
+                                       entry.headers);
+        } catch (IOException e) {
+            synchronized (this) {
+                if (m_entries.get(key) == entry) {
+                    remove(key);
+                }
+            }
+            return null;
+        }
+    }
+
+    private static MIMETypedStream toStream(Response response,
+                                            String defaultMimeType) {
+        String mimeType = getHeader(response.headers, "Content-Type");
+        return new MIMETypedStream(mimeType == null ? defaultMimeType
+                : mimeType, response.body, response.headers);
+    }
+
+    /**
+     * Creates an entry for a response, or returns null if the response must
+     * not be stored.
+     */
+    private Entry newEntry(Property[] headers) {
+        Map<String, String> cc = parseCacheControl(headers);
+        if (cc.containsKey("no-store") || cc.containsKey("private")) {
+            return null;
+        }
+        return new Entry(stripHopByHop(headers));
+    }
+
+    private static long getContentLength(Property[] headers) {
+        String length = getHeader(headers, "Content-Length");
+        if (length != null) {
+            try {
+                return Long.parseLong(length.trim());
+            } catch (NumberFormatException e) {
+                LOG.debug("Ignoring invalid Content-Length: " + length);
+            }
+        }
+        return -1;
+    }
+
+    private static String getHeader(Property[] headers, String name) {
+        if (headers != null) {
+            for (Property header : headers) {
+                if (name.equalsIgnoreCase(header.name)) {
+                    return header.value;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Property[] stripHopByHop(Property[] headers) {
+        List<Property> result = new ArrayList<Property>();
+        if (headers != null) {
+            for (Property header : headers) {
+                boolean hopByHop = false;
+                for (String name : HOP_BY_HOP_HEADERS) {
+                    if (name.equalsIgnoreCase(header.name)) {
+                        hopByHop = true;
+                    }
+                }
+                if (!hopByHop) {
+                    result.add(header);
+                }
+            }
+        }
+        return result.toArray(new Property[result.size()]);
+    }
+
+    /**
+     * Parses the Cache-Control header into a map of lower case directive
+     * names to values (null for directives without a value).
+     */
+    static Map<String, String> parseCacheControl(Property[] headers) {
+        Map<String, String> directives = new HashMap<String, String>();
+        if (headers == null) {
+            return directives;
+        }
+        for (Property header : headers) {
+            if (!"Cache-Control".equalsIgnoreCase(header.name)
+                    || header.value == null) {
+                continue;
+            }
+            for (String directive : header.value.split(",")) {
+                String name = directive;
+                String value = null;
+                int i = directive.indexOf('=');
+                if (i != -1) {
+                    name = directive.substring(0, i);
+                    value = directive.substring(i + 1).trim();
+                    if (value.startsWith("\"") && value.endsWith("\"")
+                            && value.length() > 1) {
+                        value = value.substring(1, value.length() - 1);
+                    }
+                }
+                name = name.trim().toLowerCase();
+                if (name.length() > 0) {
+                    directives.put(name, value);
+                }
+            }
+        }
+        return directives;
+    }
+
+    private static long parseSeconds(String value) {
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim()) * 1000;
+            } catch (NumberFormatException e) {
+                LOG.debug("Ignoring invalid number of seconds: " + value);
+            }
+        }
+        return -1;
+    }
+
+    private static long parseDate(String value) {
+        if (value != null) {
+            SimpleDateFormat format =
+                    new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            try {
+                return format.parse(value.trim()).getTime();
+            } catch (ParseException e) {
+                LOG.debug("Ignoring invalid HTTP date: " + value);
+            }
+        }
+        return -1;
+    }
+
+    public synchronized int size() {
+        return m_entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return m_hits;
+    }
+
+    public synchronized long getStaleHitCount() {
+        return m_staleHits;
+    }
+
+    public synchronized long getMissCount() {
+        return m_misses;
+    }
+
+    public synchronized long getRevalidationCount() {
+        return m_revalidations;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ExternalContentCache[size=" + m_entries.size() + ", bytes="
+                + m_bytes + ", hits=" + m_hits + ", staleHits=" + m_staleHits
+                + ", misses=" + m_misses + ", revalidations="
+                + m_revalidations + "]";
+    }
+
+    private static void delete(File file) {
+        if (file != null && file.exists() && !file.delete()) {
+            LOG.warn("Unable to delete external content cache file "
+                    + file.getPath());
+        }
+    }
+
+    /**
+     * The result of an upstream request: either a cached entry, or a live
+     * response that could not be cached.
+     */
+    private static class Outcome {
+
+        final Entry entry;
+
+        final Response live;
+
+        Outcome(Entry entry, Response live) {
+            this.entry = entry;
+            this.live = live;
+        }
+    }
+
+    /**
+     * A cached response. Entries are replaced rather than modified, so that
+     * readers never see a partly updated entry.
+     */
+    private class Entry {
+
+        final Property[] headers;
+
+        final String etag;
+
+        final String lastModified;
+
+        final boolean mustRevalidate;
+
+        final long freshUntil;
+
+        final long staleUntil;
+
+        File file;
+
+        long size;
+
+        Entry(Property[] headers) {
+            this.headers = headers;
+            etag = getHeader(headers, "ETag");
+            lastModified = getHeader(headers, "Last-Modified");
+
+            long now = System.currentTimeMillis();
+            Map<String, String> cc = parseCacheControl(headers);
+            mustRevalidate =
+                    cc.containsKey("no-cache")
+                            || cc.containsKey("must-revalidate")
+                            || cc.containsKey("proxy-revalidate");
+
+            long freshMillis = parseSeconds(cc.get("s-maxage"));
+            if (freshMillis < 0) {
+                freshMillis = parseSeconds(cc.get("max-age"));
+            }
+            if (freshMillis < 0) {
+                long expires = parseDate(getHeader(headers, "Expires"));
+                if (expires >= 0) {
+                    long date = parseDate(getHeader(headers, "Date"));
+                    freshMillis = expires - (date >= 0 ? date : now);
+                } else if (getHeader(headers, "Expires") != null) {
+                    // an invalid date means already expired
+                    freshMillis = 0;
+                }
+            }
+            if (freshMillis < 0) {
+                // heuristic freshness, only for content that says how long
+                // it has been unchanged
+                freshMillis = 0;
+                long modified = parseDate(lastModified);
+                if (modified >= 0 && modified < now) {
+                    freshMillis =
+                            Math.min(m_defaultFreshMillis,
+                                     (now - modified) / 10);
+                }
+            }
+            long ageMillis = parseSeconds(getHeader(headers, "Age"));
+            if (ageMillis > 0) {
+                freshMillis -= ageMillis;
+            }
+            if (cc.containsKey("no-cache")) {
+                freshMillis = 0;
+            }
+            freshUntil = now + Math.max(freshMillis, 0);
+
+            long staleMillis = 0;
+            if (!mustRevalidate) {
+                staleMillis = parseSeconds(cc.get("stale-while-revalidate"));
+                if (staleMillis < 0) {
+                    staleMillis = m_defaultStaleMillis;
+                }
+            }
+            staleUntil = freshUntil + staleMillis;
+        }
+
+        /**
+         * Creates an entry for the same content, with the headers of a 304
+         * response merged in.
+         */
+        Entry renew(Property[] updated) {
+            Map<String, Property> merged =
+                    new LinkedHashMap<String, Property>();
+            for (Property header : headers) {
+                merged.put(header.name.toLowerCase(), header);
+            }
+            for (Property header : stripHopByHop(updated)) {
+                if (header.name != null
+                        && !header.name.equalsIgnoreCase("Content-Length")) {
+                    merged.put(header.name.toLowerCase(), header);
+                }
+            }
+            Entry entry =
+                    new Entry(merged.values()
+                            .toArray(new Property[merged.size()]));
+            entry.file = file;
+            entry.size = size;
+            return entry;
+        }
+
+        String getMimeType(String defaultMimeType) {
+            String mimeType = getHeader(headers, "Content-Type");
+            return mimeType == null ? defaultMimeType : mimeType;
+        }
+    }
+
+    /**
+     * Reads a temporary file, deleting it when closed.
+     */
+    private static class DeletingFileInputStream
+            extends FilterInputStream {
+
+        private final File m_file;
+
+        DeletingFileInputStream(File file) throws IOException {
+            super(new FileInputStream(file));
+            m_file = file;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                delete(m_file);
+            }
+        }
+    }
+}
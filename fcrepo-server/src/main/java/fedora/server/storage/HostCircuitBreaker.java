@@ -0,0 +1,125 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.storage;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Tracks failed requests to upstream hosts, and stops requests from being
+ * made to a host that keeps failing.
+ * <p>
+ * After <code>failureThreshold</code> consecutive failures, the circuit for
+ * the host opens and requests are refused for <code>openMillis</code>
+ * milliseconds. A single trial request is then let through: if it succeeds
+ * the circuit closes again, and if it fails the circuit stays open for
+ * another period.
+ */
+public class HostCircuitBreaker {
+
+    private final int m_failureThreshold;
+
+    private final long m_openMillis;
+
+    private final ConcurrentMap<String, Circuit> m_circuits =
+            new ConcurrentHashMap<String, Circuit>();
+
+    /**
+     * Creates a circuit breaker. A threshold of zero (or less) disables it.
+     */
+    public HostCircuitBreaker(int failureThreshold, long openMillis) {
+        m_failureThreshold = failureThreshold;
+        m_openMillis = openMillis;
+    }
+
+    /**
+     * Tells whether a request may be made to the given host. When the
+     * circuit is open this returns false, except for one trial request once
+     * the open period is over.
+     */
+    public boolean allowRequest(String host) {
+        if (m_failureThreshold <= 0) {
+            return true;
+        }
+        Circuit circuit = m_circuits.get(host);
+        return circuit == null || circuit.allowRequest();
+    }
+
+    /**
+     * Records a successful request to the host, closing its circuit.
+     */
+    public void recordSuccess(String host) {
+        if (m_failureThreshold <= 0) {
+            return;
+        }
+        Circuit circuit = m_circuits.get(host);
+        if (circuit != null) {
+            circuit.recordSuccess();
+        }
+    }
+
+    /**
+     * Records a failed request to the host.
+     */
+    public void recordFailure(String host) {
+        if (m_failureThreshold <= 0) {
+            return;
+        }
+        Circuit circuit = m_circuits.get(host);
+        if (circuit == null) {
+            circuit = new Circuit();
+            Circuit existing = m_circuits.putIfAbsent(host, circuit);
+            if (existing != null) {
+                circuit = existing;
+            }
+        }
+        circuit.recordFailure();
+    }
+
+    /**
+     * Tells whether the circuit for the host is open.
+     */
+    public boolean isOpen(String host) {
+        Circuit circuit = m_circuits.get(host);
+        return circuit != null && circuit.isOpen();
+    }
+
+    private class Circuit {
+
+        private int m_failures;
+
+        private long m_openUntil;
+
+        private boolean m_trialInProgress;
+
+        synchronized boolean allowRequest() {
+            if (m_failures < m_failureThreshold) {
+                return true;
+            }
+            if (System.currentTimeMillis() < m_openUntil || m_trialInProgress) {
+                return false;
+            }
+            m_trialInProgress = true;
+            return true;
+        }
+
+        synchronized void recordSuccess() {
+            m_failures = 0;
+            m_trialInProgress = false;
+        }
+
+        synchronized void recordFailure() {
+            m_failures++;
+            m_trialInProgress = false;
+            if (m_failures >= m_failureThreshold) {
+                m_openUntil = System.currentTimeMillis() + m_openMillis;
+            }
+        }
+
+        synchronized boolean isOpen() {
+            return m_failures >= m_failureThreshold;
+        }
+    }
+}
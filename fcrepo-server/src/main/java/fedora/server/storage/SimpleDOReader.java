@@ -7,6 +7,7 @@ package fedora.server.storage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 import java.text.SimpleDateFormat;
 
@@ -171,6 +172,16 @@ public class SimpleDOReader
             throws ObjectIntegrityException, StreamIOException,
                    UnsupportedTranslationException, ServerException {
         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Export(format, exportContext, bytes);
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void Export(String format, String exportContext, OutputStream out)
+            throws ObjectIntegrityException, StreamIOException,
+                   UnsupportedTranslationException, ServerException {
         int transContext;
         // first, set the translation context...
         LOG.debug("Export context: " + exportContext);
@@ -194,16 +205,14 @@ public class SimpleDOReader
             || format.equalsIgnoreCase("default")) {
             LOG.debug("Export in default format: " + m_exportFormat);
             m_translator.serialize(m_obj,
-                                   bytes,
+                                   out,
                                    m_exportFormat,
                                    "UTF-8",
                                    transContext);
         } else {
             LOG.debug("Export in format: " + format);
-            m_translator.serialize(m_obj, bytes, format, "UTF-8", transContext);
+            m_translator.serialize(m_obj, out, format, "UTF-8", transContext);
         }
-
-        return new ByteArrayInputStream(bytes.toByteArray());
     }
 
     /**
@@ -8,6 +8,8 @@ import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.xml.sax.InputSource;
 
@@ -21,6 +23,7 @@ import fedora.server.errors.StreamIOException;
 import fedora.server.errors.UnsupportedTranslationException;
 import fedora.server.storage.service.ServiceMapper;
 import fedora.server.storage.translation.DOTranslator;
+import fedora.server.storage.types.DatastreamXMLMetadata;
 import fedora.server.storage.types.DigitalObject;
 import fedora.server.storage.types.MethodDef;
 
@@ -35,6 +38,10 @@ public class SimpleServiceDefinitionReader
 
     private final ServiceMapper serviceMapper;
 
+    /** Parsed method definitions, keyed by METHODMAP version. */
+    private final Map<String, MethodDef[]> m_parsed =
+            new HashMap<String, MethodDef[]>();
+
     public SimpleServiceDefinitionReader(Context context,
                             RepositoryReader repoReader,
                             DOTranslator translator,
@@ -71,8 +78,17 @@ public class SimpleServiceDefinitionReader
     public MethodDef[] getAbstractMethods(Date versDateTime)
             throws DatastreamNotFoundException, ObjectIntegrityException,
             RepositoryConfigurationException, GeneralException {
-        return serviceMapper
-                .getMethodDefs(new InputSource(new ByteArrayInputStream(getMethodMapDatastream(versDateTime).xmlContent)));
+        DatastreamXMLMetadata mmapDS = getMethodMapDatastream(versDateTime);
+        synchronized (m_parsed) {
+            MethodDef[] methods = m_parsed.get(mmapDS.DSVersionID);
+            if (methods == null) {
+                methods =
+                        serviceMapper
+                                .getMethodDefs(new InputSource(new ByteArrayInputStream(mmapDS.xmlContent)));
+                m_parsed.put(mmapDS.DSVersionID, methods);
+            }
+            return methods;
+        }
     }
 
     public InputStream getAbstractMethodsXML(Date versDateTime)
@@ -8,6 +8,8 @@ import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.xml.sax.InputSource;
 
@@ -22,6 +24,7 @@ import fedora.server.errors.StreamIOException;
 import fedora.server.errors.UnsupportedTranslationException;
 import fedora.server.storage.service.ServiceMapper;
 import fedora.server.storage.translation.DOTranslator;
+import fedora.server.storage.types.DatastreamXMLMetadata;
 import fedora.server.storage.types.DeploymentDSBindSpec;
 import fedora.server.storage.types.DigitalObject;
 import fedora.server.storage.types.MethodDef;
@@ -30,6 +33,10 @@ import fedora.server.storage.types.MethodParmDef;
 
 /**
  * A ServiceDeploymentReader based on a DigitalObject.
+ * <p>
+ * The parsed method definitions, bindings and datastream input spec are
+ * kept for each version of the underlying datastreams, so a reader that is
+ * cached by the DOManager only parses them once.
  * 
  * @author Chris Wilper
  */
@@ -39,6 +46,9 @@ public class SimpleServiceDeploymentReader
 
     private final ServiceMapper serviceMapper;
 
+    /** Parsed results, keyed by kind and datastream version(s). */
+    private final Map<String, Object> m_parsed = new HashMap<String, Object>();
+
     public SimpleServiceDeploymentReader(Context context,
                              RepositoryReader repoReader,
                              DOTranslator translator,
@@ -75,8 +85,18 @@ public class SimpleServiceDeploymentReader
     public MethodDef[] getServiceMethods(Date versDateTime)
             throws DatastreamNotFoundException, ObjectIntegrityException,
             RepositoryConfigurationException, GeneralException {
-        return serviceMapper
-                .getMethodDefs(new InputSource(new ByteArrayInputStream(getMethodMapDatastream(versDateTime).xmlContent)));
+        DatastreamXMLMetadata mmapDS = getMethodMapDatastream(versDateTime);
+        String key = "METHODS/" + mmapDS.DSVersionID;
+        synchronized (m_parsed) {
+            MethodDef[] methods = (MethodDef[]) m_parsed.get(key);
+            if (methods == null) {
+                methods =
+                        serviceMapper
+                                .getMethodDefs(new InputSource(new ByteArrayInputStream(mmapDS.xmlContent)));
+                m_parsed.put(key, methods);
+            }
+            return methods;
+        }
     }
 
     public MethodParmDef[] getServiceMethodParms(String methodName,
@@ -88,16 +108,39 @@ public class SimpleServiceDeploymentReader
     public MethodDefOperationBind[] getServiceMethodBindings(Date versDateTime)
             throws DatastreamNotFoundException, ObjectIntegrityException,
             RepositoryConfigurationException, GeneralException {
-        return serviceMapper
-                .getMethodDefBindings(new InputSource(new ByteArrayInputStream(getWSDLDatastream(versDateTime).xmlContent)),
-                                      new InputSource(new ByteArrayInputStream(getMethodMapDatastream(versDateTime).xmlContent)));
+        DatastreamXMLMetadata wsdlDS = getWSDLDatastream(versDateTime);
+        DatastreamXMLMetadata mmapDS = getMethodMapDatastream(versDateTime);
+        String key =
+                "BINDINGS/" + wsdlDS.DSVersionID + "/" + mmapDS.DSVersionID;
+        synchronized (m_parsed) {
+            MethodDefOperationBind[] bindings =
+                    (MethodDefOperationBind[]) m_parsed.get(key);
+            if (bindings == null) {
+                bindings =
+                        serviceMapper
+                                .getMethodDefBindings(new InputSource(new ByteArrayInputStream(wsdlDS.xmlContent)),
+                                                      new InputSource(new ByteArrayInputStream(mmapDS.xmlContent)));
+                m_parsed.put(key, bindings);
+            }
+            return bindings;
+        }
     }
 
     public DeploymentDSBindSpec getServiceDSInputSpec(Date versDateTime)
             throws DatastreamNotFoundException, ObjectIntegrityException,
             RepositoryConfigurationException, GeneralException {
-        return serviceMapper
-                .getDSInputSpec(new InputSource(new ByteArrayInputStream(getDSInputSpecDatastream(versDateTime).xmlContent)));
+        DatastreamXMLMetadata specDS = getDSInputSpecDatastream(versDateTime);
+        String key = "DSINPUTSPEC/" + specDS.DSVersionID;
+        synchronized (m_parsed) {
+            DeploymentDSBindSpec spec = (DeploymentDSBindSpec) m_parsed.get(key);
+            if (spec == null) {
+                spec =
+                        serviceMapper
+                                .getDSInputSpec(new InputSource(new ByteArrayInputStream(specDS.xmlContent)));
+                m_parsed.put(key, spec);
+            }
+            return spec;
+        }
     }
 
     public InputStream getServiceMethodsXML(Date versDateTime)
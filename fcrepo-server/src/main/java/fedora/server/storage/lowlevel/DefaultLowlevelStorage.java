@@ -5,15 +5,23 @@
 package fedora.server.storage.lowlevel;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 import java.lang.reflect.Constructor;
 
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
+import org.apache.log4j.Logger;
+
 import fedora.common.FaultException;
 
 import fedora.server.errors.LowlevelStorageException;
@@ -24,7 +32,11 @@ import fedora.server.errors.ObjectNotInLowlevelStorageException;
  * @author Bill Niebel
  */
 public class DefaultLowlevelStorage
-        implements ILowlevelStorage, IListable {
+        implements ILowlevelStorage, IListable, IStageable {
+
+    /** Logger for this class. */
+    private static final Logger LOG =
+            Logger.getLogger(DefaultLowlevelStorage.class.getName());
 
     public static final String REGISTRY_NAME = "registryName";
 
@@ -36,6 +48,9 @@ public class DefaultLowlevelStorage
 
     public static final String DATASTREAM_STORE_BASE = "datastream_store_base";
 
+    public static final String DATASTREAM_STAGING_BASE =
+            "datastream_staging_base";
+
     public static final String FILESYSTEM = "file_system";
 
     public static final String PATH_ALGORITHM = "path_algorithm";
@@ -46,6 +61,8 @@ public class DefaultLowlevelStorage
 
     private final Store datastreamStore;
 
+    private final File datastreamStagingBase;
+
     public DefaultLowlevelStorage(Map<String, Object> configuration)
             throws LowlevelStorageException {
         String objectStoreBase = (String) configuration.get(OBJECT_STORE_BASE);
@@ -65,6 +82,15 @@ public class DefaultLowlevelStorage
         dsConfig.put("storeBase", datastreamStoreBase);
         dsConfig.put("storeBases", new String[] {datastreamStoreBase});
         datastreamStore = new Store(dsConfig);
+
+        // staged content must not be under the store base, where a rebuild
+        // would find it, but should be on the same file system, so that it
+        // can be committed with a rename
+        String stagingBase = (String) configuration.get(DATASTREAM_STAGING_BASE);
+        if (stagingBase == null) {
+            stagingBase = new File(datastreamStoreBase).getPath() + "-staging";
+        }
+        datastreamStagingBase = new File(stagingBase);
     }
 
     public void addObject(String pid, InputStream content)
@@ -129,6 +155,65 @@ public class DefaultLowlevelStorage
         return datastreamStore.list();
     }
 
+    public OutputStream stageDatastream(String stagingKey)
+            throws LowlevelStorageException {
+        datastreamStagingBase.mkdirs();
+        File file = getStagedFile(stagingKey);
+        try {
+            return new FileOutputStream(file);
+        } catch (IOException e) {
+            throw new LowlevelStorageException(true, "couldn't create file "
+                    + file.getPath(), e);
+        }
+    }
+
+    public InputStream retrieveStagedDatastream(String stagingKey)
+            throws LowlevelStorageException {
+        File file = getStagedFile(stagingKey);
+        try {
+            return new FileInputStream(file);
+        } catch (IOException e) {
+            throw new ObjectNotInLowlevelStorageException("nothing staged as "
+                    + stagingKey, e);
+        }
+    }
+
+    public void commitStagedDatastream(String stagingKey, String dsKey)
+            throws LowlevelStorageException {
+        File file = getStagedFile(stagingKey);
+        if (!file.isFile()) {
+            throw new ObjectNotInLowlevelStorageException("nothing staged as "
+                    + stagingKey);
+        }
+        datastreamStore.commit(file, dsKey);
+    }
+
+    public void removeStagedDatastream(String stagingKey) {
+        File file = getStagedFile(stagingKey);
+        if (file.exists() && !file.delete()) {
+            LOG.warn("Could not delete staged file " + file.getPath());
+        }
+    }
+
+    public Iterator<String> listStagedDatastreams() {
+        List<String> keys = new ArrayList<String>();
+        String[] names = datastreamStagingBase.list();
+        if (names != null) {
+            for (String name : names) {
+                keys.add(name);
+            }
+        }
+        return keys.iterator();
+    }
+
+    private File getStagedFile(String stagingKey) {
+        if (stagingKey.indexOf('/') != -1 || stagingKey.indexOf('\\') != -1
+                || stagingKey.startsWith(".")) {
+            throw new IllegalArgumentException("Bad staging key: " + stagingKey);
+        }
+        return new File(datastreamStagingBase, stagingKey);
+    }
+
     class Store {
 
         private final PathAlgorithm pathAlgorithm;
@@ -285,6 +370,75 @@ public class DefaultLowlevelStorage
             fileSystem.rewrite(file, content);
         }
 
+        /**
+         * make the given file the content of a Fedora object, whether or not
+         * it is already in the low-level store, by renaming it into place if
+         * possible, or by copying it otherwise
+         */
+        public final void commit(File staged, String pid)
+                throws LowlevelStorageException {
+            String filePath;
+            boolean exists;
+            try {
+                filePath = pathRegistry.get(pid);
+                exists = true;
+            } catch (ObjectNotInLowlevelStorageException not) {
+                filePath = pathAlgorithm.get(pid);
+                exists = false;
+            }
+            if (filePath == null || filePath.equals("")) { //guard against algorithm implementation
+                throw new LowlevelStorageException(true,
+                                                   "null path for pid " + pid);
+            }
+            File file = new File(filePath);
+
+            if (exists) {
+                File backupFile = new File(filePath + ".bak");
+                if (file.renameTo(backupFile)) {
+                    if (staged.renameTo(file)) {
+                        if (!backupFile.delete()) {
+                            LOG.warn("Could not delete backup file "
+                                    + backupFile.getPath());
+                        }
+                        return;
+                    }
+                    if (!backupFile.renameTo(file)) {
+                        throw new LowlevelStorageException(true,
+                                                           "failed to rename "
+                                                                   + staged.getPath()
+                                                                   + " to "
+                                                                   + filePath
+                                                                   + ", AND failed to revert to original from .bak!");
+                    }
+                }
+                fileSystem.rewrite(file, openStaged(staged));
+            } else {
+                File parent = file.getParentFile();
+                if (parent != null) {
+                    parent.mkdirs();
+                }
+                if (!staged.renameTo(file)) {
+                    fileSystem.write(file, openStaged(staged));
+                }
+                pathRegistry.put(pid, filePath);
+            }
+            if (staged.exists() && !staged.delete()) {
+                LOG.warn("Could not delete staged file " + staged.getPath());
+            }
+        }
+
+        private InputStream openStaged(File staged)
+                throws LowlevelStorageException {
+            LOG.debug("Could not rename " + staged.getPath()
+                    + " into place; copying it instead");
+            try {
+                return new FileInputStream(staged);
+            } catch (IOException e) {
+                throw new LowlevelStorageException(true, "couldn't read "
+                        + staged.getPath(), e);
+            }
+        }
+
         /** get content of Fedora object from low-level store */
         public final InputStream retrieve(String pid)
                 throws LowlevelStorageException {
@@ -5,6 +5,7 @@
 package fedora.server.storage.lowlevel;
 
 import java.io.InputStream;
+import java.io.OutputStream;
 
 import java.util.HashMap;
 import java.util.Iterator;
@@ -24,7 +25,7 @@ import fedora.server.storage.ConnectionPoolManager;
  */
 public class DefaultLowlevelStorageModule
         extends Module
-        implements ILowlevelStorage, IListable {
+        implements ILowlevelStorage, IListable, IStageable {
 
     private ILowlevelStorage m_llstore;
 
@@ -53,6 +54,10 @@ public class DefaultLowlevelStorageModule
                 getModuleParameter(DefaultLowlevelStorage.DATASTREAM_STORE_BASE,
                                    true);
         // FIXME object/datastream store location sanity checks (e.g. no overlapping)
+        // optional; defaults to a sibling of datastream_store_base
+        String datastreamStagingBase =
+                getParameter(DefaultLowlevelStorage.DATASTREAM_STAGING_BASE,
+                             true);
 
         String filesystem =
                 getModuleParameter(DefaultLowlevelStorage.FILESYSTEM, false);
@@ -98,6 +103,10 @@ public class DefaultLowlevelStorageModule
                           objectStoreBase);
         configuration.put(DefaultLowlevelStorage.DATASTREAM_STORE_BASE,
                           datastreamStoreBase);
+        if (datastreamStagingBase != null) {
+            configuration.put(DefaultLowlevelStorage.DATASTREAM_STAGING_BASE,
+                              datastreamStagingBase);
+        }
         configuration.put("connectionPool", cPool);
         configuration.put("backslashIsEscape", backslashIsEscape);
 
@@ -180,4 +189,30 @@ public class DefaultLowlevelStorageModule
     public Iterator<String> listDatastreams() {
         return ((IListable) m_llstore).listDatastreams();
     }
+
+    // IStageable methods
+
+    public OutputStream stageDatastream(String stagingKey)
+            throws LowlevelStorageException {
+        return ((IStageable) m_llstore).stageDatastream(stagingKey);
+    }
+
+    public InputStream retrieveStagedDatastream(String stagingKey)
+            throws LowlevelStorageException {
+        return ((IStageable) m_llstore).retrieveStagedDatastream(stagingKey);
+    }
+
+    public void commitStagedDatastream(String stagingKey, String dsKey)
+            throws LowlevelStorageException {
+        ((IStageable) m_llstore).commitStagedDatastream(stagingKey, dsKey);
+    }
+
+    public void removeStagedDatastream(String stagingKey)
+            throws LowlevelStorageException {
+        ((IStageable) m_llstore).removeStagedDatastream(stagingKey);
+    }
+
+    public Iterator<String> listStagedDatastreams() {
+        return ((IStageable) m_llstore).listStagedDatastreams();
+    }
 }
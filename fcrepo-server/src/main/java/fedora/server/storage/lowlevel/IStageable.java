@@ -0,0 +1,71 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.storage.lowlevel;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.Iterator;
+
+import fedora.server.errors.LowlevelStorageException;
+
+/**
+ * Interface for {@link ILowlevelStorage} implementations that can stage
+ * datastream content in a staging area within the datastream store, so that
+ * uploads can be written there directly and later made the content of a
+ * datastream by a rename instead of a copy.
+ * <p>
+ * Staged content is not a datastream: it is not listed, audited or rebuilt
+ * as one until it is committed.
+ */
+public interface IStageable {
+
+    /**
+     * Opens a stream for writing content to the staging area. Any content
+     * already staged with the same key is replaced.
+     *
+     * @param stagingKey
+     *        the key of the staged content, e.g. "upload-1".
+     * @return the stream, which must be closed when the content is written.
+     */
+    OutputStream stageDatastream(String stagingKey)
+            throws LowlevelStorageException;
+
+    /**
+     * Gets staged content.
+     *
+     * @throws fedora.server.errors.ObjectNotInLowlevelStorageException
+     *         if nothing is staged with the key.
+     */
+    InputStream retrieveStagedDatastream(String stagingKey)
+            throws LowlevelStorageException;
+
+    /**
+     * Makes staged content the content of the given datastream, replacing any
+     * content it had. Where possible, the content is renamed rather than
+     * copied. Once committed, the content is no longer staged.
+     *
+     * @param stagingKey
+     *        the key of the staged content.
+     * @param dsKey
+     *        the datastream key: $pid "+" $dsId "+" $dsVersionId
+     * @throws fedora.server.errors.ObjectNotInLowlevelStorageException
+     *         if nothing is staged with the key.
+     */
+    void commitStagedDatastream(String stagingKey, String dsKey)
+            throws LowlevelStorageException;
+
+    /**
+     * Removes staged content, if there is any with the key.
+     */
+    void removeStagedDatastream(String stagingKey)
+            throws LowlevelStorageException;
+
+    /**
+     * Lists the keys of all staged content, e.g. to clean up after a restart.
+     */
+    Iterator<String> listStagedDatastreams();
+
+}
@@ -5,6 +5,7 @@
 package fedora.server.storage.lowlevel.akubra;
 
 import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -15,8 +16,11 @@ import java.net.URISyntaxException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import org.apache.commons.io.IOUtils;
 
@@ -38,21 +42,28 @@ import fedora.server.errors.ObjectAlreadyInLowlevelStorageException;
 import fedora.server.errors.ObjectNotInLowlevelStorageException;
 import fedora.server.storage.lowlevel.IListable;
 import fedora.server.storage.lowlevel.ILowlevelStorage;
+import fedora.server.storage.lowlevel.IStageable;
 
 /**
  * Akubra-backed implementation of ILowlevelStorage.
  * <p>
  * This implementation uses two Akubra <code>BlobStore</code>s; one for
- * objects and another for datastreams.
+ * objects and another for datastreams. Staged datastream content is kept in
+ * the datastream store, with blob ids beginning with
+ * <code>info:fedora/fedora-system:staging/</code>, which are not listed as
+ * datastreams.
  *
  * @author Chris Wilper
  */
 public class AkubraLowlevelStorage
-        implements ILowlevelStorage, IListable {
+        implements ILowlevelStorage, IListable, IStageable {
 
     private static final Logger log = Logger.getLogger(
             AkubraLowlevelStorage.class);
 
+    private static final String STAGING_PREFIX =
+            Constants.FEDORA.uri + "fedora-system:staging/";
+
     private final BlobStore objectStore;
 
     private final BlobStore datastreamStore;
@@ -170,6 +181,120 @@ public class AkubraLowlevelStorage
         return list(objectStore);
     }
 
+    //
+    // IStageable methods
+    //
+
+    public OutputStream stageDatastream(String stagingKey) {
+        BlobStoreConnection connection = null;
+        boolean successful = false;
+        try {
+            connection = getConnection(datastreamStore);
+            Blob blob = getBlob(connection, getStagingBlobId(stagingKey), null);
+            OutputStream out = openOutputStream(blob, -1, true);
+            successful = true;
+            return new ConnectionClosingOutputStream(connection, out);
+        } catch (DuplicateBlobException wontHappen) {
+            throw new FaultException(wontHappen);
+        } finally {
+            if (!successful) {
+                closeConnection(connection);
+            }
+        }
+    }
+
+    public InputStream retrieveStagedDatastream(String stagingKey)
+            throws LowlevelStorageException {
+        BlobStoreConnection connection = null;
+        InputStream content = null;
+        boolean successful = false;
+        try {
+            connection = getConnection(datastreamStore);
+            Blob blob = getBlob(connection, getStagingBlobId(stagingKey), null);
+            content = openInputStream(blob);
+            successful = true;
+            return new ConnectionClosingInputStream(connection, content);
+        } catch (MissingBlobException e) {
+            throw new ObjectNotInLowlevelStorageException("nothing staged as "
+                    + stagingKey, e);
+        } finally {
+            if (!successful) {
+                IOUtils.closeQuietly(content);
+                closeConnection(connection);
+            }
+        }
+    }
+
+    public void commitStagedDatastream(String stagingKey, String dsKey)
+            throws LowlevelStorageException {
+        BlobStoreConnection connection = null;
+        try {
+            connection = getConnection(datastreamStore);
+            Blob stagedBlob =
+                    getBlob(connection, getStagingBlobId(stagingKey), null);
+            if (!exists(stagedBlob)) {
+                throw new ObjectNotInLowlevelStorageException(
+                        "nothing staged as " + stagingKey);
+            }
+            URI blobId = getBlobId(dsKey);
+            Blob blob = getBlob(connection, blobId, null);
+            if (exists(blob)) {
+                if (forceSafeDatastreamOverwrites) {
+                    safeOverwrite(blob, stagedBlob);
+                } else {
+                    // leave it to the store impl to ensure atomicity
+                    copy(openInputStream(stagedBlob),
+                         openOutputStream(blob, -1, true));
+                    delete(stagedBlob);
+                }
+            } else {
+                try {
+                    rename(stagedBlob, blobId.toString());
+                } catch (UnsupportedOperationException e) {
+                    copy(openInputStream(stagedBlob),
+                         openOutputStream(blob, -1, false));
+                    delete(stagedBlob);
+                }
+            }
+        } catch (MissingBlobException e) {
+            throw new ObjectNotInLowlevelStorageException("nothing staged as "
+                    + stagingKey, e);
+        } catch (DuplicateBlobException e) {
+            throw new ObjectAlreadyInLowlevelStorageException(dsKey, e);
+        } finally {
+            closeConnection(connection);
+        }
+    }
+
+    public void removeStagedDatastream(String stagingKey) {
+        BlobStoreConnection connection = null;
+        try {
+            connection = getConnection(datastreamStore);
+            Blob blob = getBlob(connection, getStagingBlobId(stagingKey), null);
+            if (exists(blob)) {
+                delete(blob);
+            }
+        } finally {
+            closeConnection(connection);
+        }
+    }
+
+    public Iterator<String> listStagedDatastreams() {
+        BlobStoreConnection connection = null;
+        try {
+            connection = getConnection(datastreamStore);
+            List<String> keys = new ArrayList<String>();
+            Iterator<URI> blobIds = listBlobIds(connection, STAGING_PREFIX);
+            while (blobIds.hasNext()) {
+                keys.add(uriDecode(blobIds.next().toString()
+                        .substring(STAGING_PREFIX.length())));
+            }
+            return keys.iterator();
+        } finally {
+            closeConnection(connection);
+        }
+    }
+
     //
     // Private implementation methods
     //
@@ -282,7 +407,18 @@ public class AkubraLowlevelStorage
             throw new FaultException(th);
         }
 
-        // At this point, we have origId (with old content) and origId/new
+        safeOverwrite(origBlob, newBlob);
+    }
+
+    /**
+     * Replaces the given blob with another blob holding the new content, in
+     * a way that guarantees the original content is not destroyed until the
+     * replacement is successfully put in its place.
+     */
+    private static void safeOverwrite(Blob origBlob, Blob newBlob) {
+        String origId = origBlob.getId().toString();
+
+        // At this point, we have origId (with old content) and newBlob
 
         // rename origId to origId/old
         Blob oldBlob = null;
@@ -301,9 +437,9 @@ public class AkubraLowlevelStorage
             }
         }
 
-        // At this point, we have origId/old and origId/new
+        // At this point, we have origId/old and newBlob
 
-        // rename origId/new to origId
+        // rename newBlob to origId
         boolean successful = false;
         try {
             rename(newBlob, origId);
@@ -444,8 +580,13 @@ public class AkubraLowlevelStorage
     }
 
     private static Iterator<URI> listBlobIds(BlobStoreConnection connection) {
+        return listBlobIds(connection, null); // all
+    }
+
+    private static Iterator<URI> listBlobIds(BlobStoreConnection connection,
+                                             String filterPrefix) {
         try {
-            return connection.listBlobIds(null); // all
+            return connection.listBlobIds(filterPrefix);
         } catch (IOException e) {
             throw new FaultException("System error listing blob ids", e);
         }
@@ -502,6 +643,20 @@ public class AkubraLowlevelStorage
         }
     }
 
+    /**
+     * Gets the blob id of staged content: the staging key, URI-percent-encoded
+     * with UTF-8 character encoding, prefixed with
+     * <code>info:fedora/fedora-system:staging/</code>.
+     */
+    private static URI getStagingBlobId(String stagingKey) {
+        try {
+            return new URI(STAGING_PREFIX + uriEncode(stagingKey));
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Malformed staging key: "
+                    + stagingKey, e);
+        }
+    }
+
     /**
      * Converts a token-as-blobId back to a token.
      *
@@ -571,13 +726,50 @@ public class AkubraLowlevelStorage
     }
 
     /**
-     * Converts a blob id iterator to a key iterator and closes the
-     * connection automatically when exhausted or finalized.
+     * Closes the stream and connection automatically when closed or finalized.
+     */
+    static class ConnectionClosingOutputStream extends FilterOutputStream {
+
+        private final BlobStoreConnection connection;
+
+        public ConnectionClosingOutputStream(BlobStoreConnection connection,
+                                             OutputStream wrapped) {
+            super(wrapped);
+            this.connection = connection;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!connection.isClosed()) {
+                try {
+                    super.close();
+                } finally {
+                    connection.close();
+                }
+            }
+        }
+
+        @Override
+        protected void finalize() {
+            connection.close();
+        }
+
+    }
+
+    /**
+     * Converts a blob id iterator to a key iterator, skipping staged content,
+     * and closes the connection automatically when exhausted or finalized.
      */
     static class ConnectionClosingKeyIterator implements Iterator<String> {
 
         private final BlobStoreConnection connection;
         private final Iterator<URI> blobIds;
+        private URI nextId;
 
         public ConnectionClosingKeyIterator(BlobStoreConnection connection,
                                             Iterator<URI> blobIds) {
@@ -586,7 +778,13 @@ public class AkubraLowlevelStorage
         }
 
         public boolean hasNext() {
-            if (!blobIds.hasNext()) {
+            while (nextId == null && blobIds.hasNext()) {
+                URI blobId = blobIds.next();
+                if (!blobId.toString().startsWith(STAGING_PREFIX)) {
+                    nextId = blobId;
+                }
+            }
+            if (nextId == null) {
                 connection.close();
                 return false;
             }
@@ -594,7 +792,12 @@ public class AkubraLowlevelStorage
         }
 
         public String next() {
-            return getToken(blobIds.next());
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            URI blobId = nextId;
+            nextId = null;
+            return getToken(blobId);
         }
 
         public void remove() {
@@ -6,6 +6,7 @@ package fedora.server.storage.lowlevel.akubra;
 
 import java.io.File;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 import java.util.Iterator;
 import java.util.Map;
@@ -24,6 +25,7 @@ import fedora.server.errors.LowlevelStorageException;
 import fedora.server.errors.ModuleInitializationException;
 import fedora.server.storage.lowlevel.IListable;
 import fedora.server.storage.lowlevel.ILowlevelStorage;
+import fedora.server.storage.lowlevel.IStageable;
 
 /**
  * Wraps a Spring-configured {@link AkubraLowlevelStore} instance as a
@@ -42,7 +44,7 @@ import fedora.server.storage.lowlevel.ILowlevelStorage;
  */
 public class AkubraLowlevelStorageModule
         extends Module
-        implements ILowlevelStorage, IListable {
+        implements ILowlevelStorage, IListable, IStageable {
 
     private ILowlevelStorage impl;
 
@@ -130,4 +132,30 @@ public class AkubraLowlevelStorageModule
     public Iterator<String> listDatastreams() {
         return ((IListable) impl).listDatastreams();
     }
+
+    // IStageable methods
+
+    public OutputStream stageDatastream(String stagingKey)
+            throws LowlevelStorageException {
+        return ((IStageable) impl).stageDatastream(stagingKey);
+    }
+
+    public InputStream retrieveStagedDatastream(String stagingKey)
+            throws LowlevelStorageException {
+        return ((IStageable) impl).retrieveStagedDatastream(stagingKey);
+    }
+
+    public void commitStagedDatastream(String stagingKey, String dsKey)
+            throws LowlevelStorageException {
+        ((IStageable) impl).commitStagedDatastream(stagingKey, dsKey);
+    }
+
+    public void removeStagedDatastream(String stagingKey)
+            throws LowlevelStorageException {
+        ((IStageable) impl).removeStagedDatastream(stagingKey);
+    }
+
+    public Iterator<String> listStagedDatastreams() {
+        return ((IStageable) impl).listStagedDatastreams();
+    }
 }
@@ -6,6 +6,7 @@
 package fedora.server.storage.translation;
 
 import java.io.BufferedWriter;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
@@ -30,7 +31,6 @@ import fedora.server.storage.types.DigitalObject;
 import fedora.server.storage.types.Disseminator;
 import fedora.server.utilities.DateUtility;
 import fedora.server.utilities.StreamUtility;
-import fedora.server.utilities.StringUtility;
 
 import fedora.utilities.Base64;
 
@@ -365,10 +365,12 @@ public class FOXMLDOSerializer
                         writer.print("<");
                         writer.print(FOXML.prefix);
                         writer.print(":binaryContent> \n");
-                        String encoded = Base64.encodeToString(vds.getContentStream());
-                        writer.print(StringUtility.splitAndIndent(encoded,
-                                                                  14,
-                                                                  80));
+                        try {
+                            Base64.encode(vds.getContentStream(), writer, 14, 80);
+                        } catch (IOException e) {
+                            throw new StreamIOException("Error encoding content of "
+                                    + vds.DSVersionID, e);
+                        }
                         writer.print("</");
                         writer.print(FOXML.prefix);
                         writer.print(":binaryContent> \n");
@@ -5,6 +5,7 @@
 
 package fedora.server.storage.translation;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
@@ -27,7 +28,6 @@ import fedora.server.storage.types.DigitalObject;
 import fedora.server.storage.types.Disseminator;
 import fedora.server.utilities.DateUtility;
 import fedora.server.utilities.StreamUtility;
-import fedora.server.utilities.StringUtility;
 
 import fedora.utilities.Base64;
 
@@ -558,10 +558,12 @@ public class METSFedoraExtDOSerializer
                         writer.print("<");
                         writer.print(METS.prefix);
                         writer.print(":FContent> \n");
-                        String encoded = Base64.encodeToString(dsc.getContentStream());
-                        writer.print(StringUtility.splitAndIndent(encoded,
-                                                                  14,
-                                                                  80));
+                        try {
+                            Base64.encode(dsc.getContentStream(), writer, 14, 80);
+                        } catch (IOException e) {
+                            throw new StreamIOException("Error encoding content of "
+                                    + dsc.DSVersionID, e);
+                        }
                         writer.print("</");
                         writer.print(METS.prefix);
                         writer.print(":FContent>\n");
@@ -0,0 +1,52 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.storage.types;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The size and checksums of a datastream's content, computed while the
+ * content was first written, so that it need not be read again to get them.
+ */
+public class ContentDigest {
+
+    private final long m_size;
+
+    private final Map<String, String> m_checksums;
+
+    /**
+     * Creates a digest.
+     *
+     * @param size
+     *        the number of bytes in the content.
+     * @param checksums
+     *        the hex-encoded checksums of the content, keyed by algorithm
+     *        (e.g. "MD5").
+     */
+    public ContentDigest(long size, Map<String, String> checksums) {
+        m_size = size;
+        m_checksums = new HashMap<String, String>(checksums);
+    }
+
+    /**
+     * Gets the number of bytes in the content.
+     */
+    public long getSize() {
+        return m_size;
+    }
+
+    /**
+     * Gets the hex-encoded checksum of the content for the given algorithm.
+     *
+     * @return the checksum, or null if it was not computed.
+     */
+    public String getChecksum(String algorithm) {
+        if (algorithm == null) {
+            return null;
+        }
+        return m_checksums.get(algorithm);
+    }
+}
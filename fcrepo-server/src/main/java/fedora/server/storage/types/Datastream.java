@@ -99,6 +99,13 @@ public class Datastream {
 
     public String DSChecksum;
 
+    /**
+     * The size and checksums computed while the content was uploaded, if
+     * known. This is not serialized; it only saves reading the content again
+     * to compute the checksum before the datastream is committed.
+     */
+    public ContentDigest DSContentDigest;
+
     public static boolean autoChecksum = false;
 
     public static String defaultChecksumType = "DISABLED";
@@ -131,7 +138,13 @@ public class Datastream {
 
     public String getChecksum() {
         if (DSChecksum == null || DSChecksum.equals("none")) {
-            DSChecksum = computeChecksum(getChecksumType());
+            String csType = getChecksumType();
+            if (DSContentDigest != null) {
+                DSChecksum = DSContentDigest.getChecksum(csType);
+            }
+            if (DSChecksum == null) {
+                DSChecksum = computeChecksum(csType);
+            }
         }
         LOG.debug("Checksum = " + DSChecksum);
         return DSChecksum;
@@ -277,6 +290,7 @@ public class Datastream {
         target.DSLabel = DSLabel;
         target.DSCreateDT = DSCreateDT;
         target.DSSize = DSSize;
+        target.DSContentDigest = DSContentDigest;
         target.DSLocation = DSLocation;
         target.DSLocationType = DSLocationType;
     }
@@ -101,6 +101,24 @@ public class DatastreamManagedContent
         return s_ecm;
     }
 
+    /**
+     * Gets the checksum of the content. If the content was uploaded, the
+     * checksum computed during the upload is used, when it is of the right
+     * type, instead of reading the content.
+     */
+    @Override
+    public String getChecksum() {
+        if (DSContentDigest == null && DSLocation != null
+                && DSLocation.startsWith(UPLOADED_SCHEME)) {
+            try {
+                DSContentDigest = getManagement().getTempStreamDigest(DSLocation);
+            } catch (Exception e) {
+                // the checksum will be computed from the content instead
+            }
+        }
+        return super.getChecksum();
+    }
+
     @Override
     public InputStream getContentStream() throws StreamIOException {
         try {
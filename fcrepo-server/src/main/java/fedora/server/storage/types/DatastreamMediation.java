@@ -4,6 +4,8 @@
  */
 package fedora.server.storage.types;
 
+import java.util.concurrent.Future;
+
 /**
  * A data structure containing information needed for the datastream mediation
  * service.
@@ -33,4 +35,10 @@ public class DatastreamMediation {
     public boolean callSSL = false;
 
     public boolean callbackSSL = false;
+
+    /** The time at which the datastream was registered, in milliseconds. */
+    public long registrationTime = 0;
+
+    /** The content of the datastream, if it is being fetched in advance. */
+    public Future<MIMETypedStream> prefetched = null;
 }
@@ -0,0 +1,122 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import fedora.common.Constants;
+
+import fedora.server.validation.DOValidatorImpl;
+
+/**
+ * Measures how many FOXML 1.1 objects can be validated per second, as on
+ * ingest (XML Schema and Schematron, "ingest" phase).
+ * <p>
+ * Usage: ValidationBenchmark resourceDir objectFile [iterations [threads]]
+ * <p>
+ * where resourceDir is the directory containing the xsd and schematron
+ * directories, e.g. fcrepo-server/src/main/resources. The first iterations
+ * are not timed, so that the one-time compilation of the schemas is not
+ * counted.
+ */
+public class ValidationBenchmark
+        implements Constants {
+
+    private static final int WARMUP = 20;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: ValidationBenchmark resourceDir "
+                    + "objectFile [iterations [threads]]");
+            System.exit(1);
+        }
+        File resources = new File(args[0]);
+        final byte[] object = readFile(new File(args[1]));
+        final int iterations =
+                args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+
+        Map<String, String> xmlSchemaMap = new HashMap<String, String>();
+        xmlSchemaMap.put(FOXML1_1.uri, new File(resources, "xsd/foxml1-1.xsd")
+                .getPath());
+        Map<String, String> ruleSchemaMap = new HashMap<String, String>();
+        ruleSchemaMap.put(FOXML1_1.uri, new File(resources,
+                                                 "schematron/foxmlRules1-1.xml")
+                .getPath());
+        final DOValidatorImpl validator =
+                new DOValidatorImpl(System.getProperty("java.io.tmpdir"),
+                                    xmlSchemaMap,
+                                    new File(resources,
+                                             "schematron/preprocessor.xslt")
+                                            .getPath(),
+                                    ruleSchemaMap);
+
+        for (int i = 0; i < WARMUP; i++) {
+            validate(validator, object);
+        }
+
+        Thread[] workers = new Thread[threads];
+        final Exception[] failure = new Exception[1];
+        long start = System.currentTimeMillis();
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < iterations; i++) {
+                            validate(validator, object);
+                        }
+                    } catch (Exception e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long millis = System.currentTimeMillis() - start;
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+
+        int total = iterations * threads;
+        System.out.println("Validated " + total + " objects in " + millis
+                + "ms with " + threads + " thread(s): "
+                + (total * 1000L / Math.max(millis, 1)) + " objects/second");
+    }
+
+    private static void validate(DOValidatorImpl validator, byte[] object)
+            throws Exception {
+        validator.validate(new ByteArrayInputStream(object),
+                           FOXML1_1.uri,
+                           DOValidatorImpl.VALIDATE_ALL,
+                           "ingest");
+    }
+
+    private static byte[] readFile(File file) throws Exception {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = in.read(buf)) != -1) {
+                out.write(buf, 0, len);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
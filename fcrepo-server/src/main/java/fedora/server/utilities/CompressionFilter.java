@@ -0,0 +1,451 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.utilities;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Compresses responses with gzip or deflate when the client accepts it.
+ * <p>
+ * Only responses whose content type is listed in the
+ * <code>contentTypes</code> init-param are compressed, so content that is
+ * already compressed (images, archives and most other binary datastreams)
+ * is always sent as is, as are responses that already have a
+ * Content-Encoding. The first <code>minBytes</code> of a response are
+ * buffered; a response that ends, or declares a Content-Length, below that
+ * is sent uncompressed. Beyond that the response is compressed as it is
+ * written, so large responses are never held in memory.
+ * <p>
+ * Init-params:
+ * <ul>
+ * <li>contentTypes - space or comma-separated content types to compress; a
+ * type ending in "/*" matches every subtype. Default: text/*
+ * application/xml application/rdf+xml application/sparql-results+xml
+ * application/json application/javascript</li>
+ * <li>minBytes - the smallest response to compress. Default: 1024</li>
+ * </ul>
+ */
+public class CompressionFilter
+        implements Filter {
+
+    private static final String DEFAULT_CONTENT_TYPES =
+            "text/* application/xml application/rdf+xml "
+                    + "application/sparql-results+xml application/json "
+                    + "application/javascript";
+
+    private static final int DEFAULT_MIN_BYTES = 1024;
+
+    private String[] m_contentTypes;
+
+    private int m_minBytes;
+
+    public void init(FilterConfig config) throws ServletException {
+        String types = config.getInitParameter("contentTypes");
+        if (types == null) {
+            types = DEFAULT_CONTENT_TYPES;
+        }
+        m_contentTypes = types.trim().toLowerCase().split("[\\s,]+");
+        m_minBytes = DEFAULT_MIN_BYTES;
+        String minBytes = config.getInitParameter("minBytes");
+        if (minBytes != null) {
+            try {
+                m_minBytes = Integer.parseInt(minBytes.trim());
+            } catch (NumberFormatException e) {
+                throw new ServletException("Bad value for minBytes "
+                        + "init-param: " + minBytes);
+            }
+        }
+    }
+
+    public void doFilter(ServletRequest request,
+                         ServletResponse response,
+                         FilterChain chain) throws IOException,
+            ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        String encoding =
+                chooseEncoding(httpRequest.getHeader("Accept-Encoding"));
+        if (encoding == null || httpRequest.getMethod().equals("HEAD")) {
+            chain.doFilter(request, response);
+            return;
+        }
+        CompressingResponse compressing =
+                new CompressingResponse((HttpServletResponse) response,
+                                        encoding);
+        chain.doFilter(request, compressing);
+        compressing.finish();
+    }
+
+    public void destroy() {
+    }
+
+    /**
+     * Chooses the content coding for a response from the client's
+     * Accept-Encoding header, preferring gzip.
+     *
+     * @return "gzip", "deflate", or null if the client accepts neither.
+     */
+    static String chooseEncoding(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        boolean gzip = false;
+        boolean deflate = false;
+        boolean any = false;
+        for (String coding : acceptEncoding.toLowerCase().split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            boolean accepted = true;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        accepted = Float.parseFloat(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        accepted = false;
+                    }
+                }
+            }
+            if (name.equals("gzip") || name.equals("x-gzip")) {
+                gzip = accepted;
+            } else if (name.equals("deflate")) {
+                deflate = accepted;
+            } else if (name.equals("*")) {
+                any = accepted;
+            }
+        }
+        if (gzip || (any && acceptEncoding.toLowerCase().indexOf("gzip") == -1)) {
+            return "gzip";
+        } else if (deflate) {
+            return "deflate";
+        }
+        return null;
+    }
+
+    /**
+     * Tells whether responses of the given content type may be compressed.
+     */
+    boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase();
+        int i = type.indexOf(';');
+        if (i != -1) {
+            type = type.substring(0, i);
+        }
+        type = type.trim();
+        for (String compressible : m_contentTypes) {
+            if (compressible.endsWith("/*")) {
+                if (type.startsWith(compressible.substring(0,
+                        compressible.length() - 1))) {
+                    return true;
+                }
+            } else if (type.equals(compressible)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A response that decides whether to compress its content once it has
+     * seen enough of it.
+     */
+    class CompressingResponse
+            extends HttpServletResponseWrapper {
+
+        private final String m_encoding;
+
+        private int m_status = SC_OK;
+
+        private int m_contentLength = -1;
+
+        private boolean m_hasEncoding;
+
+        private CompressingStream m_stream;
+
+        private PrintWriter m_writer;
+
+        CompressingResponse(HttpServletResponse response, String encoding) {
+            super(response);
+            m_encoding = encoding;
+        }
+
+        @Override
+        public void setStatus(int status) {
+            m_status = status;
+            super.setStatus(status);
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void setStatus(int status, String message) {
+            m_status = status;
+            super.setStatus(status, message);
+        }
+
+        @Override
+        public void setContentLength(int length) {
+            // passed on only if the content is sent uncompressed
+            m_contentLength = length;
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if (!interceptHeader(name, value)) {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if (!interceptHeader(name, value)) {
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            if (!interceptHeader(name, Integer.toString(value))) {
+                super.setIntHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addIntHeader(String name, int value) {
+            if (!interceptHeader(name, Integer.toString(value))) {
+                super.addIntHeader(name, value);
+            }
+        }
+
+        private boolean interceptHeader(String name, String value) {
+            if (name.equalsIgnoreCase("Content-Length")) {
+                try {
+                    m_contentLength = Integer.parseInt(value.trim());
+                } catch (NumberFormatException e) {
+                    m_contentLength = -1;
+                }
+                return true;
+            }
+            if (name.equalsIgnoreCase("Content-Encoding")) {
+                m_hasEncoding = true;
+            }
+            return false;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (m_writer != null) {
+                throw new IllegalStateException("getWriter() has already "
+                        + "been called");
+            }
+            return getStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (m_writer == null) {
+                if (m_stream != null) {
+                    throw new IllegalStateException("getOutputStream() has "
+                            + "already been called");
+                }
+                m_writer =
+                        new PrintWriter(new OutputStreamWriter(getStream(),
+                                                               getCharacterEncoding()));
+            }
+            return m_writer;
+        }
+
+        private CompressingStream getStream() {
+            if (m_stream == null) {
+                m_stream = new CompressingStream(this);
+            }
+            return m_stream;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (m_writer != null) {
+                m_writer.flush();
+            } else if (m_stream != null) {
+                m_stream.flush();
+            }
+            super.flushBuffer();
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            m_status = SC_OK;
+            m_contentLength = -1;
+            m_hasEncoding = false;
+            if (m_stream != null) {
+                m_stream.resetBuffer();
+            }
+        }
+
+        @Override
+        public void resetBuffer() {
+            super.resetBuffer();
+            if (m_stream != null) {
+                m_stream.resetBuffer();
+            }
+        }
+
+        /**
+         * Sends whatever is still buffered or held by the compressor.
+         */
+        void finish() throws IOException {
+            if (m_writer != null) {
+                m_writer.flush();
+            }
+            if (m_stream != null) {
+                m_stream.finish();
+            } else if (m_contentLength >= 0) {
+                super.setContentLength(m_contentLength);
+            }
+        }
+
+        /**
+         * Decides how the content is to be sent.
+         *
+         * @param large
+         *        whether the content is known to be at least minBytes long.
+         * @return the stream to send the content to.
+         */
+        OutputStream start(boolean large) throws IOException {
+            boolean compressible =
+                    !m_hasEncoding && m_status >= 200 && m_status != 204
+                            && m_status != 304 && isCompressible(getContentType());
+            if (compressible) {
+                super.addHeader("Vary", "Accept-Encoding");
+            }
+            OutputStream out = super.getOutputStream();
+            if (compressible && large) {
+                super.setHeader("Content-Encoding", m_encoding);
+                if (m_encoding.equals("gzip")) {
+                    return new GZIPOutputStream(out);
+                } else {
+                    return new DeflaterOutputStream(out);
+                }
+            }
+            if (m_contentLength >= 0) {
+                super.setContentLength(m_contentLength);
+            }
+            return out;
+        }
+
+        int getContentLength() {
+            return m_contentLength;
+        }
+    }
+
+    /**
+     * Holds the start of the content until it is known whether to compress
+     * it.
+     */
+    class CompressingStream
+            extends ServletOutputStream {
+
+        private final CompressingResponse m_response;
+
+        private byte[] m_buffer = new byte[m_minBytes];
+
+        private int m_count;
+
+        private OutputStream m_out;
+
+        private boolean m_finished;
+
+        CompressingStream(CompressingResponse response) {
+            m_response = response;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (m_finished) {
+                throw new IOException("Stream already closed");
+            }
+            if (m_out == null) {
+                if (m_count + len < m_buffer.length) {
+                    System.arraycopy(b, off, m_buffer, m_count, len);
+                    m_count += len;
+                    return;
+                }
+                start(true);
+            }
+            m_out.write(b, off, len);
+        }
+
+        private void start(boolean large) throws IOException {
+            int length = m_response.getContentLength();
+            if (length >= 0) {
+                large = length >= m_minBytes;
+            }
+            m_out = m_response.start(large);
+            m_out.write(m_buffer, 0, m_count);
+            m_buffer = null;
+        }
+
+        /**
+         * Sends what has been written so far, unless it is still less than
+         * minBytes; servlets commonly flush just before closing, and that
+         * should not make a small response compressed.
+         */
+        @Override
+        public void flush() throws IOException {
+            if (m_out != null && !m_finished) {
+                m_out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+        }
+
+        void resetBuffer() {
+            if (m_out == null) {
+                m_count = 0;
+            }
+        }
+
+        void finish() throws IOException {
+            if (m_finished) {
+                return;
+            }
+            if (m_out == null) {
+                start(false);
+            }
+            if (m_out instanceof DeflaterOutputStream) {
+                ((DeflaterOutputStream) m_out).finish();
+            }
+            m_out.flush();
+            m_finished = true;
+        }
+    }
+}
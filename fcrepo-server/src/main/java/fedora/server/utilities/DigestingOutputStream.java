@@ -0,0 +1,89 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.utilities;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import fedora.server.storage.types.ContentDigest;
+
+/**
+ * An output stream that computes the size and any number of checksums of the
+ * bytes written through it, so that content can be hashed in the same pass
+ * that stores it.
+ */
+public class DigestingOutputStream
+        extends FilterOutputStream {
+
+    private final String[] m_algorithms;
+
+    private final MessageDigest[] m_digests;
+
+    private long m_size;
+
+    private ContentDigest m_digest;
+
+    /**
+     * Creates a stream that writes to the given stream.
+     *
+     * @param out
+     *        the stream to write to.
+     * @param algorithms
+     *        the checksum algorithms to compute, e.g. "MD5" or "SHA-1".
+     * @throws NoSuchAlgorithmException
+     *         if any of the algorithms is not available.
+     */
+    public DigestingOutputStream(OutputStream out, Collection<String> algorithms)
+            throws NoSuchAlgorithmException {
+        super(out);
+        m_algorithms = algorithms.toArray(new String[algorithms.size()]);
+        m_digests = new MessageDigest[m_algorithms.length];
+        for (int i = 0; i < m_algorithms.length; i++) {
+            m_digests[i] = MessageDigest.getInstance(m_algorithms[i]);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        for (MessageDigest digest : m_digests) {
+            digest.update((byte) b);
+        }
+        m_size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        for (MessageDigest digest : m_digests) {
+            digest.update(b, off, len);
+        }
+        m_size += len;
+    }
+
+    /**
+     * Gets the size and checksums of everything written so far. Once this has
+     * been called, nothing more should be written.
+     */
+    public ContentDigest getDigest() {
+        if (m_digest == null) {
+            Map<String, String> checksums = new HashMap<String, String>();
+            for (int i = 0; i < m_algorithms.length; i++) {
+                checksums.put(m_algorithms[i], StringUtility
+                        .byteArraytoHexString(m_digests[i].digest()));
+            }
+            m_digest = new ContentDigest(m_size, checksums);
+        }
+        return m_digest;
+    }
+}
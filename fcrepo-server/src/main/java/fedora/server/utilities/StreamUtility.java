@@ -133,6 +133,36 @@ public abstract class StreamUtility {
         }
     }
 
+    /**
+     * Copies the contents of an InputStream to an OutputStream as they
+     * arrive. The OutputStream is flushed whenever no more input is
+     * immediately available, so that a slow source is passed on to the
+     * client a piece at a time rather than when the output buffer fills.
+     * Neither stream is closed.
+     *
+     * @param in
+     *        The source stream.
+     * @param out
+     *        The target stream.
+     * @param bufSize
+     *        Number of bytes to attempt to copy at a time.
+     * @throws IOException
+     *         If any sort of read/write error occurs on either stream.
+     */
+    public static void streamAsAvailable(InputStream in,
+                                         OutputStream out,
+                                         int bufSize) throws IOException {
+        byte[] buf = new byte[bufSize];
+        int len;
+        while ((len = in.read(buf)) != -1) {
+            out.write(buf, 0, len);
+            if (in.available() == 0) {
+                out.flush();
+            }
+        }
+        out.flush();
+    }
+
     /**
      * Gets a byte array for the given input stream.
      */
@@ -4,6 +4,7 @@
  */
 package fedora.server.validation;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -178,11 +179,41 @@ public class DOValidatorImpl
                          int validationType,
                          String phase) throws ObjectValidityException {
         checkFormat(format);
-        // FIXME We need to use the object Inputstream twice, once for XML
-        // Schema validation and once for Schematron validation.
-        // We may want to consider implementing some form of a rewindable
-        // InputStream. For now, I will just write the object InputStream to
-        // disk so I can read it multiple times.
+        boolean rewindable = objectAsStream instanceof ByteArrayInputStream;
+        if (!format.equals(Constants.ATOM_ZIP1_1.uri)
+                && (validationType == VALIDATE_ALL && rewindable
+                        || validationType == VALIDATE_XML_SCHEMA
+                        || validationType == VALIDATE_SCHEMATRON)) {
+            // A single pass, or a stream that is already in memory and can
+            // be read again, needs no temporary copy.
+            LOG.debug("Validation phase=" + phase + " format=" + format);
+            objectAsStream.mark(0);
+            try {
+                if (validationType == VALIDATE_ALL) {
+                    validateByRules(objectAsStream,
+                                    m_ruleSchemaMap.get(format),
+                                    schematronPreprocessorPath,
+                                    phase);
+                    objectAsStream.reset();
+                    validateXMLSchema(objectAsStream, m_xmlSchemaMap.get(format));
+                } else if (validationType == VALIDATE_XML_SCHEMA) {
+                    validateXMLSchema(objectAsStream, m_xmlSchemaMap.get(format));
+                } else {
+                    validateByRules(objectAsStream,
+                                    m_ruleSchemaMap.get(format),
+                                    schematronPreprocessorPath,
+                                    phase);
+                }
+            } catch (ObjectValidityException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new ObjectValidityException("[DOValidatorImpl]: "
+                        + "ERROR in validate objectAsStream. " + e.getMessage());
+            }
+            return;
+        }
+        // Otherwise we need to read the object twice, once for XML Schema
+        // validation and once for Schematron validation, so write it to disk.
         try {
             File objectAsFile = streamtoFile(tempDir, objectAsStream);
             validate(objectAsFile, format, validationType, phase);
@@ -247,27 +278,30 @@ public class DOValidatorImpl
             }
         }
         
-        if (validationType == VALIDATE_ALL) {
-            validateByRules(objectAsFile,
-                            m_ruleSchemaMap.get(format),
-                            schematronPreprocessorPath,
-                            phase);
-            validateXMLSchema(objectAsFile, m_xmlSchemaMap.get(format));
-        } else if (validationType == VALIDATE_XML_SCHEMA) {
-            validateXMLSchema(objectAsFile, m_xmlSchemaMap.get(format));
-        } else if (validationType == VALIDATE_SCHEMATRON) {
-            validateByRules(objectAsFile,
-                            m_ruleSchemaMap.get(format),
-                            schematronPreprocessorPath,
-                            phase);
-        } else {
-            String msg = "VALIDATE: ERROR - missing or invalid validationType";
-            LOG.error(msg);
+        try {
+            if (validationType == VALIDATE_ALL) {
+                validateByRules(objectAsFile,
+                                m_ruleSchemaMap.get(format),
+                                schematronPreprocessorPath,
+                                phase);
+                validateXMLSchema(objectAsFile, m_xmlSchemaMap.get(format));
+            } else if (validationType == VALIDATE_XML_SCHEMA) {
+                validateXMLSchema(objectAsFile, m_xmlSchemaMap.get(format));
+            } else if (validationType == VALIDATE_SCHEMATRON) {
+                validateByRules(objectAsFile,
+                                m_ruleSchemaMap.get(format),
+                                schematronPreprocessorPath,
+                                phase);
+            } else {
+                String msg =
+                        "VALIDATE: ERROR - missing or invalid validationType";
+                LOG.error(msg);
+                throw new GeneralException("[DOValidatorImpl] " + msg + ":"
+                        + validationType);
+            }
+        } finally {
             cleanUp(objectAsFile);
-            throw new GeneralException("[DOValidatorImpl] " + msg + ":"
-                    + validationType);
         }
-        cleanUp(objectAsFile);
     }
 
     private void checkFormat(String format) throws ObjectValidityException {
@@ -288,17 +322,36 @@ public class DOValidatorImpl
      */
     private void validateXMLSchema(File objectAsFile, String xmlSchemaPath)
             throws ObjectValidityException, GeneralException {
+        InputStream in = openFile(objectAsFile);
+        try {
+            validateXMLSchema(in, xmlSchemaPath);
+        } finally {
+            closeFile(in);
+        }
+    }
+
+    /**
+     * Do XML Schema validation on the Fedora object.
+     * 
+     * @param objectAsStream
+     *        The digital object provided as a stream.
+     * @throws ObjectValidityException
+     *         If validation fails for any reason.
+     * @throws GeneralException
+     *         If validation fails for any reason.
+     */
+    private void validateXMLSchema(InputStream objectAsStream,
+                                   String xmlSchemaPath)
+            throws ObjectValidityException, GeneralException {
 
         try {
             DOValidatorXMLSchema xsv = new DOValidatorXMLSchema(xmlSchemaPath);
-            xsv.validate(objectAsFile);
+            xsv.validate(objectAsStream);
         } catch (ObjectValidityException e) {
             LOG.error("VALIDATE: ERROR - failed XML Schema validation.", e);
-            cleanUp(objectAsFile);
             throw e;
         } catch (Exception e) {
             LOG.error("VALIDATE: ERROR - failed XML Schema validation.", e);
-            cleanUp(objectAsFile);
             throw new ObjectValidityException("[DOValidatorImpl]: validateXMLSchema. "
                     + e.getMessage());
         }
@@ -329,28 +382,62 @@ public class DOValidatorImpl
                                  String preprocessorPath,
                                  String phase) throws ObjectValidityException,
             GeneralException {
+        InputStream in = openFile(objectAsFile);
+        try {
+            validateByRules(in, ruleSchemaPath, preprocessorPath, phase);
+        } finally {
+            closeFile(in);
+        }
+    }
+
+    /**
+     * Do Schematron rules validation on the Fedora object, as above.
+     * 
+     * @param objectAsStream
+     *        The digital object provided as a stream.
+     */
+    private void validateByRules(InputStream objectAsStream,
+                                 String ruleSchemaPath,
+                                 String preprocessorPath,
+                                 String phase) throws ObjectValidityException,
+            GeneralException {
 
         try {
             DOValidatorSchematron schtron =
                     new DOValidatorSchematron(ruleSchemaPath,
                                               preprocessorPath,
                                               phase);
-            schtron.validate(objectAsFile);
+            schtron.validate(objectAsStream);
         } catch (ObjectValidityException e) {
             LOG.error("VALIDATE: ERROR - failed Schematron rules validation.",
                       e);
-            cleanUp(objectAsFile);
             throw e;
         } catch (Exception e) {
             LOG.error("VALIDATE: ERROR - failed Schematron rules validation.",
                       e);
-            cleanUp(objectAsFile);
             throw new ObjectValidityException("[DOValidatorImpl]: "
                     + "failed Schematron rules validation. " + e.getMessage());
         }
         LOG.debug("VALIDATE: SUCCESS - passed Schematron rules validation.");
     }
 
+    private static InputStream openFile(File objectAsFile)
+            throws GeneralException {
+        try {
+            return new FileInputStream(objectAsFile);
+        } catch (IOException e) {
+            throw new GeneralException(e.getMessage(), e);
+        }
+    }
+
+    private static void closeFile(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            LOG.warn("Error closing object file after validation", e);
+        }
+    }
+
     private File streamtoFile(String dirname, InputStream objectAsStream)
             throws IOException {
 
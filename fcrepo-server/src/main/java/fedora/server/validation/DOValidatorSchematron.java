@@ -11,9 +11,10 @@ import java.io.InputStream;
 
 import java.net.URL;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
@@ -35,7 +36,11 @@ import fedora.utilities.XmlTransformUtility;
  * in the METS XML schema, or that cannot be expressed with XML Schema language.
  * Generally we will look for things that are requirements of Fedora objects,
  * which are not requirements for METS objects in general.
- * 
+ * <p>
+ * The validating stylesheet for each schema and phase is generated and
+ * compiled once, and the compiled <code>Templates</code> are shared by all
+ * instances.
+ *
  * @author Sandy Payette
  * @version $Id$
  */
@@ -45,14 +50,11 @@ public class DOValidatorSchematron {
     private static final Logger LOG =
             Logger.getLogger(DOValidatorSchematron.class.getName());
 
-    private StreamSource rulesSource;
+    private final Templates validatingStyleSheet;
 
-    private StreamSource preprocessorSource;
-
-    private final StreamSource validatingStyleSheet;
-
-    private static Map<String, ByteArrayOutputStream> generatedStyleSheets = 
-        new HashMap<String, ByteArrayOutputStream>();
+    /** Compiled validating stylesheets, keyed by schema path and phase. */
+    private static final ConcurrentMap<String, Templates> generatedStyleSheets =
+            new ConcurrentHashMap<String, Templates>();
 
     /**
      * Constructs a DOValidatorSchematron instance with a Schematron
@@ -108,12 +110,10 @@ public class DOValidatorSchematron {
     public void validate(StreamSource objectSource) throws ServerException {
         DOValidatorSchematronResult result = null;
         try {
-            // Create a transformer that uses the validating stylesheet.
+            // Create a transformer from the compiled validating stylesheet.
             // Run the Schematron validation of the Fedora object and
             // output results in DOM format.
-            TransformerFactory tfactory = XmlTransformUtility.getTransformerFactory();
-            Transformer vtransformer =
-                    tfactory.newTransformer(validatingStyleSheet);
+            Transformer vtransformer = validatingStyleSheet.newTransformer();
             DOMResult validationResult = new DOMResult();
             vtransformer.transform(objectSource, validationResult);
             result = new DOValidatorSchematronResult(validationResult);
@@ -137,7 +137,9 @@ public class DOValidatorSchematron {
 
     /**
      * Run setup to prepare for Schematron validation. This entails dynamically
-     * creating the validating stylesheet using the preprocessor and the schema.
+     * creating the validating stylesheet using the preprocessor and the schema,
+     * and compiling it, unless this has already been done for the schema and
+     * phase.
      * 
      * @param preprocessorPath
      *        the location of the Schematron preprocessor
@@ -146,25 +148,37 @@ public class DOValidatorSchematron {
      * @param phase
      *        the phase in the fedora object lifecycle to which validation
      *        should pertain. (Currently options are "ingest" and "store")
-     * @return StreamSource
+     * @return the compiled validating stylesheet
      * @throws ObjectValidityException
      */
-    private StreamSource setUp(String preprocessorPath,
-                               String fedoraschemaPath,
-                               String phase) throws ObjectValidityException {
+    private Templates setUp(String preprocessorPath,
+                            String fedoraschemaPath,
+                            String phase) throws ObjectValidityException {
         String key = fedoraschemaPath + "#" + phase;
-        ByteArrayOutputStream out =
-                (ByteArrayOutputStream) generatedStyleSheets.get(key);
-        if (out == null) {
-            rulesSource = fileToStreamSource(fedoraschemaPath);
-            preprocessorSource = fileToStreamSource(preprocessorPath);
-            out =
+        Templates templates = generatedStyleSheets.get(key);
+        if (templates == null) {
+            StreamSource rulesSource = fileToStreamSource(fedoraschemaPath);
+            StreamSource preprocessorSource =
+                    fileToStreamSource(preprocessorPath);
+            ByteArrayOutputStream out =
                     createValidatingStyleSheet(rulesSource,
                                                preprocessorSource,
                                                phase);
-            generatedStyleSheets.put(key, out);
+            try {
+                templates =
+                        XmlTransformUtility.getTransformerFactory()
+                                .newTemplates(new StreamSource(new ByteArrayInputStream(out
+                                        .toByteArray())));
+            } catch (TransformerException e) {
+                LOG.error("Schematron validation failed", e);
+                throw new ObjectValidityException(e.getMessage());
+            }
+            Templates existing = generatedStyleSheets.putIfAbsent(key, templates);
+            if (existing != null) {
+                templates = existing;
+            }
         }
-        return new StreamSource(new ByteArrayInputStream(out.toByteArray()));
+        return templates;
     }
 
     /**
@@ -9,11 +9,15 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
-import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
 
 import org.apache.log4j.Logger;
 
@@ -29,6 +33,11 @@ import fedora.server.errors.ObjectValidityException;
 
 /**
  * XML Schema validation for Digital Objects.
+ * <p>
+ * Schemas are compiled once per path and shared, since a compiled
+ * <code>Schema</code> is thread-safe; only the <code>Validator</code> is
+ * created for each object. Because validation uses the compiled schema
+ * alone, any xsi:schemaLocation given in an object is ignored.
  * 
  * @author Sandy Payette
  */
@@ -39,26 +48,58 @@ public class DOValidatorXMLSchema
     private static final Logger LOG =
             Logger.getLogger(DOValidatorXMLSchema.class.getName());
 
-    /** Constants used for JAXP 1.2 */
-    private static final String JAXP_SCHEMA_LANGUAGE =
-            "http://java.sun.com/xml/jaxp/properties/schemaLanguage";
+    /** Compiled schemas, keyed by absolute path. */
+    private static final ConcurrentMap<String, Schema> SCHEMAS =
+            new ConcurrentHashMap<String, Schema>();
 
-    private URI schemaURI = null;
+    private static final SAXParserFactory PARSER_FACTORY;
+
+    static {
+        PARSER_FACTORY = SAXParserFactory.newInstance();
+        PARSER_FACTORY.setNamespaceAware(true);
+    }
+
+    private final Schema schema;
 
     public DOValidatorXMLSchema(String schemaPath)
             throws GeneralException {
         try {
-            schemaURI = (new File(schemaPath)).toURI();
+            schema = getSchema(new File(schemaPath));
         } catch (Exception e) {
             LOG.error("Error constructing validator", e);
             throw new GeneralException(e.getMessage());
         }
     }
 
+    /**
+     * Gets the compiled schema at the given path, compiling it if this is
+     * the first request for it.
+     */
+    private static Schema getSchema(File schemaFile) throws SAXException {
+        String key = schemaFile.getAbsolutePath();
+        Schema schema = SCHEMAS.get(key);
+        if (schema == null) {
+            // SchemaFactory is not thread-safe
+            SchemaFactory sf = SchemaFactory.newInstance(XML_XSD.uri);
+            schema = sf.newSchema(schemaFile);
+            Schema existing = SCHEMAS.putIfAbsent(key, schema);
+            if (existing != null) {
+                schema = existing;
+            }
+            LOG.debug("Compiled XML Schema " + key);
+        }
+        return schema;
+    }
+
     public void validate(File objectAsFile) throws ObjectValidityException,
             GeneralException {
         try {
-            validate(new InputSource(new FileInputStream(objectAsFile)));
+            InputStream in = new FileInputStream(objectAsFile);
+            try {
+                validate(new InputSource(in));
+            } finally {
+                in.close();
+            }
         } catch (IOException e) {
             String msg =
                     "DOValidatorXMLSchema returned error.\n"
@@ -78,22 +119,16 @@ public class DOValidatorXMLSchema
             throws ObjectValidityException, GeneralException {
         InputSource doXML = objectAsSource;
         try {
-            // XMLSchema validation via SAX parser
-            SAXParserFactory spf = SAXParserFactory.newInstance();
-            spf.setNamespaceAware(true);
-            spf.setValidating(true);
-            SAXParser sp = spf.newSAXParser();
-            sp.setProperty(JAXP_SCHEMA_LANGUAGE, XML_XSD.uri);
-
-            // JAXP property for schema location
-            sp
-                    .setProperty("http://java.sun.com/xml/jaxp/properties/schemaSource",
-                                 schemaURI.toString());
-
-            XMLReader xmlreader = sp.getXMLReader();
-            xmlreader.setErrorHandler(new DOValidatorXMLErrorHandler());
+            // XMLSchema validation of the SAX events from the parser
+            XMLReader xmlreader;
+            synchronized (PARSER_FACTORY) {
+                xmlreader = PARSER_FACTORY.newSAXParser().getXMLReader();
+            }
             xmlreader.setEntityResolver(this);
-            xmlreader.parse(doXML);
+
+            Validator validator = schema.newValidator();
+            validator.setErrorHandler(new DOValidatorXMLErrorHandler());
+            validator.validate(new SAXSource(xmlreader, doXML));
         } catch (ParserConfigurationException e) {
             String msg =
                     "DOValidatorXMLSchema returned parser error.\n"
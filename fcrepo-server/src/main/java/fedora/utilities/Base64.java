@@ -8,6 +8,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 
 import fedora.common.FaultException;
 
@@ -78,6 +79,76 @@ public abstract class Base64 {
         return getString(encode(in));
     }
 
+    /**
+     * Encodes an input stream to base64, writing it in lines of lineLength
+     * characters, each indented by the given number of spaces and ended by a
+     * newline.
+     * <p>
+     * The stream is encoded a few kilobytes at a time, so memory use does not
+     * depend on its length. The last line is always written, even if it is
+     * empty, so the output is the same as splitting and indenting the result
+     * of {@link #encodeToString(InputStream)}.
+     * <p>
+     * The stream is guaranteed to be closed when this method returns, whether
+     * successful or not.
+     *
+     * @param in stream to encode
+     * @param out writer to write the encoded lines to
+     * @param indent number of spaces to begin each line with
+     * @param lineLength maximum number of encoded characters in each line
+     * @throws IOException if there's an error reading or writing
+     */
+    public static void encode(InputStream in,
+                              Writer out,
+                              int indent,
+                              int lineLength) throws IOException {
+        try {
+            // a multiple of 3, so only the last chunk is padded
+            byte[] buf = new byte[3 * 1024];
+            char[] line = new char[lineLength];
+            int lineUsed = 0;
+            int len;
+            while ((len = readFully(in, buf)) > 0) {
+                byte[] chunk = buf;
+                if (len < buf.length) {
+                    chunk = new byte[len];
+                    System.arraycopy(buf, 0, chunk, 0, len);
+                }
+                byte[] encoded = encode(chunk);
+                for (int i = 0; i < encoded.length; i++) {
+                    if (lineUsed == lineLength) {
+                        writeLine(out, indent, line, lineUsed);
+                        lineUsed = 0;
+                    }
+                    line[lineUsed++] = (char) encoded[i];
+                }
+            }
+            writeLine(out, indent, line, lineUsed);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buf)
+            throws IOException {
+        int total = 0;
+        int len;
+        while (total < buf.length
+                && (len = in.read(buf, total, buf.length - total)) != -1) {
+            total += len;
+        }
+        return total;
+    }
+
+    private static void writeLine(Writer out, int indent, char[] line, int len)
+            throws IOException {
+        for (int i = 0; i < indent; i++) {
+            out.write(' ');
+        }
+        out.write(line, 0, len);
+        out.write('\n');
+    }
+
 
     /**
      * Decodes bytes from base 64, returning bytes.
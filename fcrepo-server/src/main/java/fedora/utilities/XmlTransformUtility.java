@@ -4,7 +4,15 @@
  */
 package fedora.utilities;
 
+import java.io.File;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
 
 import net.sf.saxon.FeatureKeys;
 
@@ -15,6 +23,10 @@ import net.sf.saxon.FeatureKeys;
  */
 public class XmlTransformUtility {
 
+    /** Compiled stylesheets, by the stylesheet file they were compiled from. */
+    private static final ConcurrentMap<File, CompiledStylesheet> TEMPLATES =
+            new ConcurrentHashMap<File, CompiledStylesheet>();
+
     /**
      * Convenience method to get a new instance of a TransformerFactory.
      * If the {@link #TransformerFactory} is an instance of
@@ -32,4 +44,43 @@ public class XmlTransformUtility {
         }
         return factory;
     }
+
+    /**
+     * Gets the compiled form of a stylesheet file. Compiled stylesheets are
+     * cached, and are only recompiled when the file changes. The returned
+     * Templates are thread-safe; each use should get its own Transformer
+     * from them.
+     *
+     * @param xslFile
+     *        the stylesheet file.
+     * @return the compiled stylesheet.
+     * @throws TransformerConfigurationException
+     *         if the stylesheet cannot be compiled.
+     */
+    public static Templates getTemplates(File xslFile)
+            throws TransformerConfigurationException {
+        long lastModified = xslFile.lastModified();
+        CompiledStylesheet compiled = TEMPLATES.get(xslFile);
+        if (compiled == null || compiled.lastModified != lastModified) {
+            // compiled at most once per change in the usual case; a
+            // concurrent duplicate compilation is harmless
+            Templates templates = getTransformerFactory()
+                    .newTemplates(new StreamSource(xslFile));
+            compiled = new CompiledStylesheet(templates, lastModified);
+            TEMPLATES.put(xslFile, compiled);
+        }
+        return compiled.templates;
+    }
+
+    private static class CompiledStylesheet {
+
+        final Templates templates;
+
+        final long lastModified;
+
+        CompiledStylesheet(Templates templates, long lastModified) {
+            this.templates = templates;
+            this.lastModified = lastModified;
+        }
+    }
 }
@@ -82,7 +82,7 @@ public class FedoraWebXML {
     private final String[] SC_APIM_URL_PATTERNS =
             new String[] {"/index.html", "/getDSAuthenticated",
                     "/management/getNextPID", "/management/upload",
-                    "/services/management", "*.jws"};
+                    "/management/upload/*", "/services/management", "*.jws"};
     
     private final Map<String,String> FESL_SERVLET_MAPPINGS = 
     	new HashMap<String,String>() {
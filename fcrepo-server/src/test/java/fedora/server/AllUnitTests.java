@@ -9,9 +9,13 @@ import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses( {
+        fedora.server.access.dissemination.AllUnitTests.class,
         fedora.server.journal.AllUnitTests.class,
+        fedora.server.management.AllUnitTests.class,
         fedora.server.messaging.AllUnitTests.class,
+        fedora.server.oai.AllUnitTests.class,
         fedora.server.proxy.AllUnitTests.class,
+        fedora.server.resourceIndex.AllUnitTests.class,
         fedora.server.search.AllUnitTests.class,
         fedora.server.security.AllUnitTests.class,
         fedora.server.storage.AllUnitTests.class,
@@ -25,9 +29,13 @@ public class AllUnitTests {
         junit.framework.TestSuite suite =
                 new junit.framework.TestSuite(AllUnitTests.class.getName());
 
+        suite.addTest(fedora.server.access.dissemination.AllUnitTests.suite());
         suite.addTest(fedora.server.journal.AllUnitTests.suite());
+        suite.addTest(fedora.server.management.AllUnitTests.suite());
         suite.addTest(fedora.server.messaging.AllUnitTests.suite());
+        suite.addTest(fedora.server.oai.AllUnitTests.suite());
         suite.addTest(fedora.server.proxy.AllUnitTests.suite());
+        suite.addTest(fedora.server.resourceIndex.AllUnitTests.suite());
         suite.addTest(fedora.server.search.AllUnitTests.suite());
         suite.addTest(fedora.server.security.AllUnitTests.suite());
         suite.addTest(fedora.server.storage.AllUnitTests.suite());
@@ -0,0 +1,73 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.access.dissemination;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import fedora.server.storage.types.DatastreamMediation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for DatastreamMediationRegistry.
+ */
+public class TestDatastreamMediationRegistry {
+
+    @Test
+    public void testRegisterAndGet() {
+        DatastreamMediationRegistry registry =
+                new DatastreamMediationRegistry(60000);
+        DatastreamMediation dm = new DatastreamMediation();
+        String id = registry.register(dm);
+        assertEquals(id, dm.mediatedDatastreamID);
+        assertTrue(dm == registry.get(id));
+        assertNull(registry.get("unknown"));
+        assertEquals(1, registry.getResolvedCount());
+        assertEquals(1, registry.getNotFoundCount());
+
+        registry.remove(id);
+        assertNull(registry.get(id));
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void testIds() {
+        DatastreamMediationRegistry registry =
+                new DatastreamMediationRegistry(60000);
+        Set<String> ids = new HashSet<String>();
+        for (int i = 0; i < 1000; i++) {
+            String id = registry.register(new DatastreamMediation());
+            assertEquals(24, id.length());
+            assertTrue(id.matches("[a-z2-7]+"));
+            ids.add(id);
+        }
+        assertEquals(1000, ids.size());
+        assertEquals(1000, registry.size());
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        DatastreamMediationRegistry registry =
+                new DatastreamMediationRegistry(5);
+        String id1 = registry.register(new DatastreamMediation());
+        String id2 = registry.register(new DatastreamMediation());
+        Thread.sleep(20);
+        assertNull(registry.get(id1));
+        registry.register(new DatastreamMediation());
+        assertEquals(1, registry.size());
+        assertEquals(1, registry.getExpiredCount());
+        assertNull(registry.get(id2));
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TestDatastreamMediationRegistry.class);
+    }
+}
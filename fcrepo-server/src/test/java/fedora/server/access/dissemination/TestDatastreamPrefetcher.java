@@ -0,0 +1,200 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.access.dissemination;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+
+import org.junit.After;
+import org.junit.Test;
+
+import fedora.server.errors.GeneralException;
+import fedora.server.errors.ServerException;
+import fedora.server.storage.ContentManagerParams;
+import fedora.server.storage.ExternalContentManager;
+import fedora.server.storage.types.DatastreamMediation;
+import fedora.server.storage.types.MIMETypedStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for DatastreamPrefetcher.
+ */
+public class TestDatastreamPrefetcher {
+
+    private DatastreamPrefetcher m_prefetcher;
+
+    @After
+    public void tearDown() {
+        if (m_prefetcher != null) {
+            m_prefetcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testTake() throws Exception {
+        StubContentManager ecm = new StubContentManager("content", null);
+        m_prefetcher = new DatastreamPrefetcher(ecm, 1, 100);
+        DatastreamMediation dm = mediation();
+        m_prefetcher.prefetch(dm);
+        assertEquals(1, m_prefetcher.getInFlightCount());
+
+        MIMETypedStream content = DatastreamPrefetcher.take(dm);
+        assertEquals("content", IOUtils.toString(content.getStream()));
+        // the connection was released before the content was taken
+        assertEquals(1, ecm.getClosedCount());
+        assertEquals(0, m_prefetcher.getInFlightCount());
+        assertNull(DatastreamPrefetcher.take(dm));
+    }
+
+    @Test
+    public void testTooLarge() throws Exception {
+        StubContentManager ecm =
+                new StubContentManager("content larger than the limit", null);
+        m_prefetcher = new DatastreamPrefetcher(ecm, 1, 10);
+        DatastreamMediation dm = mediation();
+        m_prefetcher.prefetch(dm);
+
+        assertNull(DatastreamPrefetcher.take(dm));
+        assertEquals(1, ecm.getClosedCount());
+        assertEquals(0, m_prefetcher.getInFlightCount());
+    }
+
+    @Test
+    public void testDiscard() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        StubContentManager ecm = new StubContentManager("content", release);
+        m_prefetcher = new DatastreamPrefetcher(ecm, 1, 100);
+        DatastreamMediation dm = mediation();
+        m_prefetcher.prefetch(dm);
+
+        DatastreamPrefetcher.discard(dm);
+        assertNull(dm.prefetched);
+        assertEquals(0, m_prefetcher.getInFlightCount());
+        release.countDown();
+        assertNull(DatastreamPrefetcher.take(dm));
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        StubContentManager ecm = new StubContentManager("content", null);
+        m_prefetcher = new DatastreamPrefetcher(ecm, 1, 100);
+        DatastreamMediationRegistry registry =
+                new DatastreamMediationRegistry(0);
+        DatastreamMediation dm = mediation();
+        m_prefetcher.prefetch(dm);
+        String id = registry.register(dm);
+
+        assertNull(registry.get(id));
+        assertNull(dm.prefetched);
+        assertEquals(0, m_prefetcher.getInFlightCount());
+    }
+
+    @Test
+    public void testInFlightBound() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        StubContentManager ecm = new StubContentManager("content", release);
+        m_prefetcher = new DatastreamPrefetcher(ecm, 1, 100);
+        DatastreamMediation[] dms = new DatastreamMediation[5];
+        for (int i = 0; i < dms.length; i++) {
+            dms[i] = mediation();
+            m_prefetcher.prefetch(dms[i]);
+        }
+        assertEquals(4, m_prefetcher.getInFlightCount());
+        assertNull(dms[4].prefetched);
+
+        release.countDown();
+        for (int i = 0; i < 4; i++) {
+            assertEquals("content", IOUtils.toString(DatastreamPrefetcher
+                    .take(dms[i]).getStream()));
+        }
+        assertEquals(0, m_prefetcher.getInFlightCount());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        m_prefetcher = new DatastreamPrefetcher(new ExternalContentManager() {
+
+            public MIMETypedStream getExternalContent(ContentManagerParams params)
+                    throws ServerException {
+                throw new GeneralException("Not found");
+            }
+        }, 1, 100);
+        DatastreamMediation dm = mediation();
+        m_prefetcher.prefetch(dm);
+        try {
+            DatastreamPrefetcher.take(dm);
+            fail("Failed prefetch taken");
+        } catch (GeneralException e) {
+        }
+        assertEquals(0, m_prefetcher.getInFlightCount());
+    }
+
+    private static DatastreamMediation mediation() {
+        DatastreamMediation dm = new DatastreamMediation();
+        dm.dsControlGroupType = "E";
+        dm.dsLocation = "http://example.org/content";
+        return dm;
+    }
+
+    /**
+     * Serves fixed content, optionally waiting for a latch first, and counts
+     * how many of the streams it served were closed.
+     */
+    private static class StubContentManager
+            implements ExternalContentManager {
+
+        private final String m_content;
+
+        private final CountDownLatch m_release;
+
+        private final AtomicInteger m_closed = new AtomicInteger();
+
+        StubContentManager(String content, CountDownLatch release) {
+            m_content = content;
+            m_release = release;
+        }
+
+        public MIMETypedStream getExternalContent(ContentManagerParams params)
+                throws ServerException {
+            if (m_release != null) {
+                try {
+                    assertTrue(m_release.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new GeneralException("Interrupted", e);
+                }
+            }
+            return new MIMETypedStream("text/plain",
+                                       new ByteArrayInputStream(m_content
+                                               .getBytes()) {
+
+                                           @Override
+                                           public void close()
+                                                   throws IOException {
+                                               m_closed.incrementAndGet();
+                                           }
+                                       },
+                                       null);
+        }
+
+        int getClosedCount() {
+            return m_closed.get();
+        }
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TestDatastreamPrefetcher.class);
+    }
+}
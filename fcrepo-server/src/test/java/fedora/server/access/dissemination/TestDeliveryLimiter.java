@@ -0,0 +1,77 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.access.dissemination;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for DeliveryLimiter.
+ */
+public class TestDeliveryLimiter {
+
+    @Test
+    public void testRefusedAtLimit() {
+        DeliveryLimiter limiter = new DeliveryLimiter(2, 10);
+        assertTrue(limiter.acquire());
+        assertTrue(limiter.acquire());
+        assertFalse(limiter.acquire());
+        limiter.release();
+        assertTrue(limiter.acquire());
+    }
+
+    @Test
+    public void testReleasedAfterSend() throws Exception {
+        DeliveryLimiter limiter = new DeliveryLimiter(1, 10);
+        assertTrue(limiter.acquire());
+        assertFalse(limiter.acquire());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        limiter.send(new ByteArrayInputStream(new byte[3]), out);
+        assertEquals(3, out.size());
+        assertTrue(limiter.acquire());
+        assertFalse(limiter.acquire());
+    }
+
+    @Test
+    public void testReleasedWhenSendFails() throws Exception {
+        DeliveryLimiter limiter = new DeliveryLimiter(1, 10);
+        assertTrue(limiter.acquire());
+        OutputStream aborted = new OutputStream() {
+
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Client went away");
+            }
+        };
+        try {
+            limiter.send(new ByteArrayInputStream(new byte[3]), aborted);
+            fail("Write to aborted client succeeded");
+        } catch (IOException e) {
+        }
+        assertTrue(limiter.acquire());
+    }
+
+    @Test
+    public void testUnlimited() {
+        DeliveryLimiter limiter = new DeliveryLimiter(0, 10);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.acquire());
+        }
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TestDeliveryLimiter.class);
+    }
+}
@@ -0,0 +1,201 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.access.dissemination;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fedora.server.storage.types.DisseminationBindingInfo;
+import fedora.server.storage.types.MIMETypedStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for DisseminationCache.
+ */
+public class TestDisseminationCache {
+
+    private static final String SDEP = "demo:sdep";
+
+    private File m_dir;
+
+    @Before
+    public void setUp() throws Exception {
+        m_dir = File.createTempFile("disscache", "");
+        m_dir.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = m_dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        m_dir.delete();
+    }
+
+    @Test
+    public void testCachedAfterFullRead() throws Exception {
+        DisseminationCache cache = newCache(1000, 100, 60);
+        assertNull(cache.get("k1"));
+
+        MIMETypedStream result = cache.put("k1", SDEP, stream("hello"));
+        assertEquals(0, cache.size());
+        assertEquals("hello", read(result));
+        assertEquals(1, cache.size());
+
+        MIMETypedStream cached = cache.get("k1");
+        assertNotNull(cached);
+        assertEquals("text/plain", cached.MIMEType);
+        assertEquals("hello", read(cached));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testNotCachedIfAbandoned() throws Exception {
+        DisseminationCache cache = newCache(1000, 100, 60);
+        MIMETypedStream result = cache.put("k1", SDEP, stream("hello"));
+        result.getStream().read();
+        result.close();
+        assertNull(cache.get("k1"));
+        assertEquals(0, m_dir.listFiles().length);
+    }
+
+    @Test
+    public void testNotCachedIfTooLarge() throws Exception {
+        DisseminationCache cache = newCache(1000, 100, 4);
+        assertEquals("hello", read(cache.put("k1", SDEP, stream("hello"))));
+        assertNull(cache.get("k1"));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        DisseminationCache cache = newCache(10, 8, 60);
+        read(cache.put("k1", SDEP, stream("aaaa")));
+        read(cache.put("k2", SDEP, stream("bbbb")));
+        read(cache.get("k1"));
+        read(cache.put("k3", SDEP, stream("cccc")));
+        assertEquals(2, cache.size());
+        assertNull(cache.get("k2"));
+        assertEquals("aaaa", read(cache.get("k1")));
+        assertEquals("cccc", read(cache.get("k3")));
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        Map<String, Long> ttl = new HashMap<String, Long>();
+        ttl.put(SDEP, new Long(1));
+        DisseminationCache cache =
+                new DisseminationCache(m_dir, 1000, 100, 60, ttl);
+        read(cache.put("k1", SDEP, stream("hello")));
+        Thread.sleep(10);
+        assertNull(cache.get("k1"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testKey() throws Exception {
+        DisseminationBindingInfo ds = new DisseminationBindingInfo();
+        ds.DSBindKey = "DS1";
+        ds.dsID = "DS1";
+        ds.dsVersionID = "DS1.0";
+        ds.dsCreateDT = new Date(1000);
+        ds.dsControlGroupType = "M";
+        DisseminationBindingInfo[] bindings = {ds};
+
+        Map<String, String> parms1 = new HashMap<String, String>();
+        parms1.put("a", "1");
+        parms1.put("b", "2");
+        Map<String, String> parms2 = new HashMap<String, String>();
+        parms2.put("b", "2");
+        parms2.put("a", "1");
+
+        String key = key(parms1, bindings);
+        assertEquals(key, key(parms2, bindings));
+
+        ds.dsCreateDT = new Date(2000);
+        assertFalse(key.equals(key(parms1, bindings)));
+
+        DisseminationCache cache = newCache(1000, 100, 60);
+        assertTrue(cache.isCacheable(SDEP, bindings));
+        assertFalse(cache.isCacheable("demo:other", bindings));
+        ds.dsControlGroupType = "E";
+        assertFalse(cache.isCacheable(SDEP, bindings));
+    }
+
+    @Test
+    public void testRedirectNotCached() throws Exception {
+        DisseminationCache cache = newCache(1000, 100, 60);
+        MIMETypedStream redirect =
+                new MIMETypedStream("application/fedora-redirect",
+                                    new ByteArrayInputStream(new byte[0]),
+                                    null);
+        assertTrue(redirect == cache.put("k1", SDEP, redirect));
+    }
+
+    private static String key(Map<String, String> parms,
+                              DisseminationBindingInfo[] bindings) {
+        return DisseminationCache.getKey("demo:1",
+                                         "demo:sdef",
+                                         "method",
+                                         parms,
+                                         SDEP,
+                                         new Date(0),
+                                         bindings);
+    }
+
+    private DisseminationCache newCache(long diskBytes,
+                                        long memoryBytes,
+                                        long entryBytes) throws IOException {
+        Map<String, Long> ttl = new HashMap<String, Long>();
+        ttl.put(SDEP, new Long(60000));
+        return new DisseminationCache(m_dir,
+                                      diskBytes,
+                                      memoryBytes,
+                                      entryBytes,
+                                      ttl);
+    }
+
+    private static MIMETypedStream stream(String content) {
+        return new MIMETypedStream("text/plain",
+                                   new ByteArrayInputStream(content.getBytes()),
+                                   null);
+    }
+
+    private static String read(MIMETypedStream result) throws IOException {
+        InputStream in = result.getStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[2];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        in.close();
+        return out.toString();
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TestDisseminationCache.class);
+    }
+}
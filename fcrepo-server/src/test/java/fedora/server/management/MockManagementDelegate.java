@@ -7,6 +7,7 @@ package fedora.server.management;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -16,6 +17,7 @@ import java.util.List;
 import fedora.server.Context;
 import fedora.server.errors.ServerException;
 import fedora.server.journal.JournalConstants;
+import fedora.server.storage.types.ContentDigest;
 import fedora.server.storage.types.Datastream;
 import fedora.server.storage.types.RelationshipTuple;
 
@@ -210,6 +212,25 @@ public class MockManagementDelegate
         return new ByteArrayInputStream(new byte[0]);
     }
 
+    public ObjectExport prepareExport(Context context,
+                                      String pid,
+                                      String format,
+                                      String exportContext,
+                                      String encoding)
+            throws ServerException {
+        calls.add(new Call("prepareExport",
+                           context,
+                           pid,
+                           format,
+                           exportContext,
+                           encoding));
+        return new ObjectExport() {
+
+            public void write(OutputStream out) {
+            }
+        };
+    }
+
     public Datastream getDatastream(Context context,
                                     String pid,
                                     String datastreamID,
@@ -270,6 +291,20 @@ public class MockManagementDelegate
         return new ByteArrayInputStream(new byte[0]);
     }
 
+    public ContentDigest getTempStreamDigest(String id) throws ServerException {
+        calls.add(new Call("getTempStreamDigest", id));
+        return null;
+    }
+
+    public String getTempStreamStagingKey(String id) throws ServerException {
+        calls.add(new Call("getTempStreamStagingKey", id));
+        return null;
+    }
+
+    public void removeTempStream(String id) throws ServerException {
+        calls.add(new Call("removeTempStream", id));
+    }
+
     public String ingest(Context context,
                          InputStream serialization,
                          String logMessage,
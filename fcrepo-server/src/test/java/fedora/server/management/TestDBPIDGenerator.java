@@ -0,0 +1,129 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.management;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import fedora.common.PID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for DBPIDGenerator, with the database replaced by a map.
+ */
+public class TestDBPIDGenerator {
+
+    @Test
+    public void testBlockWrittenOnce() throws Exception {
+        MemoryPIDGenerator gen = new MemoryPIDGenerator(10);
+        for (int i = 1; i <= 10; i++) {
+            assertEquals("demo:" + i, gen.generatePID("demo").toString());
+        }
+        assertEquals(1, gen.writes);
+        assertEquals(10, gen.highestIDs.get("demo").intValue());
+        assertEquals("demo:11", gen.generatePID("demo").toString());
+        assertEquals(2, gen.writes);
+        assertEquals("demo:11", gen.getLastPID().toString());
+    }
+
+    @Test
+    public void testRestartSkipsUnusedIDs() throws Exception {
+        MemoryPIDGenerator gen = new MemoryPIDGenerator(10);
+        gen.generatePID("demo");
+        gen.generatePID("demo");
+
+        MemoryPIDGenerator restarted =
+                new MemoryPIDGenerator(gen.highestIDs, 10);
+        assertEquals("demo:11", restarted.generatePID("demo").toString());
+    }
+
+    @Test
+    public void testGeneratePIDsContiguous() throws Exception {
+        MemoryPIDGenerator gen = new MemoryPIDGenerator(10);
+        gen.generatePID("demo");
+        PID[] pids = gen.generatePIDs("demo", 1000);
+        assertEquals(1000, pids.length);
+        assertEquals("demo:11", pids[0].toString());
+        assertEquals("demo:1010", pids[999].toString());
+        assertEquals(2, gen.writes);
+        assertEquals("demo:1011", gen.generatePID("demo").toString());
+    }
+
+    @Test
+    public void testNeverGeneratePID() throws Exception {
+        MemoryPIDGenerator gen = new MemoryPIDGenerator(10);
+        gen.generatePID("demo");
+        gen.neverGeneratePID("demo:5");
+        assertEquals("demo:6", gen.generatePID("demo").toString());
+        gen.neverGeneratePID("demo:50");
+        assertEquals("demo:51", gen.generatePID("demo").toString());
+        gen.neverGeneratePID("demo:3");
+        gen.neverGeneratePID("demo:abc");
+        assertEquals("demo:52", gen.generatePID("demo").toString());
+    }
+
+    @Test
+    public void testConcurrentGenerationUnique() throws Exception {
+        final MemoryPIDGenerator gen = new MemoryPIDGenerator(7);
+        final Set<String> pids =
+                Collections.synchronizedSet(new HashSet<String>());
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 500; i++) {
+                            pids.add(gen.generatePID("demo").toString());
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(4000, pids.size());
+        assertTrue(gen.highestIDs.get("demo").intValue() >= 4000);
+    }
+
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TestDBPIDGenerator.class);
+    }
+
+    private static class MemoryPIDGenerator
+            extends DBPIDGenerator {
+
+        final Map<String, Integer> highestIDs;
+
+        int writes;
+
+        MemoryPIDGenerator(int blockSize) {
+            this(new HashMap<String, Integer>(), blockSize);
+        }
+
+        MemoryPIDGenerator(Map<String, Integer> highestIDs, int blockSize) {
+            super(null, highestIDs, blockSize);
+            this.highestIDs = new HashMap<String, Integer>(highestIDs);
+        }
+
+        @Override
+        synchronized void setHighestID(String namespace, int id) {
+            highestIDs.put(namespace, new Integer(id));
+            writes++;
+        }
+    }
+}
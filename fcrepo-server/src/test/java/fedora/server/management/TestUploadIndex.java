@@ -0,0 +1,83 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.management;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for UploadIndex.
+ */
+public class TestUploadIndex {
+
+    @Test
+    public void testRemoveStartedBefore() {
+        UploadIndex index = new UploadIndex();
+        UploadIndex.Upload one = upload("1", 100);
+        UploadIndex.Upload two = upload("2", 200);
+        UploadIndex.Upload three = upload("3", 300);
+        index.add(one);
+        index.add(two);
+        index.add(three);
+
+        List<UploadIndex.Upload> removed = index.removeStartedBefore(250);
+        assertEquals(2, removed.size());
+        assertSame(one, removed.get(0));
+        assertSame(two, removed.get(1));
+        assertNull(index.get("1"));
+        assertNull(index.get("2"));
+        assertSame(three, index.get("3"));
+
+        assertEquals(0, index.removeStartedBefore(250).size());
+        assertEquals(1, index.removeStartedBefore(301).size());
+        assertNull(index.get("3"));
+    }
+
+    @Test
+    public void testReplacedUploadNotRemoved() {
+        UploadIndex index = new UploadIndex();
+        index.add(upload("1", 100));
+        UploadIndex.Upload replacement = upload("1", 200);
+        index.add(replacement);
+
+        assertEquals(0, index.removeStartedBefore(150).size());
+        assertSame(replacement, index.get("1"));
+        List<UploadIndex.Upload> removed = index.removeStartedBefore(250);
+        assertEquals(1, removed.size());
+        assertSame(replacement, removed.get(0));
+    }
+
+    @Test
+    public void testRemove() {
+        UploadIndex index = new UploadIndex();
+        UploadIndex.Upload one = upload("1", 100);
+        UploadIndex.Upload two = upload("2", 200);
+        index.add(one);
+        index.add(two);
+
+        assertTrue(index.remove(one));
+        assertNull(index.get("1"));
+        assertFalse(index.remove(one));
+        // a removed upload is not removed again when it expires
+        assertEquals(0, index.removeStartedBefore(150).size());
+        assertEquals(1, index.removeStartedBefore(250).size());
+    }
+
+    private static UploadIndex.Upload upload(String id, long startTime) {
+        return new UploadIndex.Upload(id, startTime, null, null);
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TestUploadIndex.class);
+    }
+}
@@ -0,0 +1,157 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.management;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import java.security.MessageDigest;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fedora.utilities.Base64;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the sessions of UploadSessions.
+ */
+public class TestUploadSessions {
+
+    private File m_dir;
+
+    @Before
+    public void setUp() throws Exception {
+        m_dir = File.createTempFile("upload-session", null);
+        m_dir.delete();
+        m_dir.mkdirs();
+        new File(m_dir, "data").createNewFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(m_dir);
+    }
+
+    @Test
+    public void testChunksInAnyOrder() throws Exception {
+        UploadSessions.Session session =
+                new UploadSessions.Session(m_dir, 10, null);
+        session.write(6, stream("6789"), null);
+        session.write(0, stream("012"), null);
+        assertEquals("length: 10\nreceived: 0-2, 6-9\n", session.getStatus());
+        try {
+            session.finish();
+            fail("Finished an incomplete session");
+        } catch (IllegalArgumentException expected) {
+        }
+        session.write(3, stream("345"), null);
+        assertEquals("length: 10\nreceived: 0-9\n", session.getStatus());
+        session.finish();
+        assertEquals("0123456789", read(session.getDataFile()));
+    }
+
+    @Test
+    public void testChunkChecksum() throws Exception {
+        UploadSessions.Session session =
+                new UploadSessions.Session(m_dir, -1, null);
+        String md5 = Base64.encodeToString(MessageDigest.getInstance("MD5")
+                .digest("0123".getBytes("UTF-8")));
+        try {
+            session.write(0, stream("0124"), md5);
+            fail("Accepted a chunk that does not match its checksum");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals("received: \n", session.getStatus());
+        session.write(0, stream("0123"), md5);
+        assertEquals("received: 0-3\n", session.getStatus());
+    }
+
+    @Test
+    public void testBadRetryLeavesContent() throws Exception {
+        UploadSessions.Session session =
+                new UploadSessions.Session(m_dir, 4, null);
+        String md5 = Base64.encodeToString(MessageDigest.getInstance("MD5")
+                .digest("0123".getBytes("UTF-8")));
+        session.write(0, stream("0123"), md5);
+        try {
+            session.write(0, stream("0124"), md5);
+            fail("Accepted a chunk that does not match its checksum");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            session.write(2, stream("234"), null);
+            fail("Accepted a chunk beyond the upload length");
+        } catch (IllegalArgumentException expected) {
+        }
+        session.finish();
+        assertEquals("0123", read(session.getDataFile()));
+        // no spooled chunks are left behind
+        assertEquals(2, m_dir.list().length);
+    }
+
+    @Test
+    public void testWriteAfterFinish() throws Exception {
+        UploadSessions.Session session =
+                new UploadSessions.Session(m_dir, 2, null);
+        session.write(0, stream("01"), null);
+        session.finish();
+        try {
+            session.write(0, stream("ab"), null);
+            fail("Accepted a chunk after the session was finished");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals("01", read(session.getDataFile()));
+    }
+
+    @Test
+    public void testChunkBeyondLength() throws Exception {
+        UploadSessions.Session session =
+                new UploadSessions.Session(m_dir, 4, null);
+        try {
+            session.write(2, stream("234"), null);
+            fail("Accepted a chunk beyond the upload length");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        UploadSessions.Session session =
+                new UploadSessions.Session(m_dir, 10, "fedoraAdmin");
+        session.write(0, stream("01"), null);
+        session.write(4, stream("45"), null);
+
+        UploadSessions.Session loaded = UploadSessions.Session.load(m_dir);
+        assertEquals("fedoraAdmin", loaded.getOwner());
+        assertEquals(session.getStatus(), loaded.getStatus());
+    }
+
+    private static InputStream stream(String s) throws Exception {
+        return new ByteArrayInputStream(s.getBytes("UTF-8"));
+    }
+
+    private static String read(File file) throws Exception {
+        InputStream in = new FileInputStream(file);
+        try {
+            return IOUtils.toString(in, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TestUploadSessions.class);
+    }
+}
@@ -0,0 +1,296 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.oai;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import mock.sql.MockConnection;
+import mock.sql.MockDriver;
+import mock.sql.MockPreparedStatement;
+
+import fedora.oai.Header;
+import fedora.oai.ListHandler;
+import fedora.oai.Record;
+import fedora.oai.ResumptionToken;
+
+import fedora.server.storage.ConnectionPool;
+import fedora.server.storage.MockRepositoryReader;
+import fedora.server.storage.types.BasicDigitalObject;
+import fedora.server.storage.types.DatastreamXMLMetadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the streamed lists of FedoraOAIProvider.
+ */
+public class TestFedoraOAIProvider {
+
+    private static final String DC =
+            "<oai_dc:dc"
+                    + " xmlns:oai_dc=\"http://www.openarchives.org/OAI/2.0/oai_dc/\""
+                    + " xmlns:dc=\"http://purl.org/dc/elements/1.1/\">"
+                    + "<dc:title>Title</dc:title></oai_dc:dc>";
+
+    private static final long DATE = 1234567890000L;
+
+    private final ListMockDriver m_driver = new ListMockDriver();
+
+    private final List<Object[]> m_rows = new ArrayList<Object[]>();
+
+    private ListStatement m_statement;
+
+    private ConnectionPool m_pool;
+
+    private MockRepositoryReader m_reader;
+
+    @Before
+    public void setUp() throws Exception {
+        DriverManager.registerDriver(m_driver);
+        // a single connection, so that one still held can't be had again
+        m_pool =
+                new ConnectionPool(MockDriver.class.getName(),
+                                   "mock://bogus.url",
+                                   "bogusUsername",
+                                   "bogusPassword",
+                                   1,
+                                   1,
+                                   0,
+                                   0,
+                                   0,
+                                   2,
+                                   300,
+                                   null,
+                                   false,
+                                   false,
+                                   false,
+                                   (byte) 0);
+        m_reader = new MockRepositoryReader();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_pool.close();
+        DriverManager.deregisterDriver(m_driver);
+    }
+
+    @Test
+    public void testListRecords() throws Exception {
+        addObject("demo:1", DATE);
+        addObject("demo:2", DATE + 1000);
+        addObject("demo:3", DATE + 2000);
+        RecordingHandler handler = new RecordingHandler();
+
+        getProvider(10).listRecords(null, null, "oai_dc", null, handler);
+        assertEquals(3, handler.records.size());
+        assertEquals("oai:example.org:demo:1", handler.records.get(0)
+                .getHeader().getIdentifier());
+        assertTrue(handler.records.get(0).getMetadata()
+                .indexOf("<dc:title>Title</dc:title>") != -1);
+        assertEquals(new Date(DATE + 2000), handler.records.get(2)
+                .getHeader().getDatestamp());
+        assertEquals(null, handler.token);
+    }
+
+    @Test
+    public void testUnreadableRecordLeftOut() throws Exception {
+        addObject("demo:1", DATE);
+        // in the doFields table, but can't be read from the repository
+        m_rows.add(new Object[] {"demo:2", DATE + 1000});
+        addObject("demo:3", DATE + 2000);
+        addObject("demo:4", DATE + 3000);
+        RecordingHandler handler = new RecordingHandler();
+
+        getProvider(3).listRecords(null, null, "oai_dc", null, handler);
+        assertEquals(2, handler.records.size());
+        assertEquals("oai:example.org:demo:1", handler.records.get(0)
+                .getHeader().getIdentifier());
+        assertEquals("oai:example.org:demo:3", handler.records.get(1)
+                .getHeader().getIdentifier());
+
+        // the list resumes after the last item of the page, sent or not
+        assertNotNull(handler.token);
+        ListToken next = ListToken.parse(handler.token.getValue());
+        assertEquals("demo:3", next.getLastPID());
+        assertEquals(DATE + 2000, next.getLastDate());
+        assertEquals(3, next.getCursor());
+    }
+
+    @Test
+    public void testResumedLastPart() throws Exception {
+        addObject("demo:4", DATE + 3000);
+        RecordingHandler handler = new RecordingHandler();
+        String token =
+                new ListToken("oai_dc", -1, -1).next(DATE + 2000, "demo:3", 3)
+                        .toString();
+
+        getProvider(3).listRecords(token, handler);
+        assertEquals(1, handler.records.size());
+        assertEquals("demo:3", m_statement.getParameters()[3]);
+        assertNotNull(handler.token);
+        assertEquals(null, handler.token.getValue());
+        assertEquals(3, handler.token.getCursor());
+    }
+
+    private FedoraOAIProvider getProvider(long maxRecords) {
+        return new FedoraOAIProvider("Test Repository",
+                                     "example.org",
+                                     "localhost",
+                                     "/fedora/oai",
+                                     new HashSet(),
+                                     null,
+                                     "demo",
+                                     100,
+                                     maxRecords,
+                                     maxRecords,
+                                     null,
+                                     m_pool,
+                                     m_reader);
+    }
+
+    private void addObject(String pid, long dcmDate) {
+        DatastreamXMLMetadata dc = new DatastreamXMLMetadata();
+        dc.DatastreamID = "DC";
+        dc.DSVersionID = "DC1.0";
+        dc.DSCreateDT = new Date(dcmDate);
+        dc.xmlContent = DC.getBytes();
+        BasicDigitalObject obj = new BasicDigitalObject();
+        obj.setPid(pid);
+        obj.addDatastreamVersion(dc, false);
+        m_reader.putObject(obj);
+        m_rows.add(new Object[] {pid, dcmDate});
+    }
+
+    /**
+     * Collects what it is handed, after checking that the database has been
+     * let go of.
+     */
+    private class RecordingHandler
+            implements ListHandler {
+
+        final List<Record> records = new ArrayList<Record>();
+
+        ResumptionToken token;
+
+        public void handleRecord(Record record) {
+            released();
+            records.add(record);
+        }
+
+        public void handleHeader(Header header) {
+            fail("Header handed on for ListRecords");
+        }
+
+        public void handleResumptionToken(ResumptionToken token) {
+            released();
+            this.token = token;
+        }
+
+        private void released() {
+            assertTrue(m_statement.closed);
+            try {
+                m_pool.free(m_pool.getConnection());
+            } catch (SQLException e) {
+                fail("Connection still held while writing: " + e);
+            }
+        }
+    }
+
+    /**
+     * Answers the list query with the test's rows.
+     */
+    private class ListStatement
+            extends MockPreparedStatement {
+
+        boolean closed;
+
+        private int m_maxRows;
+
+        ListStatement(String sql) {
+            super(sql);
+        }
+
+        @Override
+        public void setMaxRows(int max) {
+            m_maxRows = max;
+        }
+
+        @Override
+        public ResultSet executeQuery() {
+            final List<Object[]> rows =
+                    m_rows.subList(0, Math.min(m_rows.size(), m_maxRows));
+            return (ResultSet) Proxy.newProxyInstance(getClass()
+                    .getClassLoader(), new Class[] {ResultSet.class},
+                    new InvocationHandler() {
+
+                        private int m_row = -1;
+
+                        public Object invoke(Object proxy,
+                                             Method method,
+                                             Object[] args) {
+                            String name = method.getName();
+                            if (name.equals("next")) {
+                                return ++m_row < rows.size();
+                            } else if (name.equals("getString")) {
+                                return rows.get(m_row)[0];
+                            } else if (name.equals("getLong")) {
+                                return rows.get(m_row)[1];
+                            } else if (name.equals("close")) {
+                                return null;
+                            }
+                            throw new UnsupportedOperationException(name);
+                        }
+                    });
+        }
+
+        @Override
+        public void close() throws SQLException {
+            super.close();
+            closed = true;
+        }
+    }
+
+    private class ListMockDriver
+            extends MockDriver {
+
+        @Override
+        public Connection connect(String url, Properties info)
+                throws SQLException {
+            return new MockConnection() {
+
+                @Override
+                public PreparedStatement prepareStatement(String sql) {
+                    m_statement = new ListStatement(sql);
+                    return m_statement;
+                }
+            };
+        }
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TestFedoraOAIProvider.class);
+    }
+}
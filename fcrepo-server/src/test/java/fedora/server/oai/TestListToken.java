@@ -0,0 +1,69 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.oai;
+
+import org.junit.Test;
+
+import fedora.oai.BadResumptionTokenException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for ListToken.
+ */
+public class TestListToken {
+
+    @Test
+    public void testUnboundedRoundTrip() throws Exception {
+        ListToken start = new ListToken("oai_dc", -1, -1);
+        assertFalse(start.isResumed());
+
+        ListToken token =
+                ListToken.parse(start.next(1234567890123L, "demo:5", 100)
+                        .toString());
+        assertEquals("oai_dc", token.getMetadataPrefix());
+        assertFalse(token.hasFrom());
+        assertFalse(token.hasUntil());
+        assertEquals(100, token.getCursor());
+        assertTrue(token.isResumed());
+        assertEquals(1234567890123L, token.getLastDate());
+        assertEquals("demo:5", token.getLastPID());
+    }
+
+    @Test
+    public void testBoundedRoundTrip() throws Exception {
+        ListToken start = new ListToken("oai_dc", 1000, 2000);
+        ListToken token =
+                ListToken.parse(start.next(1500, "a:b:c", 10).next(1600,
+                                                                   "x:1",
+                                                                   10)
+                        .toString());
+        assertEquals(1000, token.getFrom());
+        assertEquals(2000, token.getUntil());
+        assertEquals(20, token.getCursor());
+        assertEquals("x:1", token.getLastPID());
+    }
+
+    @Test
+    public void testMalformed() {
+        String[] values =
+                {"", "oai_dc", "oai_dc:::0:0:", "oai_dc:x::0:0:demo:1",
+                        "oai_dc:-5::0:0:demo:1"};
+        for (String value : values) {
+            try {
+                ListToken.parse(value);
+                fail("Expected BadResumptionTokenException for " + value);
+            } catch (BadResumptionTokenException e) {
+            }
+        }
+    }
+
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TestListToken.class);
+    }
+}
@@ -0,0 +1,137 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.resourceIndex;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for PreparedQuery.
+ */
+public class TestPreparedQuery {
+
+    private static final String QUERY =
+            "select $o from <#ri> where $o <fedora-rels-ext:isMemberOf> "
+                    + "<info:fedora/${pid}> and $o <fedora-model:state> "
+                    + "<info:fedora/fedora-system:def/model#${ state }>";
+
+    @Test
+    public void testBind() {
+        PreparedQuery query =
+                new PreparedQuery("members", "tuples", "itql", QUERY, null);
+        assertEquals(2, query.getParameterNames().length);
+        assertEquals("pid", query.getParameterNames()[0]);
+        assertEquals("state", query.getParameterNames()[1]);
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("pid", "demo:1");
+        values.put("state", "Active");
+        assertEquals("select $o from <#ri> where $o "
+                + "<fedora-rels-ext:isMemberOf> <info:fedora/demo:1> and $o "
+                + "<fedora-model:state> "
+                + "<info:fedora/fedora-system:def/model#Active>", query
+                .bind(values));
+    }
+
+    @Test
+    public void testNoParameters() {
+        PreparedQuery query =
+                new PreparedQuery("all", "triples", "spo", "* * *", null);
+        assertEquals(0, query.getParameterNames().length);
+        assertEquals("* * *", query.bind(new HashMap<String, String>()));
+    }
+
+    @Test
+    public void testBadValues() {
+        PreparedQuery query =
+                new PreparedQuery("members", "tuples", "itql", QUERY, null);
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("pid", "demo:1");
+        assertBindFails(query, values);
+        values.put("state", "Active");
+        values.put("pid", "demo:1> or <x");
+        assertBindFails(query, values);
+        values.put("pid", "demo:1\"");
+        assertBindFails(query, values);
+        values.put("pid", "");
+        assertBindFails(query, values);
+        values.put("pid", "demo:1#");
+        assertBindFails(query, values);
+        values.put("pid", "demo:1;?s");
+        assertBindFails(query, values);
+        values.put("pid", "demo:1$o");
+        assertBindFails(query, values);
+        values.put("pid", "str(?o)");
+        assertBindFails(query, values);
+        values.put("pid", "demo:1.");
+        assertBindFails(query, values);
+        values.put("pid", "demo:1 ");
+        assertBindFails(query, values);
+    }
+
+    @Test
+    public void testIdentifierValues() {
+        PreparedQuery query =
+                new PreparedQuery("members", "tuples", "itql", QUERY, null);
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("state", "Active");
+        values.put("pid", "my.name-space:a_b~c%20d");
+        query.bind(values);
+        values.put("pid", "http://example.org/x/y");
+        query.bind(values);
+    }
+
+    @Test
+    public void testBadQueries() {
+        try {
+            new PreparedQuery("q", "tuples", "itql", "select ${pid", null);
+            fail("Unterminated placeholder accepted");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new PreparedQuery("q", "rows", "itql", "select", null);
+            fail("Unknown type accepted");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new PreparedQuery("q", "tuples", "itql", "select", "$s $p $o");
+            fail("Template accepted for a tuples query");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testStatistics() {
+        PreparedQuery query =
+                new PreparedQuery("all", "triples", "spo", "* * *", null);
+        query.recordRun(10, false);
+        query.recordRun(30, false);
+        query.recordRun(1, true);
+        query.recordError();
+        assertEquals(3, query.getRunCount());
+        assertEquals(1, query.getCacheHitCount());
+        assertEquals(1, query.getErrorCount());
+        assertEquals(41, query.getTotalMillis());
+        assertEquals(30, query.getMaxMillis());
+    }
+
+    private static void assertBindFails(PreparedQuery query,
+                                        Map<String, String> values) {
+        try {
+            query.bind(values);
+            fail("Bound with bad values: " + values);
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TestPreparedQuery.class);
+    }
+}
@@ -0,0 +1,81 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.resourceIndex;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for QueryResultCache.
+ */
+public class TestQueryResultCache {
+
+    private static final byte[] RESULT = new byte[] {1, 2, 3};
+
+    @Test
+    public void testHitAtSameGeneration() {
+        QueryResultCache cache = new QueryResultCache(10, 100, 60000);
+        assertNull(cache.get("q", 0));
+        cache.put("q", 0, RESULT);
+        assertNotNull(cache.get("q", 0));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testNewGenerationDiscardsAll() {
+        QueryResultCache cache = new QueryResultCache(10, 100, 60000);
+        cache.put("a", 0, RESULT);
+        cache.put("b", 0, RESULT);
+        assertNull(cache.get("a", 1));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testResultFromOldGenerationNotStored() {
+        QueryResultCache cache = new QueryResultCache(10, 100, 60000);
+        assertNull(cache.get("a", 2));
+        // a query that started before the update finishes after it
+        cache.put("a", 1, RESULT);
+        assertNull(cache.get("a", 2));
+    }
+
+    @Test
+    public void testLimits() throws Exception {
+        QueryResultCache cache = new QueryResultCache(2, 2, 60000);
+        cache.put("large", 0, RESULT);
+        assertNull(cache.get("large", 0));
+
+        byte[] small = new byte[] {1};
+        cache.put("a", 0, small);
+        cache.put("b", 0, small);
+        cache.get("a", 0);
+        cache.put("c", 0, small);
+        assertNull(cache.get("b", 0));
+        assertNotNull(cache.get("a", 0));
+
+        cache = new QueryResultCache(2, 2, 1);
+        cache.put("a", 0, small);
+        Thread.sleep(10);
+        assertNull(cache.get("a", 0));
+    }
+
+    @Test
+    public void testDisabled() {
+        QueryResultCache cache = new QueryResultCache(0, 100, 60000);
+        assertFalse(cache.isEnabled());
+        cache.put("a", 0, RESULT);
+        assertNull(cache.get("a", 0));
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TestQueryResultCache.class);
+    }
+}
@@ -8,7 +8,8 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses( { TestPolicyParser.class })
+@Suite.SuiteClasses( {TestPolicyParser.class, TestObjectPolicyCache.class,
+        TestAuthzDecisionCache.class})
 public class AllUnitTests {
 
     // Supports legacy tests runners
@@ -17,6 +18,8 @@ public class AllUnitTests {
         junit.framework.TestSuite suite =
                 new junit.framework.TestSuite(AllUnitTests.class.getName());
         suite.addTest(TestPolicyParser.suite());
+        suite.addTest(TestObjectPolicyCache.suite());
+        suite.addTest(TestAuthzDecisionCache.suite());
 
         return suite;
     }
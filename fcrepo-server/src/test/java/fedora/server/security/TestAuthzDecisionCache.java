@@ -0,0 +1,121 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.security;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for AuthzDecisionCache.
+ */
+public class TestAuthzDecisionCache {
+
+    @Test
+    public void testPutAndGet() {
+        AuthzDecisionCache cache = new AuthzDecisionCache(10, 60000);
+        assertNull(cache.get("k1"));
+        cache.put("k1", "demo:1", true);
+        cache.put("k2", "demo:1", false);
+        assertEquals(Boolean.TRUE, cache.get("k1"));
+        assertEquals(Boolean.FALSE, cache.get("k2"));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testRemoveByPid() {
+        AuthzDecisionCache cache = new AuthzDecisionCache(10, 60000);
+        cache.put("k1", "demo:1", true);
+        cache.put("k2", "demo:1", true);
+        cache.put("k3", "demo:2", true);
+        cache.remove("demo:1");
+        assertNull(cache.get("k1"));
+        assertNull(cache.get("k2"));
+        assertEquals(Boolean.TRUE, cache.get("k3"));
+    }
+
+    @Test
+    public void testPutAfterDiscardIgnored() {
+        AuthzDecisionCache cache = new AuthzDecisionCache(10, 60000);
+        // a request starts evaluating, then policies are reloaded
+        long generation = cache.getGeneration();
+        cache.clear();
+        cache.put("k1", "demo:1", true, generation);
+        assertNull(cache.get("k1"));
+
+        // then the object is modified
+        generation = cache.getGeneration();
+        cache.remove("demo:1");
+        cache.put("k2", "demo:1", true, generation);
+        assertNull(cache.get("k2"));
+
+        generation = cache.getGeneration();
+        cache.put("k3", "demo:1", true, generation);
+        assertEquals(Boolean.TRUE, cache.get("k3"));
+    }
+
+    @Test
+    public void testRemoveOnlyAffectsItsObject() {
+        AuthzDecisionCache cache = new AuthzDecisionCache(10, 60000);
+        // a request starts evaluating, then another object is modified
+        long generation = cache.getGeneration();
+        cache.remove("demo:2");
+        cache.put("k1", "demo:1", true, generation);
+        cache.put("k2", "demo:2", true, generation);
+        assertEquals(Boolean.TRUE, cache.get("k1"));
+        assertNull(cache.get("k2"));
+    }
+
+    @Test
+    public void testPrunedRemovalStillDiscards() throws Exception {
+        AuthzDecisionCache cache = new AuthzDecisionCache(10, 5);
+        long generation = cache.getGeneration();
+        cache.remove("demo:1");
+        Thread.sleep(20);
+        // prunes the removal of demo:1, which is too old to matter
+        cache.remove("demo:2");
+        cache.put("k1", "demo:1", true, generation);
+        assertNull(cache.get("k1"));
+
+        generation = cache.getGeneration();
+        cache.put("k2", "demo:1", true, generation);
+        assertEquals(Boolean.TRUE, cache.get("k2"));
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        AuthzDecisionCache cache = new AuthzDecisionCache(10, 1);
+        cache.put("k1", "demo:1", true);
+        Thread.sleep(10);
+        assertNull(cache.get("k1"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testBounded() {
+        AuthzDecisionCache cache = new AuthzDecisionCache(2, 60000);
+        cache.put("k1", "demo:1", true);
+        cache.put("k2", "demo:2", true);
+        cache.put("k3", "demo:3", true);
+        assertEquals(2, cache.size());
+        assertNull(cache.get("k1"));
+    }
+
+    @Test
+    public void testDisabled() {
+        AuthzDecisionCache cache = new AuthzDecisionCache(0, 60000);
+        assertFalse(cache.isEnabled());
+        cache.put("k1", "demo:1", true);
+        assertNull(cache.get("k1"));
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TestAuthzDecisionCache.class);
+    }
+}
@@ -0,0 +1,83 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.security;
+
+import com.sun.xacml.AbstractPolicy;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import fedora.server.utilities.StreamUtility;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for ObjectPolicyCache.
+ */
+public class TestObjectPolicyCache {
+
+    private AbstractPolicy m_policy;
+
+    @Before
+    public void setUp() throws Exception {
+        m_policy = new MockPolicyParser().parse(StreamUtility
+                .getStream(TestPolicyParser.POLICY_GOODENOUGH), false);
+    }
+
+    @Test
+    public void testHitOnSameVersion() {
+        ObjectPolicyCache cache = new ObjectPolicyCache(10);
+        assertNull(cache.get("demo:1", "POLICY.0/1"));
+        cache.put("demo:1", "POLICY.0/1", m_policy);
+        assertSame(m_policy, cache.get("demo:1", "POLICY.0/1"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getParseCount());
+        assertEquals(0.5, cache.getHitRatio(), 0.0001);
+    }
+
+    @Test
+    public void testMissOnNewVersion() {
+        ObjectPolicyCache cache = new ObjectPolicyCache(10);
+        cache.put("demo:1", "POLICY.0/1", m_policy);
+        assertNull(cache.get("demo:1", "POLICY.1/2"));
+    }
+
+    @Test
+    public void testRemove() {
+        ObjectPolicyCache cache = new ObjectPolicyCache(10);
+        cache.put("demo:1", "POLICY.0/1", m_policy);
+        cache.remove("demo:1");
+        assertNull(cache.get("demo:1", "POLICY.0/1"));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        ObjectPolicyCache cache = new ObjectPolicyCache(2);
+        cache.put("demo:1", "v", m_policy);
+        cache.put("demo:2", "v", m_policy);
+        cache.get("demo:1", "v");
+        cache.put("demo:3", "v", m_policy);
+        assertEquals(2, cache.size());
+        assertNull(cache.get("demo:2", "v"));
+        assertSame(m_policy, cache.get("demo:1", "v"));
+        assertSame(m_policy, cache.get("demo:3", "v"));
+    }
+
+    @Test
+    public void testDisabled() {
+        ObjectPolicyCache cache = new ObjectPolicyCache(0);
+        cache.put("demo:1", "v", m_policy);
+        assertNull(cache.get("demo:1", "v"));
+        assertEquals(1, cache.getParseCount());
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TestObjectPolicyCache.class);
+    }
+}
@@ -9,8 +9,9 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses( {fedora.server.storage.translation.AllUnitTests.class,
-                      fedora.server.storage.lowlevel.akubra.AllUnitTests.class})
+@Suite.SuiteClasses( {TestExternalContentCache.class,
+                      fedora.server.storage.translation.AllUnitTests.class,
+                      fedora.server.storage.lowlevel.AllUnitTests.class})
 public class AllUnitTests {
 
     // Supports legacy tests runners
@@ -19,8 +20,9 @@ public class AllUnitTests {
         junit.framework.TestSuite suite =
                 new junit.framework.TestSuite(AllUnitTests.class.getName());
 
+        suite.addTest(TestExternalContentCache.suite());
         suite.addTest(fedora.server.storage.translation.AllUnitTests.suite());
-        suite.addTest(fedora.server.storage.lowlevel.akubra.AllUnitTests.suite());
+        suite.addTest(fedora.server.storage.lowlevel.AllUnitTests.suite());
 
         return suite;
     }
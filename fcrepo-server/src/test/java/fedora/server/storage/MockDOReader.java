@@ -6,6 +6,7 @@
 package fedora.server.storage;
 
 import java.io.InputStream;
+import java.io.OutputStream;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -158,6 +159,11 @@ public class MockDOReader
         throw new RuntimeException("MockDOReader.Export not implemented");
     }
 
+    public void Export(String format, String exportContext, OutputStream out)
+            throws ServerException {
+        throw new RuntimeException("MockDOReader.Export not implemented");
+    }
+
     public Datastream[] GetDatastreams(Date versDateTime, String state)
             throws ServerException {
         throw new RuntimeException("MockDOReader.GetDatastreams not implemented");
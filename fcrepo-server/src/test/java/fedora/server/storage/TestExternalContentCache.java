@@ -0,0 +1,255 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fedora.server.storage.types.MIMETypedStream;
+import fedora.server.storage.types.Property;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for ExternalContentCache.
+ */
+public class TestExternalContentCache {
+
+    private static final String URL = "http://example.org/content";
+
+    /** Runs background revalidations immediately. */
+    private static final Executor SAME_THREAD = new Executor() {
+
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private File m_dir;
+
+    @Before
+    public void setUp() throws Exception {
+        m_dir = File.createTempFile("extcache", "");
+        m_dir.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = m_dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        m_dir.delete();
+    }
+
+    @Test
+    public void testFreshResponseServedFromCache() throws Exception {
+        ExternalContentCache cache = newCache(0, 0);
+        StubFetcher fetcher = new StubFetcher();
+        fetcher.respond(200, "one", "Cache-Control", "max-age=60");
+
+        assertEquals("one", read(cache.get(URL, URL, "text/plain", fetcher)));
+        fetcher.respond(200, "two", "Cache-Control", "max-age=60");
+        assertEquals("one", read(cache.get(URL, URL, "text/plain", fetcher)));
+        assertEquals(1, fetcher.requests.size());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testResponseWithoutValidatorsRefetched() throws Exception {
+        ExternalContentCache cache = newCache(60000, 0);
+        StubFetcher fetcher = new StubFetcher();
+        fetcher.respond(200, "one");
+
+        assertEquals("one", read(cache.get(URL, URL, "text/plain", fetcher)));
+        fetcher.respond(200, "two");
+        assertEquals("two", read(cache.get(URL, URL, "text/plain", fetcher)));
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void testHeuristicFreshnessFromLastModified() throws Exception {
+        ExternalContentCache cache = newCache(60000, 0);
+        StubFetcher fetcher = new StubFetcher();
+        fetcher.respond(200,
+                        "one",
+                        "Last-Modified",
+                        "Mon, 01 Jan 2001 00:00:00 GMT");
+
+        assertEquals("one", read(cache.get(URL, URL, "text/plain", fetcher)));
+        fetcher.respond(200, "two");
+        assertEquals("one", read(cache.get(URL, URL, "text/plain", fetcher)));
+        assertEquals(1, fetcher.requests.size());
+    }
+
+    @Test
+    public void testNoStoreNotCached() throws Exception {
+        ExternalContentCache cache = newCache(60000, 0);
+        StubFetcher fetcher = new StubFetcher();
+        fetcher.respond(200, "one", "Cache-Control", "no-store");
+
+        assertEquals("one", read(cache.get(URL, URL, "text/plain", fetcher)));
+        fetcher.respond(200, "two", "Cache-Control", "no-store");
+        assertEquals("two", read(cache.get(URL, URL, "text/plain", fetcher)));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testStaleResponseRevalidated() throws Exception {
+        ExternalContentCache cache = newCache(0, 0);
+        StubFetcher fetcher = new StubFetcher();
+        fetcher.respond(200, "one", "ETag", "\"v1\"");
+        assertEquals("one", read(cache.get(URL, URL, "text/plain", fetcher)));
+        assertNull(fetcher.requests.get(0));
+
+        fetcher.respond(304, "", "ETag", "\"v1\"");
+        MIMETypedStream stream = cache.get(URL, URL, "text/plain", fetcher);
+        assertEquals("one", read(stream));
+        assertEquals("\"v1\"", fetcher.requests.get(1).get("If-None-Match"));
+        assertEquals(1, cache.getRevalidationCount());
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() throws Exception {
+        ExternalContentCache cache = newCache(0, 60000);
+        StubFetcher fetcher = new StubFetcher();
+        fetcher.respond(200, "one");
+        assertEquals("one", read(cache.get(URL, URL, "text/plain", fetcher)));
+
+        // served stale, then replaced in the background
+        fetcher.respond(200, "two");
+        assertEquals("one", read(cache.get(URL, URL, "text/plain", fetcher)));
+        assertEquals(1, cache.getStaleHitCount());
+        assertEquals("two", read(cache.get(URL, URL, "text/plain", fetcher)));
+    }
+
+    @Test
+    public void testStaleServedOnError() throws Exception {
+        ExternalContentCache cache = newCache(0, 0);
+        StubFetcher fetcher = new StubFetcher();
+        fetcher.respond(200, "one");
+        assertEquals("one", read(cache.get(URL, URL, "text/plain", fetcher)));
+
+        fetcher.fail();
+        assertEquals("one", read(cache.get(URL, URL, "text/plain", fetcher)));
+    }
+
+    @Test
+    public void testMustRevalidateNotServedOnError() throws Exception {
+        ExternalContentCache cache = newCache(0, 60000);
+        StubFetcher fetcher = new StubFetcher();
+        fetcher.respond(200, "one", "Cache-Control", "must-revalidate");
+        assertEquals("one", read(cache.get(URL, URL, "text/plain", fetcher)));
+
+        fetcher.fail();
+        try {
+            cache.get(URL, URL, "text/plain", fetcher);
+            fail("Expected IOException");
+        } catch (IOException e) {
+        }
+    }
+
+    @Test
+    public void testLargeResponseNotCached() throws Exception {
+        ExternalContentCache cache = newCache(60000, 0);
+        StubFetcher fetcher = new StubFetcher();
+        StringBuffer large = new StringBuffer();
+        for (int i = 0; i < 2000; i++) {
+            large.append(i % 10);
+        }
+        fetcher.respond(200, large.toString());
+
+        assertEquals(large.toString(), read(cache.get(URL,
+                                                      URL,
+                                                      "text/plain",
+                                                      fetcher)));
+        assertEquals(0, cache.size());
+        assertEquals(0, m_dir.listFiles().length);
+    }
+
+    private ExternalContentCache newCache(long freshMillis, long staleMillis)
+            throws IOException {
+        return new ExternalContentCache(m_dir,
+                                        10000,
+                                        1000,
+                                        freshMillis,
+                                        staleMillis,
+                                        SAME_THREAD);
+    }
+
+    private static String read(MIMETypedStream stream) throws IOException {
+        InputStream in = stream.getStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1) {
+            out.write(c);
+        }
+        in.close();
+        return out.toString("UTF-8");
+    }
+
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TestExternalContentCache.class);
+    }
+
+    /**
+     * Returns a canned response, recording the request headers of each
+     * request.
+     */
+    private static class StubFetcher
+            implements ExternalContentCache.Fetcher {
+
+        final List<Map<String, String>> requests =
+                new ArrayList<Map<String, String>>();
+
+        private int m_status;
+
+        private String m_body;
+
+        private Property[] m_headers;
+
+        void respond(int status, String body, String... headers) {
+            m_status = status;
+            m_body = body;
+            m_headers = new Property[headers.length / 2];
+            for (int i = 0; i < m_headers.length; i++) {
+                m_headers[i] = new Property(headers[i * 2], headers[i * 2 + 1]);
+            }
+        }
+
+        void fail() {
+            m_body = null;
+        }
+
+        public ExternalContentCache.Response fetch(String url,
+                                                   Map<String, String> requestHeaders)
+                throws IOException {
+            requests.add(requestHeaders);
+            if (m_body == null) {
+                throw new IOException("Connection refused");
+            }
+            return new ExternalContentCache.Response(m_status,
+                                                     m_headers,
+                                                     new ByteArrayInputStream(m_body
+                                                             .getBytes("UTF-8")));
+        }
+    }
+}
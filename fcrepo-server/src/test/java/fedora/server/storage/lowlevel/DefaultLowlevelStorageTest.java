@@ -0,0 +1,187 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.storage.lowlevel;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fedora.server.errors.ObjectNotInLowlevelStorageException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the staging area of {@link DefaultLowlevelStorage}.
+ */
+public class DefaultLowlevelStorageTest {
+
+    private static final String DS_KEY = "test:obj+DS+DS.0";
+
+    private static final String DS_CONTENT = "ds-content";
+
+    private static final String DS_CONTENT2 = "ds-content2";
+
+    private File m_baseDir;
+
+    private File m_datastreamDir;
+
+    private DefaultLowlevelStorage m_storage;
+
+    @Before
+    public void setUp() throws Exception {
+        m_baseDir = File.createTempFile("fedora-lowlevel", null);
+        m_baseDir.delete();
+        m_baseDir.mkdirs();
+        File objectDir = new File(m_baseDir, "objects");
+        m_datastreamDir = new File(m_baseDir, "datastreams");
+        objectDir.mkdirs();
+        m_datastreamDir.mkdirs();
+
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put(DefaultLowlevelStorage.OBJECT_STORE_BASE,
+                   objectDir.getPath());
+        config.put(DefaultLowlevelStorage.DATASTREAM_STORE_BASE,
+                   m_datastreamDir.getPath());
+        config.put(DefaultLowlevelStorage.FILESYSTEM,
+                   GenericFileSystem.class.getName());
+        config.put(DefaultLowlevelStorage.PATH_ALGORITHM,
+                   TimestampPathAlgorithm.class.getName());
+        config.put(DefaultLowlevelStorage.PATH_REGISTRY,
+                   SimplePathRegistry.class.getName());
+        m_storage = new DefaultLowlevelStorage(config);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(m_baseDir);
+    }
+
+    /**
+     * Committing staged content should make it the content of a new
+     * datastream, and it should no longer be staged.
+     */
+    @Test
+    public void testCommitStagedDatastream() throws Exception {
+        stage("upload-1", DS_CONTENT);
+        assertEquals(DS_CONTENT,
+                     toString(m_storage.retrieveStagedDatastream("upload-1")));
+        assertEquals(1, toList(m_storage.listStagedDatastreams()).size());
+        assertFalse(m_storage.listDatastreams().hasNext());
+
+        m_storage.commitStagedDatastream("upload-1", DS_KEY);
+        assertEquals(DS_CONTENT, toString(m_storage.retrieveDatastream(DS_KEY)));
+        assertEquals(1, toList(m_storage.listDatastreams()).size());
+        assertFalse(m_storage.listStagedDatastreams().hasNext());
+    }
+
+    /**
+     * Committing staged content should replace the content of an existing
+     * datastream, without leaving a backup behind.
+     */
+    @Test
+    public void testCommitStagedDatastreamOverExisting() throws Exception {
+        m_storage.addDatastream(DS_KEY, toStream(DS_CONTENT));
+        stage("upload-1", DS_CONTENT2);
+        m_storage.commitStagedDatastream("upload-1", DS_KEY);
+        assertEquals(DS_CONTENT2,
+                     toString(m_storage.retrieveDatastream(DS_KEY)));
+        assertFalse(m_storage.listStagedDatastreams().hasNext());
+        assertEquals(1, FileUtils.listFiles(m_datastreamDir, null, true)
+                .size());
+    }
+
+    /** Staged content should not be under the datastream store base. */
+    @Test
+    public void testStagedOutsideStore() throws Exception {
+        stage("upload-1", DS_CONTENT);
+        assertEquals(0, FileUtils.listFiles(m_datastreamDir, null, true)
+                .size());
+    }
+
+    /** Committing content that is not staged should fail. */
+    @Test
+    public void testCommitNonStagedDatastream() throws Exception {
+        try {
+            m_storage.commitStagedDatastream("upload-1", DS_KEY);
+            fail("Committed content that was not staged");
+        } catch (ObjectNotInLowlevelStorageException e) {
+        }
+    }
+
+    /** Removed staged content should no longer be available. */
+    @Test
+    public void testRemoveStagedDatastream() throws Exception {
+        stage("upload-1", DS_CONTENT);
+        m_storage.removeStagedDatastream("upload-1");
+        assertFalse(m_storage.listStagedDatastreams().hasNext());
+        try {
+            m_storage.retrieveStagedDatastream("upload-1");
+            fail("Retrieved removed staged content");
+        } catch (ObjectNotInLowlevelStorageException e) {
+        }
+        // removing it again does nothing
+        m_storage.removeStagedDatastream("upload-1");
+    }
+
+    /** Staging keys should not be able to name files outside the area. */
+    @Test
+    public void testBadStagingKey() throws Exception {
+        String[] keys = {"../upload-1", "a/b", "a\\b", ".hidden"};
+        for (String key : keys) {
+            try {
+                m_storage.stageDatastream(key);
+                fail("Staged content with key " + key);
+            } catch (IllegalArgumentException e) {
+            }
+        }
+    }
+
+    private void stage(String stagingKey, String content) throws Exception {
+        OutputStream out = m_storage.stageDatastream(stagingKey);
+        out.write(content.getBytes("UTF-8"));
+        out.close();
+    }
+
+    private static List<String> toList(Iterator<String> iter) {
+        List<String> list = new ArrayList<String>();
+        while (iter.hasNext()) {
+            list.add(iter.next());
+        }
+        return list;
+    }
+
+    private static InputStream toStream(String string) throws Exception {
+        return new ByteArrayInputStream(string.getBytes("UTF-8"));
+    }
+
+    private static String toString(InputStream stream) throws Exception {
+        try {
+            return IOUtils.toString(stream, "UTF-8");
+        } finally {
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(DefaultLowlevelStorageTest.class);
+    }
+}
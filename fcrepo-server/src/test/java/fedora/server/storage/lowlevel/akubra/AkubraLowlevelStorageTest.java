@@ -9,6 +9,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -28,6 +29,7 @@ import fedora.server.errors.ObjectAlreadyInLowlevelStorageException;
 import fedora.server.errors.ObjectNotInLowlevelStorageException;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 /**
  * Unit tests for {@link AkubraLowlevelStorage}
@@ -261,6 +263,72 @@ public class AkubraLowlevelStorageTest {
         assertEquals(0, list.size());
     }
 
+    /**
+     * Committing staged content should make it the content of a new
+     * datastream, and it should no longer be staged.
+     */
+    @Test
+    public void testCommitStagedDatastream() throws Exception {
+        stage(instance, "upload-1", DS_CONTENT);
+        assertEquals(DS_CONTENT,
+                     toString(instance.retrieveStagedDatastream("upload-1")));
+        assertEquals(0, toList(instance.listDatastreams()).size());
+        assertEquals(1, toList(instance.listStagedDatastreams()).size());
+        instance.commitStagedDatastream("upload-1", DS_KEY);
+        assertEquals(DS_CONTENT, toString(instance.retrieveDatastream(DS_KEY)));
+        assertEquals(1, toList(instance.listDatastreams()).size());
+        assertFalse(instance.listStagedDatastreams().hasNext());
+    }
+
+    /**
+     * Committing staged content should replace the content of an existing
+     * datastream.
+     */
+    @Test
+    public void testCommitStagedDatastreamOverExisting() throws Exception {
+        instance.addDatastream(DS_KEY, toStream(DS_CONTENT));
+        stage(instance, "upload-1", DS_CONTENT2);
+        instance.commitStagedDatastream("upload-1", DS_KEY);
+        assertEquals(DS_CONTENT2, toString(instance.retrieveDatastream(DS_KEY)));
+    }
+
+    /**
+     * Committing staged content should safely replace the content of an
+     * existing datastream.
+     */
+    @Test
+    public void testCommitStagedDatastreamOverExistingSafely()
+            throws Exception {
+        safeInstance.addDatastream(DS_KEY, toStream(DS_CONTENT));
+        stage(safeInstance, "upload-1", DS_CONTENT2);
+        safeInstance.commitStagedDatastream("upload-1", DS_KEY);
+        assertEquals(DS_CONTENT2,
+                     toString(safeInstance.retrieveDatastream(DS_KEY)));
+        assertEquals(1, toList(safeInstance.listDatastreams()).size());
+    }
+
+    /** Committing content that is not staged should fail. */
+    @Test (expected=ObjectNotInLowlevelStorageException.class)
+    public void testCommitNonStagedDatastream() throws Exception {
+        instance.commitStagedDatastream("upload-1", DS_KEY);
+    }
+
+    /** Removed staged content should no longer be retrievable. */
+    @Test (expected=ObjectNotInLowlevelStorageException.class)
+    public void testRemoveStagedDatastream() throws Exception {
+        stage(instance, "upload-1", DS_CONTENT);
+        instance.removeStagedDatastream("upload-1");
+        instance.retrieveStagedDatastream("upload-1");
+    }
+
+    private static void stage(AkubraLowlevelStorage storage,
+                              String stagingKey,
+                              String content) throws Exception {
+        OutputStream out = storage.stageDatastream(stagingKey);
+        out.write(content.getBytes("UTF-8"));
+        out.close();
+    }
+
     private static AkubraLowlevelStorage getInstance(
             boolean forceSafeObjectOverwrites,
             boolean forceSafeDatastreamOverwrites) {
@@ -8,7 +8,8 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses( {TestDateUtility.class, DCFieldsTest.class})
+@Suite.SuiteClasses( {TestDateUtility.class, DCFieldsTest.class,
+        TestDigestingOutputStream.class, TestCompressionFilter.class})
 public class AllUnitTests {
 
     // Supports legacy tests runners
@@ -19,6 +20,8 @@ public class AllUnitTests {
 
         suite.addTestSuite(TestDateUtility.class);
         suite.addTestSuite(DCFieldsTest.class);
+        suite.addTestSuite(TestDigestingOutputStream.class);
+        suite.addTest(TestCompressionFilter.suite());
 
         return suite;
     }
@@ -0,0 +1,186 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for CompressionFilter.
+ */
+public class TestCompressionFilter {
+
+    private CompressionFilter m_filter;
+
+    private Map<String, String> m_headers;
+
+    private ByteArrayOutputStream m_body;
+
+    @Before
+    public void setUp() throws Exception {
+        m_filter = new CompressionFilter();
+        m_filter.init(proxy(FilterConfig.class, new HashMap<String, String>()));
+        m_headers = new HashMap<String, String>();
+        m_body = new ByteArrayOutputStream();
+    }
+
+    @Test
+    public void testChooseEncoding() {
+        assertEquals("gzip", CompressionFilter.chooseEncoding("gzip, deflate"));
+        assertEquals("deflate", CompressionFilter.chooseEncoding("deflate"));
+        assertEquals("deflate",
+                     CompressionFilter.chooseEncoding("gzip;q=0, deflate"));
+        assertEquals("gzip", CompressionFilter.chooseEncoding("*"));
+        assertNull(CompressionFilter.chooseEncoding("gzip;q=0, *"));
+        assertNull(CompressionFilter.chooseEncoding("identity"));
+        assertNull(CompressionFilter.chooseEncoding(null));
+    }
+
+    @Test
+    public void testLargeXmlCompressed() throws Exception {
+        byte[] content = content(10000);
+        filter("text/xml; charset=UTF-8", content);
+        assertEquals("gzip", m_headers.get("Content-Encoding"));
+        assertNull(m_headers.get("Content-Length"));
+        assertTrue(m_body.size() < content.length);
+        assertTrue(Arrays.equals(content, gunzip(m_body.toByteArray())));
+    }
+
+    @Test
+    public void testSmallXmlNotCompressed() throws Exception {
+        byte[] content = content(100);
+        filter("application/xml", content);
+        assertNull(m_headers.get("Content-Encoding"));
+        assertEquals("100", m_headers.get("Content-Length"));
+        assertTrue(Arrays.equals(content, m_body.toByteArray()));
+    }
+
+    @Test
+    public void testBinaryNotCompressed() throws Exception {
+        byte[] content = content(10000);
+        filter("image/png", content);
+        assertNull(m_headers.get("Content-Encoding"));
+        assertEquals("10000", m_headers.get("Content-Length"));
+        assertTrue(Arrays.equals(content, m_body.toByteArray()));
+    }
+
+    /**
+     * Sends the content through the filter to a client that accepts gzip.
+     */
+    private void filter(final String contentType, final byte[] content)
+            throws Exception {
+        Map<String, String> request = new HashMap<String, String>();
+        request.put("Accept-Encoding", "gzip");
+        FilterChain chain = new FilterChain() {
+
+            public void doFilter(ServletRequest req, ServletResponse res)
+                    throws IOException {
+                res.setContentType(contentType);
+                res.setContentLength(content.length);
+                ServletOutputStream out = res.getOutputStream();
+                // written in pieces, as servlets do
+                out.write(content, 0, 10);
+                out.write(content, 10, content.length - 10);
+                out.flush();
+                out.close();
+            }
+        };
+        m_filter.doFilter(proxy(HttpServletRequest.class, request),
+                          proxy(HttpServletResponse.class, m_headers),
+                          chain);
+    }
+
+    private static byte[] content(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) ('a' + i % 7);
+        }
+        return content;
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        InputStream in =
+                new GZIPInputStream(new ByteArrayInputStream(compressed));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int len;
+        while ((len = in.read(buf)) != -1) {
+            out.write(buf, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Creates a request, response or filter config backed by a map of
+     * headers (or init-params), with the response body going to m_body.
+     */
+    private <T> T proxy(Class<T> type, final Map<String, String> headers) {
+        final ServletOutputStream body = new ServletOutputStream() {
+
+            @Override
+            public void write(int b) {
+                m_body.write(b);
+            }
+        };
+        InvocationHandler handler = new InvocationHandler() {
+
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("getHeader") || name.equals("getInitParameter")) {
+                    return headers.get(args[0]);
+                } else if (name.equals("getMethod")) {
+                    return "GET";
+                } else if (name.equals("setHeader") || name.equals("addHeader")) {
+                    headers.put((String) args[0], (String) args[1]);
+                } else if (name.equals("setContentType")) {
+                    headers.put("Content-Type", (String) args[0]);
+                } else if (name.equals("getContentType")) {
+                    return headers.get("Content-Type");
+                } else if (name.equals("setContentLength")) {
+                    headers.put("Content-Length", args[0].toString());
+                } else if (name.equals("getCharacterEncoding")) {
+                    return "UTF-8";
+                } else if (name.equals("getOutputStream")) {
+                    return body;
+                }
+                return null;
+            }
+        };
+        return type.cast(Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                new Class[] {type},
+                                                handler));
+    }
+
+    // Supports legacy test runners
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TestCompressionFilter.class);
+    }
+}
@@ -0,0 +1,46 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.server.utilities;
+
+import java.io.ByteArrayOutputStream;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import fedora.server.storage.types.ContentDigest;
+
+public class TestDigestingOutputStream
+        extends TestCase {
+
+    private static final byte[] FOO = new byte[] { 0x66, 0x6f, 0x6f };
+
+    public void testDigests() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DigestingOutputStream out =
+                new DigestingOutputStream(bytes, Arrays.asList("MD5", "SHA-1"));
+        out.write(FOO[0]);
+        out.write(FOO, 1, 2);
+        out.close();
+
+        assertTrue(Arrays.equals(FOO, bytes.toByteArray()));
+        ContentDigest digest = out.getDigest();
+        assertEquals(3, digest.getSize());
+        assertEquals("acbd18db4cc2f85cedef654fccc4a4d8", digest.getChecksum("MD5"));
+        assertEquals("0beec7b5ea3f0fdbc95d0dd47f3c5bc275da8a33",
+                     digest.getChecksum("SHA-1"));
+        assertNull(digest.getChecksum("SHA-256"));
+        assertSame(digest, out.getDigest());
+    }
+
+    public void testNoAlgorithms() throws Exception {
+        DigestingOutputStream out =
+                new DigestingOutputStream(new ByteArrayOutputStream(),
+                                          Arrays.<String> asList());
+        out.write(FOO);
+        assertEquals(3, out.getDigest().getSize());
+        assertNull(out.getDigest().getChecksum("MD5"));
+    }
+}
@@ -5,9 +5,12 @@
 package fedora.utilities;
 
 import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
 
 import org.junit.Test;
 
+import fedora.server.utilities.StringUtility;
+
 /**
  * Unit tests for Base64 utility class.
  */
@@ -41,6 +44,24 @@ public class TestBase64 extends junit.framework.TestCase {
                      Base64.encodeToString(new ByteArrayInputStream(FOO_BYTES)));
     }
 
+    @Test
+    public void testEncodeInputStreamToLines() throws Exception {
+        // lengths around the line and internal buffer boundaries
+        int[] lengths = new int[] { 0, 1, 59, 60, 61, 120, 3071, 3072, 3073, 10000 };
+        for (int length : lengths) {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = (byte) (i * 31);
+            }
+            StringWriter out = new StringWriter();
+            Base64.encode(new ByteArrayInputStream(bytes), out, 2, 80);
+            assertEquals("Wrong encoding of " + length + " bytes",
+                         StringUtility.splitAndIndent(Base64
+                                 .encodeToString(bytes), 2, 80),
+                         out.toString());
+        }
+    }
+
     @Test
     public void testDecodeByteArray() {
         assertTrue(sameBytes(FOO_BYTES, Base64.decode(FOO_BYTES_ENCODED)));
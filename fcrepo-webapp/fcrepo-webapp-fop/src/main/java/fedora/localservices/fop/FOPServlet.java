@@ -7,8 +7,14 @@ package fedora.localservices.fop;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -16,6 +22,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
@@ -33,12 +40,27 @@ import org.apache.fop.apps.FopFactory;
 import org.apache.fop.apps.MimeConstants;
 
 /**
- * Servlet for generating and serving a PDF, given the URL to an XSL-FO file.
+ * Servlet for generating and serving a PDF, given the URL to an XSL-FO file,
+ * or the URLs of an XML file and of a stylesheet that transforms it to
+ * XSL-FO.
  * 
- * Servlet param is:
+ * Servlet params are:
  * <ul>
  * <li>source: the path to a formatting object file to render
+ * <li>xml, xslt: the paths to an XML file and a stylesheet to apply to it
  * </ul>
+ * 
+ * Init params are:
+ * <ul>
+ * <li>userConfig: the path to a FOP configuration file (e.g. for fonts),
+ * loaded once at startup
+ * <li>stylesheetCacheSize: the number of compiled stylesheets to keep
+ * (default 100)
+ * <li>stylesheetRevalidateSeconds: how long a compiled stylesheet is used
+ * before it is checked for changes by ETag or Last-Modified (default 10)
+ * </ul>
+ * 
+ * The time taken by each stage of a request is logged at debug level.
  */
 public class FOPServlet
         extends HttpServlet {
@@ -60,6 +82,13 @@ public class FOPServlet
     protected FopFactory fopFactory = null;
     /** URIResolver for use by this servlet */
     protected URIResolver uriResolver = null; 
+    /** Compiled stylesheets, by URL */
+    protected StylesheetCache stylesheetCache = null;
+
+    /** Default number of compiled stylesheets to keep */
+    private static final int DEFAULT_CACHE_SIZE = 100;
+    /** Default time before a cached stylesheet is checked for changes */
+    private static final int DEFAULT_REVALIDATE_SECONDS = 10;
 
     /**
      * {@inheritDoc}
@@ -71,11 +100,43 @@ public class FOPServlet
         this.transFactory = TransformerFactory.newInstance();
         this.transFactory.setURIResolver(this.uriResolver);
         
-        //Configure FopFactory as desired
+        this.stylesheetCache =
+                new StylesheetCache(this.transFactory,
+                                    new StylesheetFetcher(),
+                                    getIntParameter("stylesheetCacheSize",
+                                                    DEFAULT_CACHE_SIZE),
+                                    getIntParameter("stylesheetRevalidateSeconds",
+                                                    DEFAULT_REVALIDATE_SECONDS) * 1000L);
+
+        //Configure FopFactory as desired. It is shared by all requests, so
+        //the user configuration (including fonts) is only read once.
         this.fopFactory = FopFactory.newInstance();
         this.fopFactory.setURIResolver(this.uriResolver);
+        String userConfig = getInitParameter("userConfig");
+        if (userConfig != null) {
+            try {
+                this.fopFactory.setUserConfig(new File(userConfig));
+            } catch (Exception e) {
+                throw new ServletException("Error reading FOP configuration "
+                        + userConfig, e);
+            }
+        }
         configureFopFactory();
     }
+
+    private int getIntParameter(String name, int defaultValue)
+            throws ServletException {
+        String value = getInitParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ServletException("Bad value for " + name
+                    + " parameter: " + value);
+        }
+    }
     
     /**
      * This method is called right after the FopFactory is instantiated and can be overridden
@@ -101,8 +162,7 @@ public class FOPServlet
             if (foParam != null) {
                 renderFO(foParam, response);
             } else if ((xmlParam != null) && (xsltParam != null)) {
-                // Note: Not current supported but may be added in a future release. DWD
-                //renderXML(xmlParam, xsltParam, response);
+                renderXML(xmlParam, xsltParam, response);
             } else {
                 response.setContentType("text/html");
                 PrintWriter out = response.getWriter();
@@ -154,6 +214,7 @@ public class FOPServlet
      */
     protected void renderFO(String fo, HttpServletResponse response)
                 throws FOPException, TransformerException, IOException {
+        StylesheetCache.Timings timings = new StylesheetCache.Timings();
 
         //Setup source
         Source foSrc = convertString2Source(fo);
@@ -164,6 +225,10 @@ public class FOPServlet
 
         //Start transformation and rendering process
         render(foSrc, transformer, response);
+        timings.stage("render");
+        if (log.isDebugEnabled()) {
+            log.debug("Rendered " + fo + ": " + timings);
+        }
     }
 
     /**
@@ -181,17 +246,88 @@ public class FOPServlet
      */
     protected void renderXML(String xml, String xslt, HttpServletResponse response)
                 throws FOPException, TransformerException, IOException {
+        StylesheetCache.Timings timings = new StylesheetCache.Timings();
 
-        //Setup sources
-        Source xmlSrc = convertString2Source(xml);
-        Source xsltSrc = convertString2Source(xslt);
-
-        //Setup the XSL transformation
-        Transformer transformer = this.transFactory.newTransformer(xsltSrc);
+        //Setup the XSL transformation, compiling the stylesheet only if it
+        //is not cached or has changed
+        Templates templates;
+        try {
+            templates = this.stylesheetCache.get(xslt, timings);
+        } catch (TransformerException e) {
+            throw e;
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new TransformerException(e);
+        }
+        Transformer transformer = templates.newTransformer();
         transformer.setURIResolver(this.uriResolver);
 
-        //Start transformation and rendering process
+        //Setup source
+        timings.skip();
+        Source xmlSrc = convertString2Source(xml);
+        timings.stage("fetch-source");
+
+        //Start transformation and rendering process. FOP renders the
+        //XSL-FO as the transformation produces it, so the two overlap.
         render(xmlSrc, transformer, response);
+        timings.stage("transform+render");
+        if (log.isDebugEnabled()) {
+            log.debug("Rendered " + xml + " with " + xslt + ": " + timings);
+        }
+    }
+
+    /**
+     * Gets stylesheets from URLs or file paths, as convertString2Source
+     * does, but conditionally: HTTP requests carry the ETag and Last-Modified
+     * values of the cached copy, and other URLs are compared by their
+     * last-modified time.
+     */
+    private class StylesheetFetcher
+            implements StylesheetCache.Fetcher {
+
+        public StylesheetCache.Stylesheet fetch(String location,
+                                                String eTag,
+                                                String lastModified)
+                throws Exception {
+            URL url;
+            try {
+                url = new URL(location);
+            } catch (MalformedURLException e) {
+                url = new File(location).toURI().toURL();
+            }
+            URLConnection conn = url.openConnection();
+            boolean cached = eTag != null || lastModified != null;
+            if (eTag != null) {
+                conn.setRequestProperty("If-None-Match", eTag);
+            }
+            if (lastModified != null) {
+                conn.setRequestProperty("If-Modified-Since", lastModified);
+            }
+            if (conn instanceof HttpURLConnection) {
+                HttpURLConnection http = (HttpURLConnection) conn;
+                int code = http.getResponseCode();
+                if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached) {
+                    http.disconnect();
+                    return null;
+                }
+                if (code != HttpURLConnection.HTTP_OK) {
+                    http.disconnect();
+                    throw new IOException("Got status code " + code
+                            + " while attempting to GET " + location);
+                }
+            }
+            String newETag = conn.getHeaderField("ETag");
+            String newLastModified = conn.getHeaderField("Last-Modified");
+            InputStream in = conn.getInputStream();
+            if (!(conn instanceof HttpURLConnection) && lastModified != null
+                    && lastModified.equals(newLastModified)) {
+                in.close();
+                return null;
+            }
+            return new StylesheetCache.Stylesheet(new StreamSource(in, url
+                    .toString()), newETag, newLastModified);
+        }
     }
 
     /**
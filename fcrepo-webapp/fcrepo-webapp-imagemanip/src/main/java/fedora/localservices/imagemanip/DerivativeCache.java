@@ -0,0 +1,135 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.localservices.imagemanip;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An in-memory, least-recently-used cache of manipulated images.
+ *
+ * <p>Entries are keyed by the source URL and the manipulation parameters, and
+ * remember the ETag and Last-Modified values of the source image they were
+ * made from, so that they can be revalidated against the source with a
+ * conditional request instead of fetching and decoding it again.
+ */
+class DerivativeCache {
+
+    private final long m_maxBytes;
+
+    private final long m_maxEntryBytes;
+
+    private long m_bytes;
+
+    private final LinkedHashMap<String, Entry> m_entries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxBytes
+     *        the total size of the images to keep; zero disables the cache.
+     */
+    DerivativeCache(long maxBytes) {
+        m_maxBytes = maxBytes;
+        m_maxEntryBytes = maxBytes / 4;
+    }
+
+    /**
+     * Gets the key for a source image and the given manipulation parameters,
+     * given as name, value pairs. Null parameters are left out, and values
+     * are prefixed with their length so that no two requests share a key.
+     */
+    static String getKey(String url, String... params) {
+        StringBuffer key = new StringBuffer(url);
+        for (int i = 0; i < params.length; i += 2) {
+            if (params[i + 1] != null) {
+                key.append(' ');
+                key.append(params[i]);
+                key.append('=');
+                key.append(params[i + 1].length());
+                key.append(':');
+                key.append(params[i + 1]);
+            }
+        }
+        return key.toString();
+    }
+
+    synchronized Entry get(String key) {
+        return m_entries.get(key);
+    }
+
+    /**
+     * Adds an entry, replacing any previous entry for the key. Entries that
+     * cannot be revalidated, or that are too large, are not kept.
+     */
+    synchronized void put(String key, Entry entry) {
+        remove(key);
+        if (entry.getETag() == null && entry.getLastModified() == null) {
+            return;
+        }
+        if (entry.getData().length > m_maxEntryBytes) {
+            return;
+        }
+        m_entries.put(key, entry);
+        m_bytes += entry.getData().length;
+        Iterator<Map.Entry<String, Entry>> iter =
+                m_entries.entrySet().iterator();
+        while (m_bytes > m_maxBytes && iter.hasNext()) {
+            m_bytes -= iter.next().getValue().getData().length;
+            iter.remove();
+        }
+    }
+
+    synchronized void remove(String key) {
+        Entry old = m_entries.remove(key);
+        if (old != null) {
+            m_bytes -= old.getData().length;
+        }
+    }
+
+    synchronized int size() {
+        return m_entries.size();
+    }
+
+    /**
+     * A manipulated image, and the validators of the source image it was made
+     * from.
+     */
+    static class Entry {
+
+        private final String m_eTag;
+
+        private final String m_lastModified;
+
+        private final String m_mimeType;
+
+        private final byte[] m_data;
+
+        Entry(String eTag, String lastModified, String mimeType, byte[] data) {
+            m_eTag = eTag;
+            m_lastModified = lastModified;
+            m_mimeType = mimeType;
+            m_data = data;
+        }
+
+        String getETag() {
+            return m_eTag;
+        }
+
+        String getLastModified() {
+            return m_lastModified;
+        }
+
+        String getMimeType() {
+            return m_mimeType;
+        }
+
+        byte[] getData() {
+            return m_data;
+        }
+    }
+}
@@ -58,26 +58,46 @@ import java.awt.Color;
 import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import javax.media.jai.JAI;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.methods.GetMethod;
 
 import com.sun.media.jai.codec.BMPEncodeParam;
+import com.sun.media.jai.codec.FileSeekableStream;
 import com.sun.media.jai.codec.ImageCodec;
 import com.sun.media.jai.codec.ImageEncodeParam;
 import com.sun.media.jai.codec.JPEGEncodeParam;
-import com.sun.media.jai.codec.MemoryCacheSeekableStream;
 import com.sun.media.jai.codec.PNGEncodeParam;
 import com.sun.media.jai.codec.TIFFEncodeParam;
 
@@ -88,6 +108,11 @@ import com.sun.media.jai.codec.TIFFEncodeParam;
  * 
  * <p>After the image is manipulated, it is then sent back as an image/type
  * object to the calling parent, most often a browser or an HTML img tag.
+ *
+ * <p>Manipulated images are cached, and revalidated against the source image
+ * on each request. Images are decoded and manipulated by a fixed number of
+ * workers, so that only a bounded number of decoded images are in memory at
+ * once.
  * 
  * @author Theodore Serbinski
  */
@@ -96,15 +121,84 @@ public class ImageManipulation
 
     private static final long serialVersionUID = 1L;
 
-    private String inputMimeType;
+    private static final int DEFAULT_QUEUED_REQUESTS = 20;
 
-    private boolean alreadyConvertedToRGB = false;
+    private static final int DEFAULT_QUEUE_SECONDS = 60;
+
+    private static final int DEFAULT_CACHE_BYTES = 16 * 1024 * 1024;
 
     private final MultiThreadedHttpConnectionManager cManager =
             new MultiThreadedHttpConnectionManager();
 
+    private ThreadPoolExecutor workers;
+
+    private long queueTimeoutMillis;
+
+    private DerivativeCache cache;
+
+    /**
+     * Sets up the worker pool and the derivative cache.
+     *
+     * <p>The init parameters are maxWorkers, the number of images decoded and
+     * manipulated at a time (default: the number of processors),
+     * maxQueuedRequests, the number of requests that may wait for a worker
+     * (default 20), queueTimeoutSeconds, how long a request may wait for its
+     * image (default 60), and cacheBytes, the total size of the manipulated
+     * images kept in memory (default 16MB; 0 disables the cache). Requests
+     * that cannot be queued or that time out get a 503 response.
+     */
+    @Override
+    public void init() throws ServletException {
+        System.setProperty("java.awt.headless", "true");
+        cManager.getParams().setConnectionTimeout(20000);
+        int maxWorkers =
+                getIntParameter("maxWorkers", Runtime.getRuntime()
+                        .availableProcessors());
+        int maxQueued =
+                getIntParameter("maxQueuedRequests", DEFAULT_QUEUED_REQUESTS);
+        queueTimeoutMillis =
+                getIntParameter("queueTimeoutSeconds", DEFAULT_QUEUE_SECONDS) * 1000L;
+        workers =
+                new ThreadPoolExecutor(Math.max(maxWorkers, 1),
+                                       Math.max(maxWorkers, 1),
+                                       0L,
+                                       TimeUnit.MILLISECONDS,
+                                       new ArrayBlockingQueue<Runnable>(Math
+                                               .max(maxQueued, 1)));
+        cache = new DerivativeCache(getIntParameter("cacheBytes",
+                                                    DEFAULT_CACHE_BYTES));
+    }
+
+    private int getIntParameter(String name, int defaultValue)
+            throws ServletException {
+        String value = getInitParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int i = Integer.parseInt(value.trim());
+            if (i < 0) {
+                throw new NumberFormatException(value);
+            }
+            return i;
+        } catch (NumberFormatException e) {
+            throw new ServletException("Bad value for " + name
+                    + " parameter: " + value);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        workers.shutdownNow();
+        cManager.shutdown();
+    }
+
     /**
      * Method automatically called by browser to handle image manipulations.
+     *
+     * <p>The source image is fetched on the request thread, revalidating any
+     * cached result with a conditional request, and the decoding and
+     * manipulation is handed to the worker pool.
      * 
      * @param req
      *        Browser request to servlet res Response sent back to browser after
@@ -116,7 +210,6 @@ public class ImageManipulation
     @Override
     public void doGet(HttpServletRequest req, HttpServletResponse res)
             throws ServletException, IOException {
-    	System.setProperty("java.awt.headless", "true");
         // collect all possible parameters for servlet
         String url = req.getParameter("url");
         String op = req.getParameter("op");
@@ -132,13 +225,174 @@ public class ImageManipulation
         if (convertTo != null) {
             convertTo = convertTo.toLowerCase();
         }
+        SourceImage source = null;
         try {
             if (op == null) {
                 throw new ServletException("op parameter not specified.");
             }
+            if (url == null) {
+                throw new ServletException("url parameter not specified.");
+            }
+            String key =
+                    DerivativeCache.getKey(url,
+                                           "op",
+                                           op,
+                                           "newWidth",
+                                           newWidth,
+                                           "brightAmt",
+                                           brightAmt,
+                                           "zoomAmt",
+                                           zoomAmt,
+                                           "wmText",
+                                           wmText,
+                                           "cropX",
+                                           cropX,
+                                           "cropY",
+                                           cropY,
+                                           "cropWidth",
+                                           cropWidth,
+                                           "cropHeight",
+                                           cropHeight,
+                                           "convertTo",
+                                           convertTo);
+            DerivativeCache.Entry derivative = cache.get(key);
+            source = getImage(url, derivative);
+            if (source != null) {
+                // the source is new or changed, so the image must be made
+                Future<DerivativeCache.Entry> result;
+                try {
+                    result =
+                            workers.submit(new Manipulation(source,
+                                                            op,
+                                                            newWidth,
+                                                            brightAmt,
+                                                            zoomAmt,
+                                                            wmText,
+                                                            cropX,
+                                                            cropY,
+                                                            cropWidth,
+                                                            cropHeight,
+                                                            convertTo));
+                } catch (RejectedExecutionException e) {
+                    sendBusy(res, "Too many image manipulation requests "
+                            + "are waiting.");
+                    return;
+                }
+                try {
+                    derivative =
+                            result.get(queueTimeoutMillis,
+                                       TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    result.cancel(true);
+                    sendBusy(res, "Timed out waiting for the image "
+                            + "manipulation.");
+                    return;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw new ServletException(e.getCause());
+                }
+                cache.put(key, derivative);
+            }
+            byte[] data = derivative.getData();
+            res.setContentType(derivative.getMimeType());
+            res.setContentLength(data.length);
+            OutputStream out = res.getOutputStream();
+            out.write(data);
+            out.flush();
+            out.close();
+        } catch (Exception e) {
+            log("Image manipulation failed for " + url, e);
+            res.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e
+                    .getClass().getName()
+                    + ": " + e.getMessage());
+        } finally {
+            if (source != null) {
+                source.file.delete();
+            }
+        }
+    }
+
+    private static void sendBusy(HttpServletResponse res, String message)
+            throws IOException {
+        res.setHeader("Retry-After", "10");
+        res.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, message);
+    }
+
+    /**
+     * Decodes a source image and applies a manipulation to it. Runs in the
+     * worker pool.
+     */
+    private class Manipulation
+            implements Callable<DerivativeCache.Entry> {
+
+        private final SourceImage source;
+
+        private final String op;
+
+        private final String newWidth;
+
+        private final String brightAmt;
+
+        private final String zoomAmt;
+
+        private final String wmText;
+
+        private final String cropX;
+
+        private final String cropY;
+
+        private final String cropWidth;
+
+        private final String cropHeight;
+
+        private final String convertTo;
+
+        Manipulation(SourceImage source,
+                     String op,
+                     String newWidth,
+                     String brightAmt,
+                     String zoomAmt,
+                     String wmText,
+                     String cropX,
+                     String cropY,
+                     String cropWidth,
+                     String cropHeight,
+                     String convertTo) {
+            this.source = source;
+            this.op = op;
+            this.newWidth = newWidth;
+            this.brightAmt = brightAmt;
+            this.zoomAmt = zoomAmt;
+            this.wmText = wmText;
+            this.cropX = cropX;
+            this.cropY = cropY;
+            this.cropWidth = cropWidth;
+            this.cropHeight = cropHeight;
+            this.convertTo = convertTo;
+        }
+
+        public DerivativeCache.Entry call() throws Exception {
             String outputMimeType;
-            // get the image via url and put it into the ImagePlus processor.
-            BufferedImage img = getImage(url);
+            boolean alreadyConvertedToRGB = false;
+            boolean alreadyCropped = false;
+            // decode only what resize and crop need, where the codec allows
+            BufferedImage img = null;
+            if (op.equals("resize")) {
+                img = readScaled(source.file, parseInt(newWidth));
+            } else if (op.equals("crop")) {
+                img =
+                        readRegion(source.file,
+                                   cropX,
+                                   cropY,
+                                   cropWidth,
+                                   cropHeight);
+                alreadyCropped = img != null;
+            }
+            if (img == null) {
+                img = source.read();
+            }
             // do watermarking stuff
             if (op.equals("watermark")) {
                 if (wmText == null) {
@@ -168,7 +422,7 @@ public class ImageManipulation
             }
             ImageProcessor ip = new ImagePlus("temp", img).getProcessor();
             // if the inputMimeType is image/gif, need to convert to RGB in any case
-            if (inputMimeType.equals("image/gif")) {
+            if (source.mimeType.equals("image/gif")) {
                 ip = ip.convertToRGB();
                 alreadyConvertedToRGB = true;
             }
@@ -186,11 +440,13 @@ public class ImageManipulation
                 } else if (op.equals("grayscale")) {
                     ip = grayscale(ip);
                 } else if (op.equals("crop")) {
-                    ip = crop(ip, cropX, cropY, cropWidth, cropHeight);
+                    if (!alreadyCropped) {
+                        ip = crop(ip, cropX, cropY, cropWidth, cropHeight);
+                    }
                 } else {
                     throw new ServletException("Invalid operation: " + op);
                 }
-                outputMimeType = inputMimeType;
+                outputMimeType = source.mimeType;
             } else {
                 if (convertTo == null) {
                     throw new ServletException("Neither op nor convertTo was specified.");
@@ -209,48 +465,61 @@ public class ImageManipulation
                     throw new ServletException("Invalid format: " + convertTo);
                 }
             }
-            res.setContentType(outputMimeType);
-            BufferedOutputStream out =
-                    new BufferedOutputStream(res.getOutputStream());
-            outputImage(ip, out, outputMimeType);
-            out.flush();
-            out.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-            res.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e
-                    .getClass().getName()
-                    + ": " + e.getMessage());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            outputImage(ip, out, outputMimeType, alreadyConvertedToRGB);
+            return new DerivativeCache.Entry(source.eTag,
+                                             source.lastModified,
+                                             outputMimeType,
+                                             out.toByteArray());
         }
     }
 
     /**
-     * Gets and deserializes the image at the given URL into an Image object.
-     * This method also sets the inputMimeType based on the HTTP Content-Type
-     * header so that, if the image needs to be returned in it's original
-     * format, the correct mime type can be sent in the response header. If the
-     * input image is not a gif, jpg, tiff, bmp, or png (according to the http
-     * response header), or some other kind of error occurs while reading the
-     * stream from the remote host, a ServletException is thrown.
+     * Gets the image at the given URL and saves it to a temporary file. The
+     * mime type of the image is taken from the HTTP Content-Type header so
+     * that, if the image needs to be returned in it's original format, the
+     * correct mime type can be sent in the response header. If the input image
+     * is not a gif, jpg, tiff, bmp, or png (according to the http response
+     * header), or some other kind of error occurs while reading the stream
+     * from the remote host, a ServletException is thrown.
      * 
      * @param url
      *        The location of the input image.
-     * @return Image The image object, if successful.
+     * @param cached
+     *        The cached result for this request, if any, whose validators are
+     *        sent with the request.
+     * @return The image, or null if the cached result is still current.
      * @throws Exception
      *         If any of the aforementioned problems occurs.
      */
-    private BufferedImage getImage(String url) throws Exception {
+    private SourceImage getImage(String url, DerivativeCache.Entry cached)
+            throws Exception {
         GetMethod get = null;
         try {
-            cManager.getParams().setConnectionTimeout(20000);
             HttpClient client = new HttpClient(cManager);
             get = new GetMethod(url);
             get.setFollowRedirects(true);
+            if (cached != null) {
+                if (cached.getETag() != null) {
+                    get.setRequestHeader("If-None-Match", cached.getETag());
+                }
+                if (cached.getLastModified() != null) {
+                    get.setRequestHeader("If-Modified-Since", cached
+                            .getLastModified());
+                }
+            }
             int resultCode = client.executeMethod(get);
+            if (resultCode == HttpStatus.SC_NOT_MODIFIED && cached != null) {
+                return null;
+            }
             if (resultCode != 200) {
                 throw new ServletException("Could not load image: " + url
                         + ".  Errorcode " + resultCode + " from remote server.");
             }
-            inputMimeType = get.getResponseHeader("Content-Type").getValue();
+            String inputMimeType = getHeader(get, "Content-Type");
+            if (inputMimeType == null) {
+                inputMimeType = "";
+            }
             if (inputMimeType.equals("image/gif")
                     || inputMimeType.equals("image/jpeg")
                     || inputMimeType.equals("image/tiff")
@@ -264,27 +533,195 @@ public class ImageManipulation
                 // commonly supported with this
                 // mime type, even though it's not
                 // an IANA-registered image type
-                return JAI.create("stream",
-                                  new MemoryCacheSeekableStream(get
-                                          .getResponseBodyAsStream()))
-                        .getAsBufferedImage();
+                File file = File.createTempFile("imagemanip", null);
+                try {
+                    InputStream in = get.getResponseBodyAsStream();
+                    OutputStream out =
+                            new BufferedOutputStream(new FileOutputStream(file));
+                    try {
+                        byte[] buf = new byte[8192];
+                        int len;
+                        while ((len = in.read(buf)) != -1) {
+                            out.write(buf, 0, len);
+                        }
+                    } finally {
+                        out.close();
+                    }
+                } catch (IOException e) {
+                    file.delete();
+                    throw e;
+                }
+                return new SourceImage(file,
+                                       inputMimeType,
+                                       getHeader(get, "ETag"),
+                                       getHeader(get, "Last-Modified"));
             } else {
                 throw new ServletException("Source image was not a gif, png, "
                         + "bmp, tiff, or jpg.");
             }
-        } catch (Exception e) {
-            throw e;
         } finally {
             if (get != null) {
                 get.releaseConnection();
             }
         }
+    }
+
+    private static String getHeader(GetMethod get, String name) {
+        Header header = get.getResponseHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    /**
+     * A source image, saved to a temporary file, and the validators that came
+     * with it.
+     */
+    private static class SourceImage {
+
+        final File file;
+
+        final String mimeType;
+
+        final String eTag;
+
+        final String lastModified;
+
+        SourceImage(File file,
+                    String mimeType,
+                    String eTag,
+                    String lastModified) {
+            this.file = file;
+            this.mimeType = mimeType;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Decodes the whole image.
+         */
+        BufferedImage read() throws IOException {
+            FileSeekableStream in = new FileSeekableStream(file);
+            try {
+                return JAI.create("stream", in).getAsBufferedImage();
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Decodes an image at no less than the given width, reading only every
+     * nth pixel if the image is more than twice as wide.
+     * 
+     * @return the image, or null if the width is not positive or if no
+     *         ImageIO reader can decode the image.
+     */
+    private static BufferedImage readScaled(File file, int width) {
+        if (width <= 0) {
+            return null;
+        }
+        return readPartial(file, width, null, null, null, null);
+    }
+
+    /**
+     * Decodes only the given region of an image. The parameters are those
+     * of crop(), and the region is clipped to the image.
+     * 
+     * @return the region, or null if the parameters do not give a region of
+     *         the image or if no ImageIO reader can decode the image.
+     */
+    private static BufferedImage readRegion(File file,
+                                            String cropX,
+                                            String cropY,
+                                            String cropWidth,
+                                            String cropHeight) {
+        if (cropX == null || cropY == null) {
+            return null;
+        }
+        return readPartial(file, -1, cropX, cropY, cropWidth, cropHeight);
+    }
+
+    private static BufferedImage readPartial(File file,
+                                             int width,
+                                             String cropX,
+                                             String cropY,
+                                             String cropWidth,
+                                             String cropHeight) {
+        ImageInputStream in = null;
+        ImageReader reader = null;
+        try {
+            in = ImageIO.createImageInputStream(file);
+            if (in == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            reader = readers.next();
+            reader.setInput(in, true, true);
+            int imgWidth = reader.getWidth(0);
+            int imgHeight = reader.getHeight(0);
+            ImageReadParam param = reader.getDefaultReadParam();
+            if (width > 0) {
+                int step = imgWidth / width;
+                if (step < 2) {
+                    return null;
+                }
+                param.setSourceSubsampling(step, step, 0, 0);
+            } else {
+                int x = parseInt(cropX);
+                int y = parseInt(cropY);
+                int w = cropWidth == null ? imgWidth : parseInt(cropWidth);
+                int h = cropHeight == null ? imgHeight : parseInt(cropHeight);
+                if (x < 0 || y < 0 || w < 0 || h < 0) {
+                    return null;
+                }
+                Rectangle region =
+                        new Rectangle(x, y, w, h)
+                                .intersection(new Rectangle(0,
+                                                            0,
+                                                            imgWidth,
+                                                            imgHeight));
+                if (region.isEmpty()) {
+                    return null;
+                }
+                param.setSourceRegion(region);
+            }
+            return reader.read(0, param);
+        } catch (IOException e) {
+            // leave it to JAI
+            return null;
+        } finally {
+            if (reader != null) {
+                reader.dispose();
+            }
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
 
+    /**
+     * Parses a parameter, giving -1 if it is missing or not a number.
+     */
+    private static int parseInt(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
 
     private void outputImage(ImageProcessor ip,
                              OutputStream out,
-                             String outputMimeType) throws Exception {
+                             String outputMimeType,
+                             boolean alreadyConvertedToRGB) throws Exception {
         if (outputMimeType.equals("image/gif")) {
             if (!alreadyConvertedToRGB) {
                 ip = ip.convertToRGB();
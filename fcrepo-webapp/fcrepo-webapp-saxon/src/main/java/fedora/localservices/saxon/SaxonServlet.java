@@ -32,17 +32,25 @@ import javax.xml.transform.stream.StreamSource;
 import net.sf.saxon.FeatureKeys;
 import net.sf.saxon.value.StringValue;
 
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 /**
  * A service that transforms a supplied input document using a supplied
  * stylesheet, with stylesheet caching. Adapted from the SaxonServlet.java
  * example file contained in the source distribution of "The SAXON XSLT
  * Processor from Michael Kay".
+ * <p>
+ * Compiled stylesheets are kept in a bounded cache and revalidated by ETag
+ * or Last-Modified. The time taken by each stage of a request is logged at
+ * debug level.
  * 
  * <pre>
  * -----------------------------------------------------------------------------
@@ -72,8 +80,16 @@ public class SaxonServlet
     /** start string for a servlet config parameter name that gives creds */
     private final String CRED_PARAM_START = "credentials for ";
 
-    /** urlString-to-Templates map of cached stylesheets */
-    private Map<String, Templates> m_cache;
+    /** default number of compiled stylesheets to keep */
+    private static final int DEFAULT_CACHE_SIZE = 100;
+
+    /** default time before a cached stylesheet is checked for changes */
+    private static final int DEFAULT_REVALIDATE_SECONDS = 10;
+
+    private static final Log LOG = LogFactory.getLog(SaxonServlet.class);
+
+    /** cache of compiled stylesheets, by url */
+    private StylesheetCache m_cache;
 
     /** pathString-to-Credentials map of configured credentials */
     private Map<String, UsernamePasswordCredentials> m_creds;
@@ -84,10 +100,28 @@ public class SaxonServlet
     /**
      * Initialize the servlet by setting up the stylesheet cache, the http
      * connection manager, and configuring credentials for the http client.
+     * <p>
+     * The stylesheetCacheSize init parameter gives the number of compiled
+     * stylesheets to keep (default 100), and stylesheetRevalidateSeconds
+     * how long a cached stylesheet is used before it is checked for changes
+     * (default 10).
      */
     @Override
     public void init(ServletConfig config) throws ServletException {
-        m_cache = new HashMap<String, Templates>();
+        super.init(config);
+        TransformerFactory factory = TransformerFactory.newInstance();
+        if (factory.getClass().getName().equals("net.sf.saxon.TransformerFactoryImpl")) {
+            factory.setAttribute(FeatureKeys.VERSION_WARNING, Boolean.FALSE);
+        }
+        m_cache =
+                new StylesheetCache(factory,
+                                    new StylesheetFetcher(),
+                                    getIntParameter(config,
+                                                    "stylesheetCacheSize",
+                                                    DEFAULT_CACHE_SIZE),
+                                    getIntParameter(config,
+                                                    "stylesheetRevalidateSeconds",
+                                                    DEFAULT_REVALIDATE_SECONDS) * 1000L);
         m_creds = new HashMap<String, UsernamePasswordCredentials>();
         m_cManager = new MultiThreadedHttpConnectionManager();
         m_cManager.getParams().setConnectionTimeout(TIMEOUT_SECONDS * 1000);
@@ -139,9 +173,7 @@ public class SaxonServlet
         String clear = req.getParameter("clear-stylesheet-cache");
 
         if (clear != null && clear.equals("yes")) {
-            synchronized (m_cache) {
-                m_cache = new HashMap<String, Templates>();
-            }
+            m_cache.clear();
         }
 
         try {
@@ -183,10 +215,11 @@ public class SaxonServlet
             throw new TransformerException("No source parameter supplied");
         }
 
+        StylesheetCache.Timings timings = new StylesheetCache.Timings();
         InputStream sourceStream = null;
         try {
             // Load the stylesheet (adding to cache if necessary)
-            Templates pss = tryCache(style);
+            Templates pss = m_cache.get(style, timings);
             Transformer transformer = pss.newTransformer();
 
             Enumeration<?> p = req.getParameterNames();
@@ -199,7 +232,9 @@ public class SaxonServlet
             }
 
             // Start loading the document to be transformed
+            timings.skip();
             sourceStream = getInputStream(source);
+            timings.stage("fetch-source");
 
             // Set the appropriate output mime type
             String mime =
@@ -215,7 +250,10 @@ public class SaxonServlet
             StreamSource ss = new StreamSource(sourceStream);
             ss.setSystemId(source);
             transformer.transform(ss, new StreamResult(res.getOutputStream()));
-
+            timings.stage("transform");
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Applied " + style + " to " + source + ": " + timings);
+            }
         } finally {
             if (sourceStream != null) {
                 try {
@@ -228,25 +266,57 @@ public class SaxonServlet
     }
 
     /**
-     * Maintain prepared stylesheets in memory for reuse
+     * Gets stylesheets using the configured credentials (if any).
      */
-    private Templates tryCache(String url) throws Exception {
-        Templates x = (Templates) m_cache.get(url);
-        if (x == null) {
-            synchronized (m_cache) {
-                if (!m_cache.containsKey(url)) {
-                    TransformerFactory factory = TransformerFactory.newInstance();
-                    if (factory.getClass().getName().equals("net.sf.saxon.TransformerFactoryImpl")) {
-                        factory.setAttribute(FeatureKeys.VERSION_WARNING, Boolean.FALSE);
-                    }
-                    StreamSource ss = new StreamSource(getInputStream(url));
-                    ss.setSystemId(url);
-                    x = factory.newTemplates(ss);
-                    m_cache.put(url, x);
-                }
+    private class StylesheetFetcher
+            implements StylesheetCache.Fetcher {
+
+        public StylesheetCache.Stylesheet fetch(String url,
+                                                String eTag,
+                                                String lastModified)
+                throws Exception {
+            GetMethod getMethod = new GetMethod(url);
+            if (eTag != null) {
+                getMethod.setRequestHeader("If-None-Match", eTag);
+            }
+            if (lastModified != null) {
+                getMethod.setRequestHeader("If-Modified-Since", lastModified);
+            }
+            HttpInputStream in = open(getMethod, url);
+            if (in.getStatusCode() == HttpStatus.SC_NOT_MODIFIED
+                    && (eTag != null || lastModified != null)) {
+                in.close();
+                return null;
             }
+            checkStatus(in, url);
+            StreamSource ss = new StreamSource(in);
+            ss.setSystemId(url);
+            return new StylesheetCache.Stylesheet(ss,
+                                                  getHeader(in, "ETag"),
+                                                  getHeader(in,
+                                                            "Last-Modified"));
+        }
+    }
+
+    private static String getHeader(HttpInputStream in, String name) {
+        Header header = in.getResponseHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    private static int getIntParameter(ServletConfig config,
+                                       String name,
+                                       int defaultValue)
+            throws ServletException {
+        String value = config.getInitParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ServletException("Bad value for " + name
+                    + " parameter: " + value);
         }
-        return x;
     }
 
     /**
@@ -254,7 +324,16 @@ public class SaxonServlet
      * (if any).
      */
     private InputStream getInputStream(String url) throws Exception {
-        GetMethod getMethod = new GetMethod(url);
+        HttpInputStream in = open(new GetMethod(url), url);
+        checkStatus(in, url);
+        return in;
+    }
+
+    /**
+     * Execute the given request using the configured credentials (if any).
+     */
+    private HttpInputStream open(GetMethod getMethod, String url)
+            throws Exception {
         HttpClient client = new HttpClient(m_cManager);
         UsernamePasswordCredentials creds = getCreds(url);
         if (creds != null) {
@@ -263,7 +342,14 @@ public class SaxonServlet
             getMethod.setDoAuthentication(true);
         }
         getMethod.setFollowRedirects(true);
-        HttpInputStream in = new HttpInputStream(client, getMethod, url);
+        return new HttpInputStream(client, getMethod, url);
+    }
+
+    /**
+     * Close the stream and fail unless the request succeeded.
+     */
+    private static void checkStatus(HttpInputStream in, String url)
+            throws IOException {
         if (in.getStatusCode() != 200) {
             try {
                 in.close();
@@ -272,8 +358,6 @@ public class SaxonServlet
             throw new IOException("HTTP request failed.  Got status code "
                     + in.getStatusCode()
                     + " from remote server while attempting to GET " + url);
-        } else {
-            return in;
         }
     }
 
@@ -0,0 +1,238 @@
+/* The contents of this file are subject to the license and copyright terms
+ * detailed in the license directory at the root of the source tree (also
+ * available online at http://fedora-commons.org/license/).
+ */
+package fedora.localservices.saxon;
+
+import java.io.InputStream;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A size-bounded, least-recently-used cache of compiled stylesheets, keyed by
+ * URL.
+ * <p>
+ * A cached stylesheet is revalidated against its URL, with the ETag or
+ * Last-Modified value it was fetched with, when it has not been checked for
+ * revalidateMillis. It is only fetched and compiled again if it has changed.
+ * Stylesheets that came without either value are kept until they are evicted
+ * or the cache is cleared.
+ */
+class StylesheetCache {
+
+    private static final Log LOG = LogFactory.getLog(StylesheetCache.class);
+
+    private final TransformerFactory m_factory;
+
+    private final Fetcher m_fetcher;
+
+    private final long m_revalidateMillis;
+
+    private final Map<String, Entry> m_entries;
+
+    /**
+     * Creates a cache.
+     *
+     * @param factory
+     *        the factory used to compile stylesheets.
+     * @param fetcher
+     *        gets stylesheets from their URLs.
+     * @param maxEntries
+     *        the number of stylesheets to keep.
+     * @param revalidateMillis
+     *        how long a stylesheet is used before it is checked for changes.
+     */
+    StylesheetCache(TransformerFactory factory,
+                    Fetcher fetcher,
+                    final int maxEntries,
+                    long revalidateMillis) {
+        m_factory = factory;
+        m_fetcher = fetcher;
+        m_revalidateMillis = revalidateMillis;
+        m_entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Gets the compiled stylesheet at the given URL, fetching and compiling it
+     * if it is not cached or has changed.
+     *
+     * @param url
+     *        the URL of the stylesheet.
+     * @param timings
+     *        where the time spent fetching and compiling is recorded.
+     */
+    Templates get(String url, Timings timings) throws Exception {
+        Entry entry;
+        synchronized (m_entries) {
+            entry = m_entries.get(url);
+        }
+        long now = System.currentTimeMillis();
+        if (entry != null
+                && (!entry.canRevalidate() || now - entry.checked < m_revalidateMillis)) {
+            return entry.templates;
+        }
+
+        Stylesheet stylesheet;
+        if (entry == null) {
+            stylesheet = m_fetcher.fetch(url, null, null);
+        } else {
+            stylesheet = m_fetcher.fetch(url, entry.eTag, entry.lastModified);
+        }
+        timings.stage("fetch");
+        if (stylesheet == null) {
+            // unchanged
+            entry.checked = now;
+            return entry.templates;
+        }
+
+        Templates templates;
+        try {
+            synchronized (m_factory) {
+                templates = m_factory.newTemplates(stylesheet.source);
+            }
+        } finally {
+            InputStream in = stylesheet.source.getInputStream();
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (Exception e) {
+                    LOG.debug("Error closing stylesheet " + url, e);
+                }
+            }
+        }
+        timings.stage("compile");
+        synchronized (m_entries) {
+            m_entries.put(url, new Entry(templates,
+                                         stylesheet.eTag,
+                                         stylesheet.lastModified,
+                                         now));
+        }
+        return templates;
+    }
+
+    /**
+     * Removes all stylesheets from the cache.
+     */
+    void clear() {
+        synchronized (m_entries) {
+            m_entries.clear();
+        }
+    }
+
+    /**
+     * Gets stylesheets from their URLs.
+     */
+    interface Fetcher {
+
+        /**
+         * Gets the stylesheet at the given URL, unless it has not changed
+         * since the cached copy was fetched.
+         *
+         * @param eTag
+         *        the ETag of the cached copy, or null.
+         * @param lastModified
+         *        the Last-Modified value of the cached copy, or null.
+         * @return the stylesheet, or null if it has not changed.
+         */
+        Stylesheet fetch(String url, String eTag, String lastModified)
+                throws Exception;
+    }
+
+    /**
+     * A fetched stylesheet, and the values it can be revalidated with.
+     */
+    static class Stylesheet {
+
+        final StreamSource source;
+
+        final String eTag;
+
+        final String lastModified;
+
+        Stylesheet(StreamSource source, String eTag, String lastModified) {
+            this.source = source;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private static class Entry {
+
+        final Templates templates;
+
+        final String eTag;
+
+        final String lastModified;
+
+        volatile long checked;
+
+        Entry(Templates templates,
+              String eTag,
+              String lastModified,
+              long checked) {
+            this.templates = templates;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.checked = checked;
+        }
+
+        boolean canRevalidate() {
+            return eTag != null || lastModified != null;
+        }
+    }
+
+    /**
+     * The time taken by each stage of a request.
+     */
+    static class Timings {
+
+        private final StringBuffer m_stages = new StringBuffer();
+
+        private long m_last = System.currentTimeMillis();
+
+        /**
+         * Records the time since the previous stage ended as the time taken
+         * by the given stage.
+         */
+        void stage(String name) {
+            long now = System.currentTimeMillis();
+            if (m_stages.length() > 0) {
+                m_stages.append(", ");
+            }
+            m_stages.append(name);
+            m_stages.append('=');
+            m_stages.append(now - m_last);
+            m_stages.append("ms");
+            m_last = now;
+        }
+
+        /**
+         * Starts timing the next stage now, so that the time since the
+         * previous stage is not counted.
+         */
+        void skip() {
+            m_last = System.currentTimeMillis();
+        }
+
+        @Override
+        public String toString() {
+            return m_stages.toString();
+        }
+    }
+}